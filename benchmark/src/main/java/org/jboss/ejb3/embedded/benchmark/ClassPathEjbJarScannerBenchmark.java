@@ -0,0 +1,239 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.ejb3.embedded.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.ejb3.embedded.benchmark.SyntheticClassPathGenerator.GeneratedClassPath;
+import org.jboss.ejb3.embedded.benchmark.SyntheticClassPathGenerator.Layout;
+import org.jboss.ejb3.embedded.impl.base.scanner.ClassPathEjbJarScanner;
+import org.jboss.ejb3.embedded.impl.base.scanner.ScannerConfiguration;
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbModuleIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Benchmarks scanning of a ClassPath generated by the {@link SyntheticClassPathGenerator}
+ * for throughput and, sampled, latency.  Run from the shaded JAR:
+ * 
+ * <pre>
+ * java -jar benchmark/target/benchmarks.jar ClassPathEjbJarScannerBenchmark -prof gc
+ * </pre>
+ * 
+ * where "-prof gc" reports the allocation rate; {@link #main(String[])} always 
+ * does.  The shape of the ClassPath is set with "-p", ie. "-p layout=NESTED", 
+ * and any other {@link ScannerConfiguration} property with "-jvmArgsAppend", 
+ * ie. "-jvmArgsAppend -Dorg.jboss.ejb3.embedded.scan.pipelined=true".
+ * 
+ * The generated files will likely be in the page cache, so this measures 
+ * the scanner rather than the disk.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(
+{Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+public class ClassPathEjbJarScannerBenchmark
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * System property key of the ClassPath scanned
+    */
+   private static final String SYS_PROP_KEY_CLASS_PATH = "java.class.path";
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Number of ClassPath entries
+    */
+   @Param("100")
+   public int entries;
+
+   /**
+    * Number of classes in each entry
+    */
+   @Param("500")
+   public int classesPerEntry;
+
+   /**
+    * Fraction of all classes which are EJB components
+    */
+   @Param("0.0001")
+   public double ejbFraction;
+
+   /**
+    * Form of each entry
+    */
+   @Param(
+   {"JAR", "EXPLODED", "NESTED"})
+   public Layout layout;
+
+   /**
+    * Scanning Threads
+    */
+   @Param(
+   {"1", "4"})
+   public int threads;
+
+   /**
+    * ClassPath under scan
+    */
+   private GeneratedClassPath classPath;
+
+   /**
+    * ClassPath of this JVM, restored upon tear down
+    */
+   private String originalClassPath;
+
+   /**
+    * Configuration of each scan
+    */
+   private ScannerConfiguration configuration;
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Generates the ClassPath and makes it that of this JVM; classes of the
+    * benchmark are already loaded, or are loaded by the unaffected application
+    * ClassLoader
+    */
+   @Setup(Level.Trial)
+   public void setUp() throws IOException
+   {
+      final File directory = File.createTempFile("scanner-benchmark", "");
+      if (!directory.delete())
+      {
+         throw new IOException("Could not delete " + directory);
+      }
+      classPath = new SyntheticClassPathGenerator(entries, classesPerEntry, ejbFraction, layout)
+            .generate(directory);
+      originalClassPath = System.getProperty(SYS_PROP_KEY_CLASS_PATH);
+      System.setProperty(SYS_PROP_KEY_CLASS_PATH, classPath.getClassPath());
+
+      // Scan only what we generated
+      final Map<String, Object> properties = new HashMap<String, Object>();
+      properties.put(ScannerConfiguration.PROPERTY_THREADS, threads);
+      properties.put(ScannerConfiguration.PROPERTY_DISCOVER, false);
+      properties.put(ScannerConfiguration.PROPERTY_NESTED, layout == Layout.NESTED);
+      configuration = new ScannerConfiguration(properties);
+
+      // Don't benchmark a scan which is wrong
+      final String[] ejbJars = ClassPathEjbJarScanner.getEjbJars(configuration);
+      if (ejbJars.length != classPath.getEjbJars().size())
+      {
+         throw new IllegalStateException("Expected " + classPath.getEjbJars().size() + " EJB JARs of " + classPath
+               + " but found " + Arrays.asList(ejbJars));
+      }
+   }
+
+   /**
+    * Restores the ClassPath and deletes that generated
+    */
+   @TearDown(Level.Trial)
+   public void tearDown() throws IOException
+   {
+      if (originalClassPath != null)
+      {
+         System.setProperty(SYS_PROP_KEY_CLASS_PATH, originalClassPath);
+      }
+      if (classPath != null)
+      {
+         classPath.delete();
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Benchmarks -------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Scans for EJB JARs, stopping at the first component of each, as upon
+    * {@link javax.ejb.embeddable.EJBContainer} creation
+    */
+   @Benchmark
+   public String[] getEjbJars()
+   {
+      return ClassPathEjbJarScanner.getEjbJars(configuration);
+   }
+
+   /**
+    * Scans for all components of each EJB JAR
+    */
+   @Benchmark
+   public List<EjbModuleIndex> getEjbModuleIndexes()
+   {
+      return ClassPathEjbJarScanner.getEjbModuleIndexes(configuration);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Main -------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Runs all benchmarks of this class with the default parameters,
+    * reporting the allocation rate
+    */
+   public static void main(final String[] args) throws RunnerException
+   {
+      final Options options = new OptionsBuilder().include(ClassPathEjbJarScannerBenchmark.class.getName())
+            .addProfiler(GCProfiler.class).build();
+      new Runner(options).run();
+   }
+
+}
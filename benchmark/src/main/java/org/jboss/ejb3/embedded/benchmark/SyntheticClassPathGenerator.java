@@ -0,0 +1,501 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.ejb3.embedded.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbComponentType;
+
+/**
+ * Generates synthetic ClassPaths upon which to benchmark the scanner: 
+ * a number of entries, each holding a number of classes, a fraction of 
+ * which are EJB components.  Entries may be JARs, exploded directories, or
+ * JARs whose classes are in a JAR nested within.
+ * 
+ * EJB components are spread evenly across all classes of the ClassPath, so 
+ * for small fractions only some entries are EJB JARs, as with an application
+ * amongst its libraries.  Class files are minimal but valid, and have a 
+ * constant pool of the size typical of application classes.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class SyntheticClassPathGenerator
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Package of the generated classes, in internal form; suffixed by the entry
+    */
+   private static final String PACKAGE = "org/jboss/ejb3/embedded/benchmark/generated/entry";
+
+   /**
+    * Name of the entry holding the classes of a {@link Layout#NESTED} JAR
+    */
+   private static final String NAME_NESTED_JAR = "lib/module.jar";
+
+   /**
+    * Class file version; JDK6
+    */
+   private static final int MAJOR_VERSION = 50;
+
+   /**
+    * ACC_PUBLIC | ACC_SUPER
+    */
+   private static final int ACCESS_FLAGS = 0x0021;
+
+   /*
+    * Constant pool tags
+    */
+   private static final int CONSTANT_UTF8 = 1;
+
+   private static final int CONSTANT_CLASS = 7;
+
+   /**
+    * Number of member names and descriptors padding each constant pool
+    */
+   private static final int PADDING_CONSTANTS = 40;
+
+   /**
+    * Annotation making a component of the EJB classes
+    */
+   private static final String DESCRIPTOR_EJB = EjbComponentType.STATELESS.getDescriptor();
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Number of ClassPath entries
+    */
+   private final int entries;
+
+   /**
+    * Number of classes in each entry
+    */
+   private final int classesPerEntry;
+
+   /**
+    * Fraction of all classes which are EJB components
+    */
+   private final double ejbFraction;
+
+   /**
+    * Form of each entry
+    */
+   private final Layout layout;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new generator of ClassPaths of the specified shape
+    * 
+    * @param entries Number of ClassPath entries
+    * @param classesPerEntry Number of classes in each entry
+    * @param ejbFraction Fraction, from 0 to 1, of all classes which are EJB components
+    * @param layout Form of each entry
+    * @throws IllegalArgumentException If any argument is out of range or not specified
+    */
+   public SyntheticClassPathGenerator(final int entries, final int classesPerEntry, final double ejbFraction,
+         final Layout layout) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (entries < 1)
+      {
+         throw new IllegalArgumentException("entries must be positive");
+      }
+      if (classesPerEntry < 0)
+      {
+         throw new IllegalArgumentException("classesPerEntry must not be negative");
+      }
+      if (!(ejbFraction >= 0 && ejbFraction <= 1))
+      {
+         throw new IllegalArgumentException("ejbFraction must be from 0 to 1");
+      }
+      if (layout == null)
+      {
+         throw new IllegalArgumentException("layout must be specified");
+      }
+
+      this.entries = entries;
+      this.classesPerEntry = classesPerEntry;
+      this.ejbFraction = ejbFraction;
+      this.layout = layout;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Writes the ClassPath into the specified directory, which is created if needed
+    * 
+    * @param directory
+    * @throws IllegalArgumentException If the directory is not specified
+    * @throws IOException If the ClassPath could not be written
+    */
+   public GeneratedClassPath generate(final File directory) throws IllegalArgumentException, IOException
+   {
+      // Precondition checks
+      if (directory == null)
+      {
+         throw new IllegalArgumentException("directory must be specified");
+      }
+      if (!directory.isDirectory() && !directory.mkdirs())
+      {
+         throw new IOException("Could not create " + directory);
+      }
+
+      final List<File> all = new ArrayList<File>(entries);
+      final List<File> ejbJars = new ArrayList<File>();
+      for (int entry = 0; entry < entries; entry++)
+      {
+         // Obtain all class files of the entry
+         final String packageName = PACKAGE + entry + "/";
+         final List<String> names = new ArrayList<String>(classesPerEntry);
+         final List<byte[]> classFiles = new ArrayList<byte[]>(classesPerEntry);
+         boolean ejbJar = false;
+         for (int i = 0; i < classesPerEntry; i++)
+         {
+            final boolean ejb = this.isEjb((long) entry * classesPerEntry + i);
+            final String className = packageName + (ejb ? "Bean" : "Class") + i;
+            names.add(className + ".class");
+            classFiles.add(classFile(className, ejb ? DESCRIPTOR_EJB : null));
+            ejbJar |= ejb;
+         }
+
+         // Write them
+         final File file;
+         switch (layout)
+         {
+            case EXPLODED :
+               file = new File(directory, "entry" + entry);
+               writeDirectory(file, names, classFiles);
+               break;
+            case NESTED :
+               file = new File(directory, "entry" + entry + ".jar");
+               final ByteArrayOutputStream nested = new ByteArrayOutputStream();
+               writeJar(nested, names, classFiles);
+               writeJar(new FileOutputStream(file), Collections.singletonList(NAME_NESTED_JAR), Collections
+                     .singletonList(nested.toByteArray()));
+               break;
+            default :
+               file = new File(directory, "entry" + entry + ".jar");
+               writeJar(new FileOutputStream(file), names, classFiles);
+         }
+         all.add(file);
+         if (ejbJar)
+         {
+            ejbJars.add(file);
+         }
+      }
+
+      return new GeneratedClassPath(directory, all, ejbJars);
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return this.getClass().getSimpleName() + " [entries=" + entries + ", classesPerEntry=" + classesPerEntry
+            + ", ejbFraction=" + ejbFraction + ", layout=" + layout + "]";
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Determines whether the class of the specified index over the whole ClassPath
+    * is an EJB component, such that they're evenly spread
+    */
+   private boolean isEjb(final long index)
+   {
+      return (long) Math.floor((index + 1) * ejbFraction) > (long) Math.floor(index * ejbFraction);
+   }
+
+   /**
+    * Writes the specified files as a JAR to the specified stream, which is closed
+    */
+   private static void writeJar(final OutputStream out, final List<String> names, final List<byte[]> contents)
+         throws IOException
+   {
+      final Manifest manifest = new Manifest();
+      manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+      final JarOutputStream jar = new JarOutputStream(out, manifest);
+      try
+      {
+         for (int i = 0; i < names.size(); i++)
+         {
+            jar.putNextEntry(new JarEntry(names.get(i)));
+            jar.write(contents.get(i));
+            jar.closeEntry();
+         }
+      }
+      finally
+      {
+         jar.close();
+      }
+   }
+
+   /**
+    * Writes the specified files under the specified directory
+    */
+   private static void writeDirectory(final File directory, final List<String> names, final List<byte[]> contents)
+         throws IOException
+   {
+      for (int i = 0; i < names.size(); i++)
+      {
+         final File file = new File(directory, names.get(i));
+         final File parent = file.getParentFile();
+         if (!parent.isDirectory() && !parent.mkdirs())
+         {
+            throw new IOException("Could not create " + parent);
+         }
+         final OutputStream out = new FileOutputStream(file);
+         try
+         {
+            out.write(contents.get(i));
+         }
+         finally
+         {
+            out.close();
+         }
+      }
+   }
+
+   /**
+    * Obtains the class file of a public class of the specified internal name
+    * extending Object, bearing the annotation of the specified descriptor, if any
+    */
+   static byte[] classFile(final String internalName, final String annotationDescriptor)
+   {
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+      final DataOutputStream out = new DataOutputStream(bytes);
+      try
+      {
+         // Header
+         out.writeInt(0xCAFEBABE);
+         out.writeShort(0);
+         out.writeShort(MAJOR_VERSION);
+
+         // Constant pool; 1-based
+         final int annotations = annotationDescriptor == null ? 0 : 2;
+         out.writeShort(1 + 4 + annotations + PADDING_CONSTANTS);
+         out.writeByte(CONSTANT_UTF8);
+         out.writeUTF(internalName); // #1
+         out.writeByte(CONSTANT_CLASS);
+         out.writeShort(1); // #2
+         out.writeByte(CONSTANT_UTF8);
+         out.writeUTF("java/lang/Object"); // #3
+         out.writeByte(CONSTANT_CLASS);
+         out.writeShort(3); // #4
+         if (annotationDescriptor != null)
+         {
+            out.writeByte(CONSTANT_UTF8);
+            out.writeUTF("RuntimeVisibleAnnotations"); // #5
+            out.writeByte(CONSTANT_UTF8);
+            out.writeUTF(annotationDescriptor); // #6
+         }
+         for (int i = 0; i < PADDING_CONSTANTS; i++)
+         {
+            out.writeByte(CONSTANT_UTF8);
+            out.writeUTF(i % 2 == 0 ? "member" + i : "(Ljava/lang/String;I)Ljava/lang/Object;");
+         }
+
+         // Class
+         out.writeShort(ACCESS_FLAGS);
+         out.writeShort(2);
+         out.writeShort(4);
+         out.writeShort(0); // interfaces
+         out.writeShort(0); // fields
+         out.writeShort(0); // methods
+
+         // Attributes
+         if (annotationDescriptor == null)
+         {
+            out.writeShort(0);
+         }
+         else
+         {
+            out.writeShort(1);
+            out.writeShort(5);
+            out.writeInt(6);
+            out.writeShort(1); // num_annotations
+            out.writeShort(6); // type_index
+            out.writeShort(0); // num_element_value_pairs
+         }
+         out.flush();
+      }
+      catch (final IOException ioe)
+      {
+         throw new RuntimeException("Could not write to memory", ioe);
+      }
+      return bytes.toByteArray();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Form of each generated ClassPath entry
+    */
+   public enum Layout {
+      /**
+       * JAR holding its classes
+       */
+      JAR,
+
+      /**
+       * Directory holding its classes
+       */
+      EXPLODED,
+
+      /**
+       * JAR holding only a JAR, which holds the classes; the EJB JAR 
+       * is found only when nested archives are scanned
+       */
+      NESTED
+   }
+
+   /**
+    * A ClassPath written by the generator
+    */
+   public static final class GeneratedClassPath
+   {
+      /**
+       * Directory holding all entries
+       */
+      private final File directory;
+
+      /**
+       * All entries, in order
+       */
+      private final List<File> entries;
+
+      /**
+       * Entries holding one or more EJB components, in order
+       */
+      private final List<File> ejbJars;
+
+      private GeneratedClassPath(final File directory, final List<File> entries, final List<File> ejbJars)
+      {
+         this.directory = directory;
+         this.entries = Collections.unmodifiableList(entries);
+         this.ejbJars = Collections.unmodifiableList(ejbJars);
+      }
+
+      /**
+       * Obtains all entries, in order
+       */
+      public List<File> getEntries()
+      {
+         return entries;
+      }
+
+      /**
+       * Obtains the entries holding one or more EJB components, in order
+       */
+      public List<File> getEjbJars()
+      {
+         return ejbJars;
+      }
+
+      /**
+       * Obtains the value of "java.class.path" naming all entries
+       */
+      public String getClassPath()
+      {
+         final StringBuilder sb = new StringBuilder();
+         for (final File entry : entries)
+         {
+            if (sb.length() > 0)
+            {
+               sb.append(File.pathSeparatorChar);
+            }
+            sb.append(entry.getAbsolutePath());
+         }
+         return sb.toString();
+      }
+
+      /**
+       * Deletes the directory holding all entries
+       * 
+       * @throws IOException If any file could not be deleted
+       */
+      public void delete() throws IOException
+      {
+         delete(directory);
+      }
+
+      private static void delete(final File file) throws IOException
+      {
+         final File[] children = file.listFiles();
+         if (children != null)
+         {
+            for (final File child : children)
+            {
+               delete(child);
+            }
+         }
+         if (file.exists() && !file.delete())
+         {
+            throw new IOException("Could not delete " + file);
+         }
+      }
+
+      /**
+       * {@inheritDoc}
+       * @see java.lang.Object#toString()
+       */
+      @Override
+      public String toString()
+      {
+         return this.getClass().getSimpleName() + " [entries=" + entries.size() + ", ejbJars=" + ejbJars.size()
+               + "]";
+      }
+   }
+
+}
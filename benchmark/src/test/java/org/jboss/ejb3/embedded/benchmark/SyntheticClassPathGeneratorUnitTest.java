@@ -0,0 +1,199 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.ejb3.embedded.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.ejb3.embedded.benchmark.SyntheticClassPathGenerator.GeneratedClassPath;
+import org.jboss.ejb3.embedded.benchmark.SyntheticClassPathGenerator.Layout;
+import org.jboss.ejb3.embedded.impl.base.scanner.ClassPathEjbJarScanner;
+import org.jboss.ejb3.embedded.impl.base.scanner.ScannerConfiguration;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Ensures that the {@link SyntheticClassPathGenerator} spreads EJB components
+ * as configured, and that the scanner finds exactly the EJB JARs it reports 
+ * in each {@link Layout}, such that benchmarks measure a correct scan
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class SyntheticClassPathGeneratorUnitTest
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * System property key of the ClassPath scanned
+    */
+   private static final String SYS_PROP_KEY_CLASS_PATH = "java.class.path";
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures that a small fraction of EJB components makes EJB JARs of only
+    * some entries, evenly spread
+    */
+   @Test
+   public void spreadsEjbComponentsEvenly() throws IOException
+   {
+      final GeneratedClassPath classPath = new SyntheticClassPathGenerator(10, 50, 0.01, Layout.JAR)
+            .generate(createDirectory());
+      try
+      {
+         final List<File> expected = new ArrayList<File>();
+         for (int i = 1; i < 10; i += 2)
+         {
+            expected.add(classPath.getEntries().get(i));
+         }
+         Assert.assertEquals(10, classPath.getEntries().size());
+         Assert.assertEquals(expected, classPath.getEjbJars());
+      }
+      finally
+      {
+         classPath.delete();
+      }
+   }
+
+   /**
+    * Ensures that no fraction makes no EJB JARs, and a whole one makes all
+    */
+   @Test
+   public void honorsBoundsOfEjbFraction() throws IOException
+   {
+      final GeneratedClassPath none = new SyntheticClassPathGenerator(3, 20, 0, Layout.JAR)
+            .generate(createDirectory());
+      final GeneratedClassPath all = new SyntheticClassPathGenerator(3, 20, 1, Layout.JAR)
+            .generate(createDirectory());
+      try
+      {
+         Assert.assertTrue(none.getEjbJars().isEmpty());
+         Assert.assertEquals(all.getEntries(), all.getEjbJars());
+      }
+      finally
+      {
+         none.delete();
+         all.delete();
+      }
+   }
+
+   /**
+    * Ensures that the scanner finds the EJB JARs of generated JARs
+    */
+   @Test
+   public void scansJars() throws IOException
+   {
+      this.assertScanned(Layout.JAR);
+   }
+
+   /**
+    * Ensures that the scanner finds the EJB JARs of generated directories
+    */
+   @Test
+   public void scansExplodedDirectories() throws IOException
+   {
+      this.assertScanned(Layout.EXPLODED);
+   }
+
+   /**
+    * Ensures that the scanner finds the EJB JARs nested within generated JARs
+    */
+   @Test
+   public void scansNestedJars() throws IOException
+   {
+      this.assertScanned(Layout.NESTED);
+   }
+
+   /**
+    * Ensures that a fraction greater than whole is rejected
+    */
+   @Test(expected = IllegalArgumentException.class)
+   public void rejectsEjbFractionOutOfRange()
+   {
+      new SyntheticClassPathGenerator(1, 1, 1.5, Layout.JAR);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Scans a ClassPath of the specified layout, ensuring that exactly 
+    * the EJB JARs reported by the generator are found
+    */
+   private void assertScanned(final Layout layout) throws IOException
+   {
+      final GeneratedClassPath classPath = new SyntheticClassPathGenerator(6, 30, 0.05, layout)
+            .generate(createDirectory());
+      final String originalClassPath = System.getProperty(SYS_PROP_KEY_CLASS_PATH);
+      try
+      {
+         System.setProperty(SYS_PROP_KEY_CLASS_PATH, classPath.getClassPath());
+         final Map<String, Object> properties = new HashMap<String, Object>();
+         properties.put(ScannerConfiguration.PROPERTY_DISCOVER, false);
+         properties.put(ScannerConfiguration.PROPERTY_NESTED, layout == Layout.NESTED);
+         final List<String> found = Arrays.asList(ClassPathEjbJarScanner.getEjbJars(new ScannerConfiguration(
+               properties)));
+
+         // Nested modules are named by the path within their entry
+         final List<String> expected = new ArrayList<String>();
+         for (final File ejbJar : classPath.getEjbJars())
+         {
+            expected.add(ejbJar.getAbsolutePath() + (layout == Layout.NESTED ? "!/lib/module.jar" : ""));
+         }
+         Assert.assertFalse("Test ClassPath should hold EJB JARs", expected.isEmpty());
+         Assert.assertEquals("EJB JARs of " + layout + " ClassPath not as expected", expected, found);
+      }
+      finally
+      {
+         System.setProperty(SYS_PROP_KEY_CLASS_PATH, originalClassPath);
+         classPath.delete();
+      }
+   }
+
+   /**
+    * Obtains a new directory in which to generate a ClassPath
+    */
+   private static File createDirectory() throws IOException
+   {
+      final File directory = File.createTempFile(SyntheticClassPathGeneratorUnitTest.class.getSimpleName(), "");
+      if (!directory.delete())
+      {
+         throw new IOException("Could not delete " + directory);
+      }
+      return directory;
+   }
+
+}
@@ -42,7 +42,7 @@ public class JBossASEJBContainerProvider extends JBossEJBContainerProviderBase
    @Override
    public EJBContainer createEJBContainer(final JBossEmbeddedContainerStartupParams params)
    {
-      return new JBossASEmbeddedEJBContainer(params.getProperties(), params.getModules());
+      return new JBossASEmbeddedEJBContainer(params);
    }
 
 }
@@ -24,6 +24,7 @@ package org.jboss.ejb3.embedded.impl.as;
 import java.util.Map;
 
 import org.jboss.ejb3.embedded.impl.base.JBossEJBContainerBase;
+import org.jboss.ejb3.embedded.impl.base.JBossEmbeddedContainerStartupParams;
 
 /**
  * 
@@ -39,9 +40,17 @@ public final class JBossASEmbeddedEJBContainer extends JBossEJBContainerBase
       super(properties, EmbeddedEJBContainerASAdaptor.getMCServer(), modules);
    }
 
+   public JBossASEmbeddedEJBContainer(final JBossEmbeddedContainerStartupParams params)
+   {
+      super(EmbeddedEJBContainerASAdaptor.getMCServer(), params);
+   }
+
    @Override
    public void close()
    {
+      // Release our own resources, such as the ClassPath scanner
+      super.close();
+
       // TODO 
 
       /*
@@ -21,11 +21,17 @@
  */
 package org.jboss.ejb3.embedded.impl.base;
 
+import java.io.IOException;
+import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -39,11 +45,16 @@ import org.jboss.bootstrap.api.mc.server.MCServer;
 import org.jboss.deployers.client.spi.Deployment;
 import org.jboss.deployers.client.spi.main.MainDeployer;
 import org.jboss.deployers.spi.DeploymentException;
+import org.jboss.deployers.spi.attachments.Attachments;
+import org.jboss.deployers.spi.attachments.MutableAttachments;
 import org.jboss.deployers.vfs.spi.client.VFSDeployment;
 import org.jboss.deployers.vfs.spi.client.VFSDeploymentFactory;
 import org.jboss.ejb3.embedded.api.EJBDeploymentException;
 import org.jboss.ejb3.embedded.impl.base.scanner.ClassPathEjbJarScanner;
+import org.jboss.ejb3.embedded.impl.base.scanner.ScanStatistics;
 import org.jboss.ejb3.embedded.spi.JBossEJBContainerProvider;
+import org.jboss.ejb3.embedded.spi.scanner.EjbJarScanner;
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbModuleIndex;
 import org.jboss.kernel.Kernel;
 import org.jboss.logging.Logger;
 import org.jboss.vfs.VFS;
@@ -90,11 +101,74 @@ public abstract class JBossEJBContainerBase extends EJBContainer implements JBos
     */
    private final Map<URL, Deployment> deployments;
 
+   /**
+    * Indexes of modules produced in scanning, keyed by the VFS path name of the module
+    */
+   private final Map<String, EjbModuleIndex> moduleIndexes;
+
+   /**
+    * Scanner of the ClassPath owned by this container, or null if none
+    */
+   private final EjbJarScanner scanner;
+
+   /**
+    * Whether modules discovered by the scanner are indexed in full, their indexes attached
+    */
+   private final boolean annotationIndex;
+
+   /**
+    * Mounts of the modules discovered nested within archives, released along with this container
+    */
+   private final ModuleMounts moduleMounts;
+
    //-------------------------------------------------------------------------------------||
    // Constructor ------------------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
 
+   /**
+    * Creates a new instance for the specified explicit modules
+    * 
+    * @param properties
+    * @param server
+    * @param modules
+    * @throws IllegalArgumentException If the modules are those of startup parameters whose
+    * scan is pending, which only {@link #JBossEJBContainerBase(MCBasedServer, JBossEmbeddedContainerStartupParams)}
+    * is able to deploy
+    */
    protected JBossEJBContainerBase(final Map<?, ?> properties, final MCBasedServer<?, ?> server, final String[] modules)
+         throws IllegalArgumentException
+   {
+      this(properties, server, assertScanNotPending(modules), Collections.<EjbModuleIndex> emptyList(), null,
+            false, false);
+   }
+
+   /**
+    * Creates a new instance from the specified parameters.  Any module indexes
+    * produced in scanning will be attached to the deployments of their modules,
+    * and the scanner will be closed along with this container.  If the ClassPath
+    * is yet to be scanned ({@link JBossEmbeddedContainerStartupParams#isScanPending()}),
+    * it is scanned here, each module found being deployed as soon as it is discovered
+    * while the scan goes on; should the scan or a deployment fail, the scanner is closed.
+    * Modules found nested within archives are extracted to temporary files and mounted
+    * to be deployed, and remain so until the container is closed.
+    * 
+    * @param server
+    * @param params
+    */
+   protected JBossEJBContainerBase(final MCBasedServer<?, ?> server, final JBossEmbeddedContainerStartupParams params)
+   {
+      this(params.getProperties(), server, params.getModules(), params.getModuleIndexes(), params.getScanner(),
+            params.isAnnotationIndex(), params.isScanPending());
+   }
+
+   protected JBossEJBContainerBase(final Map<?, ?> properties, final MCServer server)
+   {
+      this(server, new JBossEmbeddedContainerStartupParams(properties, null));
+   }
+
+   private JBossEJBContainerBase(final Map<?, ?> properties, final MCBasedServer<?, ?> server,
+         final String[] modules, final Collection<EjbModuleIndex> moduleIndexes, final EjbJarScanner scanner,
+         final boolean annotationIndex, final boolean scanPending)
    {
       // Precondition checks
       if (server == null)
@@ -110,17 +184,42 @@ public abstract class JBossEJBContainerBase extends EJBContainer implements JBos
       assert mainDeployer != null : "MainDeployer found in Kernel was null";
 
       log.info("Started JBoss Embedded " + EJBContainer.class.getSimpleName());
-      log.info("Modules for deployment: " + Arrays.asList(modules));
+      if (modules != null && !scanPending)
+      {
+         log.info("Modules for deployment: " + Arrays.asList(modules));
+      }
 
       // Set
       this.mcServer = server;
       this.deployer = mainDeployer;
       this.deployments = new HashMap<URL, Deployment>();
-   }
+      this.moduleIndexes = new HashMap<String, EjbModuleIndex>();
+      if (moduleIndexes != null)
+      {
+         for (final EjbModuleIndex moduleIndex : moduleIndexes)
+         {
+            this.moduleIndexes.put(ModuleMounts.getFile(moduleIndex.getPath()).getPathName(), moduleIndex);
+         }
+      }
+      this.scanner = scanner;
+      this.annotationIndex = annotationIndex;
+      this.moduleMounts = new ModuleMounts();
 
-   protected JBossEJBContainerBase(final Map<?, ?> properties, final MCServer server)
-   {
-      this(properties, server, ClassPathEjbJarScanner.getEjbJars());
+      // Deploy modules as they're discovered if the scan has been left to us
+      if (scanPending)
+      {
+         try
+         {
+            this.deployDiscoveredModules();
+         }
+         catch (final RuntimeException re)
+         {
+            // This container won't be returned to be closed
+            moduleMounts.close();
+            scanner.close();
+            throw re;
+         }
+      }
    }
 
    //-------------------------------------------------------------------------------------||
@@ -163,18 +262,7 @@ public abstract class JBossEJBContainerBase extends EJBContainer implements JBos
          catch (final DeploymentException mainDeploymentException)
          {
             // Remove the pending deployments
-            for (final Deployment pending : deploymentsAdded)
-            {
-               try
-               {
-                  deployer.removeDeployment(pending);
-               }
-               catch (final DeploymentException pendingDeploymentRemovalException)
-               {
-                  log.warn("Could not back out pending deployment due to " + pendingDeploymentRemovalException
-                        + " while handing deployment error: " + mainDeploymentException);
-               }
-            }
+            this.backOut(deploymentsAdded, mainDeploymentException);
 
             // Translate exception to our API
             throw EJBDeploymentException
@@ -183,15 +271,7 @@ public abstract class JBossEJBContainerBase extends EJBContainer implements JBos
       }
 
       // Process and ensure everything's OK
-      deployer.process();
-      try
-      {
-         deployer.checkComplete();
-      }
-      catch (final DeploymentException e)
-      {
-         throw EJBDeploymentException.newInstance("Processing the pending deployments resulted in error", e);
-      }
+      this.processPending();
    }
 
    /**
@@ -273,6 +353,7 @@ public abstract class JBossEJBContainerBase extends EJBContainer implements JBos
             throw new RuntimeException("Could not create a virtual file to deploy from URL: " + url, urise);
          }
          final VFSDeployment deployment = VFSDeploymentFactory.getInstance().createVFSDeployment(root);
+         this.attachModuleIndex(deployment, root);
          newDeployments.put(url, deployment);
       }
 
@@ -342,6 +423,35 @@ public abstract class JBossEJBContainerBase extends EJBContainer implements JBos
       return mcServer;
    }
 
+   /**
+    * Returns the statistics of the ClassPath scan made in starting this 
+    * container, identifying where the time went in finding the EJB modules, 
+    * or null if no scan was made (ie. modules were specified explicitly) or the scanner
+    * is not the {@link ClassPathEjbJarScanner}
+    * @see ScanStatistics#writeJson(java.io.Writer)
+    */
+   public ScanStatistics getScanStatistics()
+   {
+      return scanner instanceof ClassPathEjbJarScanner ? ((ClassPathEjbJarScanner) scanner).getStatistics() : null;
+   }
+
+   /**
+    * {@inheritDoc}
+    * Releases the resources of the ClassPath scanner owned by this container, if any,
+    * and the mounts of any modules it discovered nested within archives.
+    * Extensions are to call this implementation from their own.
+    * @see javax.ejb.embeddable.EJBContainer#close()
+    */
+   @Override
+   public void close()
+   {
+      moduleMounts.close();
+      if (scanner != null)
+      {
+         scanner.close();
+      }
+   }
+
    /**
     * {@inheritDoc}
     * @see javax.ejb.embeddable.EJBContainer#getContext()
@@ -360,4 +470,188 @@ public abstract class JBossEJBContainerBase extends EJBContainer implements JBos
       }
    }
 
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures the specified modules are not those of startup parameters whose scan
+    * is pending, which would otherwise silently deploy nothing, returning them
+    * @throws IllegalArgumentException If the scan of the modules is pending
+    */
+   private static String[] assertScanNotPending(final String[] modules) throws IllegalArgumentException
+   {
+      if (JBossEmbeddedContainerStartupParams.isScanPending(modules))
+      {
+         throw new IllegalArgumentException("Modules of " + JBossEmbeddedContainerStartupParams.class.getSimpleName()
+               + " whose ClassPath scan is pending can only be deployed by a container created from the parameters "
+               + "themselves");
+      }
+      return modules;
+   }
+
+   /**
+    * Scans the ClassPath using the scanner owned by this container, deploying
+    * each module as soon as it has been discovered such that deployment of the
+    * modules found so far overlaps the remainder of the scan.  The scan is made
+    * upon a Thread of its own, while the modules are deployed upon this one; 
+    * the deployments are checked for completeness once the scan is complete,
+    * as modules found later may satisfy those found earlier.
+    * 
+    * @throws EJBDeploymentException If a module could not be deployed; any modules
+    * already deployed are backed out
+    */
+   private void deployDiscoveredModules() throws EJBDeploymentException
+   {
+      final boolean attachIndexes = annotationIndex;
+      final Map<URL, Deployment> newDeployments = new LinkedHashMap<URL, Deployment>();
+      try
+      {
+         PipelinedScan.scan(scanner, attachIndexes, new PipelinedScan.ModuleHandler()
+         {
+            public void modulesDiscovered(final List<EjbModuleIndex> modules)
+            {
+               for (final EjbModuleIndex module : modules)
+               {
+                  final VirtualFile root;
+                  try
+                  {
+                     root = moduleMounts.getRoot(module.getPath());
+                  }
+                  catch (final IOException ioe)
+                  {
+                     throw new RuntimeException("Could not mount discovered module: " + module.getPath(), ioe);
+                  }
+                  final URL url;
+                  try
+                  {
+                     url = root.toURL();
+                  }
+                  catch (final MalformedURLException murle)
+                  {
+                     throw new RuntimeException("Could not obtain URL of discovered module: " + root, murle);
+                  }
+                  final VFSDeployment deployment = VFSDeploymentFactory.getInstance().createVFSDeployment(root);
+                  if (attachIndexes)
+                  {
+                     attachModuleIndex(deployment, module);
+                  }
+                  if (log.isTraceEnabled())
+                  {
+                     log.tracef("Adding discovered deployment: %s", deployment);
+                  }
+                  try
+                  {
+                     deployer.addDeployment(deployment);
+                  }
+                  catch (final DeploymentException de)
+                  {
+                     throw EJBDeploymentException.newInstance("Could not add deployment: " + deployment, de);
+                  }
+                  newDeployments.put(url, deployment);
+               }
+
+               // Deploy these while the scan goes on
+               deployer.process();
+            }
+         });
+      }
+      catch (final RuntimeException re)
+      {
+         // Undeploy those already processed
+         this.backOut(newDeployments.values(), re);
+         try
+         {
+            deployer.process();
+         }
+         catch (final RuntimeException processException)
+         {
+            log.warn("Could not undeploy backed out deployments due to " + processException
+                  + " while handling deployment error: " + re);
+         }
+         throw re;
+      }
+      log.info("Modules for deployment: " + newDeployments.keySet());
+
+      // Ensure everything's OK
+      if (!newDeployments.isEmpty())
+      {
+         this.processPending();
+      }
+
+      // Mark these are done
+      this.deployments.putAll(newDeployments);
+   }
+
+   /**
+    * Removes the specified deployments, which have been added to the deployer
+    * but not yet processed, following the specified error
+    */
+   private void backOut(final Collection<Deployment> pendingDeployments, final Exception cause)
+   {
+      for (final Deployment pending : pendingDeployments)
+      {
+         try
+         {
+            deployer.removeDeployment(pending);
+         }
+         catch (final DeploymentException pendingDeploymentRemovalException)
+         {
+            log.warn("Could not back out pending deployment due to " + pendingDeploymentRemovalException
+                  + " while handing deployment error: " + cause);
+         }
+      }
+   }
+
+   /**
+    * Processes all deployments added to the deployer and ensures they're complete
+    * @throws EJBDeploymentException If processing resulted in error
+    */
+   private void processPending() throws EJBDeploymentException
+   {
+      deployer.process();
+      try
+      {
+         deployer.checkComplete();
+      }
+      catch (final DeploymentException e)
+      {
+         throw EJBDeploymentException.newInstance("Processing the pending deployments resulted in error", e);
+      }
+   }
+
+   /**
+    * Attaches the index of the specified module produced in scanning, if any, 
+    * to its deployment under the type {@link EjbModuleIndex}, such that the
+    * deployers need not read the module's classes again
+    */
+   private void attachModuleIndex(final Deployment deployment, final VirtualFile root)
+   {
+      final EjbModuleIndex moduleIndex = moduleIndexes.get(root.getPathName());
+      if (moduleIndex == null)
+      {
+         return;
+      }
+      this.attachModuleIndex(deployment, moduleIndex);
+   }
+
+   /**
+    * Attaches the specified module index to its deployment
+    */
+   private void attachModuleIndex(final Deployment deployment, final EjbModuleIndex moduleIndex)
+   {
+      final Attachments attachments = deployment.getPredeterminedManagedObjects();
+      if (!(attachments instanceof MutableAttachments))
+      {
+         log.warn("Cannot attach " + EjbModuleIndex.class.getSimpleName() + " to deployment " + deployment
+               + " with immutable attachments");
+         return;
+      }
+      ((MutableAttachments) attachments).addAttachment(EjbModuleIndex.class, moduleIndex);
+      if (log.isTraceEnabled())
+      {
+         log.tracef("Attached %s to %s", moduleIndex, deployment);
+      }
+   }
+
 }
@@ -121,7 +121,20 @@ public abstract class JBossEJBContainerProviderBase implements EJBContainerProvi
 
          // Create the container from the parameters
          final JBossEmbeddedContainerStartupParams params = new JBossEmbeddedContainerStartupParams(properties, modules);
-         return this.createEJBContainer(params);
+         EJBContainer container = null;
+         try
+         {
+            container = this.createEJBContainer(params);
+            return container;
+         }
+         finally
+         {
+            // No container owns the scanner, nor will close its Threads and temp files
+            if (container == null && params.getScanner() != null)
+            {
+               params.getScanner().close();
+            }
+         }
       }
       catch (final Throwable t)
       {
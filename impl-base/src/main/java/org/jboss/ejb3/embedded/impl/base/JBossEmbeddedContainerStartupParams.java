@@ -24,11 +24,15 @@ package org.jboss.ejb3.embedded.impl.base;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.ejb.embeddable.EJBContainer;
 
-import org.jboss.ejb3.embedded.impl.base.scanner.ClassPathEjbJarScanner;
+import org.jboss.ejb3.embedded.impl.base.scanner.ScannerConfiguration;
+import org.jboss.ejb3.embedded.spi.scanner.EjbJarScanner;
+import org.jboss.ejb3.embedded.spi.scanner.ScannerProvider;
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbModuleIndex;
 import org.jboss.logging.Logger;
 
 /**
@@ -51,6 +55,12 @@ public class JBossEmbeddedContainerStartupParams
     */
    private static final Logger log = Logger.getLogger(JBossEmbeddedContainerStartupParams.class);
 
+   /**
+    * Modules returned while the ClassPath is yet to be scanned, recognized by identity
+    * such that they may not be mistaken for an explicitly empty set of modules
+    */
+   private static final String[] MODULES_SCAN_PENDING = new String[0];
+
    //-------------------------------------------------------------------------------------||
    // Instance Members -------------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
@@ -69,6 +79,27 @@ public class JBossEmbeddedContainerStartupParams
     */
    private final String[] modules;
 
+   /**
+    * Whether the ClassPath is yet to be scanned by the container
+    */
+   private final boolean scanPending;
+
+   /**
+    * Indexes of the modules found in scanning the ClassPath, if so configured
+    */
+   private final List<EjbModuleIndex> moduleIndexes;
+
+   /**
+    * Scanner of the ClassPath, to be owned and closed by the container, or null
+    * if modules were explicitly specified
+    */
+   private final EjbJarScanner scanner;
+
+   /**
+    * Whether each module found in scanning is to be indexed in full
+    */
+   private final boolean annotationIndex;
+
    //-------------------------------------------------------------------------------------||
    // Constructor ------------------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
@@ -80,30 +111,69 @@ public class JBossEmbeddedContainerStartupParams
     * a new, empty {@link Map} will be allocated
     * @param modules Modules to deploy into the {@link EJBContainer}.  A null argument here
     * signals that the ClassPath should be searched for EJB Modules as defined by {@link EJBContainer#createEJBContainer()}
-    * and EJB 3.1 22.2.1.
+    * and EJB 3.1 22.2.1.  If so configured by {@link ScannerConfiguration#PROPERTY_ANNOTATION_INDEX},
+    * an index of the components in each module found is retained to be handed to the deployers.
+    * If instead configured by {@link ScannerConfiguration#PROPERTY_PIPELINED}, scanning is left
+    * to the container such that each module may be deployed as it is discovered.
+    * The scanner is created by the {@link ScannerProvider} configured by 
+    * {@link ScannerConfiguration#PROPERTY_PROVIDER} only if the ClassPath is to be scanned,
+    * and is then retained; it must be closed by the container created from these parameters.
     */
    public JBossEmbeddedContainerStartupParams(Map<?, ?> properties, String[] modules)
    {
       // Precondition checks and adjustments
+      List<EjbModuleIndex> indexes = Collections.emptyList();
       if (properties == null)
       {
          properties = new HashMap<Object, Object>(0);
       }
-      if (modules == null)
+      final ScannerConfiguration configuration = new ScannerConfiguration(properties);
+      final EjbJarScanner scanner = modules == null ? createScanner(configuration, properties) : null;
+      if (modules == null && configuration.isPipelined())
+      {
+         if (log.isDebugEnabled())
+         {
+            log.debug("No modules explicitly passed in; ClassPath will be scanned for EJBs by the container");
+         }
+      }
+      else if (modules == null)
       {
          if (log.isDebugEnabled())
          {
             log.debug("No modules explicitly passed in; scanning ClassPath for EJBs");
          }
-         modules = ClassPathEjbJarScanner.getEjbJars();
+         try
+         {
+            final List<EjbModuleIndex> found = scanner.scan(configuration.isAnnotationIndex(), null);
+            modules = new String[found.size()];
+            for (int i = 0; i < modules.length; i++)
+            {
+               modules[i] = found.get(i).getPath();
+            }
+            if (configuration.isAnnotationIndex())
+            {
+               indexes = found;
+            }
+         }
+         catch (final RuntimeException re)
+         {
+            // No container will own the scanner
+            scanner.close();
+            throw re;
+         }
       }
 
       // Defensive copy and set
       final Map<?, ?> copy = new HashMap<Object, Object>(properties);
       this.properties = Collections.unmodifiableMap(copy);
 
-      final String[] copyModules = copy(modules);
+      final boolean scanPending = modules == null;
+      final String[] copyModules = scanPending ? MODULES_SCAN_PENDING : copy(modules);
       this.modules = copyModules;
+      this.scanPending = scanPending;
+      this.moduleIndexes = Collections.unmodifiableList(indexes);
+      this.scanner = scanner;
+      this.annotationIndex = configuration.isAnnotationIndex();
 
    }
 
@@ -122,19 +192,101 @@ public class JBossEmbeddedContainerStartupParams
    }
 
    /**
-    * Returns a copy of the value of {@link EJBContainer#MODULES} property
+    * Returns a copy of the value of {@link EJBContainer#MODULES} property, or
+    * an empty array if the ClassPath is yet to be scanned by the container as it
+    * deploys; such modules are refused by containers unable to make the scan
     * @return the modules
+    * @see #isScanPending()
     */
    public String[] getModules()
    {
-      // Return null or a copy
-      return modules == null ? null : copy(modules);
+      // The empty modules of a pending scan are shared, so as to be recognized
+      return scanPending ? MODULES_SCAN_PENDING : copy(modules);
+   }
+
+   /**
+    * Returns whether no modules were specified and the ClassPath is yet to be
+    * scanned, which is to be done by the container such that each module is 
+    * deployed as soon as it is discovered
+    * @return whether scanning has been left to the container
+    * @see ScannerConfiguration#PROPERTY_PIPELINED
+    */
+   public boolean isScanPending()
+   {
+      return scanPending;
+   }
+
+   /**
+    * Returns whether the specified modules are those obtained from parameters 
+    * whose scan is pending, such that they may only be deployed by a container 
+    * which scans the ClassPath itself
+    * @param modules
+    * @see #getModules()
+    */
+   static boolean isScanPending(final String[] modules)
+   {
+      return modules == MODULES_SCAN_PENDING;
+   }
+
+   /**
+    * Returns an immutable view of the indexes of the modules found in 
+    * scanning the ClassPath, or an empty list if modules were explicitly
+    * specified or indexing was not configured
+    * @return the moduleIndexes
+    */
+   public List<EjbModuleIndex> getModuleIndexes()
+   {
+      return moduleIndexes;
+   }
+
+   /**
+    * Returns the scanner of the ClassPath, which is to be closed along 
+    * with the container, or null if modules were explicitly specified
+    * such that the ClassPath was not to be scanned.  If the scan is pending,
+    * it is to be made by the container with this scanner.
+    * @return the scanner
+    * @see #isScanPending()
+    */
+   public EjbJarScanner getScanner()
+   {
+      return scanner;
+   }
+
+   /**
+    * Returns whether each module found in scanning is to be indexed in full,
+    * and its index handed to the deployers
+    * @return the annotationIndex
+    * @see ScannerConfiguration#PROPERTY_ANNOTATION_INDEX
+    */
+   public boolean isAnnotationIndex()
+   {
+      return annotationIndex;
    }
 
    //-------------------------------------------------------------------------------------||
    // Internal Helper Methods -----------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
 
+   /**
+    * Creates a scanner of the ClassPath using the configured {@link ScannerProvider}
+    * @throws IllegalStateException If the provider created no scanner
+    */
+   private static EjbJarScanner createScanner(final ScannerConfiguration configuration, final Map<?, ?> properties)
+         throws IllegalStateException
+   {
+      final ScannerProvider provider = configuration.getScannerProvider();
+      if (log.isDebugEnabled())
+      {
+         log.debugf("Using scanner provider: %s", provider);
+      }
+      final EjbJarScanner scanner = provider.createScanner(properties);
+      if (scanner == null)
+      {
+         throw new IllegalStateException(provider + " created no scanner");
+      }
+      return scanner;
+   }
+
    /**
     * Copies the specified array into a new object, returning the new instance
     */
@@ -0,0 +1,237 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbModuleIndex;
+import org.jboss.logging.Logger;
+import org.jboss.vfs.TempFileProvider;
+import org.jboss.vfs.VFS;
+import org.jboss.vfs.VirtualFile;
+
+/**
+ * Resolves the roots of the modules reported by the ClassPath scanner, mounting 
+ * those nested within an archive ({@link EjbModuleIndex#SEPARATOR_NESTED}) such 
+ * that they may be deployed: the enclosing archive is mounted in place, then the
+ * nested module upon its own location within.  Unlike the scanner, which streams 
+ * nested modules from their archive, mounting one extracts it: VFS can only mount
+ * a physical file, so the nested JAR is first copied to a temporary file, costing
+ * its size on disk.  Each archive is mounted only once; all mounts are held, and
+ * the temporary files kept, until {@link #close()}.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+final class ModuleMounts
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(ModuleMounts.class);
+
+   /**
+    * Name of the temporary directory backing the mounts, into which nested modules are extracted
+    */
+   private static final String NAME_TEMP_FILE_PROVIDER = "jbossejbmodules";
+
+   /**
+    * Name of the Thread retrying deletion of temporary files
+    */
+   private static final String NAME_THREAD = "EJB Module Mounts";
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Handles to the mounts made, in order
+    */
+   private final List<Closeable> handles = new ArrayList<Closeable>();
+
+   /**
+    * Archives and nested modules mounted
+    */
+   private final Set<VirtualFile> mounted = new HashSet<VirtualFile>();
+
+   /**
+    * Executor backing the {@link TempFileProvider}, created lazily
+    */
+   private ScheduledExecutorService executor;
+
+   /**
+    * Provider of the temporary files backing the mounts, created lazily
+    */
+   private TempFileProvider tempFileProvider;
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the file of the module at the specified path without mounting anything, 
+    * such that its path name may be compared with that of a mounted root
+    * 
+    * @param path Path of the module as reported by the scanner
+    * @throws IllegalArgumentException If the path is not specified
+    */
+   static VirtualFile getFile(final String path) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (path == null)
+      {
+         throw new IllegalArgumentException("path must be specified");
+      }
+
+      final int separator = path.indexOf(EjbModuleIndex.SEPARATOR_NESTED);
+      if (separator < 0)
+      {
+         return VFS.getChild(path);
+      }
+      return VFS.getChild(path.substring(0, separator)).getChild(
+            path.substring(separator + EjbModuleIndex.SEPARATOR_NESTED.length()));
+   }
+
+   /**
+    * Obtains the root of the module at the specified path, mounting the module
+    * and its enclosing archive if it's nested
+    * 
+    * @param path Path of the module as reported by the scanner
+    * @throws IllegalArgumentException If the path is not specified
+    * @throws IOException If the archive or module could not be mounted
+    */
+   synchronized VirtualFile getRoot(final String path) throws IllegalArgumentException, IOException
+   {
+      final VirtualFile root = getFile(path);
+      final int separator = path.indexOf(EjbModuleIndex.SEPARATOR_NESTED);
+      if (separator < 0)
+      {
+         return root;
+      }
+
+      // Mount the archive in place, then the module within it
+      this.mount(VFS.getChild(path.substring(0, separator)));
+      this.mount(root);
+      return root;
+   }
+
+   /**
+    * Releases all mounts made, deleting the temporary files to which nested
+    * modules were extracted.  Repeated calls have no effect.
+    */
+   synchronized void close()
+   {
+      // Unmount modules before the archives enclosing them
+      for (int i = handles.size() - 1; i >= 0; i--)
+      {
+         try
+         {
+            handles.get(i).close();
+         }
+         catch (final IOException e)
+         {
+            // Ignore
+            log.warn("Could not close mount handle " + handles.get(i), e);
+         }
+      }
+      handles.clear();
+      mounted.clear();
+
+      if (tempFileProvider != null)
+      {
+         try
+         {
+            tempFileProvider.close();
+         }
+         catch (final IOException e)
+         {
+            // Ignore
+            log.warn("Could not close " + tempFileProvider, e);
+         }
+         tempFileProvider = null;
+      }
+      if (executor != null)
+      {
+         executor.shutdown();
+         executor = null;
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Mounts the specified archive upon its own location, unless already mounted.
+    * An archive nested within one mounted is extracted to a temporary file of
+    * the provider of this instance by {@link VirtualFile#getPhysicalFile()}.
+    */
+   private void mount(final VirtualFile archive) throws IOException
+   {
+      if (mounted.contains(archive))
+      {
+         return;
+      }
+      if (log.isDebugEnabled())
+      {
+         log.debugf("Mounting %s", archive);
+      }
+      handles.add(VFS.mountZip(archive.getPhysicalFile(), archive, this.getTempFileProvider()));
+      mounted.add(archive);
+   }
+
+   /**
+    * Obtains the provider of temporary files backing the mounts, creating it if necessary
+    */
+   private TempFileProvider getTempFileProvider() throws IOException
+   {
+      if (tempFileProvider == null)
+      {
+         executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+         {
+            public Thread newThread(final Runnable r)
+            {
+               final Thread thread = new Thread(r, NAME_THREAD);
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+         tempFileProvider = TempFileProvider.create(NAME_TEMP_FILE_PROVIDER, executor);
+      }
+      return tempFileProvider;
+   }
+
+}
@@ -0,0 +1,192 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.ejb3.embedded.impl.base;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.ejb3.embedded.spi.scanner.EjbJarScanner;
+import org.jboss.ejb3.embedded.spi.scanner.EjbModuleListener;
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbModuleIndex;
+
+/**
+ * Scans the ClassPath on a Thread of its own while the calling Thread hands
+ * the modules discovered to a {@link ModuleHandler} as soon as they're reported,
+ * such that handling (ie. deployment) of the modules found so far overlaps the
+ * remainder of the scan.  The handler is only ever called upon the calling Thread.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+final class PipelinedScan
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Name of the Thread upon which the scan is made
+    */
+   private static final String NAME_THREAD = "EJB ClassPath Scan";
+
+   /**
+    * Time to await a module before checking whether the scan has completed, in milliseconds
+    */
+   private static final long POLL_MILLIS = 10;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Blocks instanciation
+    */
+   private PipelinedScan()
+   {
+      throw new UnsupportedOperationException("No instances permitted");
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Scans using the specified scanner, handing each batch of modules reported 
+    * to the specified handler in order of discovery, returning once the scan 
+    * has completed and all modules have been handled.  If the handler throws, 
+    * the scan is cancelled.
+    * 
+    * @param scanner
+    * @param full Whether modules are to be indexed in full
+    * @param handler
+    * @return All modules found, as returned by the scanner
+    * @throws IllegalArgumentException If the scanner or handler is not specified
+    * @throws RuntimeException Any thrown by the scan or the handler
+    */
+   static List<EjbModuleIndex> scan(final EjbJarScanner scanner, final boolean full, final ModuleHandler handler)
+         throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (scanner == null)
+      {
+         throw new IllegalArgumentException("scanner must be specified");
+      }
+      if (handler == null)
+      {
+         throw new IllegalArgumentException("handler must be specified");
+      }
+
+      // Scan on a Thread of our own, queueing modules as they're reported
+      final BlockingQueue<EjbModuleIndex> discovered = new LinkedBlockingQueue<EjbModuleIndex>();
+      final FutureTask<List<EjbModuleIndex>> scan = new FutureTask<List<EjbModuleIndex>>(
+            new Callable<List<EjbModuleIndex>>()
+            {
+               public List<EjbModuleIndex> call()
+               {
+                  return scanner.scan(full, new EjbModuleListener()
+                  {
+                     public void moduleDiscovered(final EjbModuleIndex module)
+                     {
+                        discovered.add(module);
+                     }
+                  });
+               }
+            });
+      final Thread thread = new Thread(scan, NAME_THREAD);
+      thread.setDaemon(true);
+      thread.start();
+
+      try
+      {
+         // Hand off modules as they arrive, until all reported before the scan completed are handled
+         while (true)
+         {
+            final boolean scanned = scan.isDone();
+            final EjbModuleIndex first = scanned ? discovered.poll() : discovered.poll(POLL_MILLIS,
+                  TimeUnit.MILLISECONDS);
+            if (first == null)
+            {
+               if (scanned)
+               {
+                  break;
+               }
+               continue;
+            }
+            final List<EjbModuleIndex> batch = new ArrayList<EjbModuleIndex>();
+            batch.add(first);
+            discovered.drainTo(batch);
+            handler.modulesDiscovered(batch);
+         }
+         return scan.get();
+      }
+      catch (final InterruptedException ie)
+      {
+         Thread.currentThread().interrupt();
+         throw new RuntimeException("Interrupted while awaiting the ClassPath scan", ie);
+      }
+      catch (final ExecutionException ee)
+      {
+         final Throwable cause = ee.getCause();
+         if (cause instanceof RuntimeException)
+         {
+            throw (RuntimeException) cause;
+         }
+         if (cause instanceof Error)
+         {
+            throw (Error) cause;
+         }
+         throw new RuntimeException("Could not scan the ClassPath", cause);
+      }
+      finally
+      {
+         // Don't leave the scan running if we've failed
+         scan.cancel(true);
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Callback handling the modules discovered, upon the Thread which requested the scan
+    */
+   interface ModuleHandler
+   {
+      /**
+       * Handles the specified modules, those discovered since last called,
+       * in order of discovery.  Any exception thrown cancels the scan and is 
+       * propagated to its caller.
+       */
+      void modulesDiscovered(List<EjbModuleIndex> modules);
+   }
+
+}
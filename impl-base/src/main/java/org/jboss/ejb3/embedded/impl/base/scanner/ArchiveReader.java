@@ -0,0 +1,568 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.scanner;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.jboss.ejb3.embedded.impl.base.scanner.filter.ExclusionFilterChain;
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbComponentMetadata;
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbModuleIndex;
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbModuleIndexFile;
+import org.jboss.logging.Logger;
+import org.jboss.vfs.VFS;
+import org.jboss.vfs.VirtualFile;
+
+/**
+ * Reads JARs, and WARs if so configured, on the ClassPath without mounting 
+ * them unless they qualify and exclusion rules requiring their contents are 
+ * configured.  Archives nested within them are read as modules of their own
+ * by {@link ArchiveReader#scanNested(VirtualFile, ModuleScan)}.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+final class ArchiveReader extends ModuleReader
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(ArchiveReader.class);
+
+   /**
+    * .class Extension as ASCII bytes, for matching raw entry names
+    */
+   private static final byte[] EXTENSION_CLASS_BYTES =
+   {'.', 'c', 'l', 'a', 's', 's'};
+
+   /**
+    * .jar Extension
+    */
+   static final String EXTENSION_JAR = ".jar";
+
+   /**
+    * .war Extension
+    */
+   static final String EXTENSION_WAR = ".war";
+
+   /**
+    * Path of the EJB Descriptor in a WAR, relative to its root
+    */
+   private static final String PATH_WAR_EJB_JAR_XML = "WEB-INF/ejb-jar.xml";
+
+   /**
+    * Root of the classes in a WAR
+    */
+   private static final String PATH_WAR_CLASSES = "WEB-INF/classes/";
+
+   /**
+    * Location of the libraries in a WAR
+    */
+   private static final String PATH_WAR_LIB = "WEB-INF/lib/";
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Scheduler providing the temporary files backing ZIP mounts
+    */
+   private final ScanScheduler scheduler;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new reader of the specified configuration
+    * @param scheduler Scheduler providing the temporary files backing ZIP mounts
+    * @see ModuleReader#ModuleReader(ScannerConfiguration, ExclusionFilterChain, PackageScope)
+    */
+   ArchiveReader(final ScannerConfiguration configuration, final ExclusionFilterChain exclusionFilters,
+         final PackageScope packageScope, final ScanScheduler scheduler)
+   {
+      super(configuration, exclusionFilters, packageScope);
+      assert scheduler != null : "scheduler must be specified";
+      this.scheduler = scheduler;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Required Implementations -----------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Scans the specified JAR.  The JAR is not mounted to make this determination; 
+    * only its central directory is read, and only .class entries are inflated for
+    * inspection.  JARs at or above the configured size threshold are memory-mapped
+    * and read in place.  If the JAR qualifies it's then mounted so that any
+    * configured exclusion rules requiring its contents, which need a 
+    * {@link VirtualFile} view, may be applied; all others will have been
+    * applied before reading the JAR.  WARs are read likewise, but only
+    * via {@link ZipFile}, with "WEB-INF/classes" as the root of their classes.
+    */
+   @Override
+   void scan(final VirtualFile file, final ModuleScan scan) throws IOException
+   {
+      final File physicalFile = file.getPhysicalFile();
+      final long mappedThreshold = configuration.getMappedThreshold();
+      final boolean mapped = mappedThreshold >= 0 && physicalFile.length() >= mappedThreshold;
+      if (file.getName().endsWith(EXTENSION_WAR))
+      {
+         this.scanZip(file, physicalFile, PATH_WAR_CLASSES, PATH_WAR_EJB_JAR_XML, scan);
+      }
+      else if (mapped)
+      {
+         this.scanMapped(file, physicalFile, scan);
+      }
+      else
+      {
+         this.scanZip(file, physicalFile, "", PATH_EJB_JAR_XML, scan);
+      }
+
+      // No need to mount if this isn't a module or there are no filters to apply
+      if (!scan.isModule() || !exclusionFilters.isPostMountRequired())
+      {
+         return;
+      }
+
+      // See if we've been configured to skip this file
+      final long mountStart = System.nanoTime();
+      final Closeable handle = VFS.mountZip(file.getPhysicalFile(), file, scheduler.getTempFileProvider());
+      scan.mounted(System.nanoTime() - mountStart);
+      try
+      {
+         final String excludedBy = exclusionFilters.getPostMountExclusion(file);
+         if (excludedBy != null)
+         {
+            scan.exclude(excludedBy);
+         }
+      }
+      finally
+      {
+         close(handle, file);
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Scans each JAR nested within the specified archive as a module of its own, 
+    * recording it with the scan of the archive.  JARs are nested anywhere within 
+    * a JAR, but only directly within "WEB-INF/lib" of a WAR.  Nested JARs are
+    * streamed from the archive, never extracted; as they're not on the ClassPath
+    * they're not inspected reflectively, and those nested further are not scanned.
+    * Of the configured exclusion rules, only those requiring the path alone apply.
+    */
+   void scanNested(final VirtualFile file, final ModuleScan scan) throws IOException
+   {
+      final boolean war = file.getName().endsWith(EXTENSION_WAR);
+      final ZipFile zip = new ZipFile(file.getPhysicalFile());
+      try
+      {
+         final Enumeration<? extends ZipEntry> entries = zip.entries();
+         while (entries.hasMoreElements())
+         {
+            final ZipEntry entry = entries.nextElement();
+            final String name = entry.getName();
+            if (entry.isDirectory() || !name.endsWith(EXTENSION_JAR)
+                  || (war && (!name.startsWith(PATH_WAR_LIB) || name.indexOf('/', PATH_WAR_LIB.length()) >= 0)))
+            {
+               continue;
+            }
+
+            // See if we've been configured to skip this JAR
+            final String path = scan.getPath() + EjbModuleIndex.SEPARATOR_NESTED + name;
+            final ModuleScan nestedScan = new ModuleScan(path, scan.isFull(), null, scan.getBudget());
+            final String excludedBy = exclusionFilters.getPathExclusion(new File(path));
+            if (excludedBy != null)
+            {
+               nestedScan.exclude(excludedBy);
+               scan.nestedScanned(nestedScan.finish());
+               continue;
+            }
+
+            final InputStream in = zip.getInputStream(entry);
+            try
+            {
+               this.scanStream(file.getChild(name), in, nestedScan);
+            }
+            finally
+            {
+               in.close();
+            }
+            scan.nestedScanned(nestedScan.finish());
+         }
+      }
+      finally
+      {
+         try
+         {
+            zip.close();
+         }
+         catch (final IOException e)
+         {
+            // Ignore
+            log.warn("Could not close " + zip.getName(), e);
+         }
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Scans the specified archive for an EJB descriptor or components, reading it 
+    * via {@link ZipFile}
+    * @param root Path of the root of the classes within the archive, empty or ending in '/'
+    * @param descriptorPath Path of the EJB descriptor within the archive
+    */
+   private void scanZip(final VirtualFile file, final File physicalFile, final String root,
+         final String descriptorPath, final ModuleScan scan) throws IOException
+   {
+      final ZipFile zip = new ZipFile(physicalFile);
+      try
+      {
+         // Look for the descriptor
+         final ZipEntry descriptor = zip.getEntry(descriptorPath);
+         if (descriptor != null)
+         {
+            final InputStream in = zip.getInputStream(descriptor);
+            try
+            {
+               if (descriptorFound(file, descriptorPath, in, scan))
+               {
+                  return;
+               }
+            }
+            finally
+            {
+               in.close();
+            }
+         }
+
+         // Trust the module index if present
+         if (configuration.isUseIndex())
+         {
+            final ZipEntry index = zip.getEntry(root + EjbModuleIndexFile.PATH);
+            if (index != null)
+            {
+               for (final String className : readIndex(file, new InputStreamReader(zip.getInputStream(index),
+                     EjbModuleIndexFile.CHARSET), scan))
+               {
+                  final String name = className.replace('.', '/') + EXTENSION_CLASS;
+                  final ZipEntry entry = zip.getEntry(root + name);
+                  if (entry != null)
+                  {
+                     scan.componentFound(getComponent(file, zip, entry, name, scan), className, file);
+                  }
+               }
+               return;
+            }
+         }
+
+         // Look for .class entries with an EJB annotation
+         scanClasses(file, zip, root, packageScope, scan);
+      }
+      finally
+      {
+         try
+         {
+            zip.close();
+         }
+         catch (final IOException e)
+         {
+            // Ignore
+            log.warn("Could not close " + zip.getName(), e);
+         }
+      }
+   }
+
+   /**
+    * Scans the specified JAR for an EJB descriptor or components, reading it 
+    * via a {@link MappedZipFile}.  Falls back to {@link ZipFile} for archives 
+    * of a format which can't be mapped, or any of whose entries can't be read
+    * in place, ie. those of unsupported compression or prefixed with a stub
+    * without their offsets having been adjusted.
+    */
+   private void scanMapped(final VirtualFile file, final File physicalFile, final ModuleScan scan)
+         throws IOException
+   {
+      try
+      {
+         final MappedZipFile zip = MappedZipFile.open(physicalFile);
+         try
+         {
+            this.scanMapped(file, zip, scan);
+            return;
+         }
+         finally
+         {
+            zip.close();
+         }
+      }
+      catch (final ZipException ze)
+      {
+         if (log.isDebugEnabled())
+         {
+            log.debug("Could not map " + physicalFile + "; falling back to " + ZipFile.class.getSimpleName(), ze);
+         }
+      }
+
+      // Start over, discarding whatever was found before the failure
+      scan.restart();
+      this.scanZip(file, physicalFile, "", PATH_EJB_JAR_XML, scan);
+   }
+
+   /**
+    * Scans the specified mapped JAR for an EJB descriptor or components
+    * @throws ZipException If the JAR or any of its entries can't be read in place
+    */
+   private void scanMapped(final VirtualFile file, final MappedZipFile zip, final ModuleScan scan)
+         throws IOException
+   {
+      // Look for META-INF/ejb-jar.xml
+      final ByteBuffer descriptor = zip.getContents(PATH_EJB_JAR_XML);
+      if (descriptor != null && descriptorFound(file, PATH_EJB_JAR_XML, new ByteBufferInputStream(descriptor), scan))
+      {
+         return;
+      }
+
+      // Trust the module index if present
+      if (configuration.isUseIndex())
+      {
+         final ByteBuffer index = zip.getContents(EjbModuleIndexFile.PATH);
+         if (index != null)
+         {
+            for (final String className : readIndex(file, new StringReader(EjbModuleIndexFile.CHARSET.decode(index)
+                  .toString()), scan))
+            {
+               final String name = className.replace('.', '/') + EXTENSION_CLASS;
+               final ByteBuffer contents = zip.getContents(name);
+               if (contents != null)
+               {
+                  scan.componentFound(getComponent(file, name, contents, scan), className, file);
+               }
+            }
+            return;
+         }
+      }
+
+      // Look for .class entries with an EJB annotation
+      final MappedZipFile.Cursor entry = zip.entries();
+      while (entry.next())
+      {
+         if (entry.isDirectory() || !entry.nameEndsWith(EXTENSION_CLASS_BYTES) || !packageScope.includes(entry))
+         {
+            continue;
+         }
+
+         final EjbComponentMetadata component = getComponent(file, entry.getName(), entry.getContents(), scan);
+         if (component != null && scan.componentFound(component, entry.getName(), file))
+         {
+            return;
+         }
+      }
+   }
+
+   /**
+    * Scans the JAR read from the specified stream for an EJB descriptor or components,
+    * in the order in which its entries are stored.  As the JAR is read but once, a 
+    * module index marks it as an EJB JAR or lists the components to inspect only from
+    * where it's stored; classes before it are inspected regardless.
+    * @param file The JAR as a {@link VirtualFile}, used in logging
+    * @param in Stream of the JAR, not closed
+    * @param scan
+    */
+   private void scanStream(final VirtualFile file, final InputStream in, final ModuleScan scan) throws IOException
+   {
+      final ZipInputStream zip = new ZipInputStream(in);
+      Set<String> indexed = null;
+      ZipEntry entry;
+      while ((entry = zip.getNextEntry()) != null)
+      {
+         final String name = entry.getName();
+         if (entry.isDirectory())
+         {
+            continue;
+         }
+
+         // Look for META-INF/ejb-jar.xml
+         if (PATH_EJB_JAR_XML.equals(name))
+         {
+            if (descriptorFound(file, PATH_EJB_JAR_XML, zip, scan))
+            {
+               return;
+            }
+         }
+         // Trust the module index if present
+         else if (configuration.isUseIndex() && EjbModuleIndexFile.PATH.equals(name))
+         {
+            final ByteBuffer index = EjbComponentClassFileInspector.readFully(zip, entry.getSize());
+            indexed = new HashSet<String>();
+            for (final String className : readIndex(file, new StringReader(EjbModuleIndexFile.CHARSET.decode(
+                  index).toString()), scan))
+            {
+               indexed.add(className.replace('.', '/') + EXTENSION_CLASS);
+            }
+            if (scan.isModule() && !scan.isFull())
+            {
+               return;
+            }
+         }
+         // Look for .class entries with an EJB annotation
+         else if (name.endsWith(EXTENSION_CLASS) && packageScope.includes(name)
+               && (indexed == null || indexed.contains(name)))
+         {
+            final ByteBuffer contents = EjbComponentClassFileInspector.readFully(zip, entry.getSize());
+            final EjbComponentMetadata component = getComponent(file, name, contents, scan);
+            if (component != null && scan.componentFound(component, name, file))
+            {
+               return;
+            }
+         }
+      }
+   }
+
+   /**
+    * Inspects the .class entries in the given JAR for EJB component-defining
+    * annotations (Stateless, Stateful, Singleton, MessageDriven).  Only .class 
+    * entries are inflated.
+    * @param file The JAR as a {@link VirtualFile}, used in logging
+    * @param zip The JAR
+    * @param root Path of the root of the classes within the JAR, empty or ending in '/'
+    * @param packageScope Packages of the classes to inspect
+    * @param scan
+    */
+   private static void scanClasses(final VirtualFile file, final ZipFile zip, final String root,
+         final PackageScope packageScope, final ModuleScan scan) throws IOException
+   {
+      final Enumeration<? extends ZipEntry> entries = zip.entries();
+      while (entries.hasMoreElements())
+      {
+         final ZipEntry entry = entries.nextElement();
+         final String entryName = entry.getName();
+         if (entry.isDirectory() || !entryName.endsWith(EXTENSION_CLASS) || !entryName.startsWith(root))
+         {
+            continue;
+         }
+         final String name = entryName.substring(root.length());
+         if (!packageScope.includes(name))
+         {
+            continue;
+         }
+
+         final EjbComponentMetadata component = getComponent(file, zip, entry, name, scan);
+         if (component != null && scan.componentFound(component, name, file))
+         {
+            return;
+         }
+      }
+   }
+
+   /**
+    * Obtains the EJB component defined by the specified .class entry, whose path
+    * relative to the root of the classes is given, or null if none is defined 
+    * or the class file could not be parsed 
+    */
+   private static EjbComponentMetadata getComponent(final VirtualFile file, final ZipFile zip, final ZipEntry entry,
+         final String name, final ModuleScan scan) throws IOException
+   {
+      final InputStream in = zip.getInputStream(entry);
+      final ByteBuffer contents;
+      try
+      {
+         contents = EjbComponentClassFileInspector.readFully(in, entry.getSize());
+      }
+      finally
+      {
+         in.close();
+      }
+      return getComponent(file, name, contents, scan);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * {@link InputStream} reading the remaining contents of a {@link ByteBuffer},
+    * such that mapped entries may be parsed in place
+    */
+   private static final class ByteBufferInputStream extends InputStream
+   {
+      private final ByteBuffer buffer;
+
+      ByteBufferInputStream(final ByteBuffer buffer)
+      {
+         this.buffer = buffer;
+      }
+
+      @Override
+      public int read()
+      {
+         return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+      }
+
+      @Override
+      public int read(final byte[] b, final int off, final int len)
+      {
+         if (len == 0)
+         {
+            return 0;
+         }
+         if (!buffer.hasRemaining())
+         {
+            return -1;
+         }
+         final int read = Math.min(len, buffer.remaining());
+         buffer.get(b, off, read);
+         return read;
+      }
+
+      @Override
+      public int available()
+      {
+         return buffer.remaining();
+      }
+   }
+}
@@ -0,0 +1,315 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.scanner;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Walks the .class files beneath an exploded directory, depth first and
+ * iteratively, handing the contents of each to a {@link Visitor}.  Memory
+ * is bounded by the depth and breadth of the tree rather than its size:
+ * the path of the current file and the buffer holding its contents are 
+ * reused throughout the walk, as are the frames tracking each directory 
+ * level, so no String is created for the path of any entry.
+ * 
+ * Not thread-safe; each walk should be confined to a single Thread.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+final class ClassFileTreeWalker
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Extension of class files
+    */
+   private static final String EXTENSION_CLASS = ".class";
+
+   /**
+    * Separator of path segments
+    */
+   private static final char SEPARATOR = '/';
+
+   /**
+    * Initial capacity of the contents buffer, which grows as needed
+    */
+   private static final int INITIAL_BUFFER_SIZE = 8192;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Root of the tree
+    */
+   private final File root;
+
+   /**
+    * Path of the current file relative to the root
+    */
+   private final StringBuilder path = new StringBuilder(256);
+
+   /**
+    * Frames of each directory level, reused among directories of the same depth
+    */
+   private final List<Frame> frames = new ArrayList<Frame>();
+
+   /**
+    * Holds the contents of the current file
+    */
+   private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new walker of the tree beneath the specified directory
+    * @param root
+    * @throws IllegalArgumentException If the root is not specified
+    */
+   ClassFileTreeWalker(final File root) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (root == null)
+      {
+         throw new IllegalArgumentException("root must be specified");
+      }
+
+      this.root = root;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Walks the class files beneath the specified directory, visiting each until the
+    * visitor asks to stop
+    * @param directory Path of the directory relative to the root, separated by '/'; empty for the root itself
+    * @param visitor
+    * @return Whether the visitor asked to stop
+    * @throws IOException If a class file could not be read
+    */
+   boolean walk(final String directory, final Visitor visitor) throws IOException
+   {
+      final File start = directory.length() == 0 ? root : new File(root, directory);
+      path.setLength(0);
+      path.append(directory);
+      if (path.length() > 0 && path.charAt(path.length() - 1) != SEPARATOR)
+      {
+         path.append(SEPARATOR);
+      }
+
+      int depth = 0;
+      if (!this.enter(start, depth))
+      {
+         return false;
+      }
+      while (depth >= 0)
+      {
+         final Frame frame = frames.get(depth);
+
+         // Done with this directory; back up a level
+         if (frame.index == frame.names.length)
+         {
+            frame.clear();
+            depth--;
+            continue;
+         }
+
+         final String name = frame.names[frame.index++];
+         path.setLength(frame.pathLength);
+         path.append(name);
+
+         // Read class files without first checking they're not directories; attempt to enter all else
+         final File file = new File(frame.directory, name);
+         if (name.endsWith(EXTENSION_CLASS))
+         {
+            final ByteBuffer contents = this.read(file);
+            if (contents != null)
+            {
+               if (visitor.visit(path, contents))
+               {
+                  this.clear(depth);
+                  return true;
+               }
+               continue;
+            }
+         }
+
+         path.append(SEPARATOR);
+         if (this.enter(file, depth + 1))
+         {
+            depth++;
+         }
+      }
+      return false;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Pushes a frame for the specified directory at the specified depth,
+    * returning false if it's not a readable directory
+    */
+   private boolean enter(final File directory, final int depth)
+   {
+      final String[] names = directory.list();
+      if (names == null)
+      {
+         return false;
+      }
+      if (frames.size() == depth)
+      {
+         frames.add(new Frame());
+      }
+      final Frame frame = frames.get(depth);
+      frame.directory = directory;
+      frame.names = names;
+      frame.index = 0;
+      frame.pathLength = path.length();
+      return true;
+   }
+
+   /**
+    * Releases the frames at and above the specified depth
+    */
+   private void clear(final int depth)
+   {
+      for (int i = 0; i <= depth; i++)
+      {
+         frames.get(i).clear();
+      }
+   }
+
+   /**
+    * Reads the contents of the specified file into the reused buffer, 
+    * returning null if it's a directory
+    */
+   private ByteBuffer read(final File file) throws IOException
+   {
+      final long length = file.length();
+      if (length > buffer.length)
+      {
+         if (length > Integer.MAX_VALUE)
+         {
+            throw new IOException("Too large to be a class file: " + file);
+         }
+         buffer = new byte[(int) length];
+      }
+      final InputStream in;
+      try
+      {
+         in = new FileInputStream(file);
+      }
+      catch (final IOException ioe)
+      {
+         // A directory named as a class file
+         if (file.isDirectory())
+         {
+            return null;
+         }
+         throw ioe;
+      }
+      int total = 0;
+      try
+      {
+         int read = 0;
+         while ((read = in.read(buffer, total, buffer.length - total)) != -1)
+         {
+            total += read;
+            if (total == buffer.length)
+            {
+               // Grown since we checked its length
+               final byte[] grown = new byte[buffer.length * 2];
+               System.arraycopy(buffer, 0, grown, 0, total);
+               buffer = grown;
+            }
+         }
+      }
+      finally
+      {
+         in.close();
+      }
+      return ByteBuffer.wrap(buffer, 0, total);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Position within a single directory
+    */
+   private static final class Frame
+   {
+      private File directory;
+
+      private String[] names;
+
+      private int index;
+
+      /**
+       * Length of the path of this directory, including its trailing separator
+       */
+      private int pathLength;
+
+      void clear()
+      {
+         directory = null;
+         names = null;
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Contracts --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Receives each class file visited in a walk
+    */
+   interface Visitor
+   {
+      /**
+       * Visits the specified class file
+       * @param path Path of the class file relative to the root; valid only for the duration of the call
+       * @param contents Contents of the class file; valid only for the duration of the call
+       * @return Whether the walk should stop
+       */
+      boolean visit(CharSequence path, ByteBuffer contents);
+   }
+
+}
@@ -0,0 +1,340 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.scanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Assembles the entries to be scanned from the ClassPath in the order in which 
+ * they're added: entries of a ClassPath string, the URLs of {@link URLClassLoader}s
+ * and, transitively, the entries referenced by the "Class-Path" manifest header
+ * of each JAR, which directly follow the JAR referencing them.  Entries denoting 
+ * the same file, as determined by canonical path, are added only once; that is
+ * a symbolic link and its target are scanned only once.  Given a {@link ScanResultCache},
+ * the "Class-Path" header of each unchanged JAR is taken from the cache rather than
+ * read, such that the JARs need not be opened.  Not thread-safe.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+final class ClassPathDiscovery
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(ClassPathDiscovery.class);
+
+   /**
+    * Protocol of URLs denoting local files
+    */
+   private static final String PROTOCOL_FILE = "file";
+
+   /**
+    * Separator of the references in the "Class-Path" manifest header
+    */
+   private static final String REGEX_WHITESPACE = "\\s+";
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Whether entries referenced by "Class-Path" manifest headers are added
+    */
+   private final boolean followManifests;
+
+   /**
+    * Cache of the "Class-Path" manifest headers, or null if none
+    */
+   private final ScanResultCache cache;
+
+   /**
+    * Canonical paths of the entries added
+    */
+   private final Set<String> canonicalPaths = new HashSet<String>();
+
+   /**
+    * Entries added, in order
+    */
+   private final List<String> entries = new ArrayList<String>();
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new instance, adding entries referenced by the "Class-Path" manifest 
+    * headers of JARs added if so specified
+    * @param followManifests
+    */
+   ClassPathDiscovery(final boolean followManifests)
+   {
+      this(followManifests, null);
+   }
+
+   /**
+    * Creates a new instance, adding entries referenced by the "Class-Path" manifest 
+    * headers of JARs added if so specified, as cached by the specified cache
+    * @param followManifests
+    * @param cache Cache of the "Class-Path" manifest headers of JARs; may be null
+    */
+   ClassPathDiscovery(final boolean followManifests, final ScanResultCache cache)
+   {
+      this.followManifests = followManifests;
+      this.cache = cache;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Adds the entries of the specified ClassPath, separated by the platform's path separator
+    * @param classPath
+    * @throws IllegalArgumentException If the ClassPath is not specified
+    */
+   void addClassPath(final String classPath) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (classPath == null)
+      {
+         throw new IllegalArgumentException("ClassPath must be specified");
+      }
+
+      for (final String entry : classPath.split(File.pathSeparator))
+      {
+         this.add(entry, new File(entry));
+      }
+   }
+
+   /**
+    * Adds the local file URLs of the specified {@link ClassLoader} and its parents, 
+    * parents first, stopping at (and excluding) the specified ancestor.  Those
+    * not {@link URLClassLoader}s contribute no entries.
+    * @param classLoader
+    * @param stop Ancestor whose URLs, and those of its parents, are not to be added; may be null
+    * @throws IllegalArgumentException If the ClassLoader is not specified
+    */
+   void addClassLoader(final ClassLoader classLoader, final ClassLoader stop) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (classLoader == null)
+      {
+         throw new IllegalArgumentException("ClassLoader must be specified");
+      }
+
+      // Parents first, as they'd be searched
+      final LinkedList<ClassLoader> hierarchy = new LinkedList<ClassLoader>();
+      for (ClassLoader current = classLoader; current != null && current != stop; current = current.getParent())
+      {
+         hierarchy.addFirst(current);
+      }
+      for (final ClassLoader current : hierarchy)
+      {
+         if (!(current instanceof URLClassLoader))
+         {
+            continue;
+         }
+         for (final URL url : ((URLClassLoader) current).getURLs())
+         {
+            final File file = toFile(url);
+            if (file != null)
+            {
+               this.add(file.getPath(), file);
+            }
+         }
+      }
+   }
+
+   /**
+    * Returns the entries added, in order
+    */
+   List<String> getEntries()
+   {
+      return Collections.unmodifiableList(entries);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Adds the specified entry unless a file of the same canonical path has been,
+    * followed by those its manifest references
+    */
+   private void add(final String entry, final File file)
+   {
+      File canonicalFile;
+      try
+      {
+         canonicalFile = file.getCanonicalFile();
+      }
+      catch (final IOException ioe)
+      {
+         canonicalFile = file.getAbsoluteFile();
+      }
+      if (!canonicalPaths.add(canonicalFile.getPath()))
+      {
+         if (log.isTraceEnabled())
+         {
+            log.tracef("Skipping duplicate ClassPath entry %s", entry);
+         }
+         return;
+      }
+      entries.add(entry);
+
+      // Follow manifest references of JARs
+      if (followManifests && canonicalFile.isFile())
+      {
+         for (final File referenced : this.getManifestClassPath(canonicalFile))
+         {
+            if (log.isTraceEnabled())
+            {
+               log.tracef("Following manifest Class-Path reference from %s to %s", entry, referenced);
+            }
+            this.add(referenced.getPath(), referenced);
+         }
+      }
+   }
+
+   /**
+    * Obtains the local files referenced by the "Class-Path" manifest header
+    * of the specified JAR, or an empty list if none or if not a readable JAR
+    */
+   private List<File> getManifestClassPath(final File jar)
+   {
+      String classPath = cache == null ? null : cache.getClassPath(jar);
+      if (classPath == null)
+      {
+         try
+         {
+            classPath = readManifestClassPath(jar);
+         }
+         catch (final IOException ioe)
+         {
+            // Not a JAR after all; the scan will report it
+            log.debugf("Could not read manifest of %s: %s", jar, ioe);
+            return Collections.emptyList();
+         }
+         if (cache != null)
+         {
+            cache.putClassPath(jar, classPath);
+         }
+      }
+      if (classPath == null || classPath.trim().length() == 0)
+      {
+         return Collections.emptyList();
+      }
+
+      // References are URLs relative to the JAR
+      final List<File> referenced = new ArrayList<File>();
+      final URL base;
+      try
+      {
+         base = jar.toURI().toURL();
+      }
+      catch (final IOException ioe)
+      {
+         return Collections.emptyList();
+      }
+      for (final String reference : classPath.trim().split(REGEX_WHITESPACE))
+      {
+         try
+         {
+            final File file = toFile(new URL(base, reference));
+            if (file != null)
+            {
+               referenced.add(file);
+            }
+         }
+         catch (final IOException ioe)
+         {
+            log.warnf("Ignoring malformed Class-Path reference \"%s\" in manifest of %s", reference, jar);
+         }
+      }
+      return referenced;
+   }
+
+   /**
+    * Reads the "Class-Path" manifest header of the specified JAR, returning null if it has none
+    */
+   private static String readManifestClassPath(final File jar) throws IOException
+   {
+      final JarFile jarFile = new JarFile(jar, false);
+      try
+      {
+         final Manifest manifest = jarFile.getManifest();
+         return manifest == null ? null : manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH);
+      }
+      finally
+      {
+         jarFile.close();
+      }
+   }
+
+   /**
+    * Obtains the local file denoted by the specified URL, or null if not a file URL
+    */
+   private static File toFile(final URL url)
+   {
+      if (!PROTOCOL_FILE.equals(url.getProtocol()))
+      {
+         return null;
+      }
+      try
+      {
+         return new File(url.toURI());
+      }
+      catch (final URISyntaxException urise)
+      {
+         // Unescaped characters; take the path as is
+         return new File(url.getPath());
+      }
+      catch (final IllegalArgumentException iae)
+      {
+         // Has an authority, fragment or the like
+         return new File(url.getPath());
+      }
+   }
+
+}
@@ -22,55 +22,43 @@
 
 package org.jboss.ejb3.embedded.impl.base.scanner;
 
-import java.io.Closeable;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.lang.annotation.Annotation;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
-import javax.ejb.MessageDriven;
-import javax.ejb.Singleton;
-import javax.ejb.Stateful;
-import javax.ejb.Stateless;
-
-import org.jboss.ejb3.embedded.impl.base.scanner.filter.BundleSymbolicNameExclusionFilter;
+import org.jboss.ejb3.embedded.impl.base.scanner.EntryScanStatistics.Verdict;
+import org.jboss.ejb3.embedded.impl.base.scanner.filter.ExclusionFilterChain;
+import org.jboss.ejb3.embedded.impl.base.scanner.filter.KnownLibraryExclusionFilter;
+import org.jboss.ejb3.embedded.spi.scanner.EjbJarScanner;
+import org.jboss.ejb3.embedded.spi.scanner.EjbModuleListener;
 import org.jboss.ejb3.embedded.spi.scanner.filter.ExclusionFilter;
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbModuleIndex;
 import org.jboss.logging.Logger;
-import org.jboss.vfs.TempFileProvider;
 import org.jboss.vfs.VFS;
 import org.jboss.vfs.VirtualFile;
 
 /**
  * Implements JVM ClassPath scanning for EJB JARs as defined
- * by EJB 3.1 Final Draft 22.2.1.  This is a static utility 
- * class which is not to be instantiated.
+ * by EJB 3.1 Final Draft 22.2.1; the default {@link EjbJarScanner},
+ * created by the {@link ClassPathEjbJarScannerProvider}.  Instances are owned by the
+ * container and must be {@link ClassPathEjbJarScanner#close()}d 
+ * when no longer needed, releasing the Threads and temporary files 
+ * they may have created.  Thread-safe.
  * 
  * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
  * @version $Revision: $
  */
-public class ClassPathEjbJarScanner
+public class ClassPathEjbJarScanner implements EjbJarScanner
 {
 
-   //TODO
-   /*
-    * This is an intentionally naive implementation which essentially
-    * amounts to junkware.  It gets us to the next phases of development, 
-    * but isn't intended to be the final solution.  For starters it's a static utility.
-    * 
-    * Open issues:
-    * 
-    * 1) Don't load all Classes to look for annotations.  Vie for ASM or Javassist (or 
-    * other bytecode analyzer).  Or pass through an isolated VDF Deployer chain and let the
-    * deployers figure out what the eligible modules are
-    * 2) Define a configurable ScheduledExecutorService to back the TempFileProvider
-    * used to mount ZIP VFS roots.  If we go the deployer chain route as noted by 1) this 
-    * won't be necessary 
-    */
-
    //-------------------------------------------------------------------------------------||
    // Class Members ----------------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
@@ -92,57 +80,83 @@ public class ClassPathEjbJarScanner
    {};
 
    /**
-    * Path of the EJB Descriptor, relative to the root of a deployment
+    * Maximum number of unfinished entries named upon exceeding the budget
     */
-   private static final String PATH_EJB_JAR_XML = "META-INF/ejb-jar.xml";
+   private static final int MAX_UNFINISHED_NAMED = 5;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
 
    /**
-    * .class Extension
+    * Configuration of this scanner
     */
-   private static final String EXTENSION_CLASS = ".class";
+   private final ScannerConfiguration configuration;
 
    /**
-    * .jar Extension
+    * Exclusion rules compiled from the configuration
     */
-   private static final String EXTENSION_JAR = ".jar";
+   private final ExclusionFilterChain exclusionFilters;
 
    /**
-    * EJB Component-defining annotations
+    * Packages within which components are sought
     */
-   @SuppressWarnings("unchecked")
-   private static final Class<? extends Annotation>[] EJB_COMPONENT_ANNOTATIONS = (Class<? extends Annotation>[]) new Class<?>[]
-   {Stateless.class, Stateful.class, Singleton.class, MessageDriven.class};
+   private final PackageScope packageScope;
 
    /**
-    * {@link ScheduledExecutorService} to mount files to be scanned
+    * Scheduler of the scan of each entry, owning the Threads and temporary files
+    * created in scanning
     */
-   @Deprecated
-   //TODO Get some reusable, configurable real SES (as managed by the container) else we'll block on JVM shutdown; 
-   // this one is never shut down cleanly
-   private static final ScheduledExecutorService ses = Executors.newScheduledThreadPool(Runtime.getRuntime()
-         .availableProcessors());
+   private final ScanScheduler scheduler;
 
    /**
-    * Configured exclusion filters
-    * TODO Shouldn't be hardcoded, but available via user configuration
+    * Reader of exploded directories
     */
-   private static final List<ExclusionFilter> exclusionFilters;
-   static
-   {
-      exclusionFilters = new ArrayList<ExclusionFilter>();
-      exclusionFilters.add(new BundleSymbolicNameExclusionFilter("org.eclipse", "org.junit"));
-   }
+   private final DirectoryReader directoryReader;
+
+   /**
+    * Reader of JARs and WARs
+    */
+   private final ArchiveReader archiveReader;
+
+   /**
+    * Statistics of the most recently completed scan, or null if none has completed
+    */
+   private volatile ScanStatistics statistics;
 
    //-------------------------------------------------------------------------------------||
    // Constructor ------------------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
 
    /**
-    * Internal Constructor, no instances permitted
+    * Creates a new scanner with the specified configuration.  No Threads
+    * or temporary files are created until needed in scanning.
+    * 
+    * @param configuration
+    * @throws IllegalArgumentException If the configuration is not specified
     */
-   private ClassPathEjbJarScanner()
+   public ClassPathEjbJarScanner(final ScannerConfiguration configuration) throws IllegalArgumentException
    {
-      throw new UnsupportedOperationException("No instances permitted");
+      // Precondition checks
+      if (configuration == null)
+      {
+         throw new IllegalArgumentException("configuration must be specified");
+      }
+
+      this.configuration = configuration;
+      final List<String> libraries = new ArrayList<String>();
+      if (configuration.isExcludeShippedLibraries())
+      {
+         libraries.addAll(KnownLibraryExclusionFilter.getShippedEntries());
+      }
+      libraries.addAll(configuration.getExcludedLibraries());
+      this.exclusionFilters = new ExclusionFilterChain(configuration.getExcludedGlobs(), configuration
+            .getExcludedGroupIds(), configuration.getExcludedBundles(), libraries, configuration
+            .getExclusionFilters());
+      this.packageScope = new PackageScope(configuration.getPackages());
+      this.scheduler = new ScanScheduler(configuration);
+      this.directoryReader = new DirectoryReader(configuration, exclusionFilters, packageScope);
+      this.archiveReader = new ArchiveReader(configuration, exclusionFilters, packageScope, scheduler);
    }
 
    //-------------------------------------------------------------------------------------||
@@ -150,14 +164,195 @@ public class ClassPathEjbJarScanner
    //-------------------------------------------------------------------------------------||
 
    /**
-    * Obtains all EJB JAR entries from the ClassPath
+    * Obtains all EJB JAR entries from the ClassPath using the configuration of 
+    * system properties and defaults, using a scanner which is closed before returning
+    * 
+    * @deprecated Use {@link ClassPathEjbJarScanner#getEjbJars(ScannerConfiguration)}, or
+    * {@link ClassPathEjbJarScanner#findEjbJars()} of a scanner to be reused
     */
+   @Deprecated
    public static String[] getEjbJars()
    {
+      return getEjbJars(new ScannerConfiguration());
+   }
+
+   /**
+    * Obtains all EJB JAR entries from the ClassPath using the specified
+    * configuration, using a scanner which is closed before returning
+    * 
+    * @param configuration
+    * @throws IllegalArgumentException If the configuration is not specified
+    * @see ClassPathEjbJarScanner#findEjbJars()
+    */
+   public static String[] getEjbJars(final ScannerConfiguration configuration) throws IllegalArgumentException
+   {
+      final ClassPathEjbJarScanner scanner = new ClassPathEjbJarScanner(configuration);
+      try
+      {
+         return scanner.findEjbJars();
+      }
+      finally
+      {
+         scanner.close();
+      }
+   }
 
+   /**
+    * Obtains an {@link EjbModuleIndex} for each EJB JAR entry on the ClassPath 
+    * using the specified configuration, using a scanner which is closed before
+    * returning
+    * 
+    * @param configuration
+    * @throws IllegalArgumentException If the configuration is not specified
+    * @see ClassPathEjbJarScanner#findEjbModuleIndexes()
+    */
+   public static List<EjbModuleIndex> getEjbModuleIndexes(final ScannerConfiguration configuration)
+         throws IllegalArgumentException
+   {
+      final ClassPathEjbJarScanner scanner = new ClassPathEjbJarScanner(configuration);
+      try
+      {
+         return scanner.findEjbModuleIndexes();
+      }
+      finally
+      {
+         scanner.close();
+      }
+   }
+
+   /**
+    * Obtains all EJB JAR entries from the ClassPath.  Entries are returned 
+    * in ClassPath order, though they may be scanned concurrently.
+    * 
+    * @throws IllegalStateException If this scanner has been closed
+    * @throws ScanBudgetExceededException If the scan did not finish within its budget
+    */
+   public String[] findEjbJars() throws IllegalStateException
+   {
       // Initialize
       final Collection<String> returnValue = new ArrayList<String>();
 
+      // Scan, stopping at the first component of each module
+      for (final EjbModuleIndex module : this.scanClassPath(false, null))
+      {
+         returnValue.add(module.getPath());
+      }
+
+      // Return
+      return returnValue.toArray(DUMMY);
+   }
+
+   /**
+    * Obtains an {@link EjbModuleIndex} for each EJB JAR entry on the ClassPath,
+    * listing all components of the module.  Every class of each module is 
+    * inspected (unless the module carries an index written at build time), 
+    * though still only once.  Indexes are returned in ClassPath order, though 
+    * modules may be scanned concurrently.
+    * 
+    * @throws IllegalStateException If this scanner has been closed
+    * @throws ScanBudgetExceededException If the scan did not finish within its budget
+    */
+   public List<EjbModuleIndex> findEjbModuleIndexes() throws IllegalStateException
+   {
+      return this.scanClassPath(true, null);
+   }
+
+   /**
+    * Scans the ClassPath, notifying the specified listener of each EJB JAR entry
+    * as soon as it's discovered, such that the caller may act upon modules while
+    * others are still being scanned.  The listener is always notified in the 
+    * calling Thread, though modules are notified in the order in which they're
+    * discovered, which is ClassPath order only if scanning serially without a budget
+    * ({@link ScannerConfiguration#PROPERTY_BUDGET}).  All components
+    * of each module are indexed if so configured by 
+    * {@link ScannerConfiguration#PROPERTY_ANNOTATION_INDEX}.  Any exception thrown
+    * by the listener stops the scan and is propagated.
+    * 
+    * @param listener
+    * @return The EJB JAR modules found, in ClassPath order
+    * @throws IllegalArgumentException If the listener is not specified
+    * @throws IllegalStateException If this scanner has been closed
+    * @throws ScanBudgetExceededException If the scan did not finish within its budget
+    */
+   public List<EjbModuleIndex> scan(final EjbModuleListener listener) throws IllegalArgumentException,
+         IllegalStateException
+   {
+      // Precondition checks
+      if (listener == null)
+      {
+         throw new IllegalArgumentException("listener must be specified");
+      }
+
+      return this.scanClassPath(configuration.isAnnotationIndex(), listener);
+   }
+
+   /**
+    * {@inheritDoc}
+    * As {@link ClassPathEjbJarScanner#scan(EjbModuleListener)}, though the listener
+    * is optional and whether to index in full is specified rather than configured.
+    * @see org.jboss.ejb3.embedded.spi.scanner.EjbJarScanner#scan(boolean, org.jboss.ejb3.embedded.spi.scanner.EjbModuleListener)
+    */
+   @Override
+   public List<EjbModuleIndex> scan(final boolean full, final EjbModuleListener listener)
+         throws IllegalStateException
+   {
+      return this.scanClassPath(full, listener);
+   }
+
+   /**
+    * Releases the Threads and temporary files created by this scanner.  
+    * Subsequent scans are not permitted.  Repeated calls have no effect.
+    */
+   @Override
+   public void close()
+   {
+      scheduler.close();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Accessors --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Returns the configuration of this scanner
+    * @return the configuration
+    */
+   public ScannerConfiguration getConfiguration()
+   {
+      return configuration;
+   }
+
+   /**
+    * Returns the statistics of the most recently completed scan, 
+    * or null if no scan has completed
+    * @return the statistics
+    */
+   public ScanStatistics getStatistics()
+   {
+      return statistics;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Scans the ClassPath, returning the EJB modules found in ClassPath order.  If 
+    * not indexing in full, the returned indexes list only the first component found.
+    * The listener, if specified, is notified of each module as it's discovered.
+    */
+   private List<EjbModuleIndex> scanClassPath(final boolean full, final EjbModuleListener listener)
+         throws IllegalStateException
+   {
+      // Precondition checks
+      if (scheduler.isClosed())
+      {
+         throw new IllegalStateException("Scanner has been closed");
+      }
+
+      // Initialize
+      final long start = System.nanoTime();
+
       // Get the full ClassPath
       final String classPath = SecurityActions.getSystemProperty(SYS_PROP_KEY_CLASS_PATH);
       if (log.isTraceEnabled())
@@ -165,241 +360,532 @@ public class ClassPathEjbJarScanner
          log.tracef("Class Path: %s", classPath);
       }
 
-      // Split by the path separator character
-      final String[] classPathEntries = classPath.split(File.pathSeparator);
+      // Scope within which verdicts are reached; a verdict is only valid under the same exclusion rules
+      final String cacheScope = this.getCacheScope();
 
-      // For each CP entry
-      for (final String classPathEntry : classPathEntries)
+      // Use results from previous scans if so configured, also sparing the reading of manifests
+      final File cacheDirectory = configuration.getCacheDirectory();
+      final ScanResultCache cache = cacheDirectory == null ? null : new ScanResultCache(cacheDirectory,
+            configuration.isCacheDigest(), cacheScope);
+
+      // Split by the path separator character and, if so configured, add what else is reachable
+      final ClassPathDiscovery discovery = new ClassPathDiscovery(configuration.isDiscover(), cache);
+      discovery.addClassPath(classPath);
+      if (configuration.isDiscover())
       {
-         // If this is an EJB JAR
-         if (isEjbJar(classPathEntry))
+         final ClassLoader tccl = SecurityActions.getTccl();
+         if (tccl != null)
          {
-            // Add to be returned
-            returnValue.add(classPathEntry);
+            // Skip the system ClassLoader, which the ClassPath describes already, and the extensions of the JVM
+            discovery.addClassLoader(tccl, SecurityActions.getSystemClassLoader());
          }
       }
+      final List<String> discovered = discovery.getEntries();
+      final String[] classPathEntries = discovered.toArray(new String[discovered.size()]);
+      if (log.isTraceEnabled())
+      {
+         log.tracef("Discovered ClassPath entries: %s", discovered);
+      }
 
-      // Return
-      if (log.isDebugEnabled())
+      // Unless so configured, scan regardless of other JVMs
+      if (cacheDirectory == null || configuration.getCacheSharedSeconds() == 0)
       {
-         log.debug("EJB Modules discovered on ClassPath: " + returnValue);
+         return this.scanClassPath(classPathEntries, full, cache, listener, start, null);
+      }
+
+      // Reuse the modules found by another JVM in scanning the identical ClassPath, else scan while it waits
+      final SharedScanResult shared = new SharedScanResult(cacheDirectory, this.getSharedResultKey(
+            classPathEntries, full), TimeUnit.SECONDS.toMillis(configuration.getCacheSharedSeconds()));
+      shared.lock();
+      try
+      {
+         final List<EjbModuleIndex> modules = shared.read();
+         if (modules != null)
+         {
+            // Keep any manifests read in discovery
+            cache.save();
+            return this.reuse(modules, listener, start);
+         }
+         return this.scanClassPath(classPathEntries, full, cache, listener, start, shared);
+      }
+      finally
+      {
+         shared.unlock();
       }
-      return returnValue.toArray(DUMMY);
    }
 
-   //-------------------------------------------------------------------------------------||
-   // Internal Helper Methods ------------------------------------------------------------||
-   //-------------------------------------------------------------------------------------||
+   /**
+    * Obtains the scope within which verdicts are reached, describing all configuration
+    * bearing upon them such that it's equal for equally-configured scanners in any JVM
+    */
+   String getCacheScope()
+   {
+      return packageScope + (configuration.isReflective() ? ";reflective" : "")
+            + (configuration.isNested() ? ";nested" : "") + (configuration.isUseIndex() ? ";index" : "")
+            + ";exclusions=" + this.describeExclusions();
+   }
 
    /**
-    * Determines whether this entry from the ClassPath is an EJB JAR
+    * Obtains the key under which the modules found in scanning the specified ClassPath
+    * entries are shared among JVMs; equal for equally-configured scanners in any JVM
     */
-   private static boolean isEjbJar(final String candidate)
+   String getSharedResultKey(final String[] classPathEntries, final boolean full)
    {
+      final StringBuilder key = new StringBuilder();
+      for (final String classPathEntry : classPathEntries)
+      {
+         key.append(classPathEntry).append(File.pathSeparatorChar);
+      }
+      key.append(";full=").append(full).append(";scope=").append(this.getCacheScope());
+      return key.toString();
+   }
 
-      /*
-       * EJB 3.1 22.2.1:
-       * 
-       * A classpath entry is considered a matching entry if it meets one of the following criteria:
-       * - It is an ejb-jar according to the standard module-type identification rules defined by the Java
-       *   EE platform specification
-       * - It is a directory containing a META-INF/ejb-jar.xml file or at least one .class with an enterprise
-       *   bean component-defining annotation
-       */
+   /**
+    * Scans the specified ClassPath entries, returning the EJB modules found in ClassPath 
+    * order.  If not indexing in full, the returned indexes list only the first component 
+    * found.  The listener, if specified, is notified of each module as it's discovered.
+    * If so configured, the scan must finish within its budget, the likeliest EJB JARs 
+    * being scanned first.
+    * @param cache Verdicts of previous scans, or null if not so configured
+    * @param start Time at which the scan started, in nanoseconds
+    * @param shared Where the modules found are shared with other JVMs if the scan
+    *   finishes, or null if they're not to be shared
+    * @throws ScanBudgetExceededException If the scan did not finish within its budget
+    *   and is not configured to proceed with the modules found
+    */
+   private List<EjbModuleIndex> scanClassPath(final String[] classPathEntries, final boolean full,
+         final ScanResultCache cache, final EjbModuleListener listener, final long start, final SharedScanResult shared)
+         throws ScanBudgetExceededException
+   {
+      final List<EjbModuleIndex> returnValue = new ArrayList<EjbModuleIndex>();
+
+      // Within a budget, scan the likeliest EJB JARs first
+      final long budgetMillis = configuration.getBudgetMillis();
+      final ScanBudget budget = budgetMillis == 0 ? null : new ScanBudget(start, TimeUnit.MILLISECONDS
+            .toNanos(budgetMillis), classPathEntries.length);
+      final int[] order = budget == null ? null : ScanScheduler.prioritize(classPathEntries);
+      final String[] candidates = order == null ? classPathEntries : new String[classPathEntries.length];
+      if (order != null)
+      {
+         for (int i = 0; i < order.length; i++)
+         {
+            candidates[i] = classPathEntries[order[i]];
+         }
+      }
 
-      // Represent as VFS so we get a nice unified API
-      final VirtualFile file = VFS.getChild(candidate);
-      Closeable handle = null;
-      TempFileProvider provider = null;
+      // Classes are examined reflectively only in a ClassLoader discarded once we're done
+      final ReflectiveComponentInspector reflectiveInspector = configuration.isReflective()
+            ? new ReflectiveComponentInspector(toUrls(classPathEntries))
+            : null;
+
+      // Archives are read ahead in the background, overlapping disk latency with scanning
+      final Prefetcher prefetcher = this.createPrefetcher(candidates, full, cache);
 
+      // Determine which entries are EJB JARs
+      final ModuleScan[] scanned;
+      final int threads = Math.min(configuration.getThreads(), candidates.length);
       try
       {
-
-         // If the file exists
-         if (file.exists())
+         scanned = scheduler.scanEntries(candidates.length, threads, new ScanScheduler.EntryTask()
          {
-
-            // Mount Exploded dir
-            if (file.isDirectory())
-            {
-               handle = VFS.mountReal(file.getPhysicalFile(), file);
-            }
-            // Mount EJB JAR
-            else if (file.getName().endsWith(EXTENSION_JAR))
-            {
-               if (provider == null)
-               {
-                  provider = TempFileProvider.create("jbossejbmodulescanner", ses);
-               }
-               handle = VFS.mountZip(file.getPhysicalFile(), file, provider);
-            }
-            // No conditions met
-            else
+            @Override
+            public ModuleScan scan(final int index)
             {
-               // So it's obvious if we've got something we didn't properly mount
-               log.warn("Encountered unknown file type, skipping: " + file);
-               return false;
+               return scanEntry(candidates, index, full, cache, reflectiveInspector, prefetcher, budget);
             }
+         }, budget, listener);
+      }
+      finally
+      {
+         if (reflectiveInspector != null)
+         {
+            reflectiveInspector.close();
+         }
+         if (prefetcher != null)
+         {
+            prefetcher.close();
+         }
+      }
 
+      // Persist any new results
+      if (cache != null)
+      {
+         cache.save();
+      }
+
+      // Back in ClassPath order, noting those left unfinished by the budget
+      final ModuleScan[] scans = order == null ? scanned : new ModuleScan[scanned.length];
+      boolean finished = true;
+      for (int i = 0; i < scanned.length; i++)
+      {
+         if (scanned[i] == null)
+         {
+            finished = false;
+            scanned[i] = new ModuleScan(candidates[i], full).unfinished(budget.getElapsedNanos(i));
          }
-         // Not a real file
-         else
+         if (order != null)
          {
-            log.warn("File on ClassPath could not be found: " + file);
-            return false;
+            scans[order[i]] = scanned[i];
          }
+      }
 
-         /*
-          * See if we've been configured to skip this file
-          */
-         for (final ExclusionFilter exclusionFilter : exclusionFilters)
+      // For each CP entry, followed by the archives nested within it
+      final List<EntryScanStatistics> entryStatistics = new ArrayList<EntryScanStatistics>(scans.length);
+      for (final ModuleScan entryScan : scans)
+      {
+         for (final ModuleScan scan : entryScan.getModuleScans())
          {
-            // If we should exclude this
-            if (exclusionFilter.exclude(file))
+            // If this is an EJB JAR
+            final EjbModuleIndex ejbJar = scan.getIndex();
+            if (ejbJar != null)
             {
-               // Exclude from further processing
-               if (log.isTraceEnabled())
-               {
-                  log.tracef("%s matched %s for exclusion; skipping", exclusionFilter, file);
-               }
-               return false;
+               // Add to be returned
+               returnValue.add(ejbJar);
             }
+            entryStatistics.add(scan.getStatistics());
          }
+      }
 
-         /*
-          * Directories and real JARs are handled the same way in VFS, so just do
-          * one check and skip logic to test isDirectory or not
-          */
+      // Record how we did
+      final ScanStatistics statistics = new ScanStatistics(entryStatistics, Math.max(threads, 1), System.nanoTime()
+            - start);
+      this.statistics = statistics;
+      this.report(statistics);
 
-         // Look for META-INF/ejb-jar.xml
-         final VirtualFile ejbJarXml = file.getChild(PATH_EJB_JAR_XML);
-         if (ejbJarXml.exists())
+      // Fail fast, or proceed with what we have, if out of time
+      if (!finished)
+      {
+         final String message = describeUnfinished(statistics, budgetMillis);
+         if (!configuration.isBudgetPartial())
          {
-            if (log.isTraceEnabled())
-            {
-               log.tracef("Found descriptor %s in %s", ejbJarXml.getPathNameRelativeTo(file), file);
-            }
-            return true;
+            throw new ScanBudgetExceededException(message, statistics);
          }
+         log.warn(message + "; proceeding with the EJB JAR modules found: " + returnValue);
+      }
+      else if (shared != null)
+      {
+         shared.write(returnValue);
+      }
+
+      // Return
+      if (log.isDebugEnabled())
+      {
+         log.debug("EJB Modules discovered on ClassPath: " + returnValue);
+         log.debug("Scan completed: " + statistics);
+      }
+      return returnValue;
+   }
 
-         // Look for at least one .class with an EJB annotation
-         if (containsEjbComponentClass(file))
+   /**
+    * Describes the entries left unfinished in the specified scan, naming the slowest
+    */
+   private static String describeUnfinished(final ScanStatistics statistics, final long budgetMillis)
+   {
+      final StringBuilder message = new StringBuilder("Scan of ClassPath did not finish within its budget of ")
+            .append(budgetMillis).append(" ms (").append(ScannerConfiguration.PROPERTY_BUDGET).append(")");
+      int started = 0;
+      int notStarted = 0;
+      for (final EntryScanStatistics entry : statistics.getUnfinishedEntries())
+      {
+         if (entry.getElapsedNanos() == 0)
+         {
+            notStarted++;
+            continue;
+         }
+         if (started++ < MAX_UNFINISHED_NAMED)
          {
-            return true;
+            message.append(started == 1 ? "; slowest unfinished entries: " : ", ").append(entry.getPath()).append(
+                  " (").append(TimeUnit.NANOSECONDS.toMillis(entry.getElapsedNanos())).append(" ms)");
          }
+      }
+      if (started > MAX_UNFINISHED_NAMED)
+      {
+         message.append(" and ").append(started - MAX_UNFINISHED_NAMED).append(" more");
+      }
+      message.append("; ").append(notStarted).append(" entries not started.  Consider excluding slow entries by ")
+            .append(ScannerConfiguration.PROPERTY_EXCLUDE_GLOBS);
+      return message.toString();
+   }
 
-         // Return
-         return false;
+   /**
+    * Returns the specified modules, found by a scan in another JVM, notifying the
+    * listener, if specified, of each.  The statistics recorded list only these modules,
+    * as cached.
+    * @param start Time at which the scan started, in nanoseconds
+    */
+   private List<EjbModuleIndex> reuse(final List<EjbModuleIndex> modules, final EjbModuleListener listener,
+         final long start)
+   {
+      final List<EntryScanStatistics> entryStatistics = new ArrayList<EntryScanStatistics>(modules.size());
+      for (final EjbModuleIndex module : modules)
+      {
+         if (listener != null)
+         {
+            listener.moduleDiscovered(module);
+         }
+         entryStatistics.add(new EntryScanStatistics(module.getPath(), Verdict.EJB_JAR, true, 0, 0, 0, 0, null));
+      }
+      final ScanStatistics statistics = new ScanStatistics(entryStatistics, 1, System.nanoTime() - start);
+      this.statistics = statistics;
+      this.report(statistics);
+      if (log.isDebugEnabled())
+      {
+         log.debug("EJB Modules found on ClassPath by another JVM: " + modules);
+      }
+      return modules;
+   }
 
+   /**
+    * Describes the configured exclusion rules.  Filters supplied as instances 
+    * are described by type, as their String form may differ in each JVM.
+    */
+   private String describeExclusions()
+   {
+      final List<String> filterTypes = new ArrayList<String>();
+      for (final ExclusionFilter filter : configuration.getExclusionFilters())
+      {
+         filterTypes.add(filter.getClass().getName());
       }
-      catch (final IOException e)
+      return "globs=" + configuration.getExcludedGlobs() + ",groupIds=" + configuration.getExcludedGroupIds()
+            + ",bundles=" + configuration.getExcludedBundles() + ",libraries="
+            + configuration.getExcludedLibraries() + (configuration.isExcludeShippedLibraries() ? ",shipped" : "")
+            + ",filters=" + filterTypes;
+   }
+
+   /**
+    * Scans the entry of the specified index, first submitting the entries following
+    * it to be read ahead by the specified prefetcher, if not null.  If the specified
+    * budget, if any, is spent before or while scanning the entry, returns null.
+    */
+   private ModuleScan scanEntry(final String[] candidates, final int index, final boolean full,
+         final ScanResultCache cache, final ReflectiveComponentInspector reflectiveInspector,
+         final Prefetcher prefetcher, final ScanBudget budget)
+   {
+      if (budget != null && !budget.started(index))
       {
-         throw new RuntimeException("Could not mount file from ClassPath for EJB JAR module scanning", e);
+         return null;
       }
-      finally
+      try
       {
-         try
+         if (prefetcher == null)
+         {
+            return this.scan(candidates[index], full, cache, reflectiveInspector, budget);
+         }
+         prefetcher.started(index);
+         final ModuleScan scan = this.scan(candidates[index], full, cache, reflectiveInspector, budget);
+         scan.prefetched(prefetcher.finished(index));
+         return scan;
+      }
+      catch (final ScanBudget.ExceededException bee)
+      {
+         if (prefetcher != null)
          {
-            handle.close();
+            prefetcher.finished(index);
          }
-         catch (final IOException e)
+         if (log.isDebugEnabled())
          {
-            // Ignore
-            log.warn("Could not close handle to mounted " + file, e);
+            log.debugf("Abandoned scan of %s upon exceeding the budget", candidates[index]);
          }
+         return null;
       }
-
    }
 
    /**
-    * Determines if there is at least one .class in the given file
-    * with an EJB component-defining annotation (Stateless, Stateful, 
-    * Singleton, MessageDriven)
-    * @param file
-    * @return
-    * @deprecated Use a real implementation scanner
+    * Scans this entry from the ClassPath.  Exclusion rules requiring only the path
+    * of the entry are applied first, such that excluded entries are never read.  
+    * The verdict from the specified cache is used if present and valid, and the 
+    * new verdict recorded otherwise.  As the cache holds only verdicts, when indexing
+    * in full only negative verdicts may be used.  The cache, reflective inspector
+    * and budget may be null.
     */
-   @Deprecated
-   private static boolean containsEjbComponentClass(final VirtualFile file)
+   private ModuleScan scan(final String candidate, final boolean full, final ScanResultCache cache,
+         final ReflectiveComponentInspector reflectiveInspector, final ScanBudget budget)
    {
-      return containsEjbComponentClass(file, file);
+      final File file = new File(candidate);
+      final String excludedBy = exclusionFilters.getPathExclusion(file);
+      if (excludedBy != null)
+      {
+         final ModuleScan scan = new ModuleScan(candidate, full);
+         scan.exclude(excludedBy);
+         return scan.finish();
+      }
+
+      if (cache == null)
+      {
+         return this.scan(candidate, full, reflectiveInspector, budget);
+      }
+
+      final Boolean cached = cache.getVerdict(file);
+      if (cached != null && (!cached.booleanValue() || !full))
+      {
+         final ModuleScan scan = new ModuleScan(candidate, full);
+         scan.cachedVerdict(cached.booleanValue());
+         return scan.finish();
+      }
+      final ModuleScan scan = this.scan(candidate, full, reflectiveInspector, budget);
+      if (!scan.hasNestedModules() && !scan.isExcluded())
+      {
+         // A positive verdict would not account for nested modules, nor a negative one
+         // reached by exclusion for the entry itself once the rule is lifted
+         cache.putVerdict(file, scan.getIndex() != null);
+      }
+      return scan;
    }
 
    /**
-    * Determines if there is at least one .class in the given file
-    * with an EJB component-defining annotation (Stateless, Stateful, 
-    * Singleton, MessageDriven). 
-    * @param root The original root from which we started the search
-    * @param file
-    * @return
-    * @deprecated Use a real implementation scanner
+    * Scans this entry from the ClassPath, inspecting classes reflectively
+    * with the specified inspector if not null, within the specified budget
+    * if not null
     */
-   @Deprecated
-   private static boolean containsEjbComponentClass(final VirtualFile root, final VirtualFile file)
+   private ModuleScan scan(final String candidate, final boolean full,
+         final ReflectiveComponentInspector reflectiveInspector, final ScanBudget budget)
    {
 
-      // Precondition check
-      assert file != null : "File must be specified";
+      /*
+       * EJB 3.1 22.2.1:
+       * 
+       * A classpath entry is considered a matching entry if it meets one of the following criteria:
+       * - It is an ejb-jar according to the standard module-type identification rules defined by the Java
+       *   EE platform specification
+       * - It is a directory containing a META-INF/ejb-jar.xml file or at least one .class with an enterprise
+       *   bean component-defining annotation
+       */
+
+      // Represent as VFS so we get a nice unified API
+      final VirtualFile file = VFS.getChild(candidate);
 
-      // For all children
-      for (final VirtualFile child : file.getChildren())
+      // Not a real file
+      final ModuleScan scan = new ModuleScan(candidate, full, reflectiveInspector, budget);
+      if (!file.exists())
       {
-         if (child.isDirectory())
+         log.warn("File on ClassPath could not be found: " + file);
+         scan.missing();
+         return scan.finish();
+      }
+
+      // See if we've been configured to skip this file before mounting
+      final String excludedBy = exclusionFilters.getPreMountExclusion(new ClassPathEntryImpl(candidate));
+      if (excludedBy != null)
+      {
+         scan.exclude(excludedBy);
+         return scan.finish();
+      }
+
+      try
+      {
+         // Exploded dir
+         if (file.isDirectory())
          {
-            // Determine if there's one in the child
-            final boolean foundInChild = containsEjbComponentClass(root, child);
-            if (foundInChild)
-            {
-               return true;
-            }
+            directoryReader.scan(file, scan);
          }
-
-         // Get the Class for all .class files
-         final String childName = child.getPathNameRelativeTo(root);
-         if (childName.endsWith(EXTENSION_CLASS))
+         // EJB JAR, or WAR if so configured
+         else if (file.getName().endsWith(ArchiveReader.EXTENSION_JAR)
+               || (configuration.isNested() && file.getName().endsWith(ArchiveReader.EXTENSION_WAR)))
          {
-            final String className = childName.substring(0, childName.length() - EXTENSION_CLASS.length()).replace('/',
-                  '.');
-
-            // Here's the naughty part; loading the Class (which we really don't need to do at all, just inspect for annotations)
-            Class<?> clazz = null;
-            try
-            {
-               clazz = Class.forName(className, false, SecurityActions.getTccl());
-            }
-            catch (final ClassNotFoundException cnfe)
-            {
-               throw new RuntimeException("Found .class on ClassPath which could not be found by the TCCL", cnfe);
-            }
-            catch (final NoClassDefFoundError ncdfe)
+            archiveReader.scan(file, scan);
+            if (configuration.isNested() && !scan.isExcluded())
             {
-               // Ugly hack used to identify the stuff for which we need to configure an exclusion filter
-               log.warnf(
-                     "Dev Hack Alert: Ignoring class on ClassPath which can't be loaded due to %s while loading %s; "
-                           + "configure an exclusion filter so %s is not processed", ncdfe.toString(), className, root);
+               archiveReader.scanNested(file, scan);
             }
+         }
+         // No conditions met
+         else
+         {
+            // So it's obvious if we've got something we didn't properly mount
+            log.warn("Encountered unknown file type, skipping: " + file);
+            scan.unsupported();
+         }
+      }
+      catch (final IOException e)
+      {
+         throw new RuntimeException("Could not mount file from ClassPath for EJB JAR module scanning", e);
+      }
+      return scan.finish();
 
-            // Determine if we have a class with an EJB component annotation 
-            if (clazz != null)
-            {
-               for (final Class<? extends Annotation> annotationClass : EJB_COMPONENT_ANNOTATIONS)
-               {
-                  if (clazz.isAnnotationPresent(annotationClass))
-                  {
-                     if (log.isTraceEnabled())
-                     {
-                        log.tracef("Found %s on %s in %s", annotationClass, clazz, root);
-                     }
-                     return true;
-                  }
-               }
-            }
+   }
 
+   /**
+    * Creates a prefetcher of those of the specified ClassPath entries which are
+    * archives to be read in scanning: those not excluded by their path, nor with
+    * a verdict in the specified cache, if any, which would be used.  Entries excluded
+    * before mounting are skipped by the prefetcher itself, as evaluating the rules
+    * may read the entries.  Returns null if not configured to read ahead or there's
+    * nothing to read ahead of.
+    */
+   private Prefetcher createPrefetcher(final String[] classPathEntries, final boolean full,
+         final ScanResultCache cache)
+   {
+      final int depth = configuration.getPrefetch();
+      if (depth == 0 || classPathEntries.length < 2)
+      {
+         return null;
+      }
+      final File[] files = new File[classPathEntries.length];
+      for (int i = 0; i < classPathEntries.length; i++)
+      {
+         final File file = new File(classPathEntries[i]);
+         if (!file.isFile() || exclusionFilters.getPathExclusion(file) != null)
+         {
+            continue;
+         }
+         final Boolean cached = cache == null ? null : cache.peekVerdict(file);
+         if (cached != null && (!cached.booleanValue() || !full))
+         {
+            continue;
          }
+         files[i] = file;
+      }
+      return new Prefetcher(files, depth, scheduler.getPrefetchExecutor(), exclusionFilters);
+   }
 
+   /**
+    * Converts the specified ClassPath entries to URLs
+    */
+   private static List<URL> toUrls(final String[] classPathEntries)
+   {
+      final List<URL> urls = new ArrayList<URL>(classPathEntries.length);
+      for (final String classPathEntry : classPathEntries)
+      {
+         try
+         {
+            urls.add(new File(classPathEntry).toURI().toURL());
+         }
+         catch (final MalformedURLException murle)
+         {
+            log.warn("Could not convert ClassPath entry to a URL, skipping: " + classPathEntry, murle);
+         }
       }
+      return urls;
+   }
 
-      // No conditions met, so false
-      return false;
+   /**
+    * Writes the specified statistics as a JSON report to the configured
+    * file, if any, logging any errors
+    */
+   private void report(final ScanStatistics statistics)
+   {
+      final File reportFile = configuration.getReportFile();
+      if (reportFile == null)
+      {
+         return;
+      }
+      try
+      {
+         final Writer writer = new OutputStreamWriter(new FileOutputStream(reportFile), "UTF-8");
+         try
+         {
+            statistics.writeJson(writer);
+         }
+         finally
+         {
+            writer.close();
+         }
+      }
+      catch (final IOException ioe)
+      {
+         // Ignore
+         log.warn("Could not write ClassPath scan report to " + reportFile, ioe);
+      }
    }
+
 }
@@ -0,0 +1,57 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.ejb3.embedded.impl.base.scanner;
+
+import java.util.Map;
+
+import org.jboss.ejb3.embedded.spi.scanner.EjbJarScanner;
+import org.jboss.ejb3.embedded.spi.scanner.ScannerProvider;
+
+/**
+ * {@link ScannerProvider} of the {@link ClassPathEjbJarScanner}, configured
+ * by a {@link ScannerConfiguration} of the container properties.  Used 
+ * unless another provider is configured or registered.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ * @see ScannerConfiguration#PROPERTY_PROVIDER
+ */
+public class ClassPathEjbJarScannerProvider implements ScannerProvider
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Required Implementations -----------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.spi.scanner.ScannerProvider#createScanner(java.util.Map)
+    */
+   @Override
+   public EjbJarScanner createScanner(final Map<?, ?> properties) throws IllegalArgumentException
+   {
+      return new ClassPathEjbJarScanner(new ScannerConfiguration(properties));
+   }
+
+}
@@ -0,0 +1,234 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.scanner;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.jboss.ejb3.embedded.spi.scanner.filter.ClassPathEntry;
+import org.jboss.logging.Logger;
+
+/**
+ * {@link ClassPathEntry} backed by a {@link File}, reading the manifest
+ * lazily and directly from the file system or ZIP.  Confined to the 
+ * scanning Thread.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+final class ClassPathEntryImpl implements ClassPathEntry
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(ClassPathEntryImpl.class);
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Path of the entry, as it appeared on the ClassPath
+    */
+   private final String path;
+
+   /**
+    * The entry
+    */
+   private final File file;
+
+   /**
+    * Manifest, once read
+    */
+   private Manifest manifest;
+
+   /**
+    * Whether an attempt has been made to read the manifest
+    */
+   private boolean manifestRead;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new instance for the specified ClassPath entry
+    * @param path
+    */
+   ClassPathEntryImpl(final String path)
+   {
+      assert path != null : "path must be specified";
+      this.path = path;
+      this.file = new File(path);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Required Implementations -----------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.spi.scanner.filter.ClassPathEntry#getPath()
+    */
+   @Override
+   public String getPath()
+   {
+      return path;
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.spi.scanner.filter.ClassPathEntry#getFile()
+    */
+   @Override
+   public File getFile()
+   {
+      return file;
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.spi.scanner.filter.ClassPathEntry#getName()
+    */
+   @Override
+   public String getName()
+   {
+      return file.getName();
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.spi.scanner.filter.ClassPathEntry#getSize()
+    */
+   @Override
+   public long getSize()
+   {
+      return file.isDirectory() ? 0 : file.length();
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.spi.scanner.filter.ClassPathEntry#isDirectory()
+    */
+   @Override
+   public boolean isDirectory()
+   {
+      return file.isDirectory();
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.spi.scanner.filter.ClassPathEntry#getManifest()
+    */
+   @Override
+   public Manifest getManifest()
+   {
+      if (!manifestRead)
+      {
+         manifestRead = true;
+         try
+         {
+            manifest = this.readManifest();
+         }
+         catch (final IOException ioe)
+         {
+            // Ignore; filters will treat this as no manifest
+            log.warn("Could not read manifest of ClassPath entry " + file + ": " + ioe.getMessage());
+         }
+      }
+      return manifest;
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return this.getClass().getSimpleName() + " [path=" + path + "]";
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Reads the manifest from the exploded directory or ZIP, returning null if there is none
+    */
+   private Manifest readManifest() throws IOException
+   {
+      if (file.isDirectory())
+      {
+         final File manifestFile = new File(file, JarFile.MANIFEST_NAME);
+         if (!manifestFile.isFile())
+         {
+            return null;
+         }
+         final InputStream in = new FileInputStream(manifestFile);
+         try
+         {
+            return new Manifest(in);
+         }
+         finally
+         {
+            in.close();
+         }
+      }
+
+      final ZipFile zip = new ZipFile(file);
+      try
+      {
+         final ZipEntry entry = zip.getEntry(JarFile.MANIFEST_NAME);
+         if (entry == null)
+         {
+            return null;
+         }
+         final InputStream in = zip.getInputStream(entry);
+         try
+         {
+            return new Manifest(in);
+         }
+         finally
+         {
+            in.close();
+         }
+      }
+      finally
+      {
+         zip.close();
+      }
+   }
+
+}
@@ -0,0 +1,213 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.scanner;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+
+import org.jboss.ejb3.embedded.impl.base.scanner.filter.ExclusionFilterChain;
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbComponentMetadata;
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbModuleIndexFile;
+import org.jboss.logging.Logger;
+import org.jboss.vfs.VFS;
+import org.jboss.vfs.VirtualFile;
+
+/**
+ * Reads exploded directories on the ClassPath, which are mounted such that
+ * any configured exclusion rules requiring their contents may be applied,
+ * and whose classes are walked on disk, descending only into the packages
+ * in scope.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+final class DirectoryReader extends ModuleReader
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(DirectoryReader.class);
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new reader of the specified configuration
+    * @see ModuleReader#ModuleReader(ScannerConfiguration, ExclusionFilterChain, PackageScope)
+    */
+   DirectoryReader(final ScannerConfiguration configuration, final ExclusionFilterChain exclusionFilters,
+         final PackageScope packageScope)
+   {
+      super(configuration, exclusionFilters, packageScope);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Required Implementations -----------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Scans the specified exploded directory
+    */
+   @Override
+   void scan(final VirtualFile file, final ModuleScan scan) throws IOException
+   {
+      final File physicalFile = file.getPhysicalFile();
+      final long mountStart = System.nanoTime();
+      final Closeable handle = VFS.mountReal(physicalFile, file);
+      scan.mounted(System.nanoTime() - mountStart);
+      try
+      {
+         // See if we've been configured to skip this file
+         final String excludedBy = exclusionFilters.getPostMountExclusion(file);
+         if (excludedBy != null)
+         {
+            scan.exclude(excludedBy);
+            return;
+         }
+
+         // Look for META-INF/ejb-jar.xml
+         final VirtualFile ejbJarXml = file.getChild(PATH_EJB_JAR_XML);
+         if (ejbJarXml.exists())
+         {
+            final InputStream in = ejbJarXml.openStream();
+            try
+            {
+               if (descriptorFound(file, PATH_EJB_JAR_XML, in, scan))
+               {
+                  return;
+               }
+            }
+            finally
+            {
+               in.close();
+            }
+         }
+
+         // Trust the module index if present
+         if (configuration.isUseIndex())
+         {
+            final VirtualFile index = file.getChild(EjbModuleIndexFile.PATH);
+            if (index.exists())
+            {
+               for (final String className : readIndex(file, new InputStreamReader(index.openStream(),
+                     EjbModuleIndexFile.CHARSET), scan))
+               {
+                  final VirtualFile classFile = file.getChild(className.replace('.', '/') + EXTENSION_CLASS);
+                  if (classFile.exists())
+                  {
+                     scan.componentFound(getComponent(file, classFile, scan), className, file);
+                  }
+               }
+               return;
+            }
+         }
+
+         // Look for .class files with an EJB annotation, descending only into the packages in scope
+         final ClassFileTreeWalker walker = new ClassFileTreeWalker(physicalFile);
+         final ClassFileTreeWalker.Visitor visitor = new ClassFileTreeWalker.Visitor()
+         {
+            public boolean visit(final CharSequence path, final ByteBuffer contents)
+            {
+               final EjbComponentMetadata component = getComponent(file, path, contents, scan);
+               return component != null && scan.componentFound(component, path.toString(), file);
+            }
+         };
+         if (!packageScope.isRestricted())
+         {
+            walker.walk("", visitor);
+            return;
+         }
+         for (final String path : packageScope.getPaths())
+         {
+            if (walker.walk(path, visitor))
+            {
+               return;
+            }
+         }
+      }
+      finally
+      {
+         close(handle, file);
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the EJB component defined by the specified .class file,
+    * or null if none is defined or the class file could not be parsed 
+    * @param root The original root from which we started the search
+    * @param classFile
+    * @param scan
+    * @return
+    */
+   private static EjbComponentMetadata getComponent(final VirtualFile root, final VirtualFile classFile,
+         final ModuleScan scan)
+   {
+      InputStream in = null;
+      try
+      {
+         in = classFile.openStream();
+         final long size = classFile.getSize();
+         scan.classInspected(size);
+         return EjbComponentClassFileInspector.getComponent(in, size);
+      }
+      catch (final IOException ioe)
+      {
+         throw new RuntimeException("Could not read " + classFile + " for EJB JAR module scanning", ioe);
+      }
+      catch (final IllegalArgumentException iae)
+      {
+         // Not a valid class file; nothing we can use here
+         log.warnf("Ignoring malformed class file %s in %s: %s", classFile.getPathNameRelativeTo(root), root, iae
+               .getMessage());
+         return null;
+      }
+      finally
+      {
+         if (in != null)
+         {
+            try
+            {
+               in.close();
+            }
+            catch (final IOException e)
+            {
+               // Ignore
+            }
+         }
+      }
+   }
+}
@@ -0,0 +1,776 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.scanner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbComponentMetadata;
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbComponentType;
+
+/**
+ * Determines whether a .class file defines an EJB component
+ * by reading the constant pool and the class-level
+ * RuntimeVisibleAnnotations attribute (JVM Specification 4.4, 4.7.16)
+ * directly from the bytes.  For component classes, the business 
+ * interfaces declared by or defaulted from the bean class may be 
+ * read in the same pass.  The class is never defined in any
+ * {@link ClassLoader}, so no static initialization, linkage
+ * errors or permanent generation growth result from inspection.
+ * This is a static utility class which is not to be instantiated.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public final class EjbComponentClassFileInspector
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Magic number prefixing all valid class files
+    */
+   private static final int MAGIC = 0xCAFEBABE;
+
+   /**
+    * Name of the class-level attribute holding runtime-retained annotations
+    */
+   private static final byte[] ATTRIBUTE_RUNTIME_VISIBLE_ANNOTATIONS = ascii("RuntimeVisibleAnnotations");
+
+   /*
+    * Descriptors of the view-defining annotations
+    */
+   private static final byte[] DESCRIPTOR_LOCAL = ascii("Ljavax/ejb/Local;");
+
+   private static final byte[] DESCRIPTOR_REMOTE = ascii("Ljavax/ejb/Remote;");
+
+   private static final byte[] DESCRIPTOR_LOCAL_BEAN = ascii("Ljavax/ejb/LocalBean;");
+
+   /**
+    * Name of the annotation element holding the business interfaces
+    */
+   private static final byte[] ELEMENT_VALUE = ascii("value");
+
+   /**
+    * Prefix of interfaces which are never business interfaces (EJB 3.1 4.9.7)
+    */
+   private static final String PACKAGE_PREFIX_EJB = "javax.ejb.";
+
+   /**
+    * Interfaces which are never business interfaces (EJB 3.1 4.9.7)
+    */
+   private static final List<String> EXCLUDED_INTERFACES = Arrays.asList("java.io.Serializable",
+         "java.io.Externalizable");
+
+   /*
+    * Constant pool tags
+    */
+   private static final int CONSTANT_UTF8 = 1;
+
+   private static final int CONSTANT_INTEGER = 3;
+
+   private static final int CONSTANT_FLOAT = 4;
+
+   private static final int CONSTANT_LONG = 5;
+
+   private static final int CONSTANT_DOUBLE = 6;
+
+   private static final int CONSTANT_CLASS = 7;
+
+   private static final int CONSTANT_STRING = 8;
+
+   private static final int CONSTANT_FIELDREF = 9;
+
+   private static final int CONSTANT_METHODREF = 10;
+
+   private static final int CONSTANT_INTERFACE_METHODREF = 11;
+
+   private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+   private static final int CONSTANT_METHOD_HANDLE = 15;
+
+   private static final int CONSTANT_METHOD_TYPE = 16;
+
+   private static final int CONSTANT_DYNAMIC = 17;
+
+   private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+
+   private static final int CONSTANT_MODULE = 19;
+
+   private static final int CONSTANT_PACKAGE = 20;
+
+   /**
+    * Component types, in the order of the descriptors below
+    */
+   private static final EjbComponentType[] TYPES = EjbComponentType.values();
+
+   /**
+    * Type descriptors of the component-defining annotations, as they'll appear
+    * in the constant pool; all are ASCII so equivalent in modified UTF-8
+    */
+   private static final byte[][] DESCRIPTORS;
+   static
+   {
+      DESCRIPTORS = new byte[TYPES.length][];
+      for (int i = 0; i < TYPES.length; i++)
+      {
+         DESCRIPTORS[i] = ascii(TYPES[i].getDescriptor());
+      }
+   }
+
+   /**
+    * Default size of the buffer used in reading a class from a stream of unknown length
+    */
+   private static final int DEFAULT_BUFFER_SIZE = 4096;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Internal Constructor, no instances permitted
+    */
+   private EjbComponentClassFileInspector()
+   {
+      throw new UnsupportedOperationException("No instances permitted");
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the type of EJB component defined by the class file contained in
+    * the remaining bytes of the specified buffer, or null if the class is not
+    * annotated with a component-defining annotation.  The position of the
+    * supplied buffer is not altered.
+    *
+    * @param classFile The class file contents
+    * @return The component type, or null if this class does not define an EJB
+    * @throws IllegalArgumentException If the buffer is not specified or does not
+    * contain a well-formed class file
+    */
+   public static EjbComponentType getComponentType(final ByteBuffer classFile) throws IllegalArgumentException
+   {
+      final EjbComponentMetadata component = getComponent(classFile);
+      return component == null ? null : component.getType();
+   }
+
+   /**
+    * Obtains the metadata of the EJB component defined by the class file contained 
+    * in the remaining bytes of the specified buffer, or null if the class is not
+    * annotated with a component-defining annotation.  The position of the
+    * supplied buffer is not altered.
+    *
+    * @param classFile The class file contents
+    * @return The component metadata, or null if this class does not define an EJB
+    * @throws IllegalArgumentException If the buffer is not specified or does not
+    * contain a well-formed class file
+    */
+   public static EjbComponentMetadata getComponent(final ByteBuffer classFile) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (classFile == null)
+      {
+         throw new IllegalArgumentException("class file must be specified");
+      }
+
+      // Work on our own view so we don't alter the caller's position or byte order
+      final ByteBuffer buffer = classFile.slice().order(ByteOrder.BIG_ENDIAN);
+      try
+      {
+         return readComponent(buffer);
+      }
+      catch (final BufferUnderflowException bue)
+      {
+         throw new IllegalArgumentException("Truncated class file", bue);
+      }
+      catch (final IndexOutOfBoundsException ioobe)
+      {
+         throw new IllegalArgumentException("Malformed class file", ioobe);
+      }
+   }
+
+   /**
+    * Obtains the type of EJB component defined by the class file read in full
+    * from the specified stream, or null if the class is not annotated with a
+    * component-defining annotation.  The stream is not closed.
+    *
+    * @param in Stream to the class file contents
+    * @param sizeHint The expected length of the class file, or a value &lt; 1 if unknown
+    * @return The component type, or null if this class does not define an EJB
+    * @throws IOException If an error occurred reading from the stream
+    * @throws IllegalArgumentException If the stream is not specified or does not
+    * contain a well-formed class file
+    */
+   public static EjbComponentType getComponentType(final InputStream in, final long sizeHint) throws IOException,
+         IllegalArgumentException
+   {
+      // Precondition checks
+      if (in == null)
+      {
+         throw new IllegalArgumentException("stream must be specified");
+      }
+
+      return getComponentType(readFully(in, sizeHint));
+   }
+
+   /**
+    * Obtains the metadata of the EJB component defined by the class file read 
+    * in full from the specified stream, or null if the class is not annotated 
+    * with a component-defining annotation.  The stream is not closed.
+    *
+    * @param in Stream to the class file contents
+    * @param sizeHint The expected length of the class file, or a value &lt; 1 if unknown
+    * @return The component metadata, or null if this class does not define an EJB
+    * @throws IOException If an error occurred reading from the stream
+    * @throws IllegalArgumentException If the stream is not specified or does not
+    * contain a well-formed class file
+    */
+   public static EjbComponentMetadata getComponent(final InputStream in, final long sizeHint) throws IOException,
+         IllegalArgumentException
+   {
+      // Precondition checks
+      if (in == null)
+      {
+         throw new IllegalArgumentException("stream must be specified");
+      }
+
+      return getComponent(readFully(in, sizeHint));
+   }
+
+   /**
+    * Returns whether the class file contained in the remaining bytes of the specified
+    * buffer may bear runtime-visible annotations, in which case a component-defining
+    * annotation may be present indirectly (ie. as a meta-annotation) and the class is
+    * worth inspecting reflectively.  False positives are possible; false negatives 
+    * are not.  The position of the supplied buffer is not altered.
+    *
+    * @param classFile The class file contents
+    * @throws IllegalArgumentException If the buffer is not specified
+    */
+   public static boolean mayBeAnnotated(final ByteBuffer classFile) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (classFile == null)
+      {
+         throw new IllegalArgumentException("class file must be specified");
+      }
+
+      // Look for the attribute name, as it would appear in the constant pool
+      final byte[] name = ATTRIBUTE_RUNTIME_VISIBLE_ANNOTATIONS;
+      final int limit = classFile.limit() - name.length;
+      for (int i = classFile.position(); i <= limit; i++)
+      {
+         int matched = 0;
+         while (matched < name.length && classFile.get(i + matched) == name[matched])
+         {
+            matched++;
+         }
+         if (matched == name.length)
+         {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Parses the class file, returning the component metadata or null
+    */
+   private static EjbComponentMetadata readComponent(final ByteBuffer buffer)
+   {
+      // Header
+      if (buffer.getInt() != MAGIC)
+      {
+         throw new IllegalArgumentException("Not a class file; bad magic number");
+      }
+      buffer.getShort(); // minor_version
+      buffer.getShort(); // major_version
+
+      /*
+       * Walk the constant pool, recording the offsets of the contents of UTF8
+       * and Class entries and noting if any matches a component-defining 
+       * annotation descriptor.
+       * The vast majority of classes are rejected here, having read the
+       * constant pool only.
+       */
+      final int constantPoolCount = u2(buffer);
+      final int[] offsets = new int[constantPoolCount];
+      boolean candidate = false;
+      for (int i = 1; i < constantPoolCount; i++)
+      {
+         final int tag = u1(buffer);
+         switch (tag)
+         {
+            case CONSTANT_UTF8 :
+               final int length = u2(buffer);
+               offsets[i] = buffer.position();
+               if (!candidate && matchDescriptor(buffer, buffer.position(), length) != null)
+               {
+                  candidate = true;
+               }
+               skip(buffer, length);
+               break;
+            case CONSTANT_CLASS :
+               offsets[i] = buffer.position();
+               skip(buffer, 2);
+               break;
+            case CONSTANT_STRING :
+            case CONSTANT_METHOD_TYPE :
+            case CONSTANT_MODULE :
+            case CONSTANT_PACKAGE :
+               skip(buffer, 2);
+               break;
+            case CONSTANT_METHOD_HANDLE :
+               skip(buffer, 3);
+               break;
+            case CONSTANT_INTEGER :
+            case CONSTANT_FLOAT :
+            case CONSTANT_FIELDREF :
+            case CONSTANT_METHODREF :
+            case CONSTANT_INTERFACE_METHODREF :
+            case CONSTANT_NAME_AND_TYPE :
+            case CONSTANT_DYNAMIC :
+            case CONSTANT_INVOKE_DYNAMIC :
+               skip(buffer, 4);
+               break;
+            case CONSTANT_LONG :
+            case CONSTANT_DOUBLE :
+               skip(buffer, 8);
+               // 8-byte constants take up two entries in the pool
+               i++;
+               break;
+            default :
+               throw new IllegalArgumentException("Unknown constant pool tag " + tag + " at index " + i);
+         }
+      }
+      if (!candidate)
+      {
+         return null;
+      }
+
+      // access_flags
+      skip(buffer, 2);
+      final String className = className(buffer, offsets, u2(buffer));
+      // super_class
+      skip(buffer, 2);
+
+      // Interfaces
+      final int interfacesCount = u2(buffer);
+      final List<String> interfaces = new ArrayList<String>(interfacesCount);
+      for (int i = 0; i < interfacesCount; i++)
+      {
+         interfaces.add(className(buffer, offsets, u2(buffer)));
+      }
+
+      // Fields and methods; we're only interested in class-level annotations
+      skipMembers(buffer);
+      skipMembers(buffer);
+
+      // Class attributes
+      EjbComponentType type = null;
+      List<String> local = null;
+      List<String> remote = null;
+      boolean localBean = false;
+      final int attributesCount = u2(buffer);
+      for (int i = 0; i < attributesCount; i++)
+      {
+         final int nameIndex = u2(buffer);
+         final int length = buffer.getInt();
+         final int end = buffer.position() + length;
+         if (utf8Equals(buffer, offsets[nameIndex], ATTRIBUTE_RUNTIME_VISIBLE_ANNOTATIONS))
+         {
+            final int annotationsCount = u2(buffer);
+            for (int j = 0; j < annotationsCount; j++)
+            {
+               final int typeOffset = offsets[u2(buffer)];
+               final EjbComponentType matched = matchDescriptor(buffer, typeOffset, -1);
+               if (matched != null)
+               {
+                  type = matched;
+                  skipElementValuePairs(buffer);
+               }
+               else if (utf8Equals(buffer, typeOffset, DESCRIPTOR_LOCAL))
+               {
+                  local = readClassValues(buffer, offsets);
+               }
+               else if (utf8Equals(buffer, typeOffset, DESCRIPTOR_REMOTE))
+               {
+                  remote = readClassValues(buffer, offsets);
+               }
+               else
+               {
+                  localBean |= utf8Equals(buffer, typeOffset, DESCRIPTOR_LOCAL_BEAN);
+                  skipElementValuePairs(buffer);
+               }
+            }
+         }
+         buffer.position(end);
+      }
+
+      // Referenced, but not as a class-level annotation
+      if (type == null)
+      {
+         return null;
+      }
+      return createMetadata(className, type, interfaces, local, remote, localBean);
+   }
+
+   /**
+    * Creates the metadata of the specified component, defaulting its business
+    * interfaces from those it implements where not declared (EJB 3.1 4.9.7). 
+    * Declared interfaces are null if the view annotation is not present, and
+    * empty if present without a value.
+    */
+   static EjbComponentMetadata createMetadata(final String className, final EjbComponentType type,
+         final List<String> interfaces, List<String> local, List<String> remote, boolean localBean)
+   {
+      // Message-driven beans have no business interfaces
+      if (type == EjbComponentType.MESSAGE_DRIVEN)
+      {
+         return new EjbComponentMetadata(className, type, null, null, false);
+      }
+
+      // Only some of the implemented interfaces may be business interfaces
+      final List<String> candidates = new ArrayList<String>(interfaces.size());
+      for (final String candidate : interfaces)
+      {
+         if (!EXCLUDED_INTERFACES.contains(candidate) && !candidate.startsWith(PACKAGE_PREFIX_EJB))
+         {
+            candidates.add(candidate);
+         }
+      }
+
+      // @Local or @Remote without a value designate the implemented interfaces
+      if (local != null && local.isEmpty())
+      {
+         local = candidates;
+      }
+      if (remote != null && remote.isEmpty())
+      {
+         remote = candidates;
+      }
+
+      // Nothing declared, so default
+      if (local == null && remote == null && !localBean)
+      {
+         if (candidates.isEmpty())
+         {
+            localBean = true;
+         }
+         else if (candidates.size() == 1)
+         {
+            local = candidates;
+         }
+      }
+
+      return new EjbComponentMetadata(className, type, local, remote, localBean);
+   }
+
+   /**
+    * Reads the element_value_pairs of a @Local or @Remote annotation, returning the
+    * names of the classes designated by its "value" element, or an empty list if none
+    */
+   private static List<String> readClassValues(final ByteBuffer buffer, final int[] offsets)
+   {
+      List<String> classNames = Collections.emptyList();
+      final int count = u2(buffer);
+      for (int i = 0; i < count; i++)
+      {
+         final int nameOffset = offsets[u2(buffer)];
+         if (!utf8Equals(buffer, nameOffset, ELEMENT_VALUE) || buffer.get(buffer.position()) != '[')
+         {
+            skipElementValue(buffer);
+            continue;
+         }
+         skip(buffer, 1);
+         final int values = u2(buffer);
+         classNames = new ArrayList<String>(values);
+         for (int j = 0; j < values; j++)
+         {
+            if (u1(buffer) != 'c')
+            {
+               throw new IllegalArgumentException("Expected class element value in business interface annotation");
+            }
+            // Return descriptor, ie. "Lcom/acme/Foo;"
+            final String descriptor = utf8(buffer, offsets[u2(buffer)]);
+            if (descriptor.length() < 3 || descriptor.charAt(0) != 'L')
+            {
+               throw new IllegalArgumentException("Not a class descriptor: " + descriptor);
+            }
+            classNames.add(descriptor.substring(1, descriptor.length() - 1).replace('/', '.'));
+         }
+      }
+      return classNames;
+   }
+
+   /**
+    * Skips over a field_info or method_info table
+    */
+   private static void skipMembers(final ByteBuffer buffer)
+   {
+      final int count = u2(buffer);
+      for (int i = 0; i < count; i++)
+      {
+         // access_flags, name_index, descriptor_index
+         skip(buffer, 6);
+         skipAttributes(buffer);
+      }
+   }
+
+   /**
+    * Skips over an attributes table
+    */
+   private static void skipAttributes(final ByteBuffer buffer)
+   {
+      final int count = u2(buffer);
+      for (int i = 0; i < count; i++)
+      {
+         skip(buffer, 2);
+         final int length = buffer.getInt();
+         skip(buffer, length);
+      }
+   }
+
+   /**
+    * Skips over the element_value_pairs of an annotation
+    */
+   private static void skipElementValuePairs(final ByteBuffer buffer)
+   {
+      final int count = u2(buffer);
+      for (int i = 0; i < count; i++)
+      {
+         skip(buffer, 2);
+         skipElementValue(buffer);
+      }
+   }
+
+   /**
+    * Skips over an element_value structure
+    */
+   private static void skipElementValue(final ByteBuffer buffer)
+   {
+      final int tag = u1(buffer);
+      switch (tag)
+      {
+         case 'B' :
+         case 'C' :
+         case 'D' :
+         case 'F' :
+         case 'I' :
+         case 'J' :
+         case 'S' :
+         case 'Z' :
+         case 's' :
+         case 'c' :
+            skip(buffer, 2);
+            break;
+         case 'e' :
+            skip(buffer, 4);
+            break;
+         case '@' :
+            skip(buffer, 2);
+            skipElementValuePairs(buffer);
+            break;
+         case '[' :
+            final int count = u2(buffer);
+            for (int i = 0; i < count; i++)
+            {
+               skipElementValue(buffer);
+            }
+            break;
+         default :
+            throw new IllegalArgumentException("Unknown annotation element value tag " + (char) tag);
+      }
+   }
+
+   /**
+    * Returns the component type whose descriptor is equal to the UTF8 constant
+    * at the specified offset, or null if there's no match.  If the length is
+    * not known (&lt; 0) it will be read from the two bytes preceding the offset.
+    */
+   private static EjbComponentType matchDescriptor(final ByteBuffer buffer, final int offset, int length)
+   {
+      if (offset == 0)
+      {
+         return null;
+      }
+      if (length < 0)
+      {
+         length = buffer.getShort(offset - 2) & 0xFFFF;
+      }
+      for (int i = 0; i < DESCRIPTORS.length; i++)
+      {
+         final byte[] descriptor = DESCRIPTORS[i];
+         if (descriptor.length == length && regionMatches(buffer, offset, descriptor))
+         {
+            return TYPES[i];
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Returns whether the UTF8 constant at the specified offset equals the expected value
+    */
+   private static boolean utf8Equals(final ByteBuffer buffer, final int offset, final byte[] expected)
+   {
+      if (offset == 0)
+      {
+         return false;
+      }
+      final int length = buffer.getShort(offset - 2) & 0xFFFF;
+      return length == expected.length && regionMatches(buffer, offset, expected);
+   }
+
+   /**
+    * Returns the binary name of the Class constant at the specified index
+    */
+   private static String className(final ByteBuffer buffer, final int[] offsets, final int index)
+   {
+      final int offset = offsets[index];
+      if (offset == 0)
+      {
+         throw new IllegalArgumentException("Not a class constant at index " + index);
+      }
+      final int nameIndex = buffer.getShort(offset) & 0xFFFF;
+      return utf8(buffer, offsets[nameIndex]).replace('/', '.');
+   }
+
+   /**
+    * Decodes the modified UTF-8 constant at the specified offset (JVM Specification 4.4.7)
+    */
+   private static String utf8(final ByteBuffer buffer, final int offset)
+   {
+      if (offset == 0)
+      {
+         throw new IllegalArgumentException("Not a UTF8 constant");
+      }
+      final int length = buffer.getShort(offset - 2) & 0xFFFF;
+      final char[] chars = new char[length];
+      int count = 0;
+      for (int i = offset; i < offset + length;)
+      {
+         final int b = buffer.get(i++) & 0xFF;
+         if (b < 0x80)
+         {
+            chars[count++] = (char) b;
+         }
+         else if ((b & 0xE0) == 0xC0)
+         {
+            chars[count++] = (char) (((b & 0x1F) << 6) | (buffer.get(i++) & 0x3F));
+         }
+         else
+         {
+            chars[count++] = (char) (((b & 0x0F) << 12) | ((buffer.get(i++) & 0x3F) << 6) | (buffer.get(i++) & 0x3F));
+         }
+      }
+      return new String(chars, 0, count);
+   }
+
+   /**
+    * Compares the bytes of the buffer beginning at the specified offset to the expected value
+    */
+   private static boolean regionMatches(final ByteBuffer buffer, final int offset, final byte[] expected)
+   {
+      for (int i = expected.length - 1; i >= 0; i--)
+      {
+         if (buffer.get(offset + i) != expected[i])
+         {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   private static int u1(final ByteBuffer buffer)
+   {
+      return buffer.get() & 0xFF;
+   }
+
+   private static int u2(final ByteBuffer buffer)
+   {
+      return buffer.getShort() & 0xFFFF;
+   }
+
+   private static void skip(final ByteBuffer buffer, final int length)
+   {
+      buffer.position(buffer.position() + length);
+   }
+
+   /**
+    * Reads the full contents of the specified stream
+    */
+   static ByteBuffer readFully(final InputStream in, final long sizeHint) throws IOException
+   {
+      byte[] bytes = new byte[sizeHint > 0 && sizeHint < Integer.MAX_VALUE ? (int) sizeHint : DEFAULT_BUFFER_SIZE];
+      int length = 0;
+      int read = 0;
+      while ((read = in.read(bytes, length, bytes.length - length)) != -1)
+      {
+         length += read;
+         if (length == bytes.length)
+         {
+            // Check for EOF before growing
+            final int next = in.read();
+            if (next == -1)
+            {
+               break;
+            }
+            final byte[] grown = new byte[bytes.length * 2];
+            System.arraycopy(bytes, 0, grown, 0, length);
+            bytes = grown;
+            bytes[length++] = (byte) next;
+         }
+      }
+      return ByteBuffer.wrap(bytes, 0, length);
+   }
+
+   /**
+    * Obtains the bytes of the specified ASCII String
+    */
+   private static byte[] ascii(final String value)
+   {
+      final byte[] bytes = new byte[value.length()];
+      for (int i = 0; i < bytes.length; i++)
+      {
+         bytes[i] = (byte) value.charAt(i);
+      }
+      return bytes;
+   }
+
+}
@@ -0,0 +1,407 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.ejb3.embedded.impl.base.scanner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbComponentMetadata;
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbComponentType;
+import org.jboss.logging.Logger;
+
+/**
+ * What the scanner needs of an EJB descriptor (ejb-jar.xml): whether it is 
+ * metadata-complete, and if so the session and message-driven beans it declares.
+ * The descriptor is streamed via StAX rather than parsed into a tree, and reading
+ * stops as early as possible: after the root element unless the beans are wanted,
+ * and otherwise after "enterprise-beans".  Descriptors prior to EJB 3.0, whether 
+ * by their "version" attribute or their DTD, are metadata-complete by definition.
+ * Immutable.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+final class EjbJarDescriptor
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(EjbJarDescriptor.class);
+
+   /**
+    * Factory of readers; configured once here and thereafter only used to create readers
+    * such that it may be shared among scanning Threads.  External entities, namely the 
+    * DTD of older descriptors, are never resolved.
+    */
+   private static final XMLInputFactory factory;
+   static
+   {
+      factory = XMLInputFactory.newInstance();
+      factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+      factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+      factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+   }
+
+   /**
+    * Names of the elements and attributes read
+    */
+   private static final String ELEMENT_EJB_JAR = "ejb-jar";
+
+   private static final String ELEMENT_ENTERPRISE_BEANS = "enterprise-beans";
+
+   private static final String ELEMENT_SESSION = "session";
+
+   private static final String ELEMENT_MESSAGE_DRIVEN = "message-driven";
+
+   private static final String ELEMENT_EJB_CLASS = "ejb-class";
+
+   private static final String ELEMENT_SESSION_TYPE = "session-type";
+
+   private static final String ELEMENT_BUSINESS_LOCAL = "business-local";
+
+   private static final String ELEMENT_BUSINESS_REMOTE = "business-remote";
+
+   private static final String ELEMENT_LOCAL_BEAN = "local-bean";
+
+   private static final String ATTRIBUTE_METADATA_COMPLETE = "metadata-complete";
+
+   private static final String ATTRIBUTE_VERSION = "version";
+
+   /**
+    * Version of the EJB specification from which annotations are honored
+    */
+   private static final double VERSION_ANNOTATIONS = 3.0;
+
+   /**
+    * Depths of the elements read, the root being 1
+    */
+   private static final int DEPTH_ENTERPRISE_BEANS = 2;
+
+   private static final int DEPTH_BEAN = 3;
+
+   private static final int DEPTH_BEAN_PROPERTY = 4;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Whether annotations are to be ignored in favor of the descriptor alone
+    */
+   private final boolean metadataComplete;
+
+   /**
+    * Components declared, if read
+    */
+   private final List<EjbComponentMetadata> components;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private EjbJarDescriptor(final boolean metadataComplete, final List<EjbComponentMetadata> components)
+   {
+      this.metadataComplete = metadataComplete;
+      this.components = components;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Reads the descriptor from the specified stream, which is not closed
+    * @param in
+    * @param components Whether the declared components are wanted even if the 
+    *   descriptor is not metadata-complete; they're always read if it is
+    * @throws IllegalArgumentException If the stream is not specified
+    * @throws IOException If the descriptor could not be read or is malformed
+    */
+   static EjbJarDescriptor read(final InputStream in, final boolean components) throws IllegalArgumentException,
+         IOException
+   {
+      // Precondition checks
+      if (in == null)
+      {
+         throw new IllegalArgumentException("stream must be specified");
+      }
+
+      try
+      {
+         final XMLStreamReader reader = factory.createXMLStreamReader(in);
+         try
+         {
+            return read(reader, components);
+         }
+         finally
+         {
+            reader.close();
+         }
+      }
+      catch (final XMLStreamException xmlse)
+      {
+         final IOException ioe = new IOException("Malformed EJB descriptor: " + xmlse.getMessage());
+         ioe.initCause(xmlse);
+         throw ioe;
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Accessors --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Returns whether annotations are to be ignored in favor of the descriptor alone
+    */
+   boolean isMetadataComplete()
+   {
+      return metadataComplete;
+   }
+
+   /**
+    * Returns the session and message-driven beans declared which state their type, 
+    * if read, else an empty list
+    */
+   List<EjbComponentMetadata> getComponents()
+   {
+      return components;
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return this.getClass().getSimpleName() + " [metadataComplete=" + metadataComplete + ", components="
+            + components + "]";
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Reads the root element and, if wanted, the beans
+    */
+   private static EjbJarDescriptor read(final XMLStreamReader reader, final boolean wanted)
+         throws XMLStreamException
+   {
+      // Find the root, noting whether it's preceded by a DTD
+      boolean dtd = false;
+      int event = reader.next();
+      while (event != XMLStreamConstants.START_ELEMENT)
+      {
+         if (event == XMLStreamConstants.DTD)
+         {
+            dtd = true;
+         }
+         event = reader.next();
+      }
+      if (!ELEMENT_EJB_JAR.equals(reader.getLocalName()))
+      {
+         throw new XMLStreamException("Root element must be " + ELEMENT_EJB_JAR + ", was " + reader.getLocalName(),
+               reader.getLocation());
+      }
+      final boolean metadataComplete = isMetadataComplete(reader, dtd);
+      if (!metadataComplete && !wanted)
+      {
+         return new EjbJarDescriptor(false, Collections.<EjbComponentMetadata> emptyList());
+      }
+
+      // Read the beans, stopping after "enterprise-beans"
+      final List<EjbComponentMetadata> components = new ArrayList<EjbComponentMetadata>();
+      int depth = 1;
+      boolean beans = false;
+      Bean bean = null;
+      while (depth > 0 && reader.hasNext())
+      {
+         event = reader.next();
+         if (event == XMLStreamConstants.START_ELEMENT)
+         {
+            depth++;
+            final String name = reader.getLocalName();
+            if (depth == DEPTH_ENTERPRISE_BEANS)
+            {
+               beans = ELEMENT_ENTERPRISE_BEANS.equals(name);
+            }
+            else if (beans && depth == DEPTH_BEAN)
+            {
+               bean = ELEMENT_SESSION.equals(name) ? new Bean(null) : ELEMENT_MESSAGE_DRIVEN.equals(name)
+                     ? new Bean(EjbComponentType.MESSAGE_DRIVEN) : null;
+            }
+            else if (bean != null && depth == DEPTH_BEAN_PROPERTY)
+            {
+               if (ELEMENT_LOCAL_BEAN.equals(name))
+               {
+                  bean.noInterfaceView = true;
+               }
+               else if (bean.read(name, reader))
+               {
+                  // The end element has been consumed in reading the text
+                  depth--;
+               }
+            }
+         }
+         else if (event == XMLStreamConstants.END_ELEMENT)
+         {
+            if (beans && depth == DEPTH_ENTERPRISE_BEANS)
+            {
+               break;
+            }
+            if (bean != null && depth == DEPTH_BEAN)
+            {
+               final EjbComponentMetadata component = bean.toComponent();
+               if (component != null)
+               {
+                  components.add(component);
+               }
+               else if (log.isTraceEnabled())
+               {
+                  log.tracef("Skipping bean of unknown type declared by %s", bean.className);
+               }
+               bean = null;
+            }
+            depth--;
+         }
+      }
+      return new EjbJarDescriptor(metadataComplete, Collections.unmodifiableList(components));
+   }
+
+   /**
+    * Determines whether the descriptor, positioned at its root, is metadata-complete
+    * either explicitly or by virtue of its version
+    * @param dtd Whether the descriptor declares a DTD
+    */
+   private static boolean isMetadataComplete(final XMLStreamReader reader, final boolean dtd)
+   {
+      final String metadataComplete = reader.getAttributeValue(null, ATTRIBUTE_METADATA_COMPLETE);
+      if (metadataComplete != null)
+      {
+         return Boolean.parseBoolean(metadataComplete.trim());
+      }
+      final String version = reader.getAttributeValue(null, ATTRIBUTE_VERSION);
+      if (version == null)
+      {
+         // Only EJB 2.0 and before are versioned by DTD alone
+         return dtd;
+      }
+      try
+      {
+         return Double.parseDouble(version.trim()) < VERSION_ANNOTATIONS;
+      }
+      catch (final NumberFormatException nfe)
+      {
+         log.warnf("Ignoring unrecognized EJB descriptor version: %s", version);
+         return false;
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * What's been read of a bean
+    */
+   private static final class Bean
+   {
+      private EjbComponentType type;
+
+      private String className;
+
+      private final List<String> localBusinessInterfaces = new ArrayList<String>(1);
+
+      private final List<String> remoteBusinessInterfaces = new ArrayList<String>(1);
+
+      private boolean noInterfaceView;
+
+      /**
+       * @param type Type of the bean, or null if yet to be read
+       */
+      Bean(final EjbComponentType type)
+      {
+         this.type = type;
+      }
+
+      /**
+       * Reads the text of the specified element if it's a property of interest,
+       * returning whether it was read
+       */
+      boolean read(final String name, final XMLStreamReader reader) throws XMLStreamException
+      {
+         if (ELEMENT_EJB_CLASS.equals(name))
+         {
+            className = reader.getElementText().trim();
+         }
+         else if (ELEMENT_SESSION_TYPE.equals(name))
+         {
+            final String sessionType = reader.getElementText().trim();
+            type = "Stateless".equals(sessionType) ? EjbComponentType.STATELESS : "Stateful".equals(sessionType)
+                  ? EjbComponentType.STATEFUL : "Singleton".equals(sessionType) ? EjbComponentType.SINGLETON : null;
+         }
+         else if (ELEMENT_BUSINESS_LOCAL.equals(name))
+         {
+            localBusinessInterfaces.add(reader.getElementText().trim());
+         }
+         else if (ELEMENT_BUSINESS_REMOTE.equals(name))
+         {
+            remoteBusinessInterfaces.add(reader.getElementText().trim());
+         }
+         else
+         {
+            return false;
+         }
+         return true;
+      }
+
+      /**
+       * Returns the component declared, or null if its type or class is unknown
+       */
+      EjbComponentMetadata toComponent()
+      {
+         if (type == null || className == null || className.length() == 0)
+         {
+            return null;
+         }
+         return new EjbComponentMetadata(className, type, localBusinessInterfaces, remoteBusinessInterfaces,
+               noInterfaceView);
+      }
+   }
+
+}
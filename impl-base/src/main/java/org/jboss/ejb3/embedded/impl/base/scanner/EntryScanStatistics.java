@@ -0,0 +1,311 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.scanner;
+
+import org.jboss.ejb3.embedded.spi.scanner.filter.ExclusionFilter;
+
+/**
+ * Statistics gathered in scanning a single ClassPath entry, recording where
+ * the time went and what was learned, such that slow entries may be identified
+ * and {@link ExclusionFilter}s tuned accordingly.  Immutable.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ * @see ScanStatistics
+ */
+public final class EntryScanStatistics
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Path of the entry, as it appeared on the ClassPath
+    */
+   private final String path;
+
+   /**
+    * Outcome of scanning the entry
+    */
+   private final Verdict verdict;
+
+   /**
+    * Whether the verdict was taken from the {@link ScanResultCache}
+    */
+   private final boolean cached;
+
+   /**
+    * Total time spent on the entry, in nanoseconds
+    */
+   private final long elapsedNanos;
+
+   /**
+    * Time spent mounting the entry into VFS, in nanoseconds
+    */
+   private final long mountNanos;
+
+   /**
+    * Bytes of class files inspected
+    */
+   private final long bytesRead;
+
+   /**
+    * Number of class files inspected
+    */
+   private final int classesInspected;
+
+   /**
+    * Description of the exclusion rule ({@link ExclusionFilter}) which excluded the entry, or null
+    */
+   private final String excludedBy;
+
+   /**
+    * Bytes of the entry read ahead of its scan
+    */
+   private final long prefetchedBytes;
+
+   /**
+    * Time spent reading the entry ahead of its scan, in nanoseconds
+    */
+   private final long prefetchNanos;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new instance
+    * 
+    * @param path
+    * @param verdict
+    * @param cached
+    * @param elapsedNanos
+    * @param mountNanos
+    * @param bytesRead
+    * @param classesInspected
+    * @param excludedBy Description of the excluding filter; may be null
+    * @throws IllegalArgumentException If the path or verdict is not specified
+    */
+   public EntryScanStatistics(final String path, final Verdict verdict, final boolean cached,
+         final long elapsedNanos, final long mountNanos, final long bytesRead, final int classesInspected,
+         final String excludedBy) throws IllegalArgumentException
+   {
+      this(path, verdict, cached, elapsedNanos, mountNanos, bytesRead, classesInspected, excludedBy, 0, 0);
+   }
+
+   /**
+    * Creates a new instance of an entry read ahead of its scan
+    * 
+    * @param path
+    * @param verdict
+    * @param cached
+    * @param elapsedNanos
+    * @param mountNanos
+    * @param bytesRead
+    * @param classesInspected
+    * @param excludedBy Description of the excluding filter; may be null
+    * @param prefetchedBytes
+    * @param prefetchNanos
+    * @throws IllegalArgumentException If the path or verdict is not specified
+    */
+   public EntryScanStatistics(final String path, final Verdict verdict, final boolean cached,
+         final long elapsedNanos, final long mountNanos, final long bytesRead, final int classesInspected,
+         final String excludedBy, final long prefetchedBytes, final long prefetchNanos)
+         throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (path == null)
+      {
+         throw new IllegalArgumentException("path must be specified");
+      }
+      if (verdict == null)
+      {
+         throw new IllegalArgumentException("verdict must be specified");
+      }
+
+      this.path = path;
+      this.verdict = verdict;
+      this.cached = cached;
+      this.elapsedNanos = elapsedNanos;
+      this.mountNanos = mountNanos;
+      this.bytesRead = bytesRead;
+      this.classesInspected = classesInspected;
+      this.excludedBy = excludedBy;
+      this.prefetchedBytes = prefetchedBytes;
+      this.prefetchNanos = prefetchNanos;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Accessors --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Returns the path of the entry, as it appeared on the ClassPath
+    * @return the path
+    */
+   public String getPath()
+   {
+      return path;
+   }
+
+   /**
+    * Returns the outcome of scanning the entry
+    * @return the verdict
+    */
+   public Verdict getVerdict()
+   {
+      return verdict;
+   }
+
+   /**
+    * Returns whether the verdict was taken from the cache of a previous
+    * scan, in which case the entry was not read
+    * @return the cached
+    */
+   public boolean isCached()
+   {
+      return cached;
+   }
+
+   /**
+    * Returns the total time spent on the entry, in nanoseconds
+    * @return the elapsedNanos
+    */
+   public long getElapsedNanos()
+   {
+      return elapsedNanos;
+   }
+
+   /**
+    * Returns the time spent mounting the entry into VFS, in nanoseconds;
+    * included in {@link EntryScanStatistics#getElapsedNanos()}
+    * @return the mountNanos
+    */
+   public long getMountNanos()
+   {
+      return mountNanos;
+   }
+
+   /**
+    * Returns the total (uncompressed) size in bytes of the class files inspected
+    * @return the bytesRead
+    */
+   public long getBytesRead()
+   {
+      return bytesRead;
+   }
+
+   /**
+    * Returns the number of class files inspected
+    * @return the classesInspected
+    */
+   public int getClassesInspected()
+   {
+      return classesInspected;
+   }
+
+   /**
+    * Returns a description of the exclusion rule ({@link ExclusionFilter}) which excluded 
+    * the entry, or null if it was not excluded
+    * @return the excludedBy
+    */
+   public String getExcludedBy()
+   {
+      return excludedBy;
+   }
+
+   /**
+    * Returns the number of bytes of the entry read in the background ahead of 
+    * its scan, which are then read from the operating system's cache
+    * @return the prefetchedBytes
+    */
+   public long getPrefetchedBytes()
+   {
+      return prefetchedBytes;
+   }
+
+   /**
+    * Returns the time spent reading the entry in the background ahead of its scan,
+    * in nanoseconds; not included in {@link EntryScanStatistics#getElapsedNanos()}
+    * @return the prefetchNanos
+    */
+   public long getPrefetchNanos()
+   {
+      return prefetchNanos;
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return this.getClass().getSimpleName() + " [path=" + path + ", verdict=" + verdict + ", cached=" + cached
+            + ", elapsedNanos=" + elapsedNanos + ", mountNanos=" + mountNanos + ", bytesRead=" + bytesRead
+            + ", classesInspected=" + classesInspected + ", excludedBy=" + excludedBy + ", prefetchedBytes="
+            + prefetchedBytes + ", prefetchNanos=" + prefetchNanos + "]";
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Outcome of scanning a ClassPath entry
+    */
+   public enum Verdict {
+      /**
+       * The entry is an EJB JAR module
+       */
+      EJB_JAR,
+
+      /**
+       * The entry is not an EJB JAR module
+       */
+      NOT_EJB_JAR,
+
+      /**
+       * The entry was excluded by an {@link ExclusionFilter}
+       */
+      EXCLUDED,
+
+      /**
+       * The entry does not exist
+       */
+      MISSING,
+
+      /**
+       * The entry is neither a directory nor a JAR, and was skipped
+       */
+      UNSUPPORTED,
+
+      /**
+       * The scan of the entry was not finished, or not started, within the
+       * configured budget; it may yet be an EJB JAR module
+       */
+      UNFINISHED
+   }
+
+}
@@ -0,0 +1,541 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.scanner;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Read-only view of a ZIP file which is memory-mapped and parsed in place.
+ * Entries are traversed by a {@link Cursor} over the central directory,
+ * and their contents are exposed as {@link ByteBuffer}s: stored entries
+ * are slices of the mapped file, and deflated entries are inflated into
+ * buffers reused for the life of this instance.  Heap allocation is
+ * therefore bounded by the largest entry read, regardless of the size
+ * of the file.
+ *
+ * ZIP64 archives and those larger than {@link Integer#MAX_VALUE} bytes are
+ * not supported and will be rejected with a {@link ZipException} upon {@link #open(File)}.
+ *
+ * Not thread-safe.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+final class MappedZipFile implements Closeable
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /*
+    * Record signatures
+    */
+   private static final int SIG_LOCAL_HEADER = 0x04034b50;
+
+   private static final int SIG_CENTRAL_HEADER = 0x02014b50;
+
+   static final int SIG_END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+
+   /*
+    * Fixed record lengths
+    */
+   private static final int LENGTH_LOCAL_HEADER = 30;
+
+   private static final int LENGTH_CENTRAL_HEADER = 46;
+
+   static final int LENGTH_END_OF_CENTRAL_DIRECTORY = 22;
+
+   /**
+    * Maximum length of the ZIP file comment, which may trail the end of central directory record
+    */
+   static final int MAX_LENGTH_COMMENT = 0xFFFF;
+
+   /**
+    * Value denoting the true value is held in a ZIP64 extra field
+    */
+   private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+   /*
+    * Compression methods
+    */
+   private static final int METHOD_STORED = 0;
+
+   private static final int METHOD_DEFLATED = 8;
+
+   /**
+    * Charset for entry names; UTF-8 per the language encoding flag, and compatible with
+    * ASCII names otherwise
+    */
+   private static final Charset CHARSET_NAMES = Charset.forName("UTF-8");
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * The underlying file
+    */
+   private final File file;
+
+   /**
+    * The mapped contents of the file, in little-endian order
+    */
+   private final ByteBuffer buffer;
+
+   /**
+    * Offset of the central directory
+    */
+   private final int centralDirectoryOffset;
+
+   /**
+    * Number of entries in the central directory
+    */
+   private final int entryCount;
+
+   /**
+    * Inflater reused for all deflated entries
+    */
+   private final Inflater inflater = new Inflater(true);
+
+   /**
+    * Reusable buffer holding compressed data
+    */
+   private byte[] compressed = new byte[0];
+
+   /**
+    * Reusable buffer holding inflated data
+    */
+   private byte[] inflated = new byte[0];
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private MappedZipFile(final File file, final ByteBuffer buffer, final int centralDirectoryOffset,
+         final int entryCount)
+   {
+      this.file = file;
+      this.buffer = buffer;
+      this.centralDirectoryOffset = centralDirectoryOffset;
+      this.entryCount = entryCount;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Factory ----------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Maps and opens the specified ZIP file
+    *
+    * @param file
+    * @return
+    * @throws ZipException If the file is not a ZIP, or is of an unsupported format
+    * @throws IOException If the file could not be mapped
+    */
+   static MappedZipFile open(final File file) throws ZipException, IOException
+   {
+      // Map the file; the mapping remains valid after the channel is closed
+      final MappedByteBuffer mapped;
+      final RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try
+      {
+         final long length = raf.length();
+         if (length > Integer.MAX_VALUE)
+         {
+            throw new ZipException("Too large to map: " + file);
+         }
+         if (length < LENGTH_END_OF_CENTRAL_DIRECTORY)
+         {
+            throw new ZipException("Not a ZIP file: " + file);
+         }
+         mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+      }
+      finally
+      {
+         raf.close();
+      }
+      final ByteBuffer buffer = mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+      // Find the end of central directory record, searching back past any comment
+      final int limit = buffer.limit();
+      final int stop = Math.max(0, limit - LENGTH_END_OF_CENTRAL_DIRECTORY - MAX_LENGTH_COMMENT);
+      int eocd = -1;
+      for (int i = limit - LENGTH_END_OF_CENTRAL_DIRECTORY; i >= stop; i--)
+      {
+         if (buffer.getInt(i) == SIG_END_OF_CENTRAL_DIRECTORY)
+         {
+            eocd = i;
+            break;
+         }
+      }
+      if (eocd < 0)
+      {
+         throw new ZipException("No end of central directory record found in " + file);
+      }
+
+      final int entryCount = u2(buffer, eocd + 10);
+      final long centralDirectoryOffset = u4(buffer, eocd + 16);
+      if (entryCount == 0xFFFF || centralDirectoryOffset == ZIP64_MAGIC)
+      {
+         throw new ZipException("ZIP64 format not supported: " + file);
+      }
+      if (centralDirectoryOffset > eocd)
+      {
+         throw new ZipException("Invalid central directory offset in " + file);
+      }
+
+      return new MappedZipFile(file, buffer, (int) centralDirectoryOffset, entryCount);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains a new {@link Cursor} positioned before the first entry
+    * @return
+    */
+   Cursor entries()
+   {
+      return new Cursor();
+   }
+
+   /**
+    * Returns whether an entry of the specified name exists
+    * @param name
+    * @return
+    * @throws ZipException If the central directory is corrupt
+    */
+   boolean containsEntry(final String name) throws ZipException
+   {
+      return this.find(name) != null;
+   }
+
+   /**
+    * Obtains the contents of the entry of the specified name, or null 
+    * if no such entry exists.  The returned buffer is only valid until
+    * the contents of another entry are read.
+    * @param name
+    * @return
+    * @throws ZipException If the central directory or entry is corrupt
+    */
+   ByteBuffer getContents(final String name) throws ZipException
+   {
+      final Cursor cursor = this.find(name);
+      return cursor == null ? null : cursor.getContents();
+   }
+
+   /**
+    * Returns the underlying file
+    * @return
+    */
+   File getFile()
+   {
+      return file;
+   }
+
+   /**
+    * Releases the {@link Inflater}.  The mapping itself is released when
+    * this instance is garbage collected.
+    */
+   @Override
+   public void close()
+   {
+      inflater.end();
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return this.getClass().getSimpleName() + " [" + file + "]";
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains a {@link Cursor} positioned at the entry of the specified name,
+    * or null if no such entry exists
+    */
+   private Cursor find(final String name) throws ZipException
+   {
+      final byte[] bytes = name.getBytes(CHARSET_NAMES);
+      final Cursor cursor = this.entries();
+      while (cursor.next())
+      {
+         if (cursor.nameEquals(bytes))
+         {
+            return cursor;
+         }
+      }
+      return null;
+   }
+
+   private static int u2(final ByteBuffer buffer, final int offset)
+   {
+      return buffer.getShort(offset) & 0xFFFF;
+   }
+
+   private static long u4(final ByteBuffer buffer, final int offset)
+   {
+      return buffer.getInt(offset) & 0xFFFFFFFFL;
+   }
+
+   /**
+    * Obtains the contents of the entry whose local header is at the specified offset
+    */
+   private ByteBuffer read(final int method, final int localHeaderOffset, final long compressedSize,
+         final long size) throws ZipException
+   {
+      if (localHeaderOffset < 0 || localHeaderOffset + LENGTH_LOCAL_HEADER > centralDirectoryOffset
+            || buffer.getInt(localHeaderOffset) != SIG_LOCAL_HEADER)
+      {
+         throw new ZipException("Invalid local header offset " + localHeaderOffset + " in " + file);
+      }
+      final int dataOffset = localHeaderOffset + LENGTH_LOCAL_HEADER + u2(buffer, localHeaderOffset + 26)
+            + u2(buffer, localHeaderOffset + 28);
+      if (dataOffset + compressedSize > centralDirectoryOffset)
+      {
+         throw new ZipException("Entry data at " + localHeaderOffset + " overruns central directory in " + file);
+      }
+
+      // Stored entries are returned in place
+      final ByteBuffer data = buffer.duplicate();
+      data.position(dataOffset);
+      data.limit(dataOffset + (int) compressedSize);
+      if (method == METHOD_STORED)
+      {
+         return data.slice();
+      }
+      if (method != METHOD_DEFLATED)
+      {
+         throw new ZipException("Unsupported compression method " + method + " in " + file);
+      }
+
+      // Deflated entries are inflated into the reused buffer
+      // (with an extra dummy byte, as required by the Inflater in "nowrap" mode)
+      if (compressed.length < compressedSize + 1)
+      {
+         compressed = new byte[(int) compressedSize + 1];
+      }
+      if (inflated.length < size)
+      {
+         inflated = new byte[(int) size];
+      }
+      data.get(compressed, 0, (int) compressedSize);
+      compressed[(int) compressedSize] = 0;
+      inflater.reset();
+      inflater.setInput(compressed, 0, (int) compressedSize + 1);
+      int length = 0;
+      try
+      {
+         while (length < size && !inflater.finished())
+         {
+            final int read = inflater.inflate(inflated, length, (int) size - length);
+            if (read == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+            {
+               break;
+            }
+            length += read;
+         }
+      }
+      catch (final DataFormatException dfe)
+      {
+         final ZipException ze = new ZipException("Corrupt deflated entry at " + localHeaderOffset + " in " + file);
+         ze.initCause(dfe);
+         throw ze;
+      }
+      if (length != size)
+      {
+         throw new ZipException("Inflated " + length + " of expected " + size + " bytes at " + localHeaderOffset
+               + " in " + file);
+      }
+      return ByteBuffer.wrap(inflated, 0, length);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Forward-only cursor over the entries of the central directory.
+    * Names are not decoded unless requested.
+    */
+   final class Cursor
+   {
+      /**
+       * Offset of the current central directory header, or -1 if before the first
+       */
+      private int offset = -1;
+
+      /**
+       * Offset of the next central directory header
+       */
+      private int nextOffset = centralDirectoryOffset;
+
+      /**
+       * Number of entries visited
+       */
+      private int visited;
+
+      /**
+       * Length of the current entry name
+       */
+      private int nameLength;
+
+      /**
+       * Advances to the next entry
+       * @return Whether there is a next entry
+       * @throws ZipException If the central directory is corrupt
+       */
+      boolean next() throws ZipException
+      {
+         if (visited == entryCount)
+         {
+            return false;
+         }
+         if (nextOffset + LENGTH_CENTRAL_HEADER > buffer.limit()
+               || buffer.getInt(nextOffset) != SIG_CENTRAL_HEADER)
+         {
+            throw new ZipException("Invalid central directory header at " + nextOffset + " in " + file);
+         }
+         offset = nextOffset;
+         nameLength = u2(buffer, offset + 28);
+         nextOffset = offset + LENGTH_CENTRAL_HEADER + nameLength + u2(buffer, offset + 30)
+               + u2(buffer, offset + 32);
+         visited++;
+         return true;
+      }
+
+      /**
+       * Returns whether the current entry is a directory
+       */
+      boolean isDirectory()
+      {
+         return nameLength > 0 && buffer.get(offset + LENGTH_CENTRAL_HEADER + nameLength - 1) == '/';
+      }
+
+      /**
+       * Returns whether the name of the current entry ends with the specified ASCII bytes
+       */
+      boolean nameEndsWith(final byte[] suffix)
+      {
+         if (suffix.length > nameLength)
+         {
+            return false;
+         }
+         final int start = offset + LENGTH_CENTRAL_HEADER + nameLength - suffix.length;
+         for (int i = 0; i < suffix.length; i++)
+         {
+            if (buffer.get(start + i) != suffix[i])
+            {
+               return false;
+            }
+         }
+         return true;
+      }
+
+      /**
+       * Returns whether the name of the current entry starts with the specified encoded prefix
+       */
+      boolean nameStartsWith(final byte[] prefix)
+      {
+         if (prefix.length > nameLength)
+         {
+            return false;
+         }
+         final int start = offset + LENGTH_CENTRAL_HEADER;
+         for (int i = 0; i < prefix.length; i++)
+         {
+            if (buffer.get(start + i) != prefix[i])
+            {
+               return false;
+            }
+         }
+         return true;
+      }
+
+      /**
+       * Returns whether the name of the current entry is equal to the specified encoded name
+       */
+      boolean nameEquals(final byte[] name)
+      {
+         return name.length == nameLength && this.nameEndsWith(name);
+      }
+
+      /**
+       * Decodes the name of the current entry
+       */
+      String getName()
+      {
+         final byte[] bytes = new byte[nameLength];
+         final ByteBuffer name = buffer.duplicate();
+         name.position(offset + LENGTH_CENTRAL_HEADER);
+         name.get(bytes);
+         return new String(bytes, CHARSET_NAMES);
+      }
+
+      /**
+       * Returns the uncompressed size of the current entry
+       */
+      long getSize()
+      {
+         return u4(buffer, offset + 24);
+      }
+
+      /**
+       * Obtains the contents of the current entry.  The returned buffer
+       * is valid only until the contents of another entry are requested.
+       * @throws ZipException If the entry is corrupt or of an unsupported format
+       */
+      ByteBuffer getContents() throws ZipException
+      {
+         final long compressedSize = u4(buffer, offset + 20);
+         final long size = this.getSize();
+         final long localHeaderOffset = u4(buffer, offset + 42);
+         if (compressedSize == ZIP64_MAGIC || size == ZIP64_MAGIC || localHeaderOffset == ZIP64_MAGIC)
+         {
+            throw new ZipException("ZIP64 entries not supported in " + file);
+         }
+         return read(u2(buffer, offset + 10), (int) localHeaderOffset, compressedSize, size);
+      }
+   }
+
+}
@@ -0,0 +1,231 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.scanner;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
+import org.jboss.ejb3.embedded.impl.base.scanner.filter.ExclusionFilterChain;
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbComponentMetadata;
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbModuleIndexFile;
+import org.jboss.logging.Logger;
+import org.jboss.vfs.VirtualFile;
+
+/**
+ * Base of the readers of a single kind of ClassPath entry, recording what's
+ * found in the {@link ModuleScan} of the entry: its EJB descriptor, its module 
+ * index written at build time, or the components defined by its classes.  
+ * Stateless but for the configuration of the scanner, so shared among the
+ * scanning Threads.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+abstract class ModuleReader
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(ModuleReader.class);
+
+   /**
+    * Path of the EJB Descriptor, relative to the root of a deployment
+    */
+   static final String PATH_EJB_JAR_XML = "META-INF/ejb-jar.xml";
+
+   /**
+    * .class Extension
+    */
+   static final String EXTENSION_CLASS = ".class";
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Configuration of the scanner
+    */
+   protected final ScannerConfiguration configuration;
+
+   /**
+    * Exclusion rules compiled from the configuration
+    */
+   protected final ExclusionFilterChain exclusionFilters;
+
+   /**
+    * Packages within which components are sought
+    */
+   protected final PackageScope packageScope;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new reader of the specified configuration
+    * @param configuration
+    * @param exclusionFilters Exclusion rules compiled from the configuration
+    * @param packageScope Packages within which components are sought
+    */
+   ModuleReader(final ScannerConfiguration configuration, final ExclusionFilterChain exclusionFilters,
+         final PackageScope packageScope)
+   {
+      assert configuration != null : "configuration must be specified";
+      assert exclusionFilters != null : "exclusionFilters must be specified";
+      assert packageScope != null : "packageScope must be specified";
+      this.configuration = configuration;
+      this.exclusionFilters = exclusionFilters;
+      this.packageScope = packageScope;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Contracts --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Scans the specified entry, which exists and is of the kind read, recording 
+    * what's found with the specified scan
+    */
+   abstract void scan(VirtualFile file, ModuleScan scan) throws IOException;
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Reads the module index written at build time from the specified reader, 
+    * which is then closed.  When not indexing in full the index alone is the
+    * verdict, so no class names are returned; otherwise the listed classes
+    * are returned to be read for their metadata.  An index listing no component
+    * classes marks a module which contains no EJBs, so the module need not be 
+    * walked at all.
+    * @see EjbModuleIndexFile
+    */
+   static List<String> readIndex(final VirtualFile file, final Reader reader, final ModuleScan scan)
+         throws IOException
+   {
+      final List<String> componentClasses;
+      try
+      {
+         componentClasses = EjbModuleIndexFile.read(reader);
+      }
+      finally
+      {
+         reader.close();
+      }
+      if (log.isTraceEnabled())
+      {
+         log.tracef("Found index %s in %s listing components: %s", EjbModuleIndexFile.PATH, file, componentClasses);
+      }
+      if (!componentClasses.isEmpty())
+      {
+         scan.indexedComponentsFound();
+      }
+      return scan.isFull() ? componentClasses : Collections.<String> emptyList();
+   }
+
+   /**
+    * Reads the EJB descriptor found at the specified path, recording it with the 
+    * scan; a descriptor which can't be read is recorded as present but not 
+    * metadata-complete, leaving the classes to be scanned.
+    * @param in Stream of the descriptor, not closed
+    * @return Whether scanning may stop
+    */
+   static boolean descriptorFound(final VirtualFile file, final String descriptorPath,
+         final InputStream in, final ModuleScan scan) throws IOException
+   {
+      if (log.isTraceEnabled())
+      {
+         log.tracef("Found descriptor %s in %s", descriptorPath, file);
+      }
+      EjbJarDescriptor descriptor = null;
+      try
+      {
+         descriptor = EjbJarDescriptor.read(in, scan.isFull());
+      }
+      catch (final IOException ioe)
+      {
+         log.warnf("Could not read descriptor %s in %s; scanning for annotations instead: %s", descriptorPath,
+               file, ioe.getMessage());
+      }
+      if (descriptor != null && descriptor.isMetadataComplete() && log.isDebugEnabled())
+      {
+         log.debugf("Descriptor %s in %s is metadata-complete; not scanning for annotations", descriptorPath, file);
+      }
+      return scan.descriptorFound(descriptor);
+   }
+
+   /**
+    * Closes the specified handle to the mounted file, logging any errors
+    */
+   static void close(final Closeable handle, final VirtualFile file)
+   {
+      try
+      {
+         handle.close();
+      }
+      catch (final IOException e)
+      {
+         // Ignore
+         log.warn("Could not close handle to mounted " + file, e);
+      }
+   }
+
+   /**
+    * Obtains the EJB component defined by the specified .class contents,
+    * or null if none is defined or the class file could not be parsed.  If 
+    * so configured, classes bearing annotations are then inspected reflectively.
+    */
+   static EjbComponentMetadata getComponent(final VirtualFile file, final CharSequence name,
+         final ByteBuffer contents, final ModuleScan scan)
+   {
+      scan.classInspected(contents.remaining());
+      try
+      {
+         final EjbComponentMetadata component = EjbComponentClassFileInspector.getComponent(contents);
+         final ReflectiveComponentInspector reflectiveInspector = scan.getReflectiveInspector();
+         if (component != null || reflectiveInspector == null
+               || !EjbComponentClassFileInspector.mayBeAnnotated(contents))
+         {
+            return component;
+         }
+         return reflectiveInspector.getComponent(ReflectiveComponentInspector.getClassName(name));
+      }
+      catch (final IllegalArgumentException iae)
+      {
+         // Not a valid class file; nothing we can use here
+         log.warnf("Ignoring malformed class file %s in %s: %s", name, file, iae.getMessage());
+         return null;
+      }
+   }
+}
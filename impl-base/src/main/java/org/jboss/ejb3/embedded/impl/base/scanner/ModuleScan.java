@@ -0,0 +1,476 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.scanner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.jboss.ejb3.embedded.impl.base.scanner.EntryScanStatistics.Verdict;
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbComponentMetadata;
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbModuleIndex;
+import org.jboss.logging.Logger;
+import org.jboss.vfs.VirtualFile;
+
+/**
+ * Accumulates what has been learned in scanning a single module, along
+ * with statistics of the scan.  Unless indexing in full, scanning stops at 
+ * the first evidence that the module is an EJB JAR.  Confined to the 
+ * scanning Thread until {@link ModuleScan#finish()}ed.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+final class ModuleScan
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(ModuleScan.class);
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Path of the module, as it appeared on the ClassPath
+    */
+   private final String path;
+
+   /**
+    * Whether all components of the module are to be indexed
+    */
+   private final boolean full;
+
+   /**
+    * Components found thus far
+    */
+   private final List<EjbComponentMetadata> components = new ArrayList<EjbComponentMetadata>();
+
+   /**
+    * Whether META-INF/ejb-jar.xml was found
+    */
+   private boolean descriptorPresent;
+
+   /**
+    * Whether the descriptor is metadata-complete, its components being those of the module
+    */
+   private boolean metadataComplete;
+
+   /**
+    * Names of the classes of the components declared by the descriptor, if any
+    */
+   private final Set<String> declaredClassNames = new HashSet<String>(0);
+
+   /**
+    * Whether a module index written at build time lists components
+    */
+   private boolean indexed;
+
+   /**
+    * Whether the module was excluded by configuration
+    */
+   private boolean excluded;
+
+   /**
+    * Description of the rule which excluded the module, if any
+    */
+   private String excludedBy;
+
+   /**
+    * Whether the verdict was taken from the cache
+    */
+   private boolean cached;
+
+   /**
+    * Verdict, if determined before the module could be read
+    */
+   private Verdict verdict;
+
+   /**
+    * Time at which scanning started, in nanoseconds
+    */
+   private final long start = System.nanoTime();
+
+   /**
+    * Total time spent, in nanoseconds; set when finished
+    */
+   private long elapsedNanos;
+
+   /**
+    * Time spent mounting, in nanoseconds
+    */
+   private long mountNanos;
+
+   /**
+    * Bytes of class files inspected
+    */
+   private long bytesRead;
+
+   /**
+    * Number of class files inspected
+    */
+   private int classesInspected;
+
+   /**
+    * Bytes of the module read ahead of its scan
+    */
+   private long prefetchedBytes;
+
+   /**
+    * Time spent reading the module ahead of its scan, in nanoseconds
+    */
+   private long prefetchNanos;
+
+   /**
+    * Index of the module, or null if it is not an EJB JAR; set when finished
+    */
+   private EjbModuleIndex index;
+
+   /**
+    * Inspector of classes not found to be components from their bytecode, or null if none
+    */
+   private final ReflectiveComponentInspector reflectiveInspector;
+
+   /**
+    * Scans of the archives nested within the module
+    */
+   private final List<ModuleScan> nestedScans = new ArrayList<ModuleScan>(0);
+
+   /**
+    * Budget within which the module must be scanned, or null if none
+    */
+   private final ScanBudget budget;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a scan of the module at the specified path, inspecting no classes
+    * reflectively and bound by no budget
+    */
+   ModuleScan(final String path, final boolean full)
+   {
+      this(path, full, null, null);
+   }
+
+   /**
+    * Creates a scan of the module at the specified path
+    * @param full Whether all components of the module are to be indexed
+    * @param reflectiveInspector Inspector of classes not found to be components
+    *   from their bytecode, or null if none
+    * @param budget Budget within which the module must be scanned, or null if none
+    */
+   ModuleScan(final String path, final boolean full, final ReflectiveComponentInspector reflectiveInspector,
+         final ScanBudget budget)
+   {
+      this.path = path;
+      this.full = full;
+      this.reflectiveInspector = reflectiveInspector;
+      this.budget = budget;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   boolean isFull()
+   {
+      return full;
+   }
+
+   ReflectiveComponentInspector getReflectiveInspector()
+   {
+      return reflectiveInspector;
+   }
+
+   String getPath()
+   {
+      return path;
+   }
+
+   ScanBudget getBudget()
+   {
+      return budget;
+   }
+
+   /**
+    * Records the finished scan of an archive nested within the module
+    */
+   void nestedScanned(final ModuleScan scan)
+   {
+      nestedScans.add(scan);
+   }
+
+   /**
+    * Returns whether any archive nested within the module is an EJB JAR
+    */
+   boolean hasNestedModules()
+   {
+      for (final ModuleScan scan : nestedScans)
+      {
+         if (scan.getIndex() != null)
+         {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Returns this scan followed by those of the archives nested within the module
+    */
+   List<ModuleScan> getModuleScans()
+   {
+      if (nestedScans.isEmpty())
+      {
+         return Collections.singletonList(this);
+      }
+      final List<ModuleScan> scans = new ArrayList<ModuleScan>(nestedScans.size() + 1);
+      scans.add(this);
+      scans.addAll(nestedScans);
+      return scans;
+   }
+
+   /**
+    * Records the descriptor, returning whether scanning may stop.  The components it
+    * declares replace those found by annotation; if it's metadata-complete they're
+    * all the module has, so scanning may stop regardless.
+    * @param descriptor The descriptor, or null if it couldn't be read
+    */
+   boolean descriptorFound(final EjbJarDescriptor descriptor)
+   {
+      descriptorPresent = true;
+      if (descriptor == null)
+      {
+         return !full;
+      }
+      for (final EjbComponentMetadata component : descriptor.getComponents())
+      {
+         declaredClassNames.add(component.getClassName());
+      }
+      if (descriptor.isMetadataComplete())
+      {
+         metadataComplete = true;
+         components.clear();
+      }
+      else
+      {
+         for (final Iterator<EjbComponentMetadata> it = components.iterator(); it.hasNext();)
+         {
+            if (declaredClassNames.contains(it.next().getClassName()))
+            {
+               it.remove();
+            }
+         }
+      }
+      components.addAll(descriptor.getComponents());
+      return !full || metadataComplete;
+   }
+
+   /**
+    * Discards the descriptor, index and components found thus far, 
+    * such that the module may be read again from the start
+    */
+   void restart()
+   {
+      components.clear();
+      descriptorPresent = false;
+      metadataComplete = false;
+      declaredClassNames.clear();
+      indexed = false;
+   }
+
+   /**
+    * Records that a build-time index lists components
+    */
+   void indexedComponentsFound()
+   {
+      indexed = true;
+   }
+
+   /**
+    * Records the component found in the named class, returning whether scanning may stop
+    */
+   boolean componentFound(final EjbComponentMetadata component, final String name, final VirtualFile file)
+   {
+      if (component == null)
+      {
+         return false;
+      }
+      if (metadataComplete || declaredClassNames.contains(component.getClassName()))
+      {
+         // The descriptor takes precedence
+         return !full;
+      }
+      if (log.isTraceEnabled())
+      {
+         log.tracef("Found %s on %s in %s", component.getType().getAnnotation(), name, file);
+      }
+      components.add(component);
+      return !full;
+   }
+
+   /**
+    * Records that the module is to be skipped by the described rule
+    */
+   void exclude(final String rule)
+   {
+      excluded = true;
+      excludedBy = rule;
+   }
+
+   /**
+    * Records the verdict of a previous scan, in place of reading the module
+    */
+   void cachedVerdict(final boolean ejbJar)
+   {
+      cached = true;
+      indexed = ejbJar;
+   }
+
+   /**
+    * Records that the module does not exist
+    */
+   void missing()
+   {
+      verdict = Verdict.MISSING;
+   }
+
+   /**
+    * Records that the module is of a type which can't be scanned
+    */
+   void unsupported()
+   {
+      verdict = Verdict.UNSUPPORTED;
+   }
+
+   /**
+    * Records the time spent mounting the module
+    */
+   void mounted(final long nanos)
+   {
+      mountNanos += nanos;
+   }
+
+   /**
+    * Records that a class file of the specified size is to be inspected, 
+    * first ensuring that the budget, if any, has not been spent
+    * @throws ScanBudget.ExceededException If the budget has been spent
+    */
+   void classInspected(final long size) throws ScanBudget.ExceededException
+   {
+      if (budget != null)
+      {
+         budget.check();
+      }
+      classesInspected++;
+      if (size > 0)
+      {
+         bytesRead += size;
+      }
+   }
+
+   /**
+    * Records the read of the module ahead of its scan, if any
+    */
+   void prefetched(final Prefetcher.Read read)
+   {
+      if (read != null)
+      {
+         prefetchedBytes = read.getBytes();
+         prefetchNanos = read.getNanos();
+      }
+   }
+
+   /**
+    * Marks the module as left unfinished by the budget, having been scanned
+    * for the specified time
+    * @return This instance
+    */
+   ModuleScan unfinished(final long elapsedNanos)
+   {
+      verdict = Verdict.UNFINISHED;
+      this.finish();
+      this.elapsedNanos = elapsedNanos;
+      return this;
+   }
+
+   /**
+    * Returns whether the module was excluded by configuration
+    */
+   boolean isExcluded()
+   {
+      return excluded;
+   }
+
+   /**
+    * Returns whether what's been found thus far qualifies the module as an EJB JAR
+    */
+   boolean isModule()
+   {
+      return !excluded && (descriptorPresent || indexed || !components.isEmpty());
+   }
+
+   /**
+    * Marks scanning as complete, fixing the index and statistics of the module
+    * @return This instance
+    */
+   ModuleScan finish()
+   {
+      elapsedNanos = System.nanoTime() - start;
+      index = this.isModule() ? new EjbModuleIndex(path, descriptorPresent, metadataComplete, components) : null;
+      if (verdict == null)
+      {
+         verdict = excluded ? Verdict.EXCLUDED : index != null ? Verdict.EJB_JAR : Verdict.NOT_EJB_JAR;
+      }
+      return this;
+   }
+
+   /**
+    * Obtains the index of the module, or null if it is not an EJB JAR.  
+    * Valid only once finished.
+    */
+   EjbModuleIndex getIndex()
+   {
+      return index;
+   }
+
+   /**
+    * Obtains the statistics of scanning the module.  Valid only once finished.
+    */
+   EntryScanStatistics getStatistics()
+   {
+      return new EntryScanStatistics(path, verdict, cached, elapsedNanos, mountNanos, bytesRead,
+            classesInspected, excludedBy, prefetchedBytes, prefetchNanos);
+   }
+}
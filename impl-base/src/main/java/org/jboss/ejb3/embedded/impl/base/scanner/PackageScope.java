@@ -0,0 +1,204 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.scanner;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * The packages within which EJB components are sought when scanning
+ * the classes of a module.  Each package includes its subpackages.  An
+ * empty scope is unrestricted, including all classes.  Immutable.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ * @see ScannerConfiguration#PROPERTY_PACKAGES
+ */
+final class PackageScope
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Charset of ZIP entry names
+    */
+   private static final Charset CHARSET_NAMES = Charset.forName("UTF-8");
+
+   /**
+    * Suffix permitted in configured package names, denoting the package and its subpackages
+    */
+   private static final String SUFFIX_WILDCARD = ".*";
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Paths of the packages, each ending in '/', none of which is within another
+    */
+   private final List<String> paths;
+
+   /**
+    * {@link PackageScope#paths}, encoded as ZIP entry names
+    */
+   private final byte[][] encodedPaths;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new scope of the specified packages, which may be empty
+    * @param packages Package names, optionally suffixed with ".*"
+    * @throws IllegalArgumentException If the packages are not specified
+    */
+   PackageScope(final Collection<String> packages) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (packages == null)
+      {
+         throw new IllegalArgumentException("packages must be specified");
+      }
+
+      // Sorted such that a package directly precedes its subpackages
+      final TreeSet<String> sorted = new TreeSet<String>();
+      for (final String pkg : packages)
+      {
+         String name = pkg.trim();
+         if (name.endsWith(SUFFIX_WILDCARD))
+         {
+            name = name.substring(0, name.length() - SUFFIX_WILDCARD.length());
+         }
+         if (name.length() == 0)
+         {
+            throw new IllegalArgumentException("Package names must not be empty");
+         }
+         sorted.add(name.replace('.', '/') + '/');
+      }
+      final List<String> paths = new ArrayList<String>(sorted.size());
+      for (final String path : sorted)
+      {
+         if (paths.isEmpty() || !path.startsWith(paths.get(paths.size() - 1)))
+         {
+            paths.add(path);
+         }
+      }
+      this.paths = Collections.unmodifiableList(paths);
+      this.encodedPaths = new byte[paths.size()][];
+      for (int i = 0; i < encodedPaths.length; i++)
+      {
+         encodedPaths[i] = paths.get(i).getBytes(CHARSET_NAMES);
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Returns whether this scope excludes any classes
+    */
+   boolean isRestricted()
+   {
+      return !paths.isEmpty();
+   }
+
+   /**
+    * Returns the paths, relative to the module root and each ending in '/', of the 
+    * package directories within which all classes in scope reside
+    */
+   List<String> getPaths()
+   {
+      return paths;
+   }
+
+   /**
+    * Returns whether the specified path, relative to the module root, is in scope
+    * @param name
+    */
+   boolean includes(final String name)
+   {
+      if (paths.isEmpty())
+      {
+         return true;
+      }
+      for (final String path : paths)
+      {
+         if (name.startsWith(path))
+         {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Returns whether the current entry of the specified cursor is in scope
+    * @param entry
+    */
+   boolean includes(final MappedZipFile.Cursor entry)
+   {
+      if (encodedPaths.length == 0)
+      {
+         return true;
+      }
+      for (final byte[] path : encodedPaths)
+      {
+         if (entry.nameStartsWith(path))
+         {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Required Implementations -----------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      final StringBuilder sb = new StringBuilder();
+      for (final String path : paths)
+      {
+         if (sb.length() > 0)
+         {
+            sb.append(',');
+         }
+         sb.append(path.substring(0, path.length() - 1).replace('/', '.'));
+      }
+      return sb.toString();
+   }
+
+}
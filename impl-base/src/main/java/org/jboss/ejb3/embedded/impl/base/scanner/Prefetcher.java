@@ -0,0 +1,393 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.scanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.ejb3.embedded.impl.base.scanner.filter.ExclusionFilterChain;
+import org.jboss.logging.Logger;
+
+/**
+ * Reads ClassPath archives ahead of their being scanned, such that the latency
+ * of reading them from disk overlaps with the inspection of others.  Only the
+ * tail of each archive and its central directory are read, being all that's
+ * needed to probe an archive for its descriptor or index, or to reject it; the
+ * entries themselves are left for the scan to read only if it must.  As each 
+ * entry is started, a configured number of those following it are submitted to
+ * be read in the background; entries started before their read has are not read
+ * at all, nor are those excluded by the rules evaluated before mounting, and 
+ * reads still in progress once their entry is finished are abandoned.  Thread-safe.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+final class Prefetcher
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(Prefetcher.class);
+
+   /**
+    * Size of the buffer into which archives are read, and discarded
+    */
+   private static final int SIZE_BUFFER = 64 * 1024;
+
+   /**
+    * Length of the tail of an archive which may hold its end of central directory record
+    */
+   private static final int LENGTH_TAIL = MappedZipFile.LENGTH_END_OF_CENTRAL_DIRECTORY
+         + MappedZipFile.MAX_LENGTH_COMMENT;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Files to be read ahead, by the index of their entry; null for entries not to be read
+    */
+   private final File[] files;
+
+   /**
+    * Number of entries read ahead of the latest started
+    */
+   private final int depth;
+
+   /**
+    * Executor of the reads
+    */
+   private final Executor executor;
+
+   /**
+    * Exclusion rules evaluated before each read, or null if none
+    */
+   private final ExclusionFilterChain exclusionFilters;
+
+   /**
+    * Reads submitted, by the index of their entry; guarded by "this"
+    */
+   private final Read[] reads;
+
+   /**
+    * Index of the next entry whose read may be submitted; guarded by "this"
+    */
+   private int next;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new instance to read the specified files ahead of their entries
+    * @param files Files by the index of their entry, null for those not to be read
+    * @param depth Number of entries read ahead of the latest started
+    * @param executor Executor of the reads
+    * @param exclusionFilters Rules evaluated before mounting, upon the reading Thread, 
+    *   such that excluded entries are not read; may be null
+    * @throws IllegalArgumentException If the files or executor are not specified, or the depth is not positive
+    */
+   Prefetcher(final File[] files, final int depth, final Executor executor,
+         final ExclusionFilterChain exclusionFilters) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (files == null)
+      {
+         throw new IllegalArgumentException("files must be specified");
+      }
+      if (depth < 1)
+      {
+         throw new IllegalArgumentException("depth must be positive");
+      }
+      if (executor == null)
+      {
+         throw new IllegalArgumentException("executor must be specified");
+      }
+
+      this.files = files;
+      this.depth = depth;
+      this.executor = executor;
+      this.exclusionFilters = exclusionFilters;
+      this.reads = new Read[files.length];
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Records that the entry of the specified index is being scanned, abandoning its
+    * read if not yet begun and submitting the reads of the entries following it
+    * @param index
+    */
+   synchronized void started(final int index)
+   {
+      final Read read = reads[index];
+      if (read != null)
+      {
+         read.state.compareAndSet(Read.PENDING, Read.ABANDONED);
+      }
+      if (next <= index)
+      {
+         next = index + 1;
+      }
+      final int last = Math.min(index + depth, files.length - 1);
+      for (; next <= last; next++)
+      {
+         if (files[next] == null)
+         {
+            continue;
+         }
+         final Read ahead = new Read(files[next], exclusionFilters);
+         try
+         {
+            executor.execute(ahead);
+         }
+         catch (final RejectedExecutionException ree)
+         {
+            // Shutting down; scanning will carry on regardless
+            return;
+         }
+         reads[next] = ahead;
+      }
+   }
+
+   /**
+    * Records that the entry of the specified index has been scanned, abandoning its
+    * read if still in progress, and returns its read, or null if none was submitted
+    * @param index
+    */
+   synchronized Read finished(final int index)
+   {
+      final Read read = reads[index];
+      if (read != null)
+      {
+         read.state.compareAndSet(Read.PENDING, Read.ABANDONED);
+         read.state.compareAndSet(Read.RUNNING, Read.ABANDONED);
+         reads[index] = null;
+      }
+      return read;
+   }
+
+   /**
+    * Abandons all reads not yet completed
+    */
+   synchronized void close()
+   {
+      for (int i = 0; i < reads.length; i++)
+      {
+         if (reads[i] != null)
+         {
+            reads[i].state.set(Read.ABANDONED);
+            reads[i] = null;
+         }
+      }
+      next = files.length;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Read of the tail and central directory of a single file, unless abandoned
+    */
+   static final class Read implements Runnable
+   {
+      private static final int PENDING = 0;
+
+      private static final int RUNNING = 1;
+
+      private static final int COMPLETED = 2;
+
+      private static final int ABANDONED = 3;
+
+      private final File file;
+
+      private final ExclusionFilterChain exclusionFilters;
+
+      private final AtomicInteger state = new AtomicInteger(PENDING);
+
+      /**
+       * Bytes read thus far
+       */
+      private volatile long bytes;
+
+      /**
+       * Time spent reading thus far, in nanoseconds
+       */
+      private volatile long nanos;
+
+      Read(final File file, final ExclusionFilterChain exclusionFilters)
+      {
+         this.file = file;
+         this.exclusionFilters = exclusionFilters;
+      }
+
+      @Override
+      public void run()
+      {
+         if (!state.compareAndSet(PENDING, RUNNING))
+         {
+            return;
+         }
+         final long start = System.nanoTime();
+
+         // Entries excluded before mounting won't be read by the scan either
+         if (this.isExcluded())
+         {
+            state.compareAndSet(RUNNING, ABANDONED);
+            return;
+         }
+
+         try
+         {
+            final RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try
+            {
+               this.readCentralDirectory(raf, start);
+            }
+            finally
+            {
+               raf.close();
+            }
+         }
+         catch (final IOException ioe)
+         {
+            // Scanning will report the problem, if any
+            log.debugf("Could not read ahead %s: %s", file, ioe);
+         }
+         nanos = System.nanoTime() - start;
+         state.compareAndSet(RUNNING, COMPLETED);
+      }
+
+      /**
+       * Returns whether the file is excluded by the rules evaluated before mounting;
+       * any failure of the rules is left for the scan to report
+       */
+      private boolean isExcluded()
+      {
+         if (exclusionFilters == null)
+         {
+            return false;
+         }
+         try
+         {
+            return exclusionFilters.getPreMountExclusion(new ClassPathEntryImpl(file.getPath())) != null;
+         }
+         catch (final RuntimeException re)
+         {
+            log.debugf("Could not evaluate exclusion of %s: %s", file, re);
+            return false;
+         }
+      }
+
+      /**
+       * Reads the tail of the archive, then any of its central directory preceding
+       * the tail.  The central directory is located by its size as recorded at its
+       * end, such that it's found even within archives prefixed by other content.
+       */
+      private void readCentralDirectory(final RandomAccessFile raf, final long start) throws IOException
+      {
+         final long length = raf.length();
+         final int tailLength = (int) Math.min(length, LENGTH_TAIL);
+         final long tailStart = length - tailLength;
+         final byte[] tail = new byte[tailLength];
+         raf.seek(tailStart);
+         raf.readFully(tail);
+         bytes += tailLength;
+         nanos = System.nanoTime() - start;
+
+         // Find the end of central directory record, searching back past any comment
+         final ByteBuffer buffer = ByteBuffer.wrap(tail).order(ByteOrder.LITTLE_ENDIAN);
+         for (int i = tailLength - MappedZipFile.LENGTH_END_OF_CENTRAL_DIRECTORY; i >= 0; i--)
+         {
+            if (buffer.getInt(i) == MappedZipFile.SIG_END_OF_CENTRAL_DIRECTORY)
+            {
+               final long centralDirectorySize = buffer.getInt(i + 12) & 0xFFFFFFFFL;
+               final long centralDirectoryStart = Math.max(tailStart + i - centralDirectorySize, 0);
+               this.readRange(raf, centralDirectoryStart, tailStart, start);
+               return;
+            }
+         }
+      }
+
+      /**
+       * Reads the specified range of the file, unless abandoned
+       */
+      private void readRange(final RandomAccessFile raf, final long from, final long to, final long start)
+            throws IOException
+      {
+         final byte[] buffer = new byte[SIZE_BUFFER];
+         raf.seek(from);
+         long remaining = to - from;
+         while (remaining > 0 && state.get() == RUNNING)
+         {
+            final int read = raf.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read == -1)
+            {
+               return;
+            }
+            remaining -= read;
+            bytes += read;
+            nanos = System.nanoTime() - start;
+         }
+      }
+
+      /**
+       * Returns the number of bytes read ahead
+       */
+      long getBytes()
+      {
+         return bytes;
+      }
+
+      /**
+       * Returns the time spent reading ahead, in nanoseconds
+       */
+      long getNanos()
+      {
+         return nanos;
+      }
+
+      /**
+       * Returns whether the tail and central directory were read before being abandoned
+       */
+      boolean isCompleted()
+      {
+         return state.get() == COMPLETED;
+      }
+   }
+
+}
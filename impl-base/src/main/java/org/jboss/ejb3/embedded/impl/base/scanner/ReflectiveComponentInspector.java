@@ -0,0 +1,320 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.scanner;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbComponentMetadata;
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbComponentType;
+import org.jboss.logging.Logger;
+
+/**
+ * Determines whether classes define EJB components by loading them reflectively,
+ * such that component-defining annotations present only as meta-annotations
+ * are honored.  Classes are loaded, but never initialized, in a dedicated 
+ * {@link ClassLoader} isolated from the application, so that neither the 
+ * application ClassLoader nor any static state is touched before deployment. 
+ * Once {@link ReflectiveComponentInspector#close()}d, the ClassLoader and all
+ * classes loaded in it may be reclaimed.  Thread-safe.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ * @see ScannerConfiguration#PROPERTY_REFLECTIVE
+ */
+final class ReflectiveComponentInspector implements Closeable
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(ReflectiveComponentInspector.class);
+
+   /**
+    * Names of the view annotations
+    */
+   private static final String NAME_LOCAL = "javax.ejb.Local";
+
+   private static final String NAME_REMOTE = "javax.ejb.Remote";
+
+   private static final String NAME_LOCAL_BEAN = "javax.ejb.LocalBean";
+
+   /**
+    * Package of the JDK's own meta-annotations, never worth following
+    */
+   private static final String PACKAGE_PREFIX_ANNOTATION = "java.lang.annotation.";
+
+   /**
+    * Name of the element designating classes in view annotations
+    */
+   private static final String ELEMENT_VALUE = "value";
+
+   /**
+    * Extension of class files
+    */
+   private static final String EXTENSION_CLASS = ".class";
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Dedicated loader of inspected classes, or null once closed
+    */
+   private volatile URLClassLoader classLoader;
+
+   /**
+    * Number of classes loaded
+    */
+   private final AtomicInteger loaded = new AtomicInteger();
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new inspector loading classes from the specified ClassPath, which
+    * must include the EJB API and all annotation types for these to be honored
+    * @param classPath
+    * @throws IllegalArgumentException If the ClassPath is not specified
+    */
+   ReflectiveComponentInspector(final List<URL> classPath) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (classPath == null)
+      {
+         throw new IllegalArgumentException("ClassPath must be specified");
+      }
+
+      this.classLoader = SecurityActions.createIsolatedClassLoader(classPath.toArray(new URL[classPath.size()]));
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the EJB component defined by the class of the specified name, 
+    * or null if none is defined or the class could not be loaded
+    * @param className Fully-qualified class name
+    * @throws IllegalStateException If this inspector has been closed
+    */
+   EjbComponentMetadata getComponent(final String className) throws IllegalStateException
+   {
+      final ClassLoader classLoader = this.classLoader;
+      if (classLoader == null)
+      {
+         throw new IllegalStateException("Inspector has been closed");
+      }
+
+      try
+      {
+         final Class<?> clazz = Class.forName(className, false, classLoader);
+         loaded.incrementAndGet();
+
+         // Class-level annotations
+         EjbComponentType type = null;
+         List<String> local = null;
+         List<String> remote = null;
+         boolean localBean = false;
+         for (final Annotation annotation : clazz.getDeclaredAnnotations())
+         {
+            final String name = annotation.annotationType().getName();
+            if (NAME_LOCAL.equals(name))
+            {
+               local = getClassValues(annotation);
+            }
+            else if (NAME_REMOTE.equals(name))
+            {
+               remote = getClassValues(annotation);
+            }
+            else if (NAME_LOCAL_BEAN.equals(name))
+            {
+               localBean = true;
+            }
+            else if (type == null)
+            {
+               type = getComponentType(annotation.annotationType(), new HashSet<String>());
+            }
+         }
+         if (type == null)
+         {
+            return null;
+         }
+
+         final List<String> interfaces = new ArrayList<String>();
+         for (final Class<?> implemented : clazz.getInterfaces())
+         {
+            interfaces.add(implemented.getName());
+         }
+         if (log.isTraceEnabled())
+         {
+            log.tracef("Found %s component %s by reflection", type, className);
+         }
+         return EjbComponentClassFileInspector.createMetadata(className, type, interfaces, local, remote,
+               localBean);
+      }
+      catch (final ClassNotFoundException cnfe)
+      {
+         log.debugf("Could not load %s for inspection: %s", className, cnfe);
+         return null;
+      }
+      catch (final LinkageError le)
+      {
+         log.debugf("Could not link %s for inspection: %s", className, le);
+         return null;
+      }
+      catch (final RuntimeException re)
+      {
+         // Malformed or unresolvable annotations
+         log.debugf("Could not read annotations of %s for inspection: %s", className, re);
+         return null;
+      }
+   }
+
+   /**
+    * Obtains the fully-qualified name of the class in the specified class file
+    * @param path Path of the class file relative to the root of its module
+    */
+   static String getClassName(final CharSequence path)
+   {
+      final String name = path.toString();
+      return (name.endsWith(EXTENSION_CLASS) ? name.substring(0, name.length() - EXTENSION_CLASS.length()) : name)
+            .replace('/', '.');
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Required Implementations -----------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Releases the ClassLoader and all classes loaded in it.  Idempotent.
+    * @see java.io.Closeable#close()
+    */
+   @Override
+   public void close()
+   {
+      final URLClassLoader classLoader = this.classLoader;
+      this.classLoader = null;
+      if (classLoader == null)
+      {
+         return;
+      }
+      if (log.isDebugEnabled())
+      {
+         log.debug("Discarding ClassLoader of " + loaded.get() + " classes loaded for inspection");
+      }
+
+      // Only closeable as of Java 7; otherwise its JARs are released upon collection
+      if (classLoader instanceof Closeable)
+      {
+         try
+         {
+            ((Closeable) classLoader).close();
+         }
+         catch (final IOException ioe)
+         {
+            // Ignore
+            log.warn("Could not close ClassLoader used in inspection", ioe);
+         }
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the component type defined by the specified annotation type, directly
+    * or via its own annotations, or null if none.  Annotation types already visited
+    * are not followed again.
+    */
+   private static EjbComponentType getComponentType(final Class<? extends Annotation> annotationType,
+         final Set<String> visited)
+   {
+      final String name = annotationType.getName();
+      for (final EjbComponentType type : EjbComponentType.values())
+      {
+         if (type.getAnnotation().getName().equals(name))
+         {
+            return type;
+         }
+      }
+      if (name.startsWith(PACKAGE_PREFIX_ANNOTATION) || !visited.add(name))
+      {
+         return null;
+      }
+      for (final Annotation meta : annotationType.getDeclaredAnnotations())
+      {
+         final EjbComponentType type = getComponentType(meta.annotationType(), visited);
+         if (type != null)
+         {
+            return type;
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Obtains the names of the classes designated by the "value" element of the
+    * specified view annotation, or an empty list if none
+    */
+   private static List<String> getClassValues(final Annotation annotation)
+   {
+      try
+      {
+         final Method value = annotation.annotationType().getMethod(ELEMENT_VALUE);
+         final Object classes = value.invoke(annotation);
+         if (!(classes instanceof Class<?>[]))
+         {
+            return Collections.emptyList();
+         }
+         final List<String> names = new ArrayList<String>();
+         for (final Class<?> clazz : (Class<?>[]) classes)
+         {
+            names.add(clazz.getName());
+         }
+         return names;
+      }
+      catch (final Exception e)
+      {
+         log.debugf("Could not read value of %s: %s", annotation, e);
+         return Collections.emptyList();
+      }
+   }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.scanner;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Time within which a scan of the ClassPath must finish, and when each of its
+ * entries was started.  Shared among the scanning Threads.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+final class ScanBudget
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Time at which the scan started, in nanoseconds
+    */
+   private final long start;
+
+   /**
+    * Time by which the scan must finish, in nanoseconds
+    */
+   private final long deadline;
+
+   /**
+    * Time at which each entry was started, relative to the start of the scan
+    * and offset by 1, or 0 if not started
+    */
+   private final AtomicLongArray started;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a budget of the specified time for the scan of the specified number of entries
+    * @param start Time at which the scan started, in nanoseconds
+    * @param nanos Time within which the scan must finish, in nanoseconds
+    */
+   ScanBudget(final long start, final long nanos, final int entries)
+   {
+      this.start = start;
+      this.deadline = start + nanos;
+      this.started = new AtomicLongArray(entries);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Returns whether the budget has been spent
+    */
+   boolean isExceeded()
+   {
+      return System.nanoTime() - deadline >= 0;
+   }
+
+   /**
+    * Returns the time remaining, in nanoseconds; not positive if spent
+    */
+   long getRemainingNanos()
+   {
+      return deadline - System.nanoTime();
+   }
+
+   /**
+    * Records the start of the entry of the specified index, returning whether
+    * it may be scanned; it may not if the budget has been spent
+    */
+   boolean started(final int index)
+   {
+      if (this.isExceeded())
+      {
+         return false;
+      }
+      started.set(index, System.nanoTime() - start + 1);
+      return true;
+   }
+
+   /**
+    * Returns the time since the entry of the specified index was started, 
+    * in nanoseconds, or 0 if it wasn't
+    */
+   long getElapsedNanos(final int index)
+   {
+      final long startedAt = started.get(index);
+      return startedAt == 0 ? 0 : System.nanoTime() - start + 1 - startedAt;
+   }
+
+   /**
+    * Ensures that the budget has not been spent
+    * @throws ExceededException If it has
+    */
+   void check() throws ExceededException
+   {
+      if (this.isExceeded())
+      {
+         throw ExceededException.INSTANCE;
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Thrown from within the scan of an entry to abandon it once the budget 
+    * has been spent.  Never escapes the scanner, so carries no stack trace.
+    */
+   static final class ExceededException extends RuntimeException
+   {
+      private static final long serialVersionUID = 1L;
+
+      private static final ExceededException INSTANCE = new ExceededException();
+
+      @Override
+      public synchronized Throwable fillInStackTrace()
+      {
+         return this;
+      }
+   }
+}
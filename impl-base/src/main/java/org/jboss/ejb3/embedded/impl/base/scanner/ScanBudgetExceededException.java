@@ -0,0 +1,97 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.ejb3.embedded.impl.base.scanner;
+
+/**
+ * Thrown when a scan of the ClassPath does not finish within the budget
+ * configured by {@link ScannerConfiguration#PROPERTY_BUDGET}, unless 
+ * configured to proceed with what was found.  Carries the statistics 
+ * of the scan, in which entries left unfinished have the verdict
+ * {@link EntryScanStatistics.Verdict#UNFINISHED}; the message names
+ * the slowest of them.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ * @see ScannerConfiguration#PROPERTY_BUDGET_PARTIAL
+ */
+public class ScanBudgetExceededException extends RuntimeException
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * serialVersionUID
+    */
+   private static final long serialVersionUID = 1L;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Statistics of the scan; not serialized
+    */
+   private final transient ScanStatistics statistics;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new instance
+    * 
+    * @param message
+    * @param statistics Statistics of the scan
+    * @throws IllegalArgumentException If the statistics are not specified
+    */
+   public ScanBudgetExceededException(final String message, final ScanStatistics statistics)
+         throws IllegalArgumentException
+   {
+      super(message);
+
+      // Precondition checks
+      if (statistics == null)
+      {
+         throw new IllegalArgumentException("statistics must be specified");
+      }
+
+      this.statistics = statistics;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Accessors --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Returns the statistics of the scan, or null if this exception has been deserialized
+    * @return the statistics
+    */
+   public ScanStatistics getStatistics()
+   {
+      return statistics;
+   }
+
+}
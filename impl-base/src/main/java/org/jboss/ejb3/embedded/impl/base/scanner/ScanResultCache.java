@@ -0,0 +1,705 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.scanner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Persistent cache of whether ClassPath entries are EJB modules,
+ * such that entries which have not changed since a previous scan
+ * (in this or another JVM) need not be scanned again.  Each verdict
+ * is keyed by the canonical path of the entry, and is valid only so long
+ * as the size and last modified time (or, if so configured, the SHA-1 digest
+ * of the contents) of the file are unchanged.
+ *
+ * Only regular files (ie. JARs) are cached; the contents of exploded
+ * directories may change without any change to the directory itself.
+ *
+ * Verdicts reached within a restricted scope (ie. only some packages) are
+ * not valid in any other, so the cache records its scope and is discarded
+ * when loaded for another.
+ *
+ * The "Class-Path" manifest header of each JAR is cached alongside, valid
+ * so long as the size and last modified time of the JAR are unchanged, such
+ * that the ClassPath may be discovered without opening every JAR.
+ *
+ * Thread-safe.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class ScanResultCache
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(ScanResultCache.class);
+
+   /**
+    * Name of the cache file within the cache directory
+    */
+   static final String NAME_CACHE_FILE = "ejb-module-scan.cache";
+
+   /**
+    * Key under which the cache format version is stored; may not
+    * clash with any canonical path, as those are absolute
+    */
+   private static final String KEY_VERSION = "version";
+
+   /**
+    * Version of the cache format, and of the rules by which verdicts are
+    * reached.  Cache files of any other version are discarded.
+    */
+   private static final String VERSION = "1";
+
+   /**
+    * Key under which the scope of the verdicts is stored
+    */
+   private static final String KEY_SCOPE = "scope";
+
+   /**
+    * Prefix of the keys under which "Class-Path" manifest headers are stored, 
+    * followed by the canonical path of the JAR; may not clash with any
+    * canonical path, as those are absolute
+    */
+   private static final String PREFIX_KEY_CLASS_PATH = "Class-Path:";
+
+   /**
+    * Separator of fields within each value
+    */
+   private static final char SEPARATOR = ',';
+
+   /**
+    * Digest algorithm
+    */
+   private static final String ALGORITHM_DIGEST = "SHA-1";
+
+   /**
+    * Hex characters used in encoding digests
+    */
+   private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Backing file
+    */
+   private final File cacheFile;
+
+   /**
+    * Whether or not to validate entries by content digest rather than last modified time
+    */
+   private final boolean digest;
+
+   /**
+    * Scope within which verdicts were reached
+    */
+   private final String scope;
+
+   /**
+    * Cached entries, keyed by canonical path
+    */
+   private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+   /**
+    * Cached "Class-Path" manifest headers, keyed by canonical path
+    */
+   private final ConcurrentMap<String, ClassPathHeader> classPaths = new ConcurrentHashMap<String, ClassPathHeader>();
+
+   /**
+    * Whether we have changes to be saved
+    */
+   private volatile boolean dirty;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new cache backed by a file in the specified directory,
+    * loading any entries previously saved there
+    *
+    * @param directory The directory in which to store the cache; will be created if it does not exist
+    * @param digest Whether entries should be validated by the SHA-1 digest of the file contents
+    * rather than by last modified time
+    * @throws IllegalArgumentException If the directory is not specified
+    */
+   public ScanResultCache(final File directory, final boolean digest) throws IllegalArgumentException
+   {
+      this(directory, digest, "");
+   }
+
+   /**
+    * Creates a new cache backed by a file in the specified directory, loading
+    * any entries previously saved there within the same scope
+    *
+    * @param directory The directory in which to store the cache; will be created if it does not exist
+    * @param digest Whether entries should be validated by the SHA-1 digest of the file contents
+    * rather than by last modified time
+    * @param scope Description of the scope within which verdicts are reached, empty if unrestricted
+    * @throws IllegalArgumentException If the directory or scope is not specified
+    */
+   public ScanResultCache(final File directory, final boolean digest, final String scope)
+         throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (directory == null)
+      {
+         throw new IllegalArgumentException("directory must be specified");
+      }
+      if (scope == null)
+      {
+         throw new IllegalArgumentException("scope must be specified");
+      }
+
+      this.cacheFile = new File(directory, NAME_CACHE_FILE);
+      this.digest = digest;
+      this.scope = scope;
+      this.load();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the cached verdict as to whether the specified ClassPath entry is an
+    * EJB module, or null if there is no valid verdict cached for the entry as it
+    * currently exists.
+    *
+    * @param file
+    * @return
+    * @throws IllegalArgumentException If the file is not specified
+    */
+   public Boolean getVerdict(final File file) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (file == null)
+      {
+         throw new IllegalArgumentException("file must be specified");
+      }
+
+      final Entry entry = this.getEntry(file);
+      if (entry == null)
+      {
+         return null;
+      }
+      if (digest)
+      {
+         if (entry.digest == null || !entry.digest.equals(digest(file)))
+         {
+            return null;
+         }
+      }
+
+      if (log.isTraceEnabled())
+      {
+         log.tracef("Using cached verdict for %s: %s", file, entry.ejbModule);
+      }
+      return entry.ejbModule;
+   }
+
+   /**
+    * Obtains the verdict cached for the specified ClassPath entry as 
+    * {@link ScanResultCache#getVerdict(File)} would, but without reading the
+    * entry to compare its digest, if so configured; the verdict returned may 
+    * then prove not to be valid.  Used to anticipate whether an entry will be read.
+    *
+    * @param file
+    * @return
+    * @throws IllegalArgumentException If the file is not specified
+    */
+   public Boolean peekVerdict(final File file) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (file == null)
+      {
+         throw new IllegalArgumentException("file must be specified");
+      }
+
+      final Entry entry = this.getEntry(file);
+      return entry == null ? null : entry.ejbModule;
+   }
+
+   /**
+    * Caches the verdict as to whether the specified ClassPath entry is
+    * an EJB module.  Entries other than regular files are ignored.
+    *
+    * @param file
+    * @param ejbModule
+    * @throws IllegalArgumentException If the file is not specified
+    */
+   public void putVerdict(final File file, final boolean ejbModule) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (file == null)
+      {
+         throw new IllegalArgumentException("file must be specified");
+      }
+
+      // Only regular files are cached
+      if (!file.isFile())
+      {
+         return;
+      }
+
+      final Entry entry = new Entry(file.length(), file.lastModified(), ejbModule, digest ? digest(file) : null);
+      entries.put(canonicalPath(file), entry);
+      dirty = true;
+   }
+
+   /**
+    * Obtains the cached value of the "Class-Path" manifest header of the specified 
+    * JAR, an empty String if it has none, or null if there is no valid value cached
+    * for the JAR as it currently exists.  Values are validated by size and last 
+    * modified time alone.
+    *
+    * @param file
+    * @return
+    * @throws IllegalArgumentException If the file is not specified
+    */
+   public String getClassPath(final File file) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (file == null)
+      {
+         throw new IllegalArgumentException("file must be specified");
+      }
+
+      // Only regular files are cached
+      if (!file.isFile())
+      {
+         return null;
+      }
+
+      final ClassPathHeader classPath = classPaths.get(canonicalPath(file));
+      if (classPath == null || classPath.size != file.length() || classPath.lastModified != file.lastModified())
+      {
+         return null;
+      }
+      return classPath.value;
+   }
+
+   /**
+    * Caches the value of the "Class-Path" manifest header of the specified 
+    * JAR.  Entries other than regular files are ignored.
+    *
+    * @param file
+    * @param classPath Value of the header, or null if the JAR has none
+    * @throws IllegalArgumentException If the file is not specified
+    */
+   public void putClassPath(final File file, final String classPath) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (file == null)
+      {
+         throw new IllegalArgumentException("file must be specified");
+      }
+
+      // Only regular files are cached
+      if (!file.isFile())
+      {
+         return;
+      }
+
+      classPaths.put(canonicalPath(file), new ClassPathHeader(file.length(), file.lastModified(),
+            classPath == null ? "" : classPath));
+      dirty = true;
+   }
+
+   /**
+    * Writes the cache to disk if it has changed since loaded.  The file is replaced
+    * in full, so readers will never observe a partially-written cache.
+    * Failure to save is logged but otherwise ignored; the cache is an optimization only.
+    */
+   public synchronized void save()
+   {
+      if (!dirty)
+      {
+         return;
+      }
+
+      // Build the contents
+      final Properties props = new Properties();
+      props.setProperty(KEY_VERSION, VERSION);
+      props.setProperty(KEY_SCOPE, scope);
+      for (final Map.Entry<String, Entry> entry : entries.entrySet())
+      {
+         props.setProperty(entry.getKey(), entry.getValue().toString());
+      }
+      for (final Map.Entry<String, ClassPathHeader> classPath : classPaths.entrySet())
+      {
+         props.setProperty(PREFIX_KEY_CLASS_PATH + classPath.getKey(), classPath.getValue().toString());
+      }
+
+      // Write to a temp file and move into place
+      final File directory = cacheFile.getParentFile();
+      if (!directory.isDirectory() && !directory.mkdirs())
+      {
+         log.warn("Could not create scan cache directory " + directory);
+         return;
+      }
+      File temp = null;
+      try
+      {
+         temp = File.createTempFile(NAME_CACHE_FILE, ".tmp", directory);
+         final OutputStream out = new BufferedOutputStream(new FileOutputStream(temp));
+         try
+         {
+            props.store(out, "EJB Module ClassPath scan results");
+         }
+         finally
+         {
+            out.close();
+         }
+         if (!temp.renameTo(cacheFile))
+         {
+            // Some platforms will not rename over an existing file
+            cacheFile.delete();
+            if (!temp.renameTo(cacheFile))
+            {
+               throw new IOException("Could not move " + temp + " to " + cacheFile);
+            }
+         }
+         dirty = false;
+         if (log.isDebugEnabled())
+         {
+            log.debug("Saved " + entries.size() + " scan results to " + cacheFile);
+         }
+      }
+      catch (final IOException ioe)
+      {
+         log.warn("Could not save scan cache to " + cacheFile, ioe);
+         if (temp != null)
+         {
+            temp.delete();
+         }
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return this.getClass().getSimpleName() + " [file=" + cacheFile + ", digest=" + digest + ", scope=" + scope
+            + "]";
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Loads all entries from the backing file, if it exists.  Unreadable or
+    * out-of-date caches are ignored.
+    */
+   private void load()
+   {
+      if (!cacheFile.isFile())
+      {
+         return;
+      }
+
+      final Properties props = new Properties();
+      try
+      {
+         final InputStream in = new BufferedInputStream(new FileInputStream(cacheFile));
+         try
+         {
+            props.load(in);
+         }
+         finally
+         {
+            in.close();
+         }
+      }
+      catch (final IOException ioe)
+      {
+         log.warn("Could not read scan cache " + cacheFile + "; ignoring", ioe);
+         return;
+      }
+
+      if (!VERSION.equals(props.getProperty(KEY_VERSION)))
+      {
+         if (log.isDebugEnabled())
+         {
+            log.debug("Discarding scan cache " + cacheFile + " of unsupported version");
+         }
+         return;
+      }
+
+      if (!scope.equals(props.getProperty(KEY_SCOPE, "")))
+      {
+         if (log.isDebugEnabled())
+         {
+            log.debug("Discarding scan cache " + cacheFile + " of another scope: " + props.getProperty(KEY_SCOPE));
+         }
+         return;
+      }
+
+      for (final String key : props.stringPropertyNames())
+      {
+         if (KEY_VERSION.equals(key) || KEY_SCOPE.equals(key))
+         {
+            continue;
+         }
+         if (key.startsWith(PREFIX_KEY_CLASS_PATH))
+         {
+            final ClassPathHeader classPath = ClassPathHeader.valueOf(props.getProperty(key));
+            if (classPath != null)
+            {
+               classPaths.put(key.substring(PREFIX_KEY_CLASS_PATH.length()), classPath);
+            }
+            continue;
+         }
+         final Entry entry = Entry.valueOf(props.getProperty(key));
+         if (entry != null)
+         {
+            entries.put(key, entry);
+         }
+      }
+      if (log.isDebugEnabled())
+      {
+         log.debug("Loaded " + entries.size() + " scan results from " + cacheFile);
+      }
+   }
+
+   /**
+    * Obtains the entry cached for the specified file if it matches the file's size
+    * and, unless digests are compared, its modification time; otherwise null
+    */
+   private Entry getEntry(final File file)
+   {
+      // Only regular files are cached
+      if (!file.isFile())
+      {
+         return null;
+      }
+
+      final Entry entry = entries.get(canonicalPath(file));
+      if (entry == null || entry.size != file.length())
+      {
+         return null;
+      }
+      if (!digest && entry.lastModified != file.lastModified())
+      {
+         return null;
+      }
+      return entry;
+   }
+
+   /**
+    * Obtains the canonical path of the specified file, falling back
+    * to the absolute path if it cannot be resolved
+    */
+   private static String canonicalPath(final File file)
+   {
+      try
+      {
+         return file.getCanonicalPath();
+      }
+      catch (final IOException ioe)
+      {
+         return file.getAbsolutePath();
+      }
+   }
+
+   /**
+    * Obtains the hex-encoded SHA-1 digest of the contents of the specified file,
+    * or null if it could not be read
+    */
+   private static String digest(final File file)
+   {
+      final MessageDigest md;
+      try
+      {
+         md = MessageDigest.getInstance(ALGORITHM_DIGEST);
+      }
+      catch (final NoSuchAlgorithmException nsae)
+      {
+         throw new IllegalStateException(ALGORITHM_DIGEST + " is required of all JVMs", nsae);
+      }
+      try
+      {
+         final InputStream in = new FileInputStream(file);
+         try
+         {
+            final byte[] buffer = new byte[8192];
+            int read = 0;
+            while ((read = in.read(buffer)) != -1)
+            {
+               md.update(buffer, 0, read);
+            }
+         }
+         finally
+         {
+            in.close();
+         }
+      }
+      catch (final IOException ioe)
+      {
+         log.warn("Could not compute digest of " + file, ioe);
+         return null;
+      }
+      final byte[] bytes = md.digest();
+      final char[] chars = new char[bytes.length * 2];
+      for (int i = 0; i < bytes.length; i++)
+      {
+         chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+         chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+      }
+      return new String(chars);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * A single cached verdict, along with the file attributes for which it's valid
+    */
+   private static final class Entry
+   {
+      private final long size;
+
+      private final long lastModified;
+
+      private final boolean ejbModule;
+
+      private final String digest;
+
+      Entry(final long size, final long lastModified, final boolean ejbModule, final String digest)
+      {
+         this.size = size;
+         this.lastModified = lastModified;
+         this.ejbModule = ejbModule;
+         this.digest = digest;
+      }
+
+      /**
+       * Parses an entry from its String form, returning null if malformed
+       */
+      static Entry valueOf(final String value)
+      {
+         final String[] fields = value.split(String.valueOf(SEPARATOR));
+         if (fields.length < 3)
+         {
+            return null;
+         }
+         try
+         {
+            return new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]), Boolean.parseBoolean(fields[2]),
+                  fields.length > 3 ? fields[3] : null);
+         }
+         catch (final NumberFormatException nfe)
+         {
+            return null;
+         }
+      }
+
+      @Override
+      public String toString()
+      {
+         final StringBuilder sb = new StringBuilder();
+         sb.append(size).append(SEPARATOR).append(lastModified).append(SEPARATOR).append(ejbModule);
+         if (digest != null)
+         {
+            sb.append(SEPARATOR).append(digest);
+         }
+         return sb.toString();
+      }
+   }
+
+   /**
+    * A single cached "Class-Path" manifest header, along with the file attributes for which it's valid
+    */
+   private static final class ClassPathHeader
+   {
+      private final long size;
+
+      private final long lastModified;
+
+      private final String value;
+
+      ClassPathHeader(final long size, final long lastModified, final String value)
+      {
+         this.size = size;
+         this.lastModified = lastModified;
+         this.value = value;
+      }
+
+      /**
+       * Parses a header from its String form, returning null if malformed
+       */
+      static ClassPathHeader valueOf(final String value)
+      {
+         // The header itself may hold the separator
+         final String[] fields = value.split(String.valueOf(SEPARATOR), 3);
+         if (fields.length < 3)
+         {
+            return null;
+         }
+         try
+         {
+            return new ClassPathHeader(Long.parseLong(fields[0]), Long.parseLong(fields[1]), fields[2]);
+         }
+         catch (final NumberFormatException nfe)
+         {
+            return null;
+         }
+      }
+
+      @Override
+      public String toString()
+      {
+         return new StringBuilder().append(size).append(SEPARATOR).append(lastModified).append(SEPARATOR).append(
+               value).toString();
+      }
+   }
+
+}
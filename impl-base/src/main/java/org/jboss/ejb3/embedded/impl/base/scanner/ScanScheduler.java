@@ -0,0 +1,459 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.scanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.ejb3.embedded.spi.scanner.EjbModuleListener;
+import org.jboss.logging.Logger;
+import org.jboss.vfs.TempFileProvider;
+
+/**
+ * Schedules the scan of ClassPath entries on behalf of a {@link ClassPathEjbJarScanner}:
+ * owns the Threads scanning entries concurrently, those reading archives ahead of
+ * their scan and the temporary files backing ZIP mounts, and collects the scan of 
+ * each entry within its {@link ScanBudget}, if any.  No Threads or temporary files
+ * are created until needed.  Thread-safe.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+final class ScanScheduler
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(ScanScheduler.class);
+
+   /**
+    * System property key denoting the working directory, beneath which project archives reside
+    */
+   private static final String SYS_PROP_KEY_USER_DIR = "user.dir";
+
+   /**
+    * Time in seconds after which idle scanning Threads are released
+    */
+   private static final long KEEP_ALIVE_SECONDS = 10;
+
+   /**
+    * Name of the temporary directory backing ZIP mounts
+    */
+   private static final String NAME_TEMP_FILE_PROVIDER = "jbossejbmodulescanner";
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Configuration of the scanner
+    */
+   private final ScannerConfiguration configuration;
+
+   /**
+    * Executor used to scan entries concurrently and to back the {@link TempFileProvider};
+    * lazily created, guarded by "this"
+    */
+   private ScheduledThreadPoolExecutor executor;
+
+   /**
+    * Executor used to read archives ahead of their scan; lazily created, guarded by "this"
+    */
+   private ThreadPoolExecutor prefetchExecutor;
+
+   /**
+    * Provider of the temporary files backing ZIP mounts; lazily created, guarded by "this"
+    */
+   private TempFileProvider tempFileProvider;
+
+   /**
+    * Whether this scheduler has been closed, guarded by "this"
+    */
+   private boolean closed;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new scheduler of the Threads configured
+    * @param configuration
+    */
+   ScanScheduler(final ScannerConfiguration configuration)
+   {
+      assert configuration != null : "configuration must be specified";
+      this.configuration = configuration;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Scans the entries of the specified number using the specified task, concurrently
+    * in the shared executor if more than one Thread is specified, else in the calling
+    * Thread.  The result at each index corresponds to the entry at the same index.  
+    * If a listener is specified, it is notified in the calling Thread of each module
+    * in the order in which they're discovered.  If a budget is specified, results are
+    * collected only until it's spent; those not collected are null.
+    * @throws IllegalStateException If this scheduler has been closed
+    */
+   ModuleScan[] scanEntries(final int entries, final int threads, final EntryTask task, final ScanBudget budget,
+         final EjbModuleListener listener) throws IllegalStateException
+   {
+      if (threads > 1)
+      {
+         return this.scanConcurrently(entries, task, budget, listener);
+      }
+      final ModuleScan[] scanned = new ModuleScan[entries];
+      for (int i = 0; i < entries; i++)
+      {
+         scanned[i] = task.scan(i);
+         if (scanned[i] != null)
+         {
+            moduleDiscovered(listener, scanned[i]);
+         }
+      }
+      return scanned;
+   }
+
+   /**
+    * Orders the specified ClassPath entries by how likely they are to be EJB JARs
+    * worth scanning within a budget: directories (ie. the project's classes) first,
+    * then archives beneath the working directory (ie. the project's own), then all
+    * others, smallest first.  Within each, ClassPath order is kept.
+    * @return The index of each entry, in the order in which they're to be scanned
+    */
+   static int[] prioritize(final String[] classPathEntries)
+   {
+      final String userDir = SecurityActions.getSystemProperty(SYS_PROP_KEY_USER_DIR);
+      final String projectPrefix = userDir == null ? null : new File(userDir).getAbsolutePath() + File.separator;
+      final int[] tiers = new int[classPathEntries.length];
+      final long[] lengths = new long[classPathEntries.length];
+      final Integer[] order = new Integer[classPathEntries.length];
+      for (int i = 0; i < classPathEntries.length; i++)
+      {
+         final File file = new File(classPathEntries[i]).getAbsoluteFile();
+         if (file.isDirectory())
+         {
+            tiers[i] = 0;
+         }
+         else if (projectPrefix != null && file.getPath().startsWith(projectPrefix))
+         {
+            tiers[i] = 1;
+         }
+         else
+         {
+            tiers[i] = 2;
+            lengths[i] = file.length();
+         }
+         order[i] = i;
+      }
+
+      // Stable, so ClassPath order is kept among equals
+      Arrays.sort(order, new Comparator<Integer>()
+      {
+         @Override
+         public int compare(final Integer a, final Integer b)
+         {
+            final int tier = tiers[a.intValue()] - tiers[b.intValue()];
+            if (tier != 0)
+            {
+               return tier;
+            }
+            final long a1 = lengths[a.intValue()];
+            final long b1 = lengths[b.intValue()];
+            return a1 < b1 ? -1 : a1 > b1 ? 1 : 0;
+         }
+      });
+      final int[] indexes = new int[order.length];
+      for (int i = 0; i < order.length; i++)
+      {
+         indexes[i] = order[i].intValue();
+      }
+      return indexes;
+   }
+
+   /**
+    * Returns whether this scheduler has been closed
+    */
+   synchronized boolean isClosed()
+   {
+      return closed;
+   }
+
+   /**
+    * Releases the Threads and temporary files created by this scheduler.  
+    * Repeated calls have no effect.
+    */
+   synchronized void close()
+   {
+      if (closed)
+      {
+         return;
+      }
+      closed = true;
+
+      if (tempFileProvider != null)
+      {
+         try
+         {
+            tempFileProvider.close();
+         }
+         catch (final IOException e)
+         {
+            // Ignore
+            log.warn("Could not close " + tempFileProvider, e);
+         }
+         tempFileProvider = null;
+      }
+      if (executor != null)
+      {
+         // Don't wait on any pending retries to delete temporary files
+         executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+         executor.shutdown();
+         executor = null;
+      }
+      if (prefetchExecutor != null)
+      {
+         prefetchExecutor.shutdown();
+         prefetchExecutor = null;
+      }
+   }
+
+   /**
+    * Obtains the executor reading archives ahead of their scan, creating it if 
+    * necessary.  Its daemon Threads, of which there are as many as archives
+    * configured to be read ahead, are released when idle.
+    * @throws IllegalStateException If this scheduler has been closed
+    */
+   synchronized ThreadPoolExecutor getPrefetchExecutor() throws IllegalStateException
+   {
+      if (closed)
+      {
+         throw new IllegalStateException("Scanner has been closed");
+      }
+      if (prefetchExecutor == null)
+      {
+         final int threads = configuration.getPrefetch();
+         prefetchExecutor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+               new LinkedBlockingQueue<Runnable>(), ScannerThreadFactory.INSTANCE);
+         prefetchExecutor.allowCoreThreadTimeOut(true);
+      }
+      return prefetchExecutor;
+   }
+
+   /**
+    * Obtains the executor of this scheduler, creating it if necessary.  Its daemon
+    * Threads, of which there are at most as many as configured for scanning, are
+    * released when idle.
+    * @throws IllegalStateException If this scheduler has been closed
+    */
+   synchronized ScheduledExecutorService getExecutor() throws IllegalStateException
+   {
+      if (closed)
+      {
+         throw new IllegalStateException("Scanner has been closed");
+      }
+      if (executor == null)
+      {
+         executor = new ScheduledThreadPoolExecutor(configuration.getThreads(), ScannerThreadFactory.INSTANCE);
+         executor.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+         executor.allowCoreThreadTimeOut(true);
+      }
+      return executor;
+   }
+
+   /**
+    * Obtains the provider of temporary files backing ZIP mounts, creating it if necessary
+    * @throws IllegalStateException If this scheduler has been closed
+    */
+   synchronized TempFileProvider getTempFileProvider() throws IOException, IllegalStateException
+   {
+      if (tempFileProvider == null)
+      {
+         tempFileProvider = TempFileProvider.create(NAME_TEMP_FILE_PROVIDER, this.getExecutor());
+      }
+      return tempFileProvider;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Scans each of the entries of the specified number concurrently using the
+    * shared executor; results not collected within the budget, if any, are null
+    */
+   private ModuleScan[] scanConcurrently(final int entries, final EntryTask task, final ScanBudget budget,
+         final EjbModuleListener listener)
+   {
+      final ModuleScan[] results = new ModuleScan[entries];
+      final ModuleScan[] collected = new ModuleScan[entries];
+      final CompletionService<Integer> completion = new ExecutorCompletionService<Integer>(this.getExecutor());
+      final List<Future<Integer>> futures = new ArrayList<Future<Integer>>(entries);
+      try
+      {
+         // Submit all
+         for (int i = 0; i < entries; i++)
+         {
+            final int index = i;
+            futures.add(completion.submit(new Callable<Integer>()
+            {
+               @Override
+               public Integer call() throws Exception
+               {
+                  results[index] = task.scan(index);
+                  return index;
+               }
+            }));
+         }
+
+         // Collect as completed
+         for (int i = 0; i < entries; i++)
+         {
+            final int index;
+            try
+            {
+               final Future<Integer> completed = budget == null ? completion.take() : completion.poll(budget
+                     .getRemainingNanos(), TimeUnit.NANOSECONDS);
+               if (completed == null)
+               {
+                  // Out of time; abandon the rest
+                  break;
+               }
+               index = completed.get();
+            }
+            catch (final InterruptedException ie)
+            {
+               Thread.currentThread().interrupt();
+               throw new RuntimeException("Interrupted while scanning ClassPath for EJB JAR modules", ie);
+            }
+            catch (final ExecutionException ee)
+            {
+               final Throwable cause = ee.getCause();
+               if (cause instanceof RuntimeException)
+               {
+                  throw (RuntimeException) cause;
+               }
+               if (cause instanceof Error)
+               {
+                  throw (Error) cause;
+               }
+               throw new RuntimeException("Could not scan ClassPath for EJB JAR modules", cause);
+            }
+            collected[index] = results[index];
+            if (collected[index] != null)
+            {
+               moduleDiscovered(listener, collected[index]);
+            }
+         }
+         return collected;
+      }
+      finally
+      {
+         // No-op if all completed; else cancels those pending after an error
+         for (final Future<Integer> future : futures)
+         {
+            future.cancel(true);
+         }
+      }
+   }
+
+   /**
+    * Notifies the specified listener, if any, of the module scanned and of the 
+    * modules nested within it, in order
+    */
+   private static void moduleDiscovered(final EjbModuleListener listener, final ModuleScan scan)
+   {
+      if (listener == null)
+      {
+         return;
+      }
+      for (final ModuleScan moduleScan : scan.getModuleScans())
+      {
+         if (moduleScan.getIndex() != null)
+         {
+            listener.moduleDiscovered(moduleScan.getIndex());
+         }
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Scan of a single entry, by its index
+    */
+   interface EntryTask
+   {
+      /**
+       * Scans the entry of the specified index, returning null if it was abandoned
+       * upon exceeding the budget
+       */
+      ModuleScan scan(int index);
+   }
+
+   /**
+    * {@link ThreadFactory} creating daemon Threads for scanning, such that 
+    * the scanner may never block JVM shutdown
+    */
+   private enum ScannerThreadFactory implements ThreadFactory {
+      INSTANCE;
+
+      /**
+       * Counter used in naming Threads
+       */
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Thread newThread(final Runnable r)
+      {
+         final Thread thread = new Thread(r, "EJB Module Scanner-" + count.incrementAndGet());
+         thread.setDaemon(true);
+         return thread;
+      }
+   }
+}
@@ -0,0 +1,379 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.scanner;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.jboss.ejb3.embedded.impl.base.scanner.EntryScanStatistics.Verdict;
+
+/**
+ * Statistics gathered in a single scan of the ClassPath, holding
+ * an {@link EntryScanStatistics} for each entry in ClassPath order.
+ * May be exported as a JSON report via {@link ScanStatistics#writeJson(Writer)}.
+ * Immutable.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ * @see ClassPathEjbJarScanner#getStatistics()
+ */
+public final class ScanStatistics
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Hex digits used in escaping control characters in JSON strings
+    */
+   private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Statistics of each entry, in ClassPath order
+    */
+   private final List<EntryScanStatistics> entries;
+
+   /**
+    * Number of threads used in scanning
+    */
+   private final int threads;
+
+   /**
+    * Wall clock time of the scan, in nanoseconds
+    */
+   private final long elapsedNanos;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new instance
+    * 
+    * @param entries Statistics of each entry, in ClassPath order
+    * @param threads Number of threads used in scanning
+    * @param elapsedNanos Wall clock time of the scan
+    * @throws IllegalArgumentException If the entries are not specified
+    */
+   public ScanStatistics(final List<EntryScanStatistics> entries, final int threads, final long elapsedNanos)
+         throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (entries == null)
+      {
+         throw new IllegalArgumentException("entries must be specified");
+      }
+
+      this.entries = Collections.unmodifiableList(new ArrayList<EntryScanStatistics>(entries));
+      this.threads = threads;
+      this.elapsedNanos = elapsedNanos;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Returns the number of entries with the specified verdict
+    * @param verdict
+    * @throws IllegalArgumentException If the verdict is not specified
+    */
+   public int getCount(final Verdict verdict) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (verdict == null)
+      {
+         throw new IllegalArgumentException("verdict must be specified");
+      }
+
+      int count = 0;
+      for (final EntryScanStatistics entry : entries)
+      {
+         if (entry.getVerdict() == verdict)
+         {
+            count++;
+         }
+      }
+      return count;
+   }
+
+   /**
+    * Returns the statistics of the entries left unfinished by the scan's budget,
+    * the slowest first; those never started come last, in ClassPath order
+    */
+   public List<EntryScanStatistics> getUnfinishedEntries()
+   {
+      final List<EntryScanStatistics> unfinished = new ArrayList<EntryScanStatistics>();
+      for (final EntryScanStatistics entry : entries)
+      {
+         if (entry.getVerdict() == Verdict.UNFINISHED)
+         {
+            unfinished.add(entry);
+         }
+      }
+      Collections.sort(unfinished, new Comparator<EntryScanStatistics>()
+      {
+         @Override
+         public int compare(final EntryScanStatistics a, final EntryScanStatistics b)
+         {
+            return a.getElapsedNanos() == b.getElapsedNanos() ? 0 : a.getElapsedNanos() > b.getElapsedNanos() ? -1 : 1;
+         }
+      });
+      return unfinished;
+   }
+
+   /**
+    * Returns the total bytes of class files inspected over all entries
+    */
+   public long getBytesRead()
+   {
+      long bytesRead = 0;
+      for (final EntryScanStatistics entry : entries)
+      {
+         bytesRead += entry.getBytesRead();
+      }
+      return bytesRead;
+   }
+
+   /**
+    * Returns the total number of class files inspected over all entries
+    */
+   public int getClassesInspected()
+   {
+      int classesInspected = 0;
+      for (final EntryScanStatistics entry : entries)
+      {
+         classesInspected += entry.getClassesInspected();
+      }
+      return classesInspected;
+   }
+
+   /**
+    * Returns the total number of bytes read in the background ahead of their
+    * entry's scan
+    */
+   public long getPrefetchedBytes()
+   {
+      long prefetchedBytes = 0;
+      for (final EntryScanStatistics entry : entries)
+      {
+         prefetchedBytes += entry.getPrefetchedBytes();
+      }
+      return prefetchedBytes;
+   }
+
+   /**
+    * Returns the total time spent reading in the background ahead of each entry's
+    * scan, in nanoseconds; this is disk latency overlapped with scanning
+    */
+   public long getPrefetchNanos()
+   {
+      long prefetchNanos = 0;
+      for (final EntryScanStatistics entry : entries)
+      {
+         prefetchNanos += entry.getPrefetchNanos();
+      }
+      return prefetchNanos;
+   }
+
+   /**
+    * Writes these statistics as a JSON document to the specified {@link Writer},
+    * which is flushed but not closed.  Times are reported in nanoseconds.
+    * 
+    * @param writer
+    * @throws IOException If an error occurred in writing
+    * @throws IllegalArgumentException If the writer is not specified
+    */
+   public void writeJson(final Writer writer) throws IOException, IllegalArgumentException
+   {
+      // Precondition checks
+      if (writer == null)
+      {
+         throw new IllegalArgumentException("writer must be specified");
+      }
+
+      writer.write("{\n");
+      writer.write("  \"threads\": " + threads + ",\n");
+      writer.write("  \"elapsedNanos\": " + elapsedNanos + ",\n");
+      writer.write("  \"bytesRead\": " + this.getBytesRead() + ",\n");
+      writer.write("  \"classesInspected\": " + this.getClassesInspected() + ",\n");
+      writer.write("  \"prefetchedBytes\": " + this.getPrefetchedBytes() + ",\n");
+      writer.write("  \"prefetchNanos\": " + this.getPrefetchNanos() + ",\n");
+      writer.write("  \"verdicts\": {");
+      final Verdict[] verdicts = Verdict.values();
+      for (int i = 0; i < verdicts.length; i++)
+      {
+         writer.write((i == 0 ? "" : ",") + " \"" + verdicts[i] + "\": " + this.getCount(verdicts[i]));
+      }
+      writer.write(" },\n");
+      writer.write("  \"entries\": [");
+      for (int i = 0; i < entries.size(); i++)
+      {
+         final EntryScanStatistics entry = entries.get(i);
+         writer.write(i == 0 ? "\n" : ",\n");
+         writer.write("    { \"path\": ");
+         writeJsonString(entry.getPath(), writer);
+         writer.write(", \"verdict\": \"" + entry.getVerdict() + "\"");
+         writer.write(", \"cached\": " + entry.isCached());
+         writer.write(", \"elapsedNanos\": " + entry.getElapsedNanos());
+         writer.write(", \"mountNanos\": " + entry.getMountNanos());
+         writer.write(", \"bytesRead\": " + entry.getBytesRead());
+         writer.write(", \"classesInspected\": " + entry.getClassesInspected());
+         writer.write(", \"prefetchedBytes\": " + entry.getPrefetchedBytes());
+         writer.write(", \"prefetchNanos\": " + entry.getPrefetchNanos());
+         writer.write(", \"excludedBy\": ");
+         if (entry.getExcludedBy() == null)
+         {
+            writer.write("null");
+         }
+         else
+         {
+            writeJsonString(entry.getExcludedBy(), writer);
+         }
+         writer.write(" }");
+      }
+      writer.write(entries.isEmpty() ? "]\n" : "\n  ]\n");
+      writer.write("}\n");
+      writer.flush();
+   }
+
+   /**
+    * Returns these statistics as a JSON document
+    * @see ScanStatistics#writeJson(Writer)
+    */
+   public String toJson()
+   {
+      final StringWriter writer = new StringWriter();
+      try
+      {
+         this.writeJson(writer);
+      }
+      catch (final IOException ioe)
+      {
+         // Never thrown by a StringWriter
+         throw new RuntimeException(ioe);
+      }
+      return writer.toString();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Accessors --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Returns an immutable view of the statistics of each entry, in ClassPath order
+    * @return the entries
+    */
+   public List<EntryScanStatistics> getEntries()
+   {
+      return entries;
+   }
+
+   /**
+    * Returns the number of threads used in scanning
+    * @return the threads
+    */
+   public int getThreads()
+   {
+      return threads;
+   }
+
+   /**
+    * Returns the wall clock time of the scan, in nanoseconds
+    * @return the elapsedNanos
+    */
+   public long getElapsedNanos()
+   {
+      return elapsedNanos;
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return this.getClass().getSimpleName() + " [entries=" + entries.size() + ", threads=" + threads
+            + ", elapsedNanos=" + elapsedNanos + ", bytesRead=" + this.getBytesRead() + ", classesInspected="
+            + this.getClassesInspected() + ", prefetchedBytes=" + this.getPrefetchedBytes() + ", prefetchNanos="
+            + this.getPrefetchNanos() + "]";
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Writes the specified value as a quoted JSON string
+    */
+   private static void writeJsonString(final String value, final Writer writer) throws IOException
+   {
+      writer.write('"');
+      for (int i = 0; i < value.length(); i++)
+      {
+         final char c = value.charAt(i);
+         switch (c)
+         {
+            case '"' :
+               writer.write("\\\"");
+               break;
+            case '\\' :
+               writer.write("\\\\");
+               break;
+            case '\n' :
+               writer.write("\\n");
+               break;
+            case '\r' :
+               writer.write("\\r");
+               break;
+            case '\t' :
+               writer.write("\\t");
+               break;
+            default :
+               if (c < 0x20)
+               {
+                  writer.write("\\u00");
+                  writer.write(HEX[c >> 4]);
+                  writer.write(HEX[c & 0xF]);
+               }
+               else
+               {
+                  writer.write(c);
+               }
+         }
+      }
+      writer.write('"');
+   }
+
+}
@@ -0,0 +1,909 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.scanner;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+import javax.ejb.embeddable.EJBContainer;
+
+import org.jboss.ejb3.embedded.spi.scanner.ScannerProvider;
+import org.jboss.ejb3.embedded.spi.scanner.filter.ExclusionFilter;
+
+/**
+ * Value object encapsulating the configuration of the
+ * {@link ClassPathEjbJarScanner}.  Each value is obtained from
+ * the properties used in creating the {@link EJBContainer}, falling
+ * back to the system property of the same key, then to a default.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class ScannerConfiguration
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Property key denoting the number of threads used to scan ClassPath entries
+    * concurrently.  A value of 1 scans serially in the calling Thread.
+    */
+   public static final String PROPERTY_THREADS = "org.jboss.ejb3.embedded.scan.threads";
+
+   /**
+    * Property key denoting the directory in which scan results are persisted
+    * across JVMs; if not specified, no results are cached
+    * @see ScanResultCache
+    */
+   public static final String PROPERTY_CACHE_DIR = "org.jboss.ejb3.embedded.scan.cache.dir";
+
+   /**
+    * Property key denoting whether cached scan results are validated by
+    * a digest of the entry contents rather than its last modified time
+    * @see ScanResultCache
+    */
+   public static final String PROPERTY_CACHE_DIGEST = "org.jboss.ejb3.embedded.scan.cache.digest";
+
+   /**
+    * Property key denoting the time in seconds for which the EJB modules found by one JVM
+    * are reused by others scanning the identical ClassPath, such as test runners forked
+    * together; defaults to 0, disabling reuse.  Requires a cache directory; JVMs scanning 
+    * concurrently wait on a lock file there for the first to finish, rather than all scanning.
+    * @see SharedScanResult
+    */
+   public static final String PROPERTY_CACHE_SHARED = "org.jboss.ejb3.embedded.scan.cache.shared";
+
+   /**
+    * Property key denoting the size in bytes at or above which JARs are memory-mapped
+    * for scanning rather than read through {@link java.util.zip.ZipFile}.  A negative 
+    * value disables mapping.
+    */
+   public static final String PROPERTY_MAPPED_THRESHOLD = "org.jboss.ejb3.embedded.scan.mmap.threshold";
+
+   /**
+    * Property key denoting whether a module index written at build time
+    * ({@link org.jboss.ejb3.embedded.spi.scanner.index.EjbModuleIndexFile}) is trusted
+    * in place of inspecting the classes of the module.  Defaults to true.
+    */
+   public static final String PROPERTY_USE_INDEX = "org.jboss.ejb3.embedded.scan.index";
+
+   /**
+    * Property key denoting whether the scanner indexes all EJB components of each
+    * module found, such that the index may be handed to the deployers rather than 
+    * their reading the classes again.  Defaults to false, in which case scanning of 
+    * a module stops at its first component.
+    * @see ClassPathEjbJarScanner#getEjbModuleIndexes(ScannerConfiguration)
+    */
+   public static final String PROPERTY_ANNOTATION_INDEX = "org.jboss.ejb3.embedded.scan.annotation.index";
+
+   /**
+    * Property key denoting whether the container deploys each module as soon as it
+    * is discovered, while the remainder of the ClassPath is still being scanned, rather
+    * than deploying only once scanning has completed.  Defaults to false.
+    * @see ClassPathEjbJarScanner#scan(org.jboss.ejb3.embedded.spi.scanner.EjbModuleListener)
+    */
+   public static final String PROPERTY_PIPELINED = "org.jboss.ejb3.embedded.scan.pipelined";
+
+   /**
+    * Property key denoting the file to which the {@link ScanStatistics} of each scan
+    * are written as a JSON report; if not specified, no report is written
+    */
+   public static final String PROPERTY_REPORT = "org.jboss.ejb3.embedded.scan.report";
+
+   /**
+    * Property key denoting the packages within which EJB components reside, separated
+    * by commas; each includes its subpackages.  If specified, only classes within these 
+    * packages are inspected, and only their directories are walked in exploded modules.
+    * Modules bearing a descriptor or index are detected regardless.  The value may also be
+    * given as a {@link Collection} or array of package names.
+    */
+   public static final String PROPERTY_PACKAGES = "org.jboss.ejb3.embedded.scan.packages";
+
+   /**
+    * Property key denoting whether classes bearing annotations, but no component-defining
+    * annotation, are also inspected reflectively such that component-defining meta-annotations
+    * are honored; defaults to false.  Classes so inspected are loaded in a dedicated ClassLoader
+    * isolated from the application and discarded once scanning completes.
+    */
+   public static final String PROPERTY_REFLECTIVE = "org.jboss.ejb3.embedded.scan.reflective";
+
+   /**
+    * Property key denoting whether, in addition to the entries of the "java.class.path"
+    * system property, the URLs of the Thread Context ClassLoader and its parents below the
+    * system ClassLoader (whose URLs are those of the ClassPath itself) and the entries referenced
+    * transitively by manifest "Class-Path" headers are scanned; defaults to true.  Entries 
+    * are deduplicated by canonical path in either case.  Given a cache directory
+    * ({@link #PROPERTY_CACHE_DIR}), the headers of unchanged JARs are taken from the cache 
+    * rather than read.
+    */
+   public static final String PROPERTY_DISCOVER = "org.jboss.ejb3.embedded.scan.discover";
+
+   /**
+    * Property key denoting whether archives within archives are scanned as modules of
+    * their own; defaults to false.  If true, WARs on the ClassPath are scanned with 
+    * "WEB-INF/classes" as their root, and JARs within JARs and WARs are streamed from 
+    * their enclosing archive without being extracted.  Those found to be EJB JARs are
+    * however extracted to temporary files when mounted for deployment by the container,
+    * and deleted once it's closed.
+    */
+   public static final String PROPERTY_NESTED = "org.jboss.ejb3.embedded.scan.nested";
+
+   /**
+    * Property key denoting the number of upcoming ClassPath archives read ahead in the
+    * background while others are scanned, such that the tail and central directory of
+    * each are in the operating system's cache once needed; defaults to 0, disabling
+    * reading ahead.  Archives which the scan won't read, being excluded or having a
+    * cached verdict, are not read ahead.  Of use where the ClassPath is on slow storage.
+    */
+   public static final String PROPERTY_PREFETCH = "org.jboss.ejb3.embedded.scan.prefetch";
+
+   /**
+    * Property key denoting globs of ClassPath entries to be excluded from scanning,
+    * separated by commas.  Globs containing '/' are matched against the absolute path
+    * of the entry, others against its file name.  Evaluated before the entry is read.
+    * The value may also be given as a {@link Collection} or array of globs.
+    * @see org.jboss.ejb3.embedded.impl.base.scanner.filter.ExclusionFilterChain
+    */
+   public static final String PROPERTY_EXCLUDE_GLOBS = "org.jboss.ejb3.embedded.scan.exclude.globs";
+
+   /**
+    * Property key denoting Maven groupId prefixes of ClassPath entries to be excluded
+    * from scanning, separated by commas.  The value may also be given as a {@link Collection}
+    * or array of groupIds.
+    * @see org.jboss.ejb3.embedded.impl.base.scanner.filter.ExclusionFilterChain
+    */
+   public static final String PROPERTY_EXCLUDE_GROUP_IDS = "org.jboss.ejb3.embedded.scan.exclude.groupIds";
+
+   /**
+    * Property key denoting values of the Bundle-SymbolicName manifest header of ClassPath 
+    * entries to be excluded from scanning, separated by commas.  Defaults to "org.eclipse,org.junit";
+    * an empty value excludes no bundles.  The value may also be given as a {@link Collection}
+    * or array of names.
+    * @see org.jboss.ejb3.embedded.impl.base.scanner.filter.BundleSymbolicNameExclusionFilter
+    */
+   public static final String PROPERTY_EXCLUDE_BUNDLES = "org.jboss.ejb3.embedded.scan.exclude.bundles";
+
+   /**
+    * Property key denoting further known libraries to be excluded from scanning, separated
+    * by commas, each in the form "groupId:artifactId" (with an artifactId of "*" matching
+    * the whole group) or "sha1:{fingerprint}".  The value may also be given as a {@link Collection}
+    * or array of entries.  These extend the shipped denylist unless 
+    * {@link ScannerConfiguration#PROPERTY_EXCLUDE_SHIPPED_LIBRARIES} is false.
+    * @see org.jboss.ejb3.embedded.impl.base.scanner.filter.KnownLibraryExclusionFilter
+    */
+   public static final String PROPERTY_EXCLUDE_LIBRARIES = "org.jboss.ejb3.embedded.scan.exclude.libraries";
+
+   /**
+    * Property key denoting whether the known libraries of the shipped denylist are
+    * excluded from scanning; defaults to true
+    * @see org.jboss.ejb3.embedded.impl.base.scanner.filter.KnownLibraryExclusionFilter#getShippedEntries()
+    */
+   public static final String PROPERTY_EXCLUDE_SHIPPED_LIBRARIES = PROPERTY_EXCLUDE_LIBRARIES + ".shipped";
+
+   /**
+    * Property key denoting further {@link ExclusionFilter}s to be applied, given as
+    * fully-qualified names of implementation classes with a no-argument constructor,
+    * separated by commas, or as a {@link Collection} or array of filter instances
+    * or class names.  Classes are loaded from the Thread Context ClassLoader.  Filters
+    * which are also {@link org.jboss.ejb3.embedded.spi.scanner.filter.PreMountExclusionFilter}s
+    * are applied before each entry is mounted.
+    */
+   public static final String PROPERTY_EXCLUDE_FILTERS = "org.jboss.ejb3.embedded.scan.exclude.filters";
+
+   /**
+    * Property key denoting the {@link ScannerProvider} creating the scanner of each 
+    * container, given as an instance or the fully-qualified name of an implementation
+    * class with a no-argument constructor, loaded from the Thread Context ClassLoader.
+    * If not specified, the first provider registered with the {@link ServiceLoader} 
+    * is used, else the {@link ClassPathEjbJarScannerProvider}.
+    */
+   public static final String PROPERTY_PROVIDER = "org.jboss.ejb3.embedded.scan.provider";
+
+   /**
+    * Property key denoting the time in milliseconds within which a scan of the ClassPath
+    * must finish; 0, the default, leaves scans unbounded.  If set, directories are scanned
+    * first, then archives beneath the working directory, then all others, smallest first.
+    * Entries unfinished when the budget is spent are abandoned and named, slowest first,
+    * in a {@link ScanBudgetExceededException}, unless {@link #PROPERTY_BUDGET_PARTIAL}.
+    */
+   public static final String PROPERTY_BUDGET = "org.jboss.ejb3.embedded.scan.budget";
+
+   /**
+    * Property key denoting whether, when a scan exceeds {@link #PROPERTY_BUDGET}, the 
+    * modules found thus far are used, the unfinished entries being logged, rather than
+    * failing.  Defaults to false.
+    */
+   public static final String PROPERTY_BUDGET_PARTIAL = "org.jboss.ejb3.embedded.scan.budget.partial";
+
+   /**
+    * Default value of {@link ScannerConfiguration#PROPERTY_EXCLUDE_BUNDLES}
+    */
+   private static final List<String> DEFAULT_EXCLUDE_BUNDLES = Collections.unmodifiableList(Arrays.asList(
+         "org.eclipse", "org.junit"));
+
+   /**
+    * Delimiter of values in list properties
+    */
+   private static final String DELIMITER_LIST = ",";
+
+   /**
+    * Default value of {@link ScannerConfiguration#PROPERTY_MAPPED_THRESHOLD}
+    */
+   private static final long DEFAULT_MAPPED_THRESHOLD = 8L * 1024 * 1024;
+
+   /**
+    * Default value of {@link ScannerConfiguration#PROPERTY_PREFETCH}
+    */
+   private static final int DEFAULT_PREFETCH = 0;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Number of threads used in scanning
+    */
+   private final int threads;
+
+   /**
+    * Directory in which to cache scan results, or null
+    */
+   private final File cacheDirectory;
+
+   /**
+    * Whether cached results are validated by digest
+    */
+   private final boolean cacheDigest;
+
+   /**
+    * Time in seconds for which modules found are reused by other JVMs
+    */
+   private final long cacheSharedSeconds;
+
+   /**
+    * Size at or above which JARs are memory-mapped, or negative if never
+    */
+   private final long mappedThreshold;
+
+   /**
+    * Whether build-time module indexes are trusted
+    */
+   private final boolean useIndex;
+
+   /**
+    * Whether all components of each module are indexed
+    */
+   private final boolean annotationIndex;
+
+   /**
+    * Whether modules are deployed as they are discovered
+    */
+   private final boolean pipelined;
+
+   /**
+    * File to which scan statistics are reported, or null
+    */
+   private final File reportFile;
+
+   /**
+    * Packages within which components are sought, or empty if all
+    */
+   private final List<String> packages;
+
+   /**
+    * Whether classes are also inspected reflectively
+    */
+   private final boolean reflective;
+
+   /**
+    * Whether ClassPath entries are discovered beyond "java.class.path"
+    */
+   private final boolean discover;
+
+   /**
+    * Whether nested archives are scanned
+    */
+   private final boolean nested;
+
+   /**
+    * Number of upcoming archives read ahead
+    */
+   private final int prefetch;
+
+   /**
+    * Globs of entries to exclude
+    */
+   private final List<String> excludedGlobs;
+
+   /**
+    * Maven groupId prefixes of entries to exclude
+    */
+   private final List<String> excludedGroupIds;
+
+   /**
+    * Bundle symbolic names of entries to exclude
+    */
+   private final List<String> excludedBundles;
+
+   /**
+    * Denylist entries of known libraries to exclude, beyond those shipped
+    */
+   private final List<String> excludedLibraries;
+
+   /**
+    * Whether the shipped denylist of known libraries is used
+    */
+   private final boolean excludeShippedLibraries;
+
+   /**
+    * Further filters to apply
+    */
+   private final List<ExclusionFilter> exclusionFilters;
+
+   /**
+    * Provider of the scanner, or null if not configured
+    */
+   private final ScannerProvider provider;
+
+   /**
+    * Time within which a scan must finish in milliseconds, or 0 if unbounded
+    */
+   private final long budgetMillis;
+
+   /**
+    * Whether to proceed with the modules found if the budget is exceeded
+    */
+   private final boolean budgetPartial;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new instance using only system properties and defaults
+    */
+   public ScannerConfiguration()
+   {
+      this(null);
+   }
+
+   /**
+    * Creates a new instance from the specified properties, falling back
+    * to system properties and defaults for any values not present
+    *
+    * @param properties Properties used in constructing the {@link EJBContainer}; may be null
+    * @throws IllegalArgumentException If a configured value is not valid
+    */
+   public ScannerConfiguration(Map<?, ?> properties) throws IllegalArgumentException
+   {
+      if (properties == null)
+      {
+         properties = Collections.emptyMap();
+      }
+
+      this.threads = getInt(properties, PROPERTY_THREADS, Runtime.getRuntime().availableProcessors(), 1);
+      final String cacheDir = getValue(properties, PROPERTY_CACHE_DIR);
+      this.cacheDirectory = cacheDir == null || cacheDir.length() == 0 ? null : new File(cacheDir);
+      this.cacheDigest = getBoolean(properties, PROPERTY_CACHE_DIGEST, false);
+      this.cacheSharedSeconds = Math.max(getLong(properties, PROPERTY_CACHE_SHARED, 0), 0);
+      this.mappedThreshold = getLong(properties, PROPERTY_MAPPED_THRESHOLD, DEFAULT_MAPPED_THRESHOLD);
+      this.useIndex = getBoolean(properties, PROPERTY_USE_INDEX, true);
+      this.annotationIndex = getBoolean(properties, PROPERTY_ANNOTATION_INDEX, false);
+      this.pipelined = getBoolean(properties, PROPERTY_PIPELINED, false);
+      final String report = getValue(properties, PROPERTY_REPORT);
+      this.reportFile = report == null || report.length() == 0 ? null : new File(report);
+      this.packages = getList(properties, PROPERTY_PACKAGES, Collections.<String> emptyList());
+      this.reflective = getBoolean(properties, PROPERTY_REFLECTIVE, false);
+      this.discover = getBoolean(properties, PROPERTY_DISCOVER, true);
+      this.nested = getBoolean(properties, PROPERTY_NESTED, false);
+      this.prefetch = getInt(properties, PROPERTY_PREFETCH, DEFAULT_PREFETCH, 0);
+      this.excludedGlobs = getList(properties, PROPERTY_EXCLUDE_GLOBS, Collections.<String> emptyList());
+      this.excludedGroupIds = getList(properties, PROPERTY_EXCLUDE_GROUP_IDS, Collections.<String> emptyList());
+      this.excludedBundles = getList(properties, PROPERTY_EXCLUDE_BUNDLES, DEFAULT_EXCLUDE_BUNDLES);
+      this.excludedLibraries = getList(properties, PROPERTY_EXCLUDE_LIBRARIES, Collections.<String> emptyList());
+      this.excludeShippedLibraries = getBoolean(properties, PROPERTY_EXCLUDE_SHIPPED_LIBRARIES, true);
+      this.exclusionFilters = getFilters(properties, PROPERTY_EXCLUDE_FILTERS);
+      this.provider = getProvider(properties, PROPERTY_PROVIDER);
+      this.budgetMillis = Math.max(getLong(properties, PROPERTY_BUDGET, 0), 0);
+      this.budgetPartial = getBoolean(properties, PROPERTY_BUDGET_PARTIAL, false);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Accessors --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Returns the number of threads to be used in scanning
+    * @return the threads
+    */
+   public int getThreads()
+   {
+      return threads;
+   }
+
+   /**
+    * Returns the directory in which scan results are to be cached, 
+    * or null if caching is disabled
+    * @return the cacheDirectory
+    */
+   public File getCacheDirectory()
+   {
+      return cacheDirectory;
+   }
+
+   /**
+    * Returns whether cached scan results are validated by a digest
+    * of the entry contents
+    * @return the cacheDigest
+    */
+   public boolean isCacheDigest()
+   {
+      return cacheDigest;
+   }
+
+   /**
+    * Returns the time in seconds for which the modules found by one JVM are
+    * reused by others scanning the identical ClassPath, or 0 if they're not
+    * @return the cacheSharedSeconds
+    */
+   public long getCacheSharedSeconds()
+   {
+      return cacheSharedSeconds;
+   }
+
+   /**
+    * Returns the size in bytes at or above which JARs are memory-mapped
+    * for scanning, or a negative value if JARs are never mapped
+    * @return the mappedThreshold
+    */
+   public long getMappedThreshold()
+   {
+      return mappedThreshold;
+   }
+
+   /**
+    * Returns whether a module index written at build time is trusted in 
+    * place of inspecting the classes of the module
+    * @return the useIndex
+    */
+   public boolean isUseIndex()
+   {
+      return useIndex;
+   }
+
+   /**
+    * Returns whether all components of each module found are to be
+    * indexed for the deployers
+    * @return the annotationIndex
+    */
+   public boolean isAnnotationIndex()
+   {
+      return annotationIndex;
+   }
+
+   /**
+    * Returns whether modules are to be deployed as soon as they 
+    * are discovered in scanning
+    * @return the pipelined
+    */
+   public boolean isPipelined()
+   {
+      return pipelined;
+   }
+
+   /**
+    * Returns the file to which the statistics of each scan are to be
+    * written as a JSON report, or null if no report is to be written
+    * @return the reportFile
+    */
+   public File getReportFile()
+   {
+      return reportFile;
+   }
+
+   /**
+    * Returns an immutable view of the packages within which EJB components
+    * are sought, or an empty list if all classes are inspected
+    * @return the packages
+    */
+   public List<String> getPackages()
+   {
+      return packages;
+   }
+
+   /**
+    * Returns whether classes are also inspected reflectively, in an isolated ClassLoader
+    * @return the reflective
+    */
+   public boolean isReflective()
+   {
+      return reflective;
+   }
+
+   /**
+    * Returns whether ClassPath entries are discovered from the Thread Context ClassLoader
+    * and manifest "Class-Path" headers in addition to "java.class.path"
+    * @return the discover
+    */
+   public boolean isDiscover()
+   {
+      return discover;
+   }
+
+   /**
+    * Returns whether WARs and archives nested within JARs and WARs are scanned
+    * @return the nested
+    */
+   public boolean isNested()
+   {
+      return nested;
+   }
+
+   /**
+    * Returns the number of upcoming ClassPath archives read ahead while others 
+    * are scanned, or 0 if none are
+    * @return the prefetch
+    */
+   public int getPrefetch()
+   {
+      return prefetch;
+   }
+
+   /**
+    * Returns an immutable view of the globs of ClassPath entries to be excluded
+    * @return the excludedGlobs
+    */
+   public List<String> getExcludedGlobs()
+   {
+      return excludedGlobs;
+   }
+
+   /**
+    * Returns an immutable view of the Maven groupId prefixes of ClassPath entries to be excluded
+    * @return the excludedGroupIds
+    */
+   public List<String> getExcludedGroupIds()
+   {
+      return excludedGroupIds;
+   }
+
+   /**
+    * Returns an immutable view of the bundle symbolic names of ClassPath entries to be excluded
+    * @return the excludedBundles
+    */
+   public List<String> getExcludedBundles()
+   {
+      return excludedBundles;
+   }
+
+   /**
+    * Returns an immutable view of the denylist entries of known libraries to be
+    * excluded, beyond those shipped
+    * @return the excludedLibraries
+    */
+   public List<String> getExcludedLibraries()
+   {
+      return excludedLibraries;
+   }
+
+   /**
+    * Returns whether the known libraries of the shipped denylist are to be excluded
+    * @return the excludeShippedLibraries
+    */
+   public boolean isExcludeShippedLibraries()
+   {
+      return excludeShippedLibraries;
+   }
+
+   /**
+    * Returns an immutable view of the further {@link ExclusionFilter}s to be applied
+    * @return the exclusionFilters
+    */
+   public List<ExclusionFilter> getExclusionFilters()
+   {
+      return exclusionFilters;
+   }
+
+   /**
+    * Returns the time within which a scan must finish in milliseconds, or 0 if unbounded
+    * @return the budgetMillis
+    */
+   public long getBudgetMillis()
+   {
+      return budgetMillis;
+   }
+
+   /**
+    * Returns whether to proceed with the modules found if a scan exceeds its budget,
+    * rather than failing
+    * @return the budgetPartial
+    */
+   public boolean isBudgetPartial()
+   {
+      return budgetPartial;
+   }
+
+   /**
+    * Returns the {@link ScannerProvider} to create the scanner of the container: 
+    * that configured, else the first registered with the {@link ServiceLoader} as
+    * seen by the Thread Context ClassLoader, else the {@link ClassPathEjbJarScannerProvider}.
+    * Providers registered are looked up anew upon each call.
+    * @return the provider
+    * @see ScannerConfiguration#PROPERTY_PROVIDER
+    */
+   public ScannerProvider getScannerProvider()
+   {
+      if (provider != null)
+      {
+         return provider;
+      }
+      final Iterator<ScannerProvider> registered = ServiceLoader.load(ScannerProvider.class,
+            SecurityActions.getTccl()).iterator();
+      return registered.hasNext() ? registered.next() : new ClassPathEjbJarScannerProvider();
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return this.getClass().getSimpleName() + " [threads=" + threads + ", cacheDirectory=" + cacheDirectory
+            + ", cacheDigest=" + cacheDigest + ", cacheSharedSeconds=" + cacheSharedSeconds + ", mappedThreshold="
+            + mappedThreshold + ", useIndex=" + useIndex + ", annotationIndex=" + annotationIndex + ", pipelined="
+            + pipelined + ", reportFile=" + reportFile + ", packages=" + packages + ", reflective=" + reflective
+            + ", discover=" + discover + ", nested=" + nested + ", prefetch=" + prefetch + ", excludedGlobs="
+            + excludedGlobs + ", excludedGroupIds=" + excludedGroupIds + ", excludedBundles=" + excludedBundles
+            + ", excludedLibraries=" + excludedLibraries + ", excludeShippedLibraries=" + excludeShippedLibraries
+            + ", exclusionFilters=" + exclusionFilters + ", provider=" + provider + ", budgetMillis=" + budgetMillis
+            + ", budgetPartial=" + budgetPartial + "]";
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the configured value of the specified key from the properties,
+    * then system properties, returning null if not present in either
+    */
+   private static String getValue(final Map<?, ?> properties, final String key)
+   {
+      final Object value = properties.get(key);
+      if (value != null)
+      {
+         return value.toString().trim();
+      }
+      final String sysProp = SecurityActions.getSystemProperty(key);
+      return sysProp == null ? null : sysProp.trim();
+   }
+
+   /**
+    * Obtains the configured list value of the specified key, or the default if not
+    * configured.  The value may be a {@link Collection} or array, or else is split
+    * on commas; blank values are ignored.
+    */
+   private static List<String> getList(final Map<?, ?> properties, final String key,
+         final List<String> defaultValue)
+   {
+      final Object value = properties.get(key);
+      final Collection<?> values;
+      if (value instanceof Collection<?>)
+      {
+         values = (Collection<?>) value;
+      }
+      else if (value instanceof Object[])
+      {
+         values = Arrays.asList((Object[]) value);
+      }
+      else
+      {
+         final String delimited = getValue(properties, key);
+         if (delimited == null)
+         {
+            return defaultValue;
+         }
+         values = Arrays.asList(delimited.split(DELIMITER_LIST));
+      }
+      final List<String> list = new ArrayList<String>(values.size());
+      for (final Object element : values)
+      {
+         final String trimmed = element == null ? "" : element.toString().trim();
+         if (trimmed.length() > 0)
+         {
+            list.add(trimmed);
+         }
+      }
+      return Collections.unmodifiableList(list);
+   }
+
+   /**
+    * Obtains the configured {@link ExclusionFilter}s of the specified key, given
+    * as instances or names of classes to be instantiated
+    * @throws IllegalArgumentException If a filter could not be created
+    */
+   private static List<ExclusionFilter> getFilters(final Map<?, ?> properties, final String key)
+         throws IllegalArgumentException
+   {
+      final Object value = properties.get(key);
+      final Collection<?> values;
+      if (value instanceof Collection<?>)
+      {
+         values = (Collection<?>) value;
+      }
+      else if (value instanceof Object[])
+      {
+         values = Arrays.asList((Object[]) value);
+      }
+      else if (value instanceof ExclusionFilter)
+      {
+         values = Collections.singletonList(value);
+      }
+      else
+      {
+         values = getList(properties, key, Collections.<String> emptyList());
+      }
+      final List<ExclusionFilter> filters = new ArrayList<ExclusionFilter>(values.size());
+      for (final Object element : values)
+      {
+         if (element instanceof ExclusionFilter)
+         {
+            filters.add((ExclusionFilter) element);
+            continue;
+         }
+         final String className = element == null ? "" : element.toString().trim();
+         if (className.length() == 0)
+         {
+            continue;
+         }
+         try
+         {
+            final Class<?> clazz = Class.forName(className, true, SecurityActions.getTccl());
+            filters.add(clazz.asSubclass(ExclusionFilter.class).newInstance());
+         }
+         catch (final ClassCastException cce)
+         {
+            throw new IllegalArgumentException("Value of " + key + " must name implementations of "
+                  + ExclusionFilter.class.getName() + ": " + className, cce);
+         }
+         catch (final Exception e)
+         {
+            throw new IllegalArgumentException("Could not create " + ExclusionFilter.class.getSimpleName() + " "
+                  + className + " configured by " + key, e);
+         }
+      }
+      return Collections.unmodifiableList(filters);
+   }
+
+   /**
+    * Obtains the configured {@link ScannerProvider} of the specified key, given as
+    * an instance or name of a class to be instantiated, or null if not configured
+    * @throws IllegalArgumentException If the provider could not be created
+    */
+   private static ScannerProvider getProvider(final Map<?, ?> properties, final String key)
+         throws IllegalArgumentException
+   {
+      final Object value = properties.get(key);
+      if (value instanceof ScannerProvider)
+      {
+         return (ScannerProvider) value;
+      }
+      final String className = getValue(properties, key);
+      if (className == null || className.length() == 0)
+      {
+         return null;
+      }
+      try
+      {
+         final Class<?> clazz = Class.forName(className, true, SecurityActions.getTccl());
+         return clazz.asSubclass(ScannerProvider.class).newInstance();
+      }
+      catch (final ClassCastException cce)
+      {
+         throw new IllegalArgumentException("Value of " + key + " must name an implementation of "
+               + ScannerProvider.class.getName() + ": " + className, cce);
+      }
+      catch (final Exception e)
+      {
+         throw new IllegalArgumentException("Could not create " + ScannerProvider.class.getSimpleName() + " "
+               + className + " configured by " + key, e);
+      }
+   }
+
+   /**
+    * Obtains the configured boolean value of the specified key, or the default
+    * if not configured
+    */
+   private static boolean getBoolean(final Map<?, ?> properties, final String key, final boolean defaultValue)
+   {
+      final String value = getValue(properties, key);
+      if (value == null || value.length() == 0)
+      {
+         return defaultValue;
+      }
+      return Boolean.parseBoolean(value);
+   }
+
+   /**
+    * Obtains the configured long value of the specified key, or the default
+    * if not configured
+    * @throws IllegalArgumentException If the value is not an integer
+    */
+   private static long getLong(final Map<?, ?> properties, final String key, final long defaultValue)
+         throws IllegalArgumentException
+   {
+      final String value = getValue(properties, key);
+      if (value == null || value.length() == 0)
+      {
+         return defaultValue;
+      }
+      try
+      {
+         return Long.parseLong(value);
+      }
+      catch (final NumberFormatException nfe)
+      {
+         throw new IllegalArgumentException("Value of " + key + " must be an integer: " + value, nfe);
+      }
+   }
+
+   /**
+    * Obtains the configured integer value of the specified key, or the default
+    * if not configured
+    * @throws IllegalArgumentException If the value is not an integer or is less than the minimum
+    */
+   private static int getInt(final Map<?, ?> properties, final String key, final int defaultValue, final int min)
+         throws IllegalArgumentException
+   {
+      final String value = getValue(properties, key);
+      if (value == null || value.length() == 0)
+      {
+         return defaultValue;
+      }
+      final int parsed;
+      try
+      {
+         parsed = Integer.parseInt(value);
+      }
+      catch (final NumberFormatException nfe)
+      {
+         throw new IllegalArgumentException("Value of " + key + " must be an integer: " + value, nfe);
+      }
+      if (parsed < min)
+      {
+         throw new IllegalArgumentException("Value of " + key + " must be at least " + min + ": " + value);
+      }
+      return parsed;
+   }
+
+}
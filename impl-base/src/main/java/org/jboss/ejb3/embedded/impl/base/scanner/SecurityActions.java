@@ -22,6 +22,8 @@
 
 package org.jboss.ejb3.embedded.impl.base.scanner;
 
+import java.net.URL;
+import java.net.URLClassLoader;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 
@@ -79,6 +81,41 @@ class SecurityActions
       return AccessController.doPrivileged(GetTcclAction.INSTANCE);
    }
 
+   /**
+    * Returns the system {@link ClassLoader}
+    * @return
+    */
+   static ClassLoader getSystemClassLoader()
+   {
+      return AccessController.doPrivileged(new PrivilegedAction<ClassLoader>()
+      {
+         @Override
+         public ClassLoader run()
+         {
+            return ClassLoader.getSystemClassLoader();
+         }
+      });
+   }
+
+   /**
+    * Creates a new {@link ClassLoader} of the specified URLs, isolated from
+    * the application: its parent is that of the system ClassLoader
+    * 
+    * @param urls
+    */
+   static URLClassLoader createIsolatedClassLoader(final URL[] urls)
+   {
+      assert urls != null : "URLs must be specified";
+      return AccessController.doPrivileged(new PrivilegedAction<URLClassLoader>()
+      {
+         @Override
+         public URLClassLoader run()
+         {
+            return new URLClassLoader(urls, ClassLoader.getSystemClassLoader().getParent());
+         }
+      });
+   }
+
    //-------------------------------------------------------------------------------------||
    // Internal Helper Members ------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
@@ -0,0 +1,436 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.scanner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.channels.FileLock;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbModuleIndex;
+import org.jboss.logging.Logger;
+
+/**
+ * The EJB modules found in scanning a ClassPath, shared with other JVMs
+ * scanning the identical ClassPath through a file in the cache directory.  
+ * Scans are coordinated by an exclusive lock on a companion lock file, such 
+ * that of JVMs starting together (ie. forked test runners) the first to take
+ * the lock scans while the others wait, then read its result rather than all
+ * scanning at once.  Results are keyed by a description of the ClassPath and 
+ * configuration scanned, and reused only for a configured time after being 
+ * written, as unlike {@link ScanResultCache} they're not validated against the 
+ * entries themselves.
+ * 
+ * Failure to lock, read or write is logged but otherwise ignored; sharing is
+ * an optimization only.  An instance is to be used by a single Thread.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ * @see ScannerConfiguration#PROPERTY_CACHE_SHARED
+ */
+final class SharedScanResult
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(SharedScanResult.class);
+
+   /**
+    * Prefix of the names of the result and lock files within the cache directory
+    */
+   private static final String PREFIX = "ejb-module-scan-";
+
+   /**
+    * Extension of result files
+    */
+   private static final String EXTENSION_RESULT = ".modules";
+
+   /**
+    * Extension of lock files
+    */
+   private static final String EXTENSION_LOCK = ".lock";
+
+   /**
+    * Version of the result format; results of any other version are discarded
+    */
+   private static final int VERSION = 2;
+
+   /**
+    * Number of characters of the digest of the key used in naming files
+    */
+   private static final int LENGTH_NAME_DIGEST = 16;
+
+   /**
+    * Digest algorithm
+    */
+   private static final String ALGORITHM_DIGEST = "SHA-1";
+
+   /**
+    * Hex characters used in encoding digests
+    */
+   private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+   /**
+    * As file locks are held on behalf of the whole JVM, Threads of this JVM
+    * are serialized here before taking one
+    */
+   private static final ReentrantLock localLock = new ReentrantLock();
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Description of the ClassPath and configuration scanned
+    */
+   private final String key;
+
+   /**
+    * Time in milliseconds after being written for which a result is valid
+    */
+   private final long maxAgeMillis;
+
+   /**
+    * File holding the result
+    */
+   private final File resultFile;
+
+   /**
+    * File locked while scanning
+    */
+   private final File lockFile;
+
+   /**
+    * Handle to the lock file while locked, else null
+    */
+   private RandomAccessFile lockHandle;
+
+   /**
+    * Lock held on the lock file, else null
+    */
+   private FileLock fileLock;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new instance sharing results of the specified key through files
+    * in the specified directory
+    * 
+    * @param directory The directory in which to store the result; will be created if it does not exist
+    * @param key Description of the ClassPath and configuration scanned
+    * @param maxAgeMillis Time in milliseconds after being written for which a result is valid
+    * @throws IllegalArgumentException If the directory or key is not specified
+    */
+   SharedScanResult(final File directory, final String key, final long maxAgeMillis)
+         throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (directory == null)
+      {
+         throw new IllegalArgumentException("directory must be specified");
+      }
+      if (key == null)
+      {
+         throw new IllegalArgumentException("key must be specified");
+      }
+
+      this.key = key;
+      this.maxAgeMillis = maxAgeMillis;
+      final String name = PREFIX + digest(key).substring(0, LENGTH_NAME_DIGEST);
+      this.resultFile = new File(directory, name + EXTENSION_RESULT);
+      this.lockFile = new File(directory, name + EXTENSION_LOCK);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Takes the exclusive lock on the result, blocking until any other Thread or 
+    * JVM holding it has released it.  Must be followed by {@link SharedScanResult#unlock()}.
+    */
+   void lock()
+   {
+      localLock.lock();
+      final File directory = lockFile.getParentFile();
+      if (!directory.isDirectory() && !directory.mkdirs())
+      {
+         log.warn("Could not create scan cache directory " + directory);
+         return;
+      }
+      final long start = System.currentTimeMillis();
+      try
+      {
+         lockHandle = new RandomAccessFile(lockFile, "rw");
+         fileLock = lockHandle.getChannel().lock();
+      }
+      catch (final IOException ioe)
+      {
+         log.warn("Could not lock " + lockFile + "; scanning regardless", ioe);
+         this.closeLockHandle();
+         return;
+      }
+      if (log.isDebugEnabled())
+      {
+         log.debug("Locked " + lockFile + " after " + (System.currentTimeMillis() - start) + "ms");
+      }
+   }
+
+   /**
+    * Releases the lock taken by {@link SharedScanResult#lock()}
+    */
+   void unlock()
+   {
+      try
+      {
+         if (fileLock != null)
+         {
+            try
+            {
+               fileLock.release();
+            }
+            catch (final IOException ioe)
+            {
+               // Released when the handle is closed regardless
+               log.warn("Could not release lock on " + lockFile, ioe);
+            }
+            fileLock = null;
+         }
+         this.closeLockHandle();
+      }
+      finally
+      {
+         localLock.unlock();
+      }
+   }
+
+   /**
+    * Obtains the modules found by a previous scan of the same key within the
+    * configured time, or null if there's no such result
+    */
+   List<EjbModuleIndex> read()
+   {
+      if (!resultFile.isFile())
+      {
+         return null;
+      }
+      try
+      {
+         final ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(
+               resultFile)));
+         try
+         {
+            if (in.readInt() != VERSION || !key.equals(in.readObject()))
+            {
+               if (log.isDebugEnabled())
+               {
+                  log.debug("Ignoring shared scan result " + resultFile + " of another version or ClassPath");
+               }
+               return null;
+            }
+            final long age = System.currentTimeMillis() - in.readLong();
+            if (age < 0 || age > maxAgeMillis)
+            {
+               if (log.isDebugEnabled())
+               {
+                  log.debug("Ignoring shared scan result " + resultFile + " written " + age + "ms ago");
+               }
+               return null;
+            }
+            final int size = in.readInt();
+            final List<EjbModuleIndex> modules = new ArrayList<EjbModuleIndex>(size);
+            for (int i = 0; i < size; i++)
+            {
+               modules.add((EjbModuleIndex) in.readObject());
+            }
+            if (log.isDebugEnabled())
+            {
+               log.debug("Reusing " + size + " EJB modules found " + age + "ms ago from " + resultFile);
+            }
+            return modules;
+         }
+         finally
+         {
+            in.close();
+         }
+      }
+      catch (final IOException ioe)
+      {
+         log.warn("Could not read shared scan result " + resultFile + "; ignoring", ioe);
+      }
+      catch (final ClassNotFoundException cnfe)
+      {
+         log.warn("Could not read shared scan result " + resultFile + "; ignoring", cnfe);
+      }
+      catch (final ClassCastException cce)
+      {
+         log.warn("Could not read shared scan result " + resultFile + "; ignoring", cce);
+      }
+      return null;
+   }
+
+   /**
+    * Writes the specified modules as the result of the key, stamped with the current
+    * time.  The file is replaced in full, so readers will never observe a partial result.
+    * @param modules
+    */
+   void write(final List<EjbModuleIndex> modules)
+   {
+      final File directory = resultFile.getParentFile();
+      if (!directory.isDirectory() && !directory.mkdirs())
+      {
+         log.warn("Could not create scan cache directory " + directory);
+         return;
+      }
+      File temp = null;
+      try
+      {
+         temp = File.createTempFile(resultFile.getName(), ".tmp", directory);
+         final ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+         try
+         {
+            out.writeInt(VERSION);
+            // Not written as UTF, which is limited to 64K
+            out.writeObject(key);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(modules.size());
+            for (final EjbModuleIndex module : modules)
+            {
+               out.writeObject(module);
+            }
+         }
+         finally
+         {
+            out.close();
+         }
+         if (!temp.renameTo(resultFile))
+         {
+            // Some platforms will not rename over an existing file
+            resultFile.delete();
+            if (!temp.renameTo(resultFile))
+            {
+               throw new IOException("Could not move " + temp + " to " + resultFile);
+            }
+         }
+         if (log.isDebugEnabled())
+         {
+            log.debug("Shared " + modules.size() + " EJB modules in " + resultFile);
+         }
+      }
+      catch (final IOException ioe)
+      {
+         log.warn("Could not write shared scan result " + resultFile, ioe);
+         if (temp != null)
+         {
+            temp.delete();
+         }
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return this.getClass().getSimpleName() + " [file=" + resultFile + ", maxAgeMillis=" + maxAgeMillis + "]";
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Closes the handle to the lock file, if open
+    */
+   private void closeLockHandle()
+   {
+      if (lockHandle == null)
+      {
+         return;
+      }
+      try
+      {
+         lockHandle.close();
+      }
+      catch (final IOException ioe)
+      {
+         // Ignore
+         log.warn("Could not close " + lockFile, ioe);
+      }
+      lockHandle = null;
+   }
+
+   /**
+    * Obtains the hex-encoded SHA-1 digest of the UTF-8 encoding of the specified String
+    */
+   private static String digest(final String value)
+   {
+      final MessageDigest md;
+      try
+      {
+         md = MessageDigest.getInstance(ALGORITHM_DIGEST);
+      }
+      catch (final NoSuchAlgorithmException nsae)
+      {
+         throw new IllegalStateException(ALGORITHM_DIGEST + " is required of all JVMs", nsae);
+      }
+      final byte[] bytes;
+      try
+      {
+         bytes = md.digest(value.getBytes("UTF-8"));
+      }
+      catch (final UnsupportedEncodingException uee)
+      {
+         throw new IllegalStateException("UTF-8 is required of all JVMs", uee);
+      }
+      final char[] chars = new char[bytes.length * 2];
+      for (int i = 0; i < bytes.length; i++)
+      {
+         chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+         chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+      }
+      return new String(chars);
+   }
+
+}
@@ -22,26 +22,36 @@
 
 package org.jboss.ejb3.embedded.impl.base.scanner.filter;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.LineNumberReader;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.jar.Manifest;
 
+import org.jboss.ejb3.embedded.spi.scanner.filter.ClassPathEntry;
 import org.jboss.ejb3.embedded.spi.scanner.filter.ExclusionFilter;
+import org.jboss.ejb3.embedded.spi.scanner.filter.PreMountExclusionFilter;
 import org.jboss.logging.Logger;
 import org.jboss.vfs.VirtualFile;
 
 /**
  * {@link ExclusionFilter} implementation which 
  * will block OSGi bundles with the header "Bundle-SymbolicName"
- * if the value matches one in a configurable set.
+ * if the value matches one in a configurable set.  As a 
+ * {@link PreMountExclusionFilter}, bundles are blocked before
+ * they are mounted.
+ * 
+ * Manifest headers are parsed once per entry and shared among all
+ * instances; the header value is matched against all exclusion values
+ * in a single pass.
  * 
  * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
  * @version $Revision: $
  */
-public class BundleSymbolicNameExclusionFilter implements ExclusionFilter
+public class BundleSymbolicNameExclusionFilter implements PreMountExclusionFilter
 {
 
    //-------------------------------------------------------------------------------------||
@@ -58,11 +68,6 @@ public class BundleSymbolicNameExclusionFilter implements ExclusionFilter
     */
    private static final String HEADER_BUNDLE_SYMBOLIC_NAME = "Bundle-SymbolicName";
 
-   /**
-    * Location of the manifest file under the root
-    */
-   private static final String NAME_MANIFEST = "META-INF/MANIFEST.MF";
-
    //-------------------------------------------------------------------------------------||
    // Instance Members -------------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
@@ -72,6 +77,11 @@ public class BundleSymbolicNameExclusionFilter implements ExclusionFilter
     */
    private final Set<String> exclusionValues;
 
+   /**
+    * Matcher of the exclusion values
+    */
+   private final SubstringMatcher matcher;
+
    //-------------------------------------------------------------------------------------||
    // Constructor ------------------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
@@ -90,19 +100,52 @@ public class BundleSymbolicNameExclusionFilter implements ExclusionFilter
       }
 
       // Defensive copy on set and make immutable
-      final Set<String> excludeSet = new HashSet<String>();
-      for (final String exclusionValue : exclusionValues)
-      {
-         excludeSet.add(exclusionValue);
-      }
+      final Set<String> excludeSet = new HashSet<String>(Arrays.asList(exclusionValues));
       this.exclusionValues = Collections.unmodifiableSet(excludeSet);
-
+      this.matcher = new SubstringMatcher(excludeSet);
    }
 
    //-------------------------------------------------------------------------------------||
    // Required Implementations -----------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
 
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.spi.scanner.filter.PreMountExclusionFilter#exclude(org.jboss.ejb3.embedded.spi.scanner.filter.ClassPathEntry)
+    */
+   @Override
+   public boolean exclude(final ClassPathEntry entry) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (entry == null)
+      {
+         throw new IllegalArgumentException("entry must be specified");
+      }
+
+      // Get the header from the shared cache if this entry is on disk, else from the entry itself
+      final String value;
+      final File file = entry.getFile();
+      if (file != null && file.exists())
+      {
+         try
+         {
+            value = ManifestHeaders.getMainAttributes(file).get(HEADER_BUNDLE_SYMBOLIC_NAME);
+         }
+         catch (final IOException ioe)
+         {
+            log.warnf("Could not read manifest of %s: %s", entry, ioe);
+            return false;
+         }
+      }
+      else
+      {
+         final Manifest manifest = entry.getManifest();
+         value = manifest == null ? null : manifest.getMainAttributes().getValue(HEADER_BUNDLE_SYMBOLIC_NAME);
+      }
+
+      return this.matches(value, entry);
+   }
+
    /**
     * {@inheritDoc}
     * @see org.jboss.ejb3.embedded.spi.scanner.filter.ExclusionFilter#exclude(org.jboss.vfs.VirtualFile)
@@ -122,50 +165,56 @@ public class BundleSymbolicNameExclusionFilter implements ExclusionFilter
          return false;
       }
 
-      // Get the Manifest
-      final VirtualFile manifest = file.getChild(NAME_MANIFEST);
-      if (!manifest.exists())
-      {
-         return false;
-      }
-
-      // Inspect the manifest contents
-      final LineNumberReader reader;
+      // Get the header from the manifest
+      final String value;
       try
       {
-         reader = new LineNumberReader(new InputStreamReader(manifest.openStream()));
-         String line = null;
-         // Read each line
-         while ((line = reader.readLine()) != null)
-         {
-            // If this is the bundle symbolic name header
-            final String header = HEADER_BUNDLE_SYMBOLIC_NAME;
-            if (line.contains(header))
-            {
-               // Check if it also contains a matching value
-               for (final String exclusionValue : this.exclusionValues)
-               {
-                  if (line.contains(exclusionValue))
-                  {
-                     if (log.isTraceEnabled())
-                     {
-                        log.tracef("Configured exclusion value \"" + exclusionValue
-                              + "\" encountered in manifest header \"" + header + "\"; skipping " + file);
-                     }
-                     // Skip
-                     return true;
-                  }
-               }
-            }
-         }
+         value = ManifestHeaders.getMainAttributes(file).get(HEADER_BUNDLE_SYMBOLIC_NAME);
       }
       catch (final IOException ioe)
       {
          throw new RuntimeException("Could not read contents of " + file, ioe);
       }
 
-      // No conditions met
-      return false;
+      return this.matches(value, file);
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return this.getClass().getSimpleName() + " [exclusionValues=" + exclusionValues + "]";
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Determines whether the specified header value, if any, contains an exclusion value
+    * @param value
+    * @param source What the value was read from, for logging
+    */
+   private boolean matches(final String value, final Object source)
+   {
+      if (value == null)
+      {
+         return false;
+      }
+      final String exclusionValue = matcher.find(value);
+      if (exclusionValue == null)
+      {
+         return false;
+      }
+      if (log.isTraceEnabled())
+      {
+         log.tracef("Configured exclusion value \"" + exclusionValue + "\" encountered in manifest header \""
+               + HEADER_BUNDLE_SYMBOLIC_NAME + "\"; skipping " + source);
+      }
+      return true;
    }
 
 }
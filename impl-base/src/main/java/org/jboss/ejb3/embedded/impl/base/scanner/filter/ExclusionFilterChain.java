@@ -0,0 +1,532 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.scanner.filter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jboss.ejb3.embedded.spi.scanner.filter.ClassPathEntry;
+import org.jboss.ejb3.embedded.spi.scanner.filter.ExclusionFilter;
+import org.jboss.ejb3.embedded.spi.scanner.filter.PreMountExclusionFilter;
+import org.jboss.logging.Logger;
+import org.jboss.vfs.VirtualFile;
+
+/**
+ * {@link PreMountExclusionFilter} composed of rules compiled up front such that
+ * each ClassPath entry may be evaluated against all of them at once:
+ * 
+ * <ul>
+ *   <li>Path globs, compiled together into a single regular expression.  A glob
+ *   containing '/' is matched against the absolute path of the entry (with '/' as 
+ *   separator), otherwise against its file name alone.  "*" matches any characters
+ *   other than '/', "**" any characters at all, and "?" any single character other 
+ *   than '/'.</li>
+ *   <li>Maven groupId prefixes, matched by a {@link GroupIdExclusionFilter} at segment
+ *   boundaries against the groupId of the entry, as evident from its location
+ *   in a Maven repository or from the META-INF/maven metadata within it.</li>
+ *   <li>Bundle symbolic names, matched by a {@link BundleSymbolicNameExclusionFilter}.</li>
+ *   <li>Known libraries, matched by a {@link KnownLibraryExclusionFilter}.</li>
+ *   <li>Any further {@link ExclusionFilter}s, applied in order.</li>
+ * </ul>
+ * 
+ * Rules are evaluated in three steps, from cheapest to dearest: those based on the
+ * path alone via {@link ExclusionFilterChain#getPathExclusion(File)}; those requiring
+ * only metadata of the unmounted entry via {@link ExclusionFilterChain#getPreMountExclusion(ClassPathEntry)};
+ * and those requiring the contents of the mounted entry via 
+ * {@link ExclusionFilterChain#getPostMountExclusion(VirtualFile)}.  Thread-safe
+ * so long as the further filters are.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public final class ExclusionFilterChain implements PreMountExclusionFilter
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(ExclusionFilterChain.class);
+
+   /**
+    * Name of the root directory of a Maven repository
+    */
+   private static final String NAME_MAVEN_REPOSITORY = "repository";
+
+   /**
+    * Separator of path segments to which all paths are normalized
+    */
+   private static final char SEPARATOR = '/';
+
+   /**
+    * Characters with special meaning in regular expressions, to be escaped
+    */
+   private static final String REGEX_SPECIAL_CHARS = "\\.[]{}()+-^$|";
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Globs matched against the full path, in the order of their groups in {@link ExclusionFilterChain#pathPattern}
+    */
+   private final List<String> pathGlobs;
+
+   /**
+    * All path globs compiled together, or null if none
+    */
+   private final Pattern pathPattern;
+
+   /**
+    * Globs matched against the file name, in the order of their groups in {@link ExclusionFilterChain#namePattern}
+    */
+   private final List<String> nameGlobs;
+
+   /**
+    * All name globs compiled together, or null if none
+    */
+   private final Pattern namePattern;
+
+   /**
+    * Filter of groupIds, or null if none are excluded
+    */
+   private final GroupIdExclusionFilter groupIdFilter;
+
+   /**
+    * Filter of bundle symbolic names, or null if none are excluded
+    */
+   private final PreMountExclusionFilter bundleFilter;
+
+   /**
+    * Filter of known libraries, or null if none are excluded
+    */
+   private final KnownLibraryExclusionFilter libraryFilter;
+
+   /**
+    * Further filters, in order
+    */
+   private final List<ExclusionFilter> filters;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new chain compiled from the specified rules, any of which may be empty,
+    * excluding no known libraries
+    * 
+    * @param globs Globs of entry paths or file names to exclude
+    * @param groupIds Maven groupId prefixes to exclude
+    * @param bundleSymbolicNames Values to exclude if present in the Bundle-SymbolicName header
+    * @param filters Further filters to apply, in order
+    * @throws IllegalArgumentException If any collection is not specified
+    */
+   public ExclusionFilterChain(final Collection<String> globs, final Collection<String> groupIds,
+         final Collection<String> bundleSymbolicNames, final Collection<? extends ExclusionFilter> filters)
+         throws IllegalArgumentException
+   {
+      this(globs, groupIds, bundleSymbolicNames, Collections.<String> emptyList(), filters);
+   }
+
+   /**
+    * Creates a new chain compiled from the specified rules, any of which may be empty
+    * 
+    * @param globs Globs of entry paths or file names to exclude
+    * @param groupIds Maven groupId prefixes to exclude
+    * @param bundleSymbolicNames Values to exclude if present in the Bundle-SymbolicName header
+    * @param libraries Denylist entries of known libraries to exclude
+    * @param filters Further filters to apply, in order
+    * @throws IllegalArgumentException If any collection is not specified, or a denylist entry is malformed
+    * @see KnownLibraryExclusionFilter
+    */
+   public ExclusionFilterChain(final Collection<String> globs, final Collection<String> groupIds,
+         final Collection<String> bundleSymbolicNames, final Collection<String> libraries,
+         final Collection<? extends ExclusionFilter> filters) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (globs == null)
+      {
+         throw new IllegalArgumentException("globs must be specified");
+      }
+      if (groupIds == null)
+      {
+         throw new IllegalArgumentException("groupIds must be specified");
+      }
+      if (bundleSymbolicNames == null)
+      {
+         throw new IllegalArgumentException("bundleSymbolicNames must be specified");
+      }
+      if (libraries == null)
+      {
+         throw new IllegalArgumentException("libraries must be specified");
+      }
+      if (filters == null)
+      {
+         throw new IllegalArgumentException("filters must be specified");
+      }
+
+      // Split globs by what they're matched against
+      final List<String> pathGlobs = new ArrayList<String>();
+      final List<String> nameGlobs = new ArrayList<String>();
+      for (final String glob : globs)
+      {
+         if (glob.indexOf(SEPARATOR) >= 0)
+         {
+            pathGlobs.add(glob);
+         }
+         else
+         {
+            nameGlobs.add(glob);
+         }
+      }
+      this.pathGlobs = Collections.unmodifiableList(pathGlobs);
+      this.pathPattern = compile(pathGlobs);
+      this.nameGlobs = Collections.unmodifiableList(nameGlobs);
+      this.namePattern = compile(nameGlobs);
+
+      final GroupIdExclusionFilter groupIdFilter = new GroupIdExclusionFilter(groupIds);
+      this.groupIdFilter = groupIdFilter.isEmpty() ? null : groupIdFilter;
+      this.bundleFilter = bundleSymbolicNames.isEmpty() ? null : new BundleSymbolicNameExclusionFilter(
+            bundleSymbolicNames.toArray(new String[bundleSymbolicNames.size()]));
+      final KnownLibraryExclusionFilter libraryFilter = new KnownLibraryExclusionFilter(libraries);
+      this.libraryFilter = libraryFilter.isEmpty() ? null : libraryFilter;
+      this.filters = Collections.unmodifiableList(new ArrayList<ExclusionFilter>(filters));
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Evaluates the rules which require only the path of the specified entry,
+    * returning a description of the rule excluding it, or null if none does.
+    * The entry need not exist.
+    * 
+    * @param file
+    * @throws IllegalArgumentException If the file is not specified
+    */
+   public String getPathExclusion(final File file) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (file == null)
+      {
+         throw new IllegalArgumentException("file must be specified");
+      }
+
+      return this.getPathExclusion(file.getAbsolutePath().replace(File.separatorChar, SEPARATOR));
+   }
+
+   /**
+    * Evaluates the rules which require metadata of the specified entry, which
+    * need not be mounted, returning a description of the rule excluding it, or
+    * null if none does.  Rules based on the path alone are not evaluated.
+    * 
+    * @param entry
+    * @throws IllegalArgumentException If the entry is not specified
+    * @see ExclusionFilterChain#getPathExclusion(File)
+    */
+   public String getPreMountExclusion(final ClassPathEntry entry) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (entry == null)
+      {
+         throw new IllegalArgumentException("entry must be specified");
+      }
+
+      // Bundles
+      if (bundleFilter != null && bundleFilter.exclude(entry))
+      {
+         return this.excluded(String.valueOf(bundleFilter), entry);
+      }
+
+      // Known libraries
+      if (libraryFilter != null)
+      {
+         final String library = libraryFilter.getMatch(entry);
+         if (library != null)
+         {
+            return this.excluded("library:" + library, entry);
+         }
+      }
+
+      // groupIds as named by the Maven metadata, sharing what was read for known libraries
+      if (groupIdFilter != null)
+      {
+         final String groupId = groupIdFilter.getMatch(entry);
+         if (groupId != null)
+         {
+            return this.excluded(groupId, entry);
+         }
+      }
+
+      // Further filters able to act before mounting
+      for (final ExclusionFilter filter : filters)
+      {
+         if (filter instanceof PreMountExclusionFilter && ((PreMountExclusionFilter) filter).exclude(entry))
+         {
+            return this.excluded(String.valueOf(filter), entry);
+         }
+      }
+
+      return null;
+   }
+
+   /**
+    * Evaluates the rules which require the contents of the specified mounted entry,
+    * returning a description of the rule excluding it, or null if none does.  Rules
+    * evaluated before mounting are not evaluated again.
+    * 
+    * @param file
+    * @throws IllegalArgumentException If the file is not specified
+    * @see ExclusionFilterChain#isPostMountRequired()
+    */
+   public String getPostMountExclusion(final VirtualFile file) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (file == null)
+      {
+         throw new IllegalArgumentException("file must be specified");
+      }
+
+      // Further filters
+      for (final ExclusionFilter filter : filters)
+      {
+         if (filter.exclude(file))
+         {
+            return this.excluded(String.valueOf(filter), file);
+         }
+      }
+
+      return null;
+   }
+
+   /**
+    * Returns whether any rules require the contents of entries, such 
+    * that entries must be mounted to be fully evaluated
+    */
+   public boolean isPostMountRequired()
+   {
+      return !filters.isEmpty();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Required Implementations -----------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * {@inheritDoc}
+    * Evaluates all rules which do not require the entry be mounted.
+    * @see org.jboss.ejb3.embedded.spi.scanner.filter.PreMountExclusionFilter#exclude(org.jboss.ejb3.embedded.spi.scanner.filter.ClassPathEntry)
+    */
+   @Override
+   public boolean exclude(final ClassPathEntry entry) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (entry == null)
+      {
+         throw new IllegalArgumentException("entry must be specified");
+      }
+
+      return this.getPathExclusion(entry.getFile()) != null || this.getPreMountExclusion(entry) != null;
+   }
+
+   /**
+    * {@inheritDoc}
+    * Evaluates all rules against the mounted file.
+    * @see org.jboss.ejb3.embedded.spi.scanner.filter.ExclusionFilter#exclude(org.jboss.vfs.VirtualFile)
+    */
+   @Override
+   public boolean exclude(final VirtualFile file) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (file == null)
+      {
+         throw new IllegalArgumentException("file must be specified");
+      }
+
+      return this.getPathExclusion(file.getPathName().replace(File.separatorChar, SEPARATOR)) != null
+            || (bundleFilter != null && bundleFilter.exclude(file))
+            || (libraryFilter != null && libraryFilter.exclude(file))
+            || (groupIdFilter != null && groupIdFilter.exclude(file)) || this.getPostMountExclusion(file) != null;
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      final List<String> globs = new ArrayList<String>(pathGlobs);
+      globs.addAll(nameGlobs);
+      return this.getClass().getSimpleName() + " [globs=" + globs + ", groupIdFilter=" + groupIdFilter
+            + ", bundleFilter=" + bundleFilter + ", libraryFilter=" + libraryFilter + ", filters=" + filters + "]";
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Evaluates the rules requiring only the path, which has been normalized 
+    * to use '/' as separator
+    */
+   private String getPathExclusion(final String path)
+   {
+      // Globs against the full path
+      final String pathGlob = match(pathPattern, pathGlobs, path);
+      if (pathGlob != null)
+      {
+         return this.excluded("glob:" + pathGlob, path);
+      }
+
+      // Globs against the name alone
+      final String name = path.substring(path.lastIndexOf(SEPARATOR) + 1);
+      final String nameGlob = match(namePattern, nameGlobs, name);
+      if (nameGlob != null)
+      {
+         return this.excluded("glob:" + nameGlob, path);
+      }
+
+      // groupId as evident from the Maven repository layout:
+      // repository/{group segments}/{artifactId}/{version}/{artifactId}-{version}[-classifier].jar
+      if (groupIdFilter != null)
+      {
+         final String[] segments = path.split(String.valueOf(SEPARATOR));
+         final int artifactIndex = segments.length - 3;
+         if (artifactIndex > 1 && segments[segments.length - 1].startsWith(segments[artifactIndex] + "-"))
+         {
+            for (int i = artifactIndex - 1; i >= 0; i--)
+            {
+               if (NAME_MAVEN_REPOSITORY.equals(segments[i]))
+               {
+                  final String groupId = groupIdFilter.getMatch(segments, i + 1, artifactIndex);
+                  if (groupId != null)
+                  {
+                     return this.excluded(groupId, path);
+                  }
+                  break;
+               }
+            }
+         }
+      }
+
+      return null;
+   }
+
+   /**
+    * Logs the exclusion of the specified entry by the described rule, returning the description
+    */
+   private String excluded(final String rule, final Object entry)
+   {
+      if (log.isTraceEnabled())
+      {
+         log.tracef("%s matched %s for exclusion; skipping", rule, entry);
+      }
+      return rule;
+   }
+
+   /**
+    * Returns the glob whose group in the specified pattern matches the input, or null if none
+    */
+   private static String match(final Pattern pattern, final List<String> globs, final String input)
+   {
+      if (pattern == null)
+      {
+         return null;
+      }
+      final Matcher matcher = pattern.matcher(input);
+      if (!matcher.matches())
+      {
+         return null;
+      }
+      for (int i = 0; i < globs.size(); i++)
+      {
+         if (matcher.group(i + 1) != null)
+         {
+            return globs.get(i);
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Compiles the specified globs into a single {@link Pattern}, with each
+    * in its own group in order, or null if there are no globs
+    */
+   private static Pattern compile(final List<String> globs)
+   {
+      if (globs.isEmpty())
+      {
+         return null;
+      }
+      final StringBuilder regex = new StringBuilder();
+      for (final String glob : globs)
+      {
+         if (regex.length() > 0)
+         {
+            regex.append('|');
+         }
+         regex.append('(');
+         for (int i = 0; i < glob.length(); i++)
+         {
+            final char c = glob.charAt(i);
+            if (c == '*')
+            {
+               if (i + 1 < glob.length() && glob.charAt(i + 1) == '*')
+               {
+                  regex.append(".*");
+                  i++;
+               }
+               else
+               {
+                  regex.append("[^/]*");
+               }
+            }
+            else if (c == '?')
+            {
+               regex.append("[^/]");
+            }
+            else
+            {
+               if (REGEX_SPECIAL_CHARS.indexOf(c) >= 0)
+               {
+                  regex.append('\\');
+               }
+               regex.append(c);
+            }
+         }
+         regex.append(')');
+      }
+      return Pattern.compile(regex.toString());
+   }
+
+}
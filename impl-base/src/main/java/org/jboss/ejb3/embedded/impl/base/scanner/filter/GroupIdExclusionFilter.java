@@ -0,0 +1,247 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.ejb3.embedded.impl.base.scanner.filter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.jboss.ejb3.embedded.spi.scanner.filter.ClassPathEntry;
+import org.jboss.ejb3.embedded.spi.scanner.filter.PreMountExclusionFilter;
+import org.jboss.logging.Logger;
+import org.jboss.vfs.VirtualFile;
+
+/**
+ * {@link PreMountExclusionFilter} implementation which will block
+ * entries of which the Maven groupId, as named by the META-INF/maven
+ * metadata within, begins with a configured prefix at a segment boundary.
+ * 
+ * As with the {@link KnownLibraryExclusionFilter}, the metadata of an archive
+ * is read from its central directory without mounting it, and is shared among
+ * all instances of both filters.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class GroupIdExclusionFilter implements PreMountExclusionFilter
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(GroupIdExclusionFilter.class);
+
+   /**
+    * Prefix of the description of a match
+    */
+   private static final String PREFIX_RULE = "groupId:";
+
+   /**
+    * Location of the Maven metadata under the root, holding a directory per groupId
+    */
+   private static final String PATH_MAVEN_METADATA = "META-INF/maven";
+
+   /**
+    * Separator of groupId and artifactId within coordinates
+    */
+   private static final char SEPARATOR_COORDINATES = ':';
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Excluded groupId prefixes, as configured
+    */
+   private final List<String> prefixes;
+
+   /**
+    * Excluded groupId prefixes
+    */
+   private final PrefixTrie groupIds;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new instance excluding the specified groupId prefixes
+    * @param groupIds Maven groupId prefixes to exclude
+    * @throws IllegalArgumentException If the groupIds are not specified, or any is empty
+    */
+   public GroupIdExclusionFilter(final Collection<String> groupIds) throws IllegalArgumentException
+   {
+      // Precondition check
+      if (groupIds == null)
+      {
+         throw new IllegalArgumentException("groupIds must be specified");
+      }
+
+      this.prefixes = Collections.unmodifiableList(new ArrayList<String>(groupIds));
+      this.groupIds = new PrefixTrie();
+      for (final String groupId : groupIds)
+      {
+         this.groupIds.add(groupId);
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Returns a description of the groupId prefix matching the Maven metadata
+    * of the specified unmounted entry, or null if none does
+    * @param entry
+    * @throws IllegalArgumentException If the entry is not specified
+    */
+   public String getMatch(final ClassPathEntry entry) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (entry == null)
+      {
+         throw new IllegalArgumentException("entry must be specified");
+      }
+
+      final File file = entry.getFile();
+      if (groupIds.isEmpty() || file == null || !file.exists())
+      {
+         return null;
+      }
+      final List<String> coordinates;
+      try
+      {
+         coordinates = KnownLibraryExclusionFilter.getCoordinates(file);
+      }
+      catch (final IOException ioe)
+      {
+         log.warnf("Could not read Maven metadata of %s: %s", entry, ioe);
+         return null;
+      }
+      for (final String coordinate : coordinates)
+      {
+         final String groupId = groupIds.getPrefix(coordinate.substring(0, coordinate
+               .indexOf(SEPARATOR_COORDINATES)));
+         if (groupId != null)
+         {
+            return PREFIX_RULE + groupId;
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Returns a description of the groupId prefix matching the Maven metadata
+    * of the specified mounted entry, or null if none does
+    * @param file
+    * @throws IllegalArgumentException If the file is not specified
+    */
+   public String getMatch(final VirtualFile file) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (file == null)
+      {
+         throw new IllegalArgumentException("file must be specified");
+      }
+
+      // Maven metadata names each groupId as a directory
+      final VirtualFile mavenMetadata = file.getChild(PATH_MAVEN_METADATA);
+      if (groupIds.isEmpty() || !mavenMetadata.isDirectory())
+      {
+         return null;
+      }
+      for (final VirtualFile groupDir : mavenMetadata.getChildren())
+      {
+         final String groupId = groupIds.getPrefix(groupDir.getName());
+         if (groupId != null)
+         {
+            return PREFIX_RULE + groupId;
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Returns whether no groupIds are excluded
+    */
+   public boolean isEmpty()
+   {
+      return groupIds.isEmpty();
+   }
+
+   /**
+    * Returns a description of the groupId prefix matching the specified range
+    * of path segments, or null if none does
+    * @param segments
+    * @param from Index of the first segment of the groupId
+    * @param to Index after the last segment of the groupId
+    */
+   String getMatch(final String[] segments, final int from, final int to)
+   {
+      final String groupId = groupIds.getPrefix(segments, from, to);
+      return groupId == null ? null : PREFIX_RULE + groupId;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Required Implementations -----------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.spi.scanner.filter.PreMountExclusionFilter#exclude(org.jboss.ejb3.embedded.spi.scanner.filter.ClassPathEntry)
+    */
+   @Override
+   public boolean exclude(final ClassPathEntry entry) throws IllegalArgumentException
+   {
+      return this.getMatch(entry) != null;
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.spi.scanner.filter.ExclusionFilter#exclude(org.jboss.vfs.VirtualFile)
+    */
+   @Override
+   public boolean exclude(final VirtualFile file) throws IllegalArgumentException
+   {
+      return this.getMatch(file) != null;
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return this.getClass().getSimpleName() + " [groupIds=" + prefixes + "]";
+   }
+
+}
@@ -0,0 +1,646 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.scanner.filter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.jboss.ejb3.embedded.spi.scanner.filter.ClassPathEntry;
+import org.jboss.ejb3.embedded.spi.scanner.filter.PreMountExclusionFilter;
+import org.jboss.logging.Logger;
+import org.jboss.vfs.VirtualFile;
+
+/**
+ * {@link PreMountExclusionFilter} implementation which will block
+ * well-known libraries, which can never contain EJBs, named in a denylist.
+ * Each entry of the denylist is one of:
+ * 
+ * <ul>
+ *   <li>"groupId:artifactId", matching entries whose META-INF/maven/&#42;&#42;/pom.properties
+ *   name these coordinates; an artifactId of "*" matches all artifacts of the group.</li>
+ *   <li>"sha1:" followed by the hex-encoded SHA-1 fingerprint of the archive.</li>
+ * </ul>
+ * 
+ * An entry is blocked by its coordinates only if all Maven metadata within it is
+ * denied, such that a module shading a known library is still scanned.  As the 
+ * fingerprint requires the entire archive be read, it's computed only for archives
+ * without Maven metadata, and only if the denylist holds any fingerprints.  Both the 
+ * coordinates and fingerprints of each entry are cached for the life of the JVM so
+ * long as the size and last modified time of the entry are unchanged.
+ * 
+ * A denylist of common libraries is shipped as {@link KnownLibraryExclusionFilter#RESOURCE_SHIPPED_DENYLIST};
+ * see {@link KnownLibraryExclusionFilter#getShippedEntries()}.  Thread-safe.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class KnownLibraryExclusionFilter implements PreMountExclusionFilter
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(KnownLibraryExclusionFilter.class);
+
+   /**
+    * Name of the shipped denylist, relative to this class
+    */
+   public static final String RESOURCE_SHIPPED_DENYLIST = "known-libraries.txt";
+
+   /**
+    * Prefix of fingerprint entries
+    */
+   public static final String PREFIX_SHA1 = "sha1:";
+
+   /**
+    * Wildcard matching all artifacts of a group
+    */
+   private static final String WILDCARD_ARTIFACT = "*";
+
+   /**
+    * Separator of groupId and artifactId
+    */
+   private static final char SEPARATOR_COORDINATES = ':';
+
+   /**
+    * Prefix of comments in denylists
+    */
+   private static final String PREFIX_COMMENT = "#";
+
+   /**
+    * Location of the Maven metadata under the root
+    */
+   private static final String PATH_MAVEN_METADATA = "META-INF/maven/";
+
+   /**
+    * Name of the Maven metadata file of each artifact
+    */
+   private static final String NAME_POM_PROPERTIES = "pom.properties";
+
+   /**
+    * Keys of the coordinates in pom.properties
+    */
+   private static final String KEY_GROUP_ID = "groupId";
+
+   private static final String KEY_ARTIFACT_ID = "artifactId";
+
+   /**
+    * Algorithm of fingerprints
+    */
+   private static final String ALGORITHM_DIGEST = "SHA-1";
+
+   /**
+    * Length of hex-encoded fingerprints
+    */
+   private static final int LENGTH_FINGERPRINT = 40;
+
+   /**
+    * Hex digits
+    */
+   private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+   /**
+    * Charset of denylists
+    */
+   private static final String CHARSET = "UTF-8";
+
+   /**
+    * Identity (coordinates and, once computed, fingerprint) of each entry by its absolute path
+    */
+   private static final ConcurrentMap<String, Identity> identities = new ConcurrentHashMap<String, Identity>();
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Denied "groupId:artifactId" coordinates
+    */
+   private final Set<String> coordinates;
+
+   /**
+    * Groups of which all artifacts are denied
+    */
+   private final Set<String> groupIds;
+
+   /**
+    * Denied fingerprints, lower case
+    */
+   private final Set<String> fingerprints;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new instance denying the specified entries
+    * @param entries Denylist entries, in the form "groupId:artifactId" or "sha1:{fingerprint}"
+    * @throws IllegalArgumentException If the entries are not specified or any is malformed
+    */
+   public KnownLibraryExclusionFilter(final Collection<String> entries) throws IllegalArgumentException
+   {
+      // Precondition check
+      if (entries == null)
+      {
+         throw new IllegalArgumentException("entries must be specified");
+      }
+
+      final Set<String> coordinates = new HashSet<String>();
+      final Set<String> groupIds = new HashSet<String>();
+      final Set<String> fingerprints = new HashSet<String>();
+      for (final String entry : entries)
+      {
+         final String trimmed = entry.trim();
+         if (trimmed.regionMatches(true, 0, PREFIX_SHA1, 0, PREFIX_SHA1.length()))
+         {
+            final String fingerprint = trimmed.substring(PREFIX_SHA1.length()).toLowerCase(Locale.ENGLISH);
+            if (fingerprint.length() != LENGTH_FINGERPRINT || !fingerprint.matches("[0-9a-f]+"))
+            {
+               throw new IllegalArgumentException("Malformed SHA-1 fingerprint in denylist entry: " + entry);
+            }
+            fingerprints.add(fingerprint);
+            continue;
+         }
+         final int separator = trimmed.indexOf(SEPARATOR_COORDINATES);
+         if (separator <= 0 || separator == trimmed.length() - 1
+               || trimmed.indexOf(SEPARATOR_COORDINATES, separator + 1) >= 0)
+         {
+            throw new IllegalArgumentException("Denylist entry must be in the form \"groupId:artifactId\" or \""
+                  + PREFIX_SHA1 + "{fingerprint}\": " + entry);
+         }
+         if (WILDCARD_ARTIFACT.equals(trimmed.substring(separator + 1)))
+         {
+            groupIds.add(trimmed.substring(0, separator));
+         }
+         else
+         {
+            coordinates.add(trimmed);
+         }
+      }
+      this.coordinates = Collections.unmodifiableSet(coordinates);
+      this.groupIds = Collections.unmodifiableSet(groupIds);
+      this.fingerprints = Collections.unmodifiableSet(fingerprints);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the entries of the shipped denylist
+    * @throws IllegalStateException If the shipped denylist could not be read
+    */
+   public static List<String> getShippedEntries() throws IllegalStateException
+   {
+      final InputStream in = KnownLibraryExclusionFilter.class.getResourceAsStream(RESOURCE_SHIPPED_DENYLIST);
+      if (in == null)
+      {
+         throw new IllegalStateException("Shipped denylist not found: " + RESOURCE_SHIPPED_DENYLIST);
+      }
+      try
+      {
+         try
+         {
+            return readEntries(in);
+         }
+         finally
+         {
+            in.close();
+         }
+      }
+      catch (final IOException ioe)
+      {
+         throw new IllegalStateException("Could not read shipped denylist " + RESOURCE_SHIPPED_DENYLIST, ioe);
+      }
+   }
+
+   /**
+    * Reads denylist entries, one per line, from the specified stream, which is not
+    * closed.  Blank lines and those beginning with '#' are ignored.
+    * @param in
+    * @throws IOException If the stream could not be read
+    */
+   public static List<String> readEntries(final InputStream in) throws IOException
+   {
+      final List<String> entries = new ArrayList<String>();
+      final BufferedReader reader = new BufferedReader(new InputStreamReader(in, CHARSET));
+      String line;
+      while ((line = reader.readLine()) != null)
+      {
+         final String trimmed = line.trim();
+         if (trimmed.length() > 0 && !trimmed.startsWith(PREFIX_COMMENT))
+         {
+            entries.add(trimmed);
+         }
+      }
+      return entries;
+   }
+
+   /**
+    * Returns the denylist entry matching the specified unmounted entry, 
+    * or null if it's not a known library
+    * @param entry
+    * @throws IllegalArgumentException If the entry is not specified
+    */
+   public String getMatch(final ClassPathEntry entry) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (entry == null)
+      {
+         throw new IllegalArgumentException("entry must be specified");
+      }
+
+      final File file = entry.getFile();
+      if (file == null || !file.exists())
+      {
+         return null;
+      }
+      final Identity identity;
+      try
+      {
+         identity = getIdentity(file);
+      }
+      catch (final IOException ioe)
+      {
+         log.warnf("Could not read Maven metadata of %s: %s", entry, ioe);
+         return null;
+      }
+
+      // Coordinates
+      if (!identity.coordinates.isEmpty())
+      {
+         return this.getMatch(identity.coordinates);
+      }
+
+      // Fingerprint, only for archives with no coordinates
+      if (fingerprints.isEmpty() || file.isDirectory())
+      {
+         return null;
+      }
+      final String fingerprint = identity.getFingerprint(file);
+      return fingerprint != null && fingerprints.contains(fingerprint) ? PREFIX_SHA1 + fingerprint : null;
+   }
+
+   /**
+    * Returns the denylist entry matching the coordinates of the specified 
+    * mounted entry, or null if it's not a known library
+    * @param file
+    * @throws IllegalArgumentException If the file is not specified
+    */
+   public String getMatch(final VirtualFile file) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (file == null)
+      {
+         throw new IllegalArgumentException("file must be specified");
+      }
+
+      final VirtualFile mavenMetadata = file.getChild(PATH_MAVEN_METADATA);
+      if (!mavenMetadata.isDirectory())
+      {
+         return null;
+      }
+      final List<String> coordinates = new ArrayList<String>();
+      for (final VirtualFile groupDir : mavenMetadata.getChildren())
+      {
+         for (final VirtualFile artifactDir : groupDir.getChildren())
+         {
+            if (artifactDir.getChild(NAME_POM_PROPERTIES).exists())
+            {
+               coordinates.add(groupDir.getName() + SEPARATOR_COORDINATES + artifactDir.getName());
+            }
+         }
+      }
+      return coordinates.isEmpty() ? null : this.getMatch(coordinates);
+   }
+
+   /**
+    * Returns whether the denylist is empty
+    */
+   public boolean isEmpty()
+   {
+      return coordinates.isEmpty() && groupIds.isEmpty() && fingerprints.isEmpty();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Required Implementations -----------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.spi.scanner.filter.PreMountExclusionFilter#exclude(org.jboss.ejb3.embedded.spi.scanner.filter.ClassPathEntry)
+    */
+   @Override
+   public boolean exclude(final ClassPathEntry entry) throws IllegalArgumentException
+   {
+      return this.getMatch(entry) != null;
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.embedded.spi.scanner.filter.ExclusionFilter#exclude(org.jboss.vfs.VirtualFile)
+    */
+   @Override
+   public boolean exclude(final VirtualFile file) throws IllegalArgumentException
+   {
+      return this.getMatch(file) != null;
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return this.getClass().getSimpleName() + " [coordinates=" + coordinates.size() + ", groupIds="
+            + groupIds.size() + ", fingerprints=" + fingerprints.size() + "]";
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Returns the denylist entry matching the first of the specified coordinates 
+    * if all are denied, else null
+    */
+   private String getMatch(final Collection<String> coordinates)
+   {
+      String match = null;
+      for (final String coordinate : coordinates)
+      {
+         final String denied;
+         if (this.coordinates.contains(coordinate))
+         {
+            denied = coordinate;
+         }
+         else
+         {
+            final String groupId = coordinate.substring(0, coordinate.indexOf(SEPARATOR_COORDINATES));
+            if (!groupIds.contains(groupId))
+            {
+               return null;
+            }
+            denied = groupId + SEPARATOR_COORDINATES + WILDCARD_ARTIFACT;
+         }
+         if (match == null)
+         {
+            match = denied;
+         }
+      }
+      return match;
+   }
+
+   /**
+    * Obtains the (possibly cached) "groupId:artifactId" coordinates of all
+    * Maven metadata within the specified unmounted entry, read from the
+    * central directory of an archive without mounting it
+    * @param file
+    * @throws IOException If the entry could not be read
+    */
+   static List<String> getCoordinates(final File file) throws IOException
+   {
+      return getIdentity(file).coordinates;
+   }
+
+   /**
+    * Obtains the (possibly cached) identity of the specified entry
+    */
+   private static Identity getIdentity(final File file) throws IOException
+   {
+      final String key = file.getAbsolutePath();
+      final long lastModified = file.lastModified();
+      final long size = file.length();
+      final Identity cached = identities.get(key);
+      if (cached != null && cached.lastModified == lastModified && cached.size == size)
+      {
+         return cached;
+      }
+      final List<String> coordinates = file.isDirectory() ? readCoordinates(file) : readCoordinates(new ZipFile(
+            file));
+      final Identity identity = new Identity(lastModified, size, coordinates);
+      identities.put(key, identity);
+      return identity;
+   }
+
+   /**
+    * Reads the coordinates of all Maven metadata within the specified directory
+    */
+   private static List<String> readCoordinates(final File root) throws IOException
+   {
+      final List<String> coordinates = new ArrayList<String>();
+      final File[] groupDirs = new File(root, PATH_MAVEN_METADATA).listFiles();
+      if (groupDirs == null)
+      {
+         return coordinates;
+      }
+      for (final File groupDir : groupDirs)
+      {
+         final File[] artifactDirs = groupDir.listFiles();
+         if (artifactDirs == null)
+         {
+            continue;
+         }
+         for (final File artifactDir : artifactDirs)
+         {
+            final File pomProperties = new File(artifactDir, NAME_POM_PROPERTIES);
+            if (pomProperties.isFile())
+            {
+               final InputStream in = new FileInputStream(pomProperties);
+               try
+               {
+                  coordinates.add(readCoordinates(in, groupDir.getName(), artifactDir.getName()));
+               }
+               finally
+               {
+                  in.close();
+               }
+            }
+         }
+      }
+      return coordinates;
+   }
+
+   /**
+    * Reads the coordinates of all Maven metadata within the specified archive, which is closed
+    */
+   private static List<String> readCoordinates(final ZipFile zip) throws IOException
+   {
+      final List<String> coordinates = new ArrayList<String>();
+      try
+      {
+         final Enumeration<? extends ZipEntry> entries = zip.entries();
+         while (entries.hasMoreElements())
+         {
+            // META-INF/maven/{groupId}/{artifactId}/pom.properties
+            final ZipEntry entry = entries.nextElement();
+            final String name = entry.getName();
+            if (!name.startsWith(PATH_MAVEN_METADATA) || !name.endsWith(NAME_POM_PROPERTIES))
+            {
+               continue;
+            }
+            final String[] segments = name.substring(PATH_MAVEN_METADATA.length()).split("/");
+            if (segments.length != 3)
+            {
+               continue;
+            }
+            final InputStream in = zip.getInputStream(entry);
+            try
+            {
+               coordinates.add(readCoordinates(in, segments[0], segments[1]));
+            }
+            finally
+            {
+               in.close();
+            }
+         }
+      }
+      finally
+      {
+         zip.close();
+      }
+      return coordinates;
+   }
+
+   /**
+    * Reads "groupId:artifactId" from the specified pom.properties, falling 
+    * back to those of its location if absent
+    */
+   private static String readCoordinates(final InputStream in, final String defaultGroupId,
+         final String defaultArtifactId) throws IOException
+   {
+      final Properties properties = new Properties();
+      properties.load(in);
+      return properties.getProperty(KEY_GROUP_ID, defaultGroupId).trim() + SEPARATOR_COORDINATES
+            + properties.getProperty(KEY_ARTIFACT_ID, defaultArtifactId).trim();
+   }
+
+   /**
+    * Obtains the hex-encoded SHA-1 fingerprint of the contents of the specified file,
+    * or null if it could not be read
+    */
+   private static String fingerprint(final File file)
+   {
+      final MessageDigest md;
+      try
+      {
+         md = MessageDigest.getInstance(ALGORITHM_DIGEST);
+      }
+      catch (final NoSuchAlgorithmException nsae)
+      {
+         throw new IllegalStateException(ALGORITHM_DIGEST + " is required of all JVMs", nsae);
+      }
+      try
+      {
+         final InputStream in = new FileInputStream(file);
+         try
+         {
+            final byte[] buffer = new byte[8192];
+            int read = 0;
+            while ((read = in.read(buffer)) != -1)
+            {
+               md.update(buffer, 0, read);
+            }
+         }
+         finally
+         {
+            in.close();
+         }
+      }
+      catch (final IOException ioe)
+      {
+         log.warn("Could not compute fingerprint of " + file, ioe);
+         return null;
+      }
+      final byte[] bytes = md.digest();
+      final char[] chars = new char[bytes.length * 2];
+      for (int i = 0; i < bytes.length; i++)
+      {
+         chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+         chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+      }
+      return new String(chars);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Coordinates and fingerprint of an entry, along with the file attributes for which they're valid
+    */
+   private static final class Identity
+   {
+      private final long lastModified;
+
+      private final long size;
+
+      private final List<String> coordinates;
+
+      /**
+       * Fingerprint, computed upon first request
+       */
+      private volatile String fingerprint;
+
+      Identity(final long lastModified, final long size, final List<String> coordinates)
+      {
+         this.lastModified = lastModified;
+         this.size = size;
+         this.coordinates = coordinates;
+      }
+
+      String getFingerprint(final File file)
+      {
+         if (fingerprint == null)
+         {
+            fingerprint = fingerprint(file);
+         }
+         return fingerprint;
+      }
+   }
+
+}
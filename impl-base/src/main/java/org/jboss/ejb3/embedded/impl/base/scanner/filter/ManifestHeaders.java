@@ -0,0 +1,290 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.scanner.filter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.jboss.vfs.VirtualFile;
+
+/**
+ * Parses the main attributes (headers) of manifests, caching those of each 
+ * ClassPath entry for the life of the JVM such that any number of filters and
+ * containers read each manifest only once.  A cached result is used only so long
+ * as the size and last modified time of the entry (or of the manifest, for 
+ * exploded entries) are unchanged.
+ * 
+ * Parsing is lenient: continuation lines (beginning with a single space) are 
+ * joined to the header they continue as per the JAR File Specification, but 
+ * headers delimited by '=' rather than ':' are also accepted.  Header names are
+ * case-insensitive.  Thread-safe.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+final class ManifestHeaders
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Charset of manifests
+    */
+   private static final String CHARSET = "UTF-8";
+
+   /**
+    * Main attributes by the key of the entry from which they were read
+    */
+   private static final ConcurrentMap<String, CachedHeaders> cache = new ConcurrentHashMap<String, CachedHeaders>();
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * No instantiation
+    */
+   private ManifestHeaders()
+   {
+      throw new UnsupportedOperationException("No instances permitted");
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the main attributes of the manifest of the specified unmounted JAR 
+    * or exploded directory, read straight from the file system or ZIP, or an empty
+    * {@link Map} if there is no manifest
+    * @param file
+    * @throws IOException If the manifest could not be read
+    */
+   static Map<String, String> getMainAttributes(final File file) throws IOException
+   {
+      if (file.isDirectory())
+      {
+         final File manifest = new File(file, JarFile.MANIFEST_NAME);
+         final String key = manifest.getAbsolutePath();
+         final CachedHeaders cached = getCached(key, manifest.lastModified(), manifest.length());
+         if (cached != null)
+         {
+            return cached.headers;
+         }
+         Map<String, String> headers = Collections.emptyMap();
+         if (manifest.isFile())
+         {
+            final InputStream in = new FileInputStream(manifest);
+            try
+            {
+               headers = parse(in);
+            }
+            finally
+            {
+               in.close();
+            }
+         }
+         return putCached(key, manifest.lastModified(), manifest.length(), headers);
+      }
+
+      final String key = file.getAbsolutePath();
+      final CachedHeaders cached = getCached(key, file.lastModified(), file.length());
+      if (cached != null)
+      {
+         return cached.headers;
+      }
+      Map<String, String> headers = Collections.emptyMap();
+      final ZipFile zip = new ZipFile(file);
+      try
+      {
+         final ZipEntry entry = zip.getEntry(JarFile.MANIFEST_NAME);
+         if (entry != null)
+         {
+            final InputStream in = zip.getInputStream(entry);
+            try
+            {
+               headers = parse(in);
+            }
+            finally
+            {
+               in.close();
+            }
+         }
+      }
+      finally
+      {
+         zip.close();
+      }
+      return putCached(key, file.lastModified(), file.length(), headers);
+   }
+
+   /**
+    * Obtains the main attributes of the manifest of the specified mounted
+    * root, or an empty {@link Map} if there is no manifest
+    * @param root
+    * @throws IOException If the manifest could not be read
+    */
+   static Map<String, String> getMainAttributes(final VirtualFile root) throws IOException
+   {
+      final VirtualFile manifest = root.getChild(JarFile.MANIFEST_NAME);
+      if (!manifest.exists())
+      {
+         return Collections.emptyMap();
+      }
+      final String key = manifest.getPathName();
+      final CachedHeaders cached = getCached(key, manifest.getLastModified(), manifest.getSize());
+      if (cached != null)
+      {
+         return cached.headers;
+      }
+      final InputStream in = manifest.openStream();
+      try
+      {
+         return putCached(key, manifest.getLastModified(), manifest.getSize(), parse(in));
+      }
+      finally
+      {
+         in.close();
+      }
+   }
+
+   /**
+    * Parses the main attributes from the specified manifest stream, which is not closed
+    * @param in
+    * @return The main attributes, keyed case-insensitively
+    * @throws IOException If the stream could not be read
+    */
+   static Map<String, String> parse(final InputStream in) throws IOException
+   {
+      final Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+      final BufferedReader reader = new BufferedReader(new InputStreamReader(in, CHARSET));
+      String name = null;
+      StringBuilder value = null;
+      String line;
+      while ((line = reader.readLine()) != null)
+      {
+         // Continuation of the previous header
+         if (line.startsWith(" "))
+         {
+            if (value != null)
+            {
+               value.append(line, 1, line.length());
+            }
+            continue;
+         }
+
+         // Complete the previous header
+         if (name != null)
+         {
+            headers.put(name, value.toString());
+            name = null;
+            value = null;
+         }
+
+         // End of the main section
+         if (line.length() == 0)
+         {
+            break;
+         }
+
+         // New header
+         int separator = line.indexOf(':');
+         if (separator < 0)
+         {
+            separator = line.indexOf('=');
+         }
+         if (separator <= 0)
+         {
+            continue;
+         }
+         name = line.substring(0, separator).trim();
+         value = new StringBuilder(line.substring(separator + 1).trim());
+      }
+      if (name != null)
+      {
+         headers.put(name, value.toString());
+      }
+      return Collections.unmodifiableMap(headers);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the cached headers of the specified key if still valid, else null
+    */
+   private static CachedHeaders getCached(final String key, final long lastModified, final long size)
+   {
+      final CachedHeaders cached = cache.get(key);
+      return cached != null && cached.lastModified == lastModified && cached.size == size ? cached : null;
+   }
+
+   /**
+    * Caches and returns the specified headers
+    */
+   private static Map<String, String> putCached(final String key, final long lastModified, final long size,
+         final Map<String, String> headers)
+   {
+      cache.put(key, new CachedHeaders(lastModified, size, headers));
+      return headers;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Headers read from an entry, along with what's required to validate them
+    */
+   private static final class CachedHeaders
+   {
+      private final long lastModified;
+
+      private final long size;
+
+      private final Map<String, String> headers;
+
+      CachedHeaders(final long lastModified, final long size, final Map<String, String> headers)
+      {
+         this.lastModified = lastModified;
+         this.size = size;
+         this.headers = headers;
+      }
+   }
+
+}
@@ -0,0 +1,163 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.scanner.filter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Trie of dot-delimited names (ie. Maven groupIds or Java packages), 
+ * answering whether any name added is a prefix of a given name at a 
+ * segment boundary.  "org.hibernate" is therefore a prefix of 
+ * "org.hibernate" and "org.hibernate.validator", but not of "org.hibernatex".
+ * Lookups cost time proportional to the number of segments of the name
+ * queried, regardless of the number of names added.
+ * 
+ * Not thread-safe during population; safe for concurrent lookups thereafter.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+final class PrefixTrie
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Delimiter of the segments of a name
+    */
+   private static final String DELIMITER = "\\.";
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Root of the trie, representing the empty name
+    */
+   private final Node root = new Node();
+
+   /**
+    * Whether any names have been added
+    */
+   private boolean empty = true;
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Adds the specified dot-delimited name
+    * @param name
+    * @throws IllegalArgumentException If the name is not specified or is empty
+    */
+   void add(final String name) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (name == null || name.length() == 0)
+      {
+         throw new IllegalArgumentException("name must be specified");
+      }
+
+      Node node = root;
+      for (final String segment : name.split(DELIMITER))
+      {
+         Node child = node.children.get(segment);
+         if (child == null)
+         {
+            child = new Node();
+            node.children.put(segment, child);
+         }
+         node = child;
+      }
+      node.name = name;
+      empty = false;
+   }
+
+   /**
+    * Obtains the shortest name added which is a prefix of the specified
+    * range of segments, or null if there is none
+    * @param segments
+    * @param from Index of the first segment to consider
+    * @param to Index after the last segment to consider
+    */
+   String getPrefix(final String[] segments, final int from, final int to)
+   {
+      Node node = root;
+      for (int i = from; i < to; i++)
+      {
+         node = node.children.get(segments[i]);
+         if (node == null)
+         {
+            return null;
+         }
+         if (node.name != null)
+         {
+            return node.name;
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Obtains the shortest name added which is a prefix of the 
+    * specified dot-delimited name, or null if there is none
+    * @param name
+    */
+   String getPrefix(final String name)
+   {
+      final String[] segments = name.split(DELIMITER);
+      return this.getPrefix(segments, 0, segments.length);
+   }
+
+   /**
+    * Returns whether no names have been added
+    */
+   boolean isEmpty()
+   {
+      return empty;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Node of the trie, corresponding to a single segment
+    */
+   private static final class Node
+   {
+      /**
+       * Children, keyed by their segment
+       */
+      private final Map<String, Node> children = new HashMap<String, Node>(4);
+
+      /**
+       * Name added which ends at this node, if any
+       */
+      private String name;
+   }
+
+}
@@ -0,0 +1,177 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.scanner.filter;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Matches text against a fixed set of substrings in a single pass,
+ * regardless of how many substrings there are, using an Aho-Corasick
+ * automaton built upon construction.  Thread-safe.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+final class SubstringMatcher
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Start state, corresponding to no text matched
+    */
+   private final State root = new State();
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new matcher of the specified substrings
+    * @param substrings
+    * @throws IllegalArgumentException If the substrings are not specified
+    */
+   SubstringMatcher(final Collection<String> substrings) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (substrings == null)
+      {
+         throw new IllegalArgumentException("substrings must be specified");
+      }
+
+      // Build the trie of all substrings
+      for (final String substring : substrings)
+      {
+         State state = root;
+         for (int i = 0; i < substring.length(); i++)
+         {
+            final Character c = Character.valueOf(substring.charAt(i));
+            State next = state.transitions.get(c);
+            if (next == null)
+            {
+               next = new State();
+               state.transitions.put(c, next);
+            }
+            state = next;
+         }
+         if (state.match == null)
+         {
+            state.match = substring;
+         }
+      }
+
+      // Link each state to that of its longest proper suffix, breadth first
+      final Queue<State> queue = new LinkedList<State>();
+      for (final State child : root.transitions.values())
+      {
+         child.failure = root;
+         queue.add(child);
+      }
+      while (!queue.isEmpty())
+      {
+         final State state = queue.remove();
+         for (final Map.Entry<Character, State> transition : state.transitions.entrySet())
+         {
+            final State child = transition.getValue();
+            State failure = state.failure;
+            while (failure != root && !failure.transitions.containsKey(transition.getKey()))
+            {
+               failure = failure.failure;
+            }
+            final State suffix = failure.transitions.get(transition.getKey());
+            child.failure = suffix == null || suffix == child ? root : suffix;
+            if (child.match == null)
+            {
+               // Any substring ending at the suffix also ends here
+               child.match = child.failure.match;
+            }
+            queue.add(child);
+         }
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Returns a substring contained in the specified text, or null if none is
+    * @param text
+    */
+   String find(final CharSequence text)
+   {
+      if (root.match != null)
+      {
+         // Empty substring
+         return root.match;
+      }
+      State state = root;
+      for (int i = 0; i < text.length(); i++)
+      {
+         final Character c = Character.valueOf(text.charAt(i));
+         while (state != root && !state.transitions.containsKey(c))
+         {
+            state = state.failure;
+         }
+         final State next = state.transitions.get(c);
+         state = next == null ? root : next;
+         if (state.match != null)
+         {
+            return state.match;
+         }
+      }
+      return null;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * State of the automaton, corresponding to a prefix of one or more substrings
+    */
+   private static final class State
+   {
+      /**
+       * Transitions upon each next character
+       */
+      private final Map<Character, State> transitions = new HashMap<Character, State>(4);
+
+      /**
+       * State to fall back to upon no transition
+       */
+      private State failure;
+
+      /**
+       * A substring ending at this state, if any
+       */
+      private String match;
+   }
+
+}
@@ -0,0 +1,155 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import org.jboss.ejb3.embedded.impl.base.scanner.JarWriter;
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbModuleIndex;
+import org.jboss.vfs.VFS;
+import org.jboss.vfs.VirtualFile;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Ensures that {@link ModuleMounts} resolves the modules reported by the scanner,
+ * mounting those nested within archives such that they may be deployed
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class ModuleMountsUnitTest
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private static final String PATH_NESTED = "lib/ejbs.jar";
+
+   private static final String PATH_EJB_JAR_XML = "META-INF/ejb-jar.xml";
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Archive enclosing an EJB JAR at {@link #PATH_NESTED}
+    */
+   private File archive;
+
+   /**
+    * Mounts under test
+    */
+   private ModuleMounts mounts;
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Writes the archive enclosing the nested EJB JAR
+    */
+   @Before
+   public void createArchive() throws IOException
+   {
+      final ByteArrayOutputStream nested = new ByteArrayOutputStream();
+      JarWriter.writeJar(nested, PATH_EJB_JAR_XML, "<ejb-jar/>".getBytes("UTF-8"));
+      archive = File.createTempFile("modulemounts", ".jar");
+      JarWriter.writeJar(archive, PATH_NESTED, nested.toByteArray());
+      mounts = new ModuleMounts();
+   }
+
+   /**
+    * Releases the mounts and removes the archive
+    */
+   @After
+   public void deleteArchive()
+   {
+      mounts.close();
+      archive.delete();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures that a module nested within an archive is mounted, 
+    * and unmounted when the mounts are closed
+    */
+   @Test
+   public void mountsNestedModule() throws IOException
+   {
+      final String path = archive.getAbsolutePath() + EjbModuleIndex.SEPARATOR_NESTED + PATH_NESTED;
+      final VirtualFile root = mounts.getRoot(path);
+      Assert.assertEquals("Nested module should be resolved within its archive", VFS.getChild(
+            archive.getAbsolutePath()).getChild(PATH_NESTED), root);
+      Assert.assertTrue("Contents of the nested module should be readable", root.getChild(PATH_EJB_JAR_XML)
+            .exists());
+      Assert.assertEquals("Module should resolve to the same root when mounted again", root, mounts.getRoot(path));
+      Assert.assertEquals("Unmounted file should share the path name of the root", root.getPathName(), ModuleMounts
+            .getFile(path).getPathName());
+
+      mounts.close();
+      Assert.assertFalse("Nested module should be unmounted once closed", root.getChild(PATH_EJB_JAR_XML).exists());
+   }
+
+   /**
+    * Ensures that a module nested within an archive is extracted to temporary
+    * files in mounting, and that they're deleted when the mounts are closed
+    */
+   @Test
+   public void deletesExtractedModuleWhenClosed() throws IOException
+   {
+      final String path = archive.getAbsolutePath() + EjbModuleIndex.SEPARATOR_NESTED + PATH_NESTED;
+      final VirtualFile root = mounts.getRoot(path);
+      final File extracted = root.getPhysicalFile();
+      final File extractedDescriptor = root.getChild(PATH_EJB_JAR_XML).getPhysicalFile();
+      final String tempDir = new File(System.getProperty("java.io.tmpdir")).getCanonicalPath();
+      Assert.assertTrue("Nested module should have been extracted to a temporary file", extracted
+            .getCanonicalPath().startsWith(tempDir));
+      Assert.assertTrue("Contents of the nested module should have been extracted", extractedDescriptor.isFile());
+
+      mounts.close();
+      Assert.assertFalse("Extracted contents of the nested module should be deleted once closed",
+            extractedDescriptor.exists());
+      Assert.assertFalse("Extracted nested module should be deleted once closed", extracted.exists());
+   }
+
+   /**
+    * Ensures that a module on the ClassPath itself is resolved without mounting
+    */
+   @Test
+   public void resolvesModuleInPlace() throws IOException
+   {
+      final VirtualFile root = mounts.getRoot(archive.getAbsolutePath());
+      Assert.assertEquals("Module should be resolved in place", VFS.getChild(archive.getAbsolutePath()), root);
+      Assert.assertFalse("Module should not have been mounted", root.getChild(PATH_NESTED).exists());
+   }
+
+}
@@ -0,0 +1,169 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.ejb3.embedded.impl.base;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.ejb3.embedded.spi.scanner.EjbJarScanner;
+import org.jboss.ejb3.embedded.spi.scanner.EjbModuleListener;
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbModuleIndex;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Ensures that the {@link PipelinedScan} hands each module to its handler
+ * while the scan is still underway, and propagates failures of either
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class PipelinedScanUnitTest
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private static final EjbModuleIndex FIRST = new EjbModuleIndex("/first.jar", true, null);
+
+   private static final EjbModuleIndex SECOND = new EjbModuleIndex("/second.jar", true, null);
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures that a module is handled before the scan which discovered it
+    * has completed, the scan waiting upon its handling
+    */
+   @Test
+   public void handlesModulesBeforeScanCompletes()
+   {
+      final CountDownLatch firstHandled = new CountDownLatch(1);
+      final BlockingScanner scanner = new BlockingScanner(firstHandled);
+      final List<EjbModuleIndex> handled = new ArrayList<EjbModuleIndex>();
+      final Thread caller = Thread.currentThread();
+      final List<EjbModuleIndex> found = PipelinedScan.scan(scanner, false, new PipelinedScan.ModuleHandler()
+      {
+         public void modulesDiscovered(final List<EjbModuleIndex> modules)
+         {
+            Assert.assertSame("Modules should be handled upon the calling Thread", caller, Thread.currentThread());
+            handled.addAll(modules);
+            if (modules.contains(FIRST))
+            {
+               firstHandled.countDown();
+            }
+         }
+      });
+
+      Assert.assertTrue("First module should have been handled while the scan was underway",
+            scanner.firstHandledDuringScan);
+      Assert.assertEquals("All modules should be handled in order of discovery", Arrays.asList(FIRST, SECOND),
+            handled);
+      Assert.assertEquals(Arrays.asList(FIRST, SECOND), found);
+   }
+
+   /**
+    * Ensures that a failure in handling a module is propagated
+    */
+   @Test(expected = IllegalStateException.class)
+   public void propagatesHandlerFailure()
+   {
+      PipelinedScan.scan(new BlockingScanner(new CountDownLatch(1)), false, new PipelinedScan.ModuleHandler()
+      {
+         public void modulesDiscovered(final List<EjbModuleIndex> modules)
+         {
+            throw new IllegalStateException("Could not deploy");
+         }
+      });
+   }
+
+   /**
+    * Ensures that a failure in scanning is propagated
+    */
+   @Test(expected = UnsupportedOperationException.class)
+   public void propagatesScanFailure()
+   {
+      PipelinedScan.scan(new EjbJarScanner()
+      {
+         public List<EjbModuleIndex> scan(final boolean full, final EjbModuleListener listener)
+         {
+            throw new UnsupportedOperationException("Could not scan");
+         }
+
+         public void close()
+         {
+         }
+      }, false, new PipelinedScan.ModuleHandler()
+      {
+         public void modulesDiscovered(final List<EjbModuleIndex> modules)
+         {
+         }
+      });
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Scanner which reports its first module, then awaits its handling 
+    * before reporting the second
+    */
+   private static final class BlockingScanner implements EjbJarScanner
+   {
+      private final CountDownLatch firstHandled;
+
+      private volatile boolean firstHandledDuringScan;
+
+      BlockingScanner(final CountDownLatch firstHandled)
+      {
+         this.firstHandled = firstHandled;
+      }
+
+      public List<EjbModuleIndex> scan(final boolean full, final EjbModuleListener listener)
+      {
+         listener.moduleDiscovered(FIRST);
+         try
+         {
+            firstHandledDuringScan = firstHandled.await(5, TimeUnit.SECONDS);
+         }
+         catch (final InterruptedException ie)
+         {
+            Thread.currentThread().interrupt();
+         }
+         listener.moduleDiscovered(SECOND);
+         return Arrays.asList(FIRST, SECOND);
+      }
+
+      public void close()
+      {
+      }
+   }
+
+}
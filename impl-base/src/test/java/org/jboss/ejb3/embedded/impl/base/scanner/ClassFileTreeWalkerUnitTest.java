@@ -0,0 +1,185 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.scanner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Ensures that the {@link ClassFileTreeWalker} visits each class
+ * file beneath a directory with its relative path and contents
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class ClassFileTreeWalkerUnitTest
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Root of the tree under test
+    */
+   private File root;
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a tree of class files, other files and directories
+    */
+   @Before
+   public void createTree() throws IOException
+   {
+      root = File.createTempFile("walker", "");
+      root.delete();
+      new File(root, "com/acme/empty").mkdirs();
+      new File(root, "com/acme/odd.class").mkdirs();
+      new File(root, "org/other").mkdirs();
+      this.write(new File(root, "Default.class"), "default");
+      this.write(new File(root, "com/acme/Bean.class"), "bean");
+      this.write(new File(root, "com/acme/readme.txt"), "text");
+      this.write(new File(root, "com/acme/odd.class/Nested.class"), "nested");
+      // Larger than the initial buffer
+      this.write(new File(root, "org/other/Large.class"), new String(new char[20000]).replace('\0', 'x'));
+   }
+
+   /**
+    * Removes the tree
+    */
+   @After
+   public void deleteTree()
+   {
+      this.delete(root);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures that all class files are visited, and only class files
+    */
+   @Test
+   public void visitsAllClassFiles() throws IOException
+   {
+      final Map<String, String> visited = new HashMap<String, String>();
+      Assert.assertFalse("Walk should not have been stopped", new ClassFileTreeWalker(root).walk("",
+            this.createVisitor(visited, null)));
+
+      final Map<String, String> expected = new HashMap<String, String>();
+      expected.put("Default.class", "default");
+      expected.put("com/acme/Bean.class", "bean");
+      expected.put("com/acme/odd.class/Nested.class", "nested");
+      expected.put("org/other/Large.class", new String(new char[20000]).replace('\0', 'x'));
+      Assert.assertEquals("Class files visited not as expected", expected, visited);
+   }
+
+   /**
+    * Ensures that a walk may start beneath the root, and be stopped by the visitor
+    */
+   @Test
+   public void walksFromDirectoryUntilStopped() throws IOException
+   {
+      final ClassFileTreeWalker walker = new ClassFileTreeWalker(root);
+      final Map<String, String> visited = new HashMap<String, String>();
+      Assert.assertTrue("Walk should have been stopped", walker.walk("com/acme/", this.createVisitor(visited,
+            "com/acme/Bean.class")));
+      Assert.assertTrue(visited.containsKey("com/acme/Bean.class"));
+      Assert.assertFalse("Should not have walked outside the directory", visited.containsKey("Default.class"));
+
+      // Reusable, and tolerant of missing directories
+      visited.clear();
+      Assert.assertFalse(walker.walk("org/other", this.createVisitor(visited, null)));
+      Assert.assertEquals(1, visited.size());
+      Assert.assertFalse(walker.walk("net/missing/", this.createVisitor(visited, null)));
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a visitor recording the contents of each class file by path, 
+    * stopping at the specified path if any
+    */
+   private ClassFileTreeWalker.Visitor createVisitor(final Map<String, String> visited, final String stopAt)
+   {
+      return new ClassFileTreeWalker.Visitor()
+      {
+         public boolean visit(final CharSequence path, final ByteBuffer contents)
+         {
+            final byte[] bytes = new byte[contents.remaining()];
+            contents.get(bytes);
+            visited.put(path.toString(), new String(bytes));
+            return path.toString().equals(stopAt);
+         }
+      };
+   }
+
+   /**
+    * Writes the specified contents to the file
+    */
+   private void write(final File file, final String contents) throws IOException
+   {
+      final OutputStream out = new FileOutputStream(file);
+      try
+      {
+         out.write(contents.getBytes("UTF-8"));
+      }
+      finally
+      {
+         out.close();
+      }
+   }
+
+   /**
+    * Deletes the specified file, recursively
+    */
+   private void delete(final File file)
+   {
+      final File[] children = file.listFiles();
+      if (children != null)
+      {
+         for (final File child : children)
+         {
+            this.delete(child);
+         }
+      }
+      file.delete();
+   }
+
+}
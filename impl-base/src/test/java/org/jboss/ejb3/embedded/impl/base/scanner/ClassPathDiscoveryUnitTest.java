@@ -0,0 +1,196 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.scanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Ensures that the {@link ClassPathDiscovery} follows manifest
+ * references and URLClassLoaders, adding each file only once
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class ClassPathDiscoveryUnitTest
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Directory holding the entries under test
+    */
+   private File root;
+
+   /**
+    * Manifest-only JAR referencing the others
+    */
+   private File booter;
+
+   private File module;
+
+   private File classes;
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a booter JAR referencing a module JAR, which refers back to the booter, 
+    * and a directory of classes
+    */
+   @Before
+   public void createEntries() throws IOException
+   {
+      root = File.createTempFile("discovery", "");
+      root.delete();
+      classes = new File(root, "classes");
+      classes.mkdirs();
+      booter = new File(root, "booter.jar");
+      module = new File(root, "lib/module.jar");
+      module.getParentFile().mkdirs();
+      JarWriter.writeJar(booter, this.createManifest("lib/module.jar classes/ missing.jar"));
+      JarWriter.writeJar(module, this.createManifest("../booter.jar"));
+   }
+
+   /**
+    * Removes the entries
+    */
+   @After
+   public void deleteEntries()
+   {
+      module.delete();
+      module.getParentFile().delete();
+      booter.delete();
+      classes.delete();
+      root.delete();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures that manifest references directly follow the JAR referencing them,
+    * and that files reached again, by any path, are not added twice
+    */
+   @Test
+   public void followsManifestClassPath() throws IOException
+   {
+      final ClassPathDiscovery discovery = new ClassPathDiscovery(true);
+      final String alias = new File(classes, "../booter.jar").getPath();
+      discovery.addClassPath(booter.getPath() + File.pathSeparator + alias);
+      Assert.assertEquals(Arrays.asList(booter.getPath(), module.getCanonicalPath(), classes.getCanonicalPath(),
+            new File(root, "missing.jar").getCanonicalPath()), discovery.getEntries());
+   }
+
+   /**
+    * Ensures that the manifest references of JARs are cached, and taken from 
+    * the cache rather than read while the JARs are unchanged
+    */
+   @Test
+   public void takesManifestClassPathFromCache() throws IOException
+   {
+      final File cacheDir = new File(root, "cache");
+      try
+      {
+         final ScanResultCache cache = new ScanResultCache(cacheDir, false);
+         new ClassPathDiscovery(true, cache).addClassPath(booter.getPath());
+         Assert.assertEquals("Manifest reference should have been cached", "lib/module.jar classes/ missing.jar",
+               cache.getClassPath(booter));
+
+         cache.putClassPath(booter, "classes/");
+         final ClassPathDiscovery discovery = new ClassPathDiscovery(true, cache);
+         discovery.addClassPath(booter.getPath());
+         Assert.assertEquals("Cached manifest reference should have been followed", Arrays.asList(booter.getPath(),
+               classes.getCanonicalPath()), discovery.getEntries());
+      }
+      finally
+      {
+         final File[] files = cacheDir.listFiles();
+         for (int i = 0; files != null && i < files.length; i++)
+         {
+            files[i].delete();
+         }
+         cacheDir.delete();
+      }
+   }
+
+   /**
+    * Ensures that manifest references are not followed unless so configured
+    */
+   @Test
+   public void ignoresManifestClassPathUnlessFollowing()
+   {
+      final ClassPathDiscovery discovery = new ClassPathDiscovery(false);
+      discovery.addClassPath(booter.getPath() + File.pathSeparator + booter.getPath());
+      Assert.assertEquals(Arrays.asList(booter.getPath()), discovery.getEntries());
+   }
+
+   /**
+    * Ensures that the URLs of URLClassLoaders are added, parents first, 
+    * excluding those of the stopping ancestor
+    */
+   @Test
+   public void addsClassLoaderUrls() throws IOException
+   {
+      final URLClassLoader stop = new URLClassLoader(new URL[]
+      {new URL("file:/stop.jar")}, null);
+      final URLClassLoader parent = new URLClassLoader(new URL[]
+      {classes.toURI().toURL(), new URL("http://example.com/remote.jar")}, stop);
+      final URLClassLoader child = new URLClassLoader(new URL[]
+      {module.toURI().toURL()}, parent);
+      final ClassPathDiscovery discovery = new ClassPathDiscovery(false);
+      discovery.addClassLoader(child, stop);
+      Assert.assertEquals(Arrays.asList(classes.getCanonicalPath(), module.getCanonicalPath()), discovery
+            .getEntries());
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a manifest with the specified Class-Path header
+    */
+   private Manifest createManifest(final String classPath)
+   {
+      final Manifest manifest = new Manifest();
+      manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+      manifest.getMainAttributes().put(Attributes.Name.CLASS_PATH, classPath);
+      return manifest;
+   }
+
+}
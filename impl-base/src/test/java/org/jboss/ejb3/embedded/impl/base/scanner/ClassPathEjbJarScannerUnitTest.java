@@ -24,25 +24,42 @@ package org.jboss.ejb3.embedded.impl.base.scanner;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 
 import javax.ejb.MessageDriven;
 import javax.ejb.Singleton;
 import javax.ejb.Stateful;
 import javax.ejb.Stateless;
 
+import org.jboss.ejb3.embedded.spi.scanner.EjbModuleListener;
+import org.jboss.ejb3.embedded.spi.scanner.filter.ClassPathEntry;
+import org.jboss.ejb3.embedded.spi.scanner.filter.PreMountExclusionFilter;
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbComponentMetadata;
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbComponentType;
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbModuleIndex;
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbModuleIndexFile;
 import org.jboss.logging.Logger;
 import org.jboss.shrinkwrap.api.ShrinkWrap;
 import org.jboss.shrinkwrap.api.asset.Asset;
+import org.jboss.shrinkwrap.api.asset.StringAsset;
 import org.jboss.shrinkwrap.api.exporter.ExplodedExporter;
 import org.jboss.shrinkwrap.api.exporter.ZipExporter;
 import org.jboss.shrinkwrap.api.spec.JavaArchive;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.jboss.vfs.VirtualFile;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -75,13 +92,18 @@ public class ClassPathEjbJarScannerUnitTest
    /**
     * The ClassPath entries expected to be reported as modules
     */
-   private static final Collection<String> expectedEjbJarClassPathEntries = new ArrayList<String>();
+   private static final List<String> expectedEjbJarClassPathEntries = new ArrayList<String>();
 
    /**
     * Name of a JAR containing a POJO deployment
     */
    private static final String NAME_JAR_POJO = "pojo.jar";
 
+   /**
+    * Name of a JAR containing an EJB, but with an index marking it as having none
+    */
+   private static final String NAME_JAR_INDEXED_NO_EJBS = "indexedNoEjbs.jar";
+
    //-------------------------------------------------------------------------------------||
    // Lifecycle --------------------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
@@ -182,6 +204,421 @@ public class ClassPathEjbJarScannerUnitTest
 
    }
 
+   /**
+    * Tests that EJB Modules found by scanning concurrently are reported
+    * in ClassPath order
+    */
+   @Test
+   public void obtainsEjbJarModulesInClassPathOrderWhenScanningConcurrently()
+   {
+      // Scan using several threads
+      final Map<String, String> properties = new HashMap<String, String>();
+      properties.put(ScannerConfiguration.PROPERTY_THREADS, "4");
+      final List<String> ejbModulesFromClassPath = Arrays.asList(ClassPathEjbJarScanner
+            .getEjbJars(new ScannerConfiguration(properties)));
+
+      // Ensure all expected modules are found, in order
+      Assert.assertEquals("EJB Modules found on ClassPath concurrently were not as expected in ClassPath order",
+            expectedEjbJarClassPathEntries, ejbModulesFromClassPath);
+   }
+
+   /**
+    * Tests that indexing the EJB Modules on the ClassPath finds the same modules, 
+    * and lists the components within them
+    */
+   @Test
+   public void indexesComponentsOfEjbJarModules()
+   {
+      // Index the modules on the ClassPath
+      final List<EjbModuleIndex> indexes = ClassPathEjbJarScanner.getEjbModuleIndexes(new ScannerConfiguration());
+
+      // Ensure all expected modules are found, in order
+      final List<String> paths = new ArrayList<String>();
+      int slsbs = 0;
+      for (final EjbModuleIndex index : indexes)
+      {
+         paths.add(index.getPath());
+         for (final EjbComponentMetadata component : index.getComponents())
+         {
+            if (Slsb.class.getName().equals(component.getClassName()))
+            {
+               Assert.assertEquals(EjbComponentType.STATELESS, component.getType());
+               slsbs++;
+            }
+         }
+      }
+      Assert.assertEquals("EJB Modules indexed were not as expected in ClassPath order",
+            expectedEjbJarClassPathEntries, paths);
+
+      // Once in the JAR, once exploded
+      Assert.assertEquals("Component not indexed in each module containing it", 2, slsbs);
+   }
+
+   /**
+    * Tests that the index written into a module at build time is trusted over the
+    * classes actually present, regardless of the package scope, unless so configured
+    */
+   @Test
+   public void trustsIndexesOverClasses() throws Exception
+   {
+      final JavaArchive indexed = ShrinkWrap.create(JavaArchive.class, "indexed.jar").addClass(Pojo.class)
+            .addResource(createIndex(Pojo.class.getName()), EjbModuleIndexFile.PATH);
+      final JavaArchive indexedNoEjbs = ShrinkWrap.create(JavaArchive.class, NAME_JAR_INDEXED_NO_EJBS).addClass(
+            Slsb.class).addResource(createIndex(), EjbModuleIndexFile.PATH);
+      final File directory = new File(new URL(ClassPathEjbJarScannerUnitTest.class.getProtectionDomain()
+            .getCodeSource().getLocation(), "../shrinkwrap/indexed").toURI());
+      directory.mkdirs();
+      final List<String> entries = new ArrayList<String>();
+      for (final JavaArchive archive : Arrays.asList(indexed, indexedNoEjbs))
+      {
+         final File jar = new File(directory, archive.getName());
+         archive.as(ZipExporter.class).exportZip(jar, true);
+         entries.add(jar.getAbsolutePath());
+         final File exploded = new File(directory, "exploded");
+         archive.as(ExplodedExporter.class).exportExploded(exploded);
+         entries.add(new File(exploded, archive.getName()).getAbsolutePath());
+      }
+      final StringBuilder sb = new StringBuilder();
+      for (final String entry : entries)
+      {
+         sb.append(entry).append(File.pathSeparatorChar);
+      }
+
+      final String classPath = System.getProperty(SYS_PROP_KEY_CLASS_PATH);
+      System.setProperty(SYS_PROP_KEY_CLASS_PATH, sb.toString());
+      try
+      {
+         // Each as a JAR and exploded
+         Assert.assertEquals("Modules should be found by their indexes alone", entries.subList(0, 2), Arrays
+               .asList(ClassPathEjbJarScanner.getEjbJars(new ScannerConfiguration())));
+
+         final Map<String, String> properties = new HashMap<String, String>();
+         properties.put(ScannerConfiguration.PROPERTY_PACKAGES, "com.acme");
+         Assert.assertEquals("Indexes should be trusted outside the package scope", entries.subList(0, 2), Arrays
+               .asList(ClassPathEjbJarScanner.getEjbJars(new ScannerConfiguration(properties))));
+
+         properties.clear();
+         properties.put(ScannerConfiguration.PROPERTY_USE_INDEX, Boolean.FALSE.toString());
+         Assert.assertEquals("Classes should be inspected if indexes are not to be used", entries.subList(2, 4),
+               Arrays.asList(ClassPathEjbJarScanner.getEjbJars(new ScannerConfiguration(properties))));
+      }
+      finally
+      {
+         System.setProperty(SYS_PROP_KEY_CLASS_PATH, classPath);
+      }
+   }
+
+   /**
+    * Tests that a listener is notified of each EJB Module as it is 
+    * discovered, and that all modules are still reported once scanning
+    * completes
+    */
+   @Test
+   public void notifiesListenerOfEachModuleDiscovered()
+   {
+      final Map<String, String> properties = new HashMap<String, String>();
+      properties.put(ScannerConfiguration.PROPERTY_THREADS, "4");
+      final ClassPathEjbJarScanner scanner = new ClassPathEjbJarScanner(new ScannerConfiguration(properties));
+      final List<String> discovered = new ArrayList<String>();
+      final List<EjbModuleIndex> indexes;
+      try
+      {
+         indexes = scanner.scan(new EjbModuleListener()
+         {
+            public void moduleDiscovered(final EjbModuleIndex module)
+            {
+               discovered.add(module.getPath());
+            }
+         });
+      }
+      finally
+      {
+         scanner.close();
+      }
+
+      // Discovery order is not defined when scanning concurrently
+      Assert.assertEquals("Listener was not notified of each module exactly once", new HashSet<String>(
+            expectedEjbJarClassPathEntries), new HashSet<String>(discovered));
+      Assert.assertEquals("Listener was not notified of each module exactly once", expectedEjbJarClassPathEntries
+            .size(), discovered.size());
+      Assert.assertEquals("Modules reported once scanning completes not as expected", expectedEjbJarClassPathEntries
+            .size(), indexes.size());
+   }
+
+   /**
+    * Tests that statistics are recorded for each ClassPath entry, in 
+    * ClassPath order, with verdicts agreeing with the modules reported
+    */
+   @Test
+   public void recordsStatisticsOfEachEntry()
+   {
+      final ClassPathEjbJarScanner scanner = new ClassPathEjbJarScanner(new ScannerConfiguration());
+      final List<String> ejbModulesFromClassPath;
+      final ScanStatistics statistics;
+      try
+      {
+         Assert.assertNull("No statistics should be recorded before scanning", scanner.getStatistics());
+         ejbModulesFromClassPath = Arrays.asList(scanner.findEjbJars());
+         statistics = scanner.getStatistics();
+      }
+      finally
+      {
+         scanner.close();
+      }
+      log.info(statistics.toJson());
+
+      // Every entry is accounted for, in order
+      final String[] classPathEntries = System.getProperty(SYS_PROP_KEY_CLASS_PATH).split(File.pathSeparator);
+      Assert.assertEquals("Statistics not recorded for each ClassPath entry", classPathEntries.length, statistics
+            .getEntries().size());
+      final List<String> ejbJars = new ArrayList<String>();
+      for (int i = 0; i < classPathEntries.length; i++)
+      {
+         final EntryScanStatistics entry = statistics.getEntries().get(i);
+         Assert.assertEquals("Statistics not in ClassPath order", classPathEntries[i], entry.getPath());
+         if (entry.getVerdict() == EntryScanStatistics.Verdict.EJB_JAR)
+         {
+            ejbJars.add(entry.getPath());
+         }
+      }
+      Assert.assertEquals("Verdicts recorded do not agree with the modules found", ejbModulesFromClassPath, ejbJars);
+      Assert.assertTrue("Class files should have been inspected", statistics.getClassesInspected() > 0);
+   }
+
+   /**
+    * Tests that only classes within the configured packages are inspected, while
+    * modules bearing a descriptor or index are found regardless
+    */
+   @Test
+   public void inspectsOnlyClassesInPackageScope()
+   {
+      // All test components are within the package of this test
+      final Map<String, String> properties = new HashMap<String, String>();
+      properties.put(ScannerConfiguration.PROPERTY_PACKAGES, "org.jboss.ejb3.embedded");
+      Assert.assertEquals("EJB Modules found within the package scope not as expected",
+            expectedEjbJarClassPathEntries, Arrays.asList(ClassPathEjbJarScanner.getEjbJars(new ScannerConfiguration(
+                  properties))));
+
+      // No classes are within another package
+      properties.put(ScannerConfiguration.PROPERTY_PACKAGES, "com.acme,org.jboss.ejb3.embedded.impl.base.scanner.none");
+      final ClassPathEjbJarScanner scanner = new ClassPathEjbJarScanner(new ScannerConfiguration(properties));
+      final List<String> ejbModulesFromClassPath;
+      try
+      {
+         ejbModulesFromClassPath = Arrays.asList(scanner.findEjbJars());
+         Assert.assertEquals("No class files should have been inspected outside the package scope", 0, scanner
+               .getStatistics().getClassesInspected());
+      }
+      finally
+      {
+         scanner.close();
+      }
+
+      // Only that with a descriptor, as a JAR and exploded
+      Assert.assertEquals("EJB Modules found outside the package scope not as expected", 2,
+            ejbModulesFromClassPath.size());
+   }
+
+   /**
+    * Tests that WARs and JARs nested within archives are scanned as modules 
+    * of their own when so configured
+    */
+   @Test
+   public void scansNestedArchives() throws Exception
+   {
+      // A WAR with components in its classes and in a library, and a JAR of JARs with one module
+      final JavaArchive library = ShrinkWrap.create(JavaArchive.class, "library.jar").addClass(Slsb.class);
+      final WebArchive war = ShrinkWrap.create(WebArchive.class, "nested.war").addClass(Sfsb.class).addLibrary(
+            library);
+      final JavaArchive fatJar = ShrinkWrap.create(JavaArchive.class, "fat.jar").addClass(Pojo.class).add(
+            library, "lib").add(ShrinkWrap.create(JavaArchive.class, NAME_JAR_POJO).addClass(Pojo.class), "lib");
+      final File directory = new File(new URL(ClassPathEjbJarScannerUnitTest.class.getProtectionDomain()
+            .getCodeSource().getLocation(), "../shrinkwrap/nested").toURI());
+      directory.mkdirs();
+      final File warFile = new File(directory, war.getName());
+      final File fatJarFile = new File(directory, fatJar.getName());
+      war.as(ZipExporter.class).exportZip(warFile, true);
+      fatJar.as(ZipExporter.class).exportZip(fatJarFile, true);
+
+      final String classPath = System.getProperty(SYS_PROP_KEY_CLASS_PATH);
+      System.setProperty(SYS_PROP_KEY_CLASS_PATH, warFile + File.pathSeparator + fatJarFile);
+      try
+      {
+         // Nested archives are ignored unless so configured
+         Assert.assertEquals("No modules should be found without scanning nested archives", 0,
+               ClassPathEjbJarScanner.getEjbJars(new ScannerConfiguration()).length);
+
+         final Map<String, String> properties = new HashMap<String, String>();
+         properties.put(ScannerConfiguration.PROPERTY_NESTED, Boolean.TRUE.toString());
+         final List<EjbModuleIndex> modules = ClassPathEjbJarScanner.getEjbModuleIndexes(new ScannerConfiguration(
+               properties));
+         final List<String> paths = new ArrayList<String>();
+         for (final EjbModuleIndex module : modules)
+         {
+            paths.add(module.getPath());
+         }
+         Assert.assertEquals("Nested modules not as expected", Arrays.asList(warFile.getPath(), warFile
+               + "!/WEB-INF/lib/library.jar", fatJarFile + "!/lib/library.jar"), paths);
+         Assert.assertEquals(Sfsb.class.getName(), modules.get(0).getComponents().get(0).getClassName());
+         Assert.assertEquals(Slsb.class.getName(), modules.get(2).getComponents().get(0).getClassName());
+      }
+      finally
+      {
+         System.setProperty(SYS_PROP_KEY_CLASS_PATH, classPath);
+      }
+   }
+
+   /**
+    * Tests that entries excluded by configuration are found once the
+    * exclusion is lifted, though verdicts are cached
+    */
+   @Test
+   public void cachedVerdictsDoNotOutliveExclusions() throws Exception
+   {
+      final File cacheDir = new File(new URL(ClassPathEjbJarScannerUnitTest.class.getProtectionDomain()
+            .getCodeSource().getLocation(), "../shrinkwrap/cache").toURI());
+      rm(cacheDir);
+      final Map<String, Object> properties = new HashMap<String, Object>();
+      properties.put(ScannerConfiguration.PROPERTY_CACHE_DIR, cacheDir.getPath());
+      final PreMountExclusionFilter excludeAll = new PreMountExclusionFilter()
+      {
+         public boolean exclude(final ClassPathEntry entry)
+         {
+            return true;
+         }
+
+         public boolean exclude(final VirtualFile file)
+         {
+            return true;
+         }
+      };
+      properties.put(ScannerConfiguration.PROPERTY_EXCLUDE_FILTERS, Collections.singletonList(excludeAll));
+      Assert.assertEquals("All entries should have been excluded", 0, ClassPathEjbJarScanner
+            .getEjbJars(new ScannerConfiguration(properties)).length);
+
+      properties.remove(ScannerConfiguration.PROPERTY_EXCLUDE_FILTERS);
+      Assert.assertEquals("EJB Modules should be found once no longer excluded", expectedEjbJarClassPathEntries,
+            Arrays.asList(ClassPathEjbJarScanner.getEjbJars(new ScannerConfiguration(properties))));
+   }
+
+   /**
+    * Tests that a JAR prefixed with a launcher stub, which can't be read in
+    * place once mapped, is read instead via {@link java.util.zip.ZipFile}
+    */
+   @Test
+   public void scansPrefixedJarMapped() throws Exception
+   {
+      // Prefix a JAR without adjusting its offsets, as would "cat stub.sh app.jar > app"
+      final JavaArchive archive = ShrinkWrap.create(JavaArchive.class, "prefixed.jar").addClass(Slsb.class)
+            .addClass(Sfsb.class);
+      final File directory = new File(new URL(ClassPathEjbJarScannerUnitTest.class.getProtectionDomain()
+            .getCodeSource().getLocation(), "../shrinkwrap/prefixed").toURI());
+      directory.mkdirs();
+      final File jar = new File(directory, archive.getName());
+      final OutputStream out = new FileOutputStream(jar);
+      try
+      {
+         out.write("#!/bin/sh\nexec java -jar \"$0\" \"$@\"\n".getBytes("US-ASCII"));
+         final InputStream in = archive.as(ZipExporter.class).exportZip();
+         try
+         {
+            final byte[] buffer = new byte[4096];
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer))
+            {
+               out.write(buffer, 0, read);
+            }
+         }
+         finally
+         {
+            in.close();
+         }
+      }
+      finally
+      {
+         out.close();
+      }
+
+      final String classPath = System.getProperty(SYS_PROP_KEY_CLASS_PATH);
+      System.setProperty(SYS_PROP_KEY_CLASS_PATH, jar.getPath());
+      try
+      {
+         // Map regardless of size
+         final Map<String, String> properties = new HashMap<String, String>();
+         properties.put(ScannerConfiguration.PROPERTY_MAPPED_THRESHOLD, "0");
+         properties.put(ScannerConfiguration.PROPERTY_THREADS, "1");
+         final List<EjbModuleIndex> modules = ClassPathEjbJarScanner.getEjbModuleIndexes(new ScannerConfiguration(
+               properties));
+         Assert.assertEquals("Prefixed JAR not found as a module", 1, modules.size());
+         Assert.assertEquals(jar.getPath(), modules.get(0).getPath());
+         Assert.assertEquals("Components of prefixed JAR should each be found once", 2, modules.get(0)
+               .getComponents().size());
+      }
+      finally
+      {
+         System.setProperty(SYS_PROP_KEY_CLASS_PATH, classPath);
+      }
+   }
+
+   /**
+    * Tests that the key under which results are shared among JVMs is the same for
+    * equally-configured scanners, each with their own instances of further filters
+    */
+   @Test
+   public void sharedResultKeyIsEqualAcrossScanners()
+   {
+      final Map<String, String> properties = new HashMap<String, String>();
+      properties.put(ScannerConfiguration.PROPERTY_EXCLUDE_FILTERS, ExcludeNothingFilter.class.getName());
+      final String[] classPathEntries = expectedEjbJarClassPathEntries.toArray(new String[0]);
+      final ClassPathEjbJarScanner scanner = new ClassPathEjbJarScanner(new ScannerConfiguration(properties));
+      final ClassPathEjbJarScanner other = new ClassPathEjbJarScanner(new ScannerConfiguration(properties));
+      try
+      {
+         Assert.assertEquals("Equally-configured scanners should share results", scanner.getSharedResultKey(
+               classPathEntries, true), other.getSharedResultKey(classPathEntries, true));
+      }
+      finally
+      {
+         scanner.close();
+         other.close();
+      }
+   }
+
+   /**
+    * Tests that cached verdicts are not shared between scanners which do and
+    * do not consult the prebuilt indexes of modules
+    */
+   @Test
+   public void cacheScopeDistinguishesUseOfIndexes()
+   {
+      final ClassPathEjbJarScanner indexed = new ClassPathEjbJarScanner(new ScannerConfiguration(Collections
+            .singletonMap(ScannerConfiguration.PROPERTY_USE_INDEX, "true")));
+      final ClassPathEjbJarScanner unindexed = new ClassPathEjbJarScanner(new ScannerConfiguration(Collections
+            .singletonMap(ScannerConfiguration.PROPERTY_USE_INDEX, "false")));
+      try
+      {
+         Assert.assertFalse("Use of indexes should bear upon the cache scope", indexed.getCacheScope().equals(
+               unindexed.getCacheScope()));
+      }
+      finally
+      {
+         indexed.close();
+         unindexed.close();
+      }
+   }
+
+   /**
+    * Tests that a scanner may not be used once closed, though
+    * may be closed repeatedly
+    */
+   @Test(expected = IllegalStateException.class)
+   public void closedScannerMayNotScan()
+   {
+      final ClassPathEjbJarScanner scanner = new ClassPathEjbJarScanner(new ScannerConfiguration());
+      scanner.close();
+      scanner.close();
+      scanner.findEjbJars();
+   }
+
    //-------------------------------------------------------------------------------------||
    // Internal Helper Methods ------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
@@ -203,6 +640,35 @@ public class ClassPathEjbJarScannerUnitTest
       file.delete();
    }
 
+   /**
+    * Creates an EJB module index listing the specified component classes
+    * @param classNames
+    * @return
+    * @throws IOException
+    */
+   private static Asset createIndex(final String... classNames) throws IOException
+   {
+      final StringWriter writer = new StringWriter();
+      EjbModuleIndexFile.write(Arrays.asList(classNames), writer);
+      return new StringAsset(writer.toString());
+   }
+
+   /**
+    * Filter excluding nothing, configured by class name
+    */
+   public static final class ExcludeNothingFilter implements PreMountExclusionFilter
+   {
+      public boolean exclude(final ClassPathEntry entry)
+      {
+         return false;
+      }
+
+      public boolean exclude(final VirtualFile file)
+      {
+         return false;
+      }
+   }
+
    /*
     * Test EJB Component Classes
     */
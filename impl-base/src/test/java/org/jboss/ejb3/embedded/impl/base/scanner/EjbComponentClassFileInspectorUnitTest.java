@@ -0,0 +1,268 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.scanner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.ejb.Local;
+import javax.ejb.LocalBean;
+import javax.ejb.MessageDriven;
+import javax.ejb.Remote;
+import javax.ejb.Singleton;
+import javax.ejb.Stateful;
+import javax.ejb.Stateless;
+
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbComponentMetadata;
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbComponentType;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Ensures that the {@link EjbComponentClassFileInspector} correctly
+ * identifies EJB component-defining annotations and business
+ * interfaces from class file bytes alone
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class EjbComponentClassFileInspectorUnitTest
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures each of the component-defining annotations is detected
+    */
+   @Test
+   public void detectsComponentTypes() throws IOException
+   {
+      Assert.assertEquals(EjbComponentType.STATELESS, this.inspect(Slsb.class));
+      Assert.assertEquals(EjbComponentType.STATEFUL, this.inspect(Sfsb.class));
+      Assert.assertEquals(EjbComponentType.SINGLETON, this.inspect(Singleton1.class));
+      Assert.assertEquals(EjbComponentType.MESSAGE_DRIVEN, this.inspect(Mdb.class));
+   }
+
+   /**
+    * Ensures that classes without a component-defining annotation are not reported
+    */
+   @Test
+   public void ignoresNonComponents() throws IOException
+   {
+      Assert.assertNull("POJO should not be reported as an EJB", this.inspect(Pojo.class));
+   }
+
+   /**
+    * Ensures that referencing an annotation type from within a class (so its descriptor
+    * appears in the constant pool) does not alone qualify the class as a component
+    */
+   @Test
+   public void ignoresReferenceOutsideClassAnnotations() throws IOException
+   {
+      Assert.assertNull("Class referencing an EJB annotation type should not be reported as an EJB", this
+            .inspect(AnnotationReferencer.class));
+   }
+
+   /**
+    * Ensures that the caller's buffer position is not changed by inspection
+    */
+   @Test
+   public void doesNotAlterBufferPosition() throws IOException
+   {
+      final ByteBuffer buffer = ByteBuffer.wrap(this.read(Slsb.class));
+      Assert.assertEquals(EjbComponentType.STATELESS, EjbComponentClassFileInspector.getComponentType(buffer));
+      Assert.assertEquals("Position of the buffer should not be altered", 0, buffer.position());
+   }
+
+   /**
+    * Ensures that business interfaces declared upon the bean class are read
+    */
+   @Test
+   public void readsDeclaredBusinessInterfaces() throws IOException
+   {
+      final EjbComponentMetadata component = this.inspectComponent(DeclaredViewsBean.class);
+      Assert.assertEquals(DeclaredViewsBean.class.getName(), component.getClassName());
+      Assert.assertEquals(EjbComponentType.STATEFUL, component.getType());
+      Assert.assertEquals(Arrays.asList(LocalBusiness.class.getName()), component.getLocalBusinessInterfaces());
+      Assert.assertEquals(Arrays.asList(RemoteBusiness.class.getName()), component.getRemoteBusinessInterfaces());
+      Assert.assertTrue("@LocalBean should designate a no-interface view", component.isNoInterfaceView());
+   }
+
+   /**
+    * Ensures that a single implemented interface defaults to the local business
+    * interface, disregarding those which may never be business interfaces
+    */
+   @Test
+   public void defaultsSingleInterfaceToLocal() throws IOException
+   {
+      final EjbComponentMetadata component = this.inspectComponent(DefaultLocalBean.class);
+      Assert.assertEquals(Arrays.asList(LocalBusiness.class.getName()), component.getLocalBusinessInterfaces());
+      Assert.assertEquals(Collections.emptyList(), component.getRemoteBusinessInterfaces());
+      Assert.assertFalse("Bean with a business interface has no default no-interface view", component
+            .isNoInterfaceView());
+   }
+
+   /**
+    * Ensures that a bean implementing no interfaces defaults to a no-interface view,
+    * and that the name of a nested class is given in binary form
+    */
+   @Test
+   public void defaultsNoInterfaceView() throws IOException
+   {
+      final EjbComponentMetadata component = this.inspectComponent(Slsb.class);
+      Assert.assertEquals(Slsb.class.getName(), component.getClassName());
+      Assert.assertTrue("Bean without interfaces should have a no-interface view", component.isNoInterfaceView());
+      Assert.assertNull("POJO should not be reported as an EJB", this.inspectComponent(Pojo.class));
+   }
+
+   /**
+    * Ensures that input which is not a class file is rejected
+    */
+   @Test(expected = IllegalArgumentException.class)
+   public void rejectsMalformedClassFile()
+   {
+      EjbComponentClassFileInspector.getComponentType(ByteBuffer.wrap(new byte[]
+      {(byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE, 0, 0}));
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Runs the class file of the specified type through the inspector
+    */
+   private EjbComponentType inspect(final Class<?> clazz) throws IOException
+   {
+      return EjbComponentClassFileInspector.getComponentType(ByteBuffer.wrap(this.read(clazz)));
+   }
+
+   /**
+    * Runs the class file of the specified type through the inspector, obtaining full metadata
+    */
+   private EjbComponentMetadata inspectComponent(final Class<?> clazz) throws IOException
+   {
+      return EjbComponentClassFileInspector.getComponent(ByteBuffer.wrap(this.read(clazz)));
+   }
+
+   /**
+    * Reads the class file of the specified type
+    */
+   private byte[] read(final Class<?> clazz) throws IOException
+   {
+      final String resourceName = clazz.getName().replace('.', '/') + ".class";
+      final InputStream in = clazz.getClassLoader().getResourceAsStream(resourceName);
+      Assert.assertNotNull("Could not find class file " + resourceName, in);
+      try
+      {
+         final ByteArrayOutputStream out = new ByteArrayOutputStream();
+         final byte[] buffer = new byte[1024];
+         int read = 0;
+         while ((read = in.read(buffer)) != -1)
+         {
+            out.write(buffer, 0, read);
+         }
+         return out.toByteArray();
+      }
+      finally
+      {
+         in.close();
+      }
+   }
+
+   /*
+    * Test Classes
+    */
+
+   @Stateless
+   private static final class Slsb
+   {
+
+   }
+
+   @Stateful
+   private static final class Sfsb
+   {
+
+   }
+
+   @Singleton
+   private static final class Singleton1
+   {
+
+   }
+
+   @MessageDriven
+   private static final class Mdb
+   {
+
+   }
+
+   private static final class Pojo
+   {
+
+   }
+
+   private static interface LocalBusiness
+   {
+
+   }
+
+   private static interface RemoteBusiness
+   {
+
+   }
+
+   @Stateful
+   @Local(LocalBusiness.class)
+   @Remote(
+   {RemoteBusiness.class})
+   @LocalBean
+   private static final class DeclaredViewsBean implements LocalBusiness, RemoteBusiness
+   {
+
+   }
+
+   @Stateless
+   private static final class DefaultLocalBean implements Serializable, LocalBusiness
+   {
+      private static final long serialVersionUID = 1L;
+   }
+
+   /**
+    * Declares a field of an annotation type, so the annotation's descriptor
+    * is in the constant pool though the class is not annotated
+    */
+   private static final class AnnotationReferencer
+   {
+      @SuppressWarnings("unused")
+      private Stateless stateless;
+   }
+}
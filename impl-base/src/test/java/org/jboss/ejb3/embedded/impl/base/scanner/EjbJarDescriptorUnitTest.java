@@ -0,0 +1,155 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.ejb3.embedded.impl.base.scanner;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbComponentMetadata;
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbComponentType;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Ensures that the {@link EjbJarDescriptor} reads whether descriptors are 
+ * metadata-complete and the beans they declare, reading no further than needed
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class EjbJarDescriptorUnitTest
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Root element of an EJB 3.1 descriptor, lacking its closing angle bracket
+    */
+   private static final String ROOT_31 = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+         + "<ejb-jar xmlns=\"http://java.sun.com/xml/ns/javaee\" version=\"3.1\"";
+
+   /**
+    * Beans of a descriptor
+    */
+   private static final String ENTERPRISE_BEANS = "<enterprise-beans>" //
+         + "<session><ejb-name>A</ejb-name><business-local>com.acme.ALocal</business-local>"
+         + "<business-remote>com.acme.ARemote</business-remote><ejb-class> com.acme.A </ejb-class>"
+         + "<session-type>Stateless</session-type></session>" //
+         + "<session><ejb-name>B</ejb-name><local-bean/><ejb-class>com.acme.B</ejb-class>"
+         + "<session-type>Singleton</session-type></session>" //
+         + "<session><ejb-name>C</ejb-name><ejb-class>com.acme.C</ejb-class></session>" //
+         + "<message-driven><ejb-name>D</ejb-name><ejb-class>com.acme.D</ejb-class></message-driven>"
+         + "</enterprise-beans>";
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures that a metadata-complete descriptor yields the beans of known type it 
+    * declares, and is read no further than them
+    */
+   @Test
+   public void readsBeansOfMetadataCompleteDescriptor() throws IOException
+   {
+      final EjbJarDescriptor descriptor = EjbJarDescriptor.read(stream(ROOT_31 + " metadata-complete=\"true\">"
+            + ENTERPRISE_BEANS + "<assembly-descriptor><unclosed></ejb-jar>"), false);
+      Assert.assertTrue(descriptor.isMetadataComplete());
+
+      final List<EjbComponentMetadata> components = descriptor.getComponents();
+      Assert.assertEquals("Bean without session type should be skipped", 3, components.size());
+      final EjbComponentMetadata a = components.get(0);
+      Assert.assertEquals("com.acme.A", a.getClassName());
+      Assert.assertEquals(EjbComponentType.STATELESS, a.getType());
+      Assert.assertEquals(Collections.singletonList("com.acme.ALocal"), a.getLocalBusinessInterfaces());
+      Assert.assertEquals(Collections.singletonList("com.acme.ARemote"), a.getRemoteBusinessInterfaces());
+      Assert.assertFalse(a.isNoInterfaceView());
+      final EjbComponentMetadata b = components.get(1);
+      Assert.assertEquals(EjbComponentType.SINGLETON, b.getType());
+      Assert.assertTrue(b.isNoInterfaceView());
+      Assert.assertEquals(EjbComponentType.MESSAGE_DRIVEN, components.get(2).getType());
+   }
+
+   /**
+    * Ensures that the beans of a descriptor which isn't metadata-complete are read
+    * only if wanted
+    */
+   @Test
+   public void readsBeansOfOtherDescriptorOnlyIfWanted() throws IOException
+   {
+      final String xml = ROOT_31 + ">" + ENTERPRISE_BEANS + "</ejb-jar>";
+      final EjbJarDescriptor rootOnly = EjbJarDescriptor.read(stream(xml), false);
+      Assert.assertFalse(rootOnly.isMetadataComplete());
+      Assert.assertTrue(rootOnly.getComponents().isEmpty());
+
+      final EjbJarDescriptor full = EjbJarDescriptor.read(stream(xml), true);
+      Assert.assertFalse(full.isMetadataComplete());
+      Assert.assertEquals(3, full.getComponents().size());
+
+      Assert.assertFalse(EjbJarDescriptor.read(stream(ROOT_31 + " metadata-complete=\"false\"/>"), false)
+            .isMetadataComplete());
+   }
+
+   /**
+    * Ensures that descriptors prior to EJB 3.0 are metadata-complete, without
+    * their DTD being resolved
+    */
+   @Test
+   public void treatsDescriptorsBeforeEjb3AsMetadataComplete() throws IOException
+   {
+      for (final String xml : Arrays.asList(
+            "<ejb-jar xmlns=\"http://java.sun.com/xml/ns/j2ee\" version=\"2.1\"/>",
+            "<!DOCTYPE ejb-jar PUBLIC \"-//Sun Microsystems, Inc.//DTD Enterprise JavaBeans 2.0//EN\" "
+                  + "\"http://unresolvable.invalid/ejb-jar_2_0.dtd\"><ejb-jar/>"))
+      {
+         Assert.assertTrue(xml, EjbJarDescriptor.read(stream(xml), false).isMetadataComplete());
+      }
+      Assert.assertFalse(EjbJarDescriptor.read(stream("<ejb-jar/>"), false).isMetadataComplete());
+   }
+
+   /**
+    * Ensures that a descriptor which isn't one is reported as such
+    */
+   @Test(expected = IOException.class)
+   public void rejectsMalformedDescriptor() throws IOException
+   {
+      EjbJarDescriptor.read(stream("<web-app/>"), false);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private static InputStream stream(final String xml) throws IOException
+   {
+      return new ByteArrayInputStream(xml.getBytes("UTF-8"));
+   }
+
+}
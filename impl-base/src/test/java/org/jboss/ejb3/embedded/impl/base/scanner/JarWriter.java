@@ -0,0 +1,156 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.scanner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes the JARs used as fixtures by the scanner tests
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public final class JarWriter
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Blocks instanciation
+    */
+   private JarWriter()
+   {
+      throw new UnsupportedOperationException("No instances permitted");
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Writes a JAR of a single entry with the specified contents to the specified file
+    */
+   public static void writeJar(final File file, final String name, final byte[] contents) throws IOException
+   {
+      writeJar(new FileOutputStream(file), name, contents);
+   }
+
+   /**
+    * Writes a JAR of a single entry with the specified contents to the specified stream, 
+    * which is then closed
+    */
+   public static void writeJar(final OutputStream out, final String name, final byte[] contents)
+         throws IOException
+   {
+      writeJar(out, null, Collections.singletonMap(name, contents), Collections.<String> emptySet(), null);
+   }
+
+   /**
+    * Writes a JAR of the specified manifest alone to the specified file
+    */
+   public static void writeJar(final File file, final Manifest manifest) throws IOException
+   {
+      writeJar(file, manifest, Collections.<String, byte[]> emptyMap());
+   }
+
+   /**
+    * Writes a JAR of the specified manifest, if not null, and entries to the specified file,
+    * in the iteration order of the entries.  Entries whose names end in '/' are written 
+    * as directories, without contents.
+    */
+   public static void writeJar(final File file, final Manifest manifest, final Map<String, byte[]> entries)
+         throws IOException
+   {
+      writeJar(file, manifest, entries, Collections.<String> emptySet(), null);
+   }
+
+   /**
+    * Writes a JAR as {@link JarWriter#writeJar(File, Manifest, Map)}, storing the entries
+    * of the specified names rather than deflating them, and with the specified comment
+    * if not null
+    */
+   public static void writeJar(final File file, final Manifest manifest, final Map<String, byte[]> entries,
+         final Set<String> stored, final String comment) throws IOException
+   {
+      writeJar(new FileOutputStream(file), manifest, entries, stored, comment);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Writes a JAR as {@link JarWriter#writeJar(File, Manifest, Map, Set, String)} to the 
+    * specified stream, which is then closed
+    */
+   private static void writeJar(final OutputStream out, final Manifest manifest, final Map<String, byte[]> entries,
+         final Set<String> stored, final String comment) throws IOException
+   {
+      final ZipOutputStream zip = manifest == null ? new ZipOutputStream(out) : new JarOutputStream(out, manifest);
+      try
+      {
+         for (final Map.Entry<String, byte[]> entry : entries.entrySet())
+         {
+            final String name = entry.getKey();
+            final byte[] contents = entry.getValue();
+            final ZipEntry zipEntry = new ZipEntry(name);
+            if (stored.contains(name))
+            {
+               final CRC32 crc = new CRC32();
+               crc.update(contents);
+               zipEntry.setMethod(ZipEntry.STORED);
+               zipEntry.setSize(contents.length);
+               zipEntry.setCrc(crc.getValue());
+            }
+            zip.putNextEntry(zipEntry);
+            if (!name.endsWith("/"))
+            {
+               zip.write(contents);
+            }
+            zip.closeEntry();
+         }
+         if (comment != null)
+         {
+            zip.setComment(comment);
+         }
+      }
+      finally
+      {
+         zip.close();
+      }
+   }
+
+}
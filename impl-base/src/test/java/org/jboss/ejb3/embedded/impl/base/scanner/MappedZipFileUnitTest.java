@@ -0,0 +1,194 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.scanner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Ensures that the {@link MappedZipFile} reads entry names and
+ * contents of both stored and deflated entries
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class MappedZipFileUnitTest
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private static final String NAME_STORED = "stored.txt";
+
+   private static final String NAME_DEFLATED = "com/acme/Deflated.class";
+
+   private static final String NAME_DIR = "com/acme/";
+
+   private static final byte[] CONTENTS_STORED = "Stored contents".getBytes();
+
+   private static final byte[] CONTENTS_DEFLATED = "Deflated contents, Deflated contents, Deflated contents"
+         .getBytes();
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * ZIP under test
+    */
+   private File zipFile;
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Writes a ZIP with stored, deflated and directory entries
+    */
+   @Before
+   public void createZip() throws IOException
+   {
+      zipFile = File.createTempFile("mapped", ".jar");
+      final Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+      entries.put(NAME_STORED, CONTENTS_STORED);
+      entries.put(NAME_DIR, null);
+      entries.put(NAME_DEFLATED, CONTENTS_DEFLATED);
+      JarWriter.writeJar(zipFile, null, entries, Collections.singleton(NAME_STORED), "Trailing comment");
+   }
+
+   /**
+    * Removes the test ZIP
+    */
+   @After
+   public void deleteZip()
+   {
+      zipFile.delete();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures all entries are visited in order with their names
+    */
+   @Test
+   public void readsEntryNames() throws IOException
+   {
+      final MappedZipFile zip = MappedZipFile.open(zipFile);
+      try
+      {
+         final List<String> names = new ArrayList<String>();
+         final MappedZipFile.Cursor cursor = zip.entries();
+         while (cursor.next())
+         {
+            names.add(cursor.getName());
+            Assert.assertEquals("Directory flag not as expected for " + cursor.getName(), NAME_DIR.equals(cursor
+                  .getName()), cursor.isDirectory());
+         }
+         final List<String> expected = new ArrayList<String>();
+         expected.add(NAME_STORED);
+         expected.add(NAME_DIR);
+         expected.add(NAME_DEFLATED);
+         Assert.assertEquals("Entry names not as expected", expected, names);
+         Assert.assertTrue(zip.containsEntry(NAME_DEFLATED));
+         Assert.assertFalse(zip.containsEntry("missing"));
+      }
+      finally
+      {
+         zip.close();
+      }
+   }
+
+   /**
+    * Ensures the contents of stored and deflated entries are read
+    */
+   @Test
+   public void readsEntryContents() throws IOException
+   {
+      final MappedZipFile zip = MappedZipFile.open(zipFile);
+      try
+      {
+         final MappedZipFile.Cursor cursor = zip.entries();
+         while (cursor.next())
+         {
+            if (NAME_STORED.equals(cursor.getName()))
+            {
+               Assert.assertTrue("Stored contents not as expected", ByteBuffer.wrap(CONTENTS_STORED).equals(
+                     cursor.getContents()));
+            }
+            else if (NAME_DEFLATED.equals(cursor.getName()))
+            {
+               Assert.assertTrue("Should match suffix", cursor.nameEndsWith(".class".getBytes()));
+               Assert.assertTrue("Deflated contents not as expected", ByteBuffer.wrap(CONTENTS_DEFLATED).equals(
+                     cursor.getContents()));
+            }
+         }
+      }
+      finally
+      {
+         zip.close();
+      }
+   }
+
+   /**
+    * Ensures that a file which is not a ZIP is rejected
+    */
+   @Test(expected = ZipException.class)
+   public void rejectsNonZip() throws IOException
+   {
+      final File notZip = File.createTempFile("notzip", ".jar");
+      try
+      {
+         final FileOutputStream out = new FileOutputStream(notZip);
+         try
+         {
+            out.write(new byte[64]);
+         }
+         finally
+         {
+            out.close();
+         }
+         MappedZipFile.open(notZip);
+      }
+      finally
+      {
+         notZip.delete();
+      }
+   }
+
+}
@@ -0,0 +1,264 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.scanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import org.jboss.ejb3.embedded.impl.base.scanner.filter.ExclusionFilterChain;
+import org.jboss.ejb3.embedded.spi.scanner.filter.ClassPathEntry;
+import org.jboss.ejb3.embedded.spi.scanner.filter.PreMountExclusionFilter;
+import org.jboss.vfs.VirtualFile;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Ensures that the {@link Prefetcher} reads the configured number of
+ * entries ahead, only those not yet started nor excluded, and of each
+ * only the tail and central directory
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class PrefetcherUnitTest
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Length of the tail read from each archive, holding its central directory
+    * unless that is larger
+    */
+   private static final int LENGTH_TAIL = MappedZipFile.LENGTH_END_OF_CENTRAL_DIRECTORY
+         + MappedZipFile.MAX_LENGTH_COMMENT;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Files to be read ahead
+    */
+   private final File[] files = new File[4];
+
+   /**
+    * Reads submitted, to be run at will
+    */
+   private final List<Runnable> submitted = new ArrayList<Runnable>();
+
+   /**
+    * Executor recording reads rather than running them
+    */
+   private final Executor executor = new Executor()
+   {
+      @Override
+      public void execute(final Runnable command)
+      {
+         submitted.add(command);
+      }
+   };
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates archives of distinct sizes, each larger than the tail read; 
+    * the second entry is not to be read
+    */
+   @Before
+   public void createFiles() throws IOException
+   {
+      final Random random = new Random(0);
+      for (int i = 0; i < files.length; i++)
+      {
+         if (i == 1)
+         {
+            continue;
+         }
+         final byte[] contents = new byte[(i + 1) * LENGTH_TAIL];
+         random.nextBytes(contents);
+         files[i] = File.createTempFile("prefetch", ".jar");
+         JarWriter.writeJar(files[i], "contents", contents);
+      }
+   }
+
+   /**
+    * Removes the files
+    */
+   @After
+   public void deleteFiles()
+   {
+      for (final File file : files)
+      {
+         if (file != null)
+         {
+            file.delete();
+         }
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures that entries are read ahead no further than the configured depth,
+    * skipping those not to be read, and that only the tail of each is read
+    */
+   @Test
+   public void readsAheadToDepth()
+   {
+      final Prefetcher prefetcher = new Prefetcher(files, 2, executor, null);
+      prefetcher.started(0);
+      Assert.assertEquals("Only the third entry should be read ahead of the first", 1, submitted.size());
+      submitted.get(0).run();
+      Assert.assertNull("The first entry was not read ahead", prefetcher.finished(0));
+
+      prefetcher.started(1);
+      Assert.assertEquals("The fourth entry should be read ahead of the second", 2, submitted.size());
+      prefetcher.finished(1);
+
+      prefetcher.started(2);
+      final Prefetcher.Read read = prefetcher.finished(2);
+      Assert.assertTrue("The third entry should have been read", read.isCompleted());
+      Assert.assertEquals("Only the tail holding the central directory should be read", LENGTH_TAIL, read
+            .getBytes());
+   }
+
+   /**
+    * Ensures that an entry started before its read has begun is not read
+    */
+   @Test
+   public void abandonsReadsOfStartedEntries()
+   {
+      final Prefetcher prefetcher = new Prefetcher(files, 3, executor, null);
+      prefetcher.started(0);
+      Assert.assertEquals(2, submitted.size());
+      prefetcher.started(2);
+      for (final Runnable read : submitted)
+      {
+         read.run();
+      }
+      final Prefetcher.Read abandoned = prefetcher.finished(2);
+      Assert.assertFalse("Read of a started entry should have been abandoned", abandoned.isCompleted());
+      Assert.assertEquals(0, abandoned.getBytes());
+      Assert.assertEquals(LENGTH_TAIL, prefetcher.finished(3).getBytes());
+   }
+
+   /**
+    * Ensures that an entry excluded before mounting is not read
+    */
+   @Test
+   public void skipsExcludedEntries()
+   {
+      final File excluded = files[3];
+      final PreMountExclusionFilter filter = new PreMountExclusionFilter()
+      {
+         public boolean exclude(final ClassPathEntry entry)
+         {
+            return excluded.equals(entry.getFile());
+         }
+
+         public boolean exclude(final VirtualFile file)
+         {
+            return false;
+         }
+      };
+      final List<String> none = Collections.emptyList();
+      final Prefetcher prefetcher = new Prefetcher(files, 3, executor, new ExclusionFilterChain(none, none, none,
+            Collections.singletonList(filter)));
+      prefetcher.started(0);
+      for (final Runnable read : submitted)
+      {
+         read.run();
+      }
+      Assert.assertTrue("Entry not excluded should be read", prefetcher.finished(2).isCompleted());
+      final Prefetcher.Read skipped = prefetcher.finished(3);
+      Assert.assertFalse("Excluded entry should not be read", skipped.isCompleted());
+      Assert.assertEquals(0, skipped.getBytes());
+   }
+
+   /**
+    * Ensures that a central directory larger than the tail is read in full,
+    * and the entries preceding it not at all
+    */
+   @Test
+   public void readsCentralDirectoryBeyondTail() throws IOException
+   {
+      final Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+      for (int i = 0; i < 4000; i++)
+      {
+         entries.put("org/acme/generated/Component" + i + ".class", new byte[0]);
+      }
+      JarWriter.writeJar(files[0], null, entries);
+      final long centralDirectoryOffset = readCentralDirectoryOffset(files[0]);
+      Assert.assertTrue("Central directory should be larger than the tail",
+            files[0].length() - centralDirectoryOffset > LENGTH_TAIL);
+
+      final Prefetcher prefetcher = new Prefetcher(new File[]
+      {null, files[0]}, 1, executor, null);
+      prefetcher.started(0);
+      submitted.get(0).run();
+      Assert.assertEquals("Central directory and the record ending it should be read", files[0].length()
+            - centralDirectoryOffset, prefetcher.finished(1).getBytes());
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Reads the offset of the central directory from the end of central directory
+    * record of the specified archive, which has no comment
+    */
+   private static long readCentralDirectoryOffset(final File file) throws IOException
+   {
+      final RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try
+      {
+         raf.seek(file.length() - MappedZipFile.LENGTH_END_OF_CENTRAL_DIRECTORY + 16);
+         final byte[] offset = new byte[4];
+         raf.readFully(offset);
+         return (offset[0] & 0xFFL) | (offset[1] & 0xFFL) << 8 | (offset[2] & 0xFFL) << 16
+               | (offset[3] & 0xFFL) << 24;
+      }
+      finally
+      {
+         raf.close();
+      }
+   }
+
+}
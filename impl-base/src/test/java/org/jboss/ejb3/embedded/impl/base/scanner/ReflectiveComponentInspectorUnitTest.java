@@ -0,0 +1,162 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.scanner;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.net.URL;
+import java.util.Arrays;
+
+import javax.ejb.Stateless;
+
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbComponentMetadata;
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbComponentType;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Ensures that the {@link ReflectiveComponentInspector} honors 
+ * component-defining meta-annotations, loading classes in isolation
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class ReflectiveComponentInspectorUnitTest
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Inspector under test
+    */
+   private ReflectiveComponentInspector inspector;
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates an inspector of the test classes and the EJB API
+    */
+   @Before
+   public void createInspector()
+   {
+      final URL tests = ReflectiveComponentInspectorUnitTest.class.getProtectionDomain().getCodeSource()
+            .getLocation();
+      final URL api = Stateless.class.getProtectionDomain().getCodeSource().getLocation();
+      inspector = new ReflectiveComponentInspector(Arrays.asList(tests, api));
+   }
+
+   /**
+    * Closes the inspector
+    */
+   @After
+   public void closeInspector()
+   {
+      inspector.close();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures that a class annotated with a stereotype annotated @Stateless is an SLSB
+    */
+   @Test
+   public void honorsMetaAnnotations()
+   {
+      final EjbComponentMetadata component = inspector.getComponent(StereotypedBean.class.getName());
+      Assert.assertNotNull("Stereotyped class should be a component", component);
+      Assert.assertEquals(EjbComponentType.STATELESS, component.getType());
+      Assert.assertEquals(StereotypedBean.class.getName(), component.getClassName());
+   }
+
+   /**
+    * Ensures that classes without component-defining annotations are not components
+    */
+   @Test
+   public void ignoresPlainClasses()
+   {
+      Assert.assertNull(inspector.getComponent(PlainClass.class.getName()));
+      Assert.assertNull(inspector.getComponent("org.jboss.Missing"));
+   }
+
+   /**
+    * Ensures that class names are obtained from class file paths
+    */
+   @Test
+   public void classNameFromPath()
+   {
+      Assert.assertEquals("com.acme.Bean$Inner",
+            ReflectiveComponentInspector.getClassName("com/acme/Bean$Inner.class"));
+      Assert.assertEquals("Default", ReflectiveComponentInspector.getClassName("Default.class"));
+   }
+
+   /**
+    * Ensures that a closed inspector may not be used
+    */
+   @Test(expected = IllegalStateException.class)
+   public void closedInspectorMayNotBeUsed()
+   {
+      inspector.close();
+      inspector.getComponent(StereotypedBean.class.getName());
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Stereotype defining stateless session beans
+    */
+   @Stateless
+   @Retention(RetentionPolicy.RUNTIME)
+   @Target(ElementType.TYPE)
+   public @interface Stereotype
+   {
+   }
+
+   /**
+    * SLSB defined only by its stereotype
+    */
+   @Stereotype
+   public static class StereotypedBean
+   {
+   }
+
+   /**
+    * Class bearing no component-defining annotations
+    */
+   @Deprecated
+   public static class PlainClass
+   {
+   }
+
+}
@@ -0,0 +1,228 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.scanner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Ensures that the {@link ScanResultCache} persists verdicts
+ * and invalidates them when the underlying entries change
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class ScanResultCacheUnitTest
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Directory holding the cache
+    */
+   private File cacheDir;
+
+   /**
+    * Entry whose verdicts are cached
+    */
+   private File jar;
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates the cache directory and a test entry
+    */
+   @Before
+   public void createFiles() throws IOException
+   {
+      cacheDir = File.createTempFile("scancache", "");
+      cacheDir.delete();
+      cacheDir.mkdirs();
+      jar = new File(cacheDir, "test.jar");
+      this.write(jar, "contents");
+   }
+
+   /**
+    * Removes all test files
+    */
+   @After
+   public void deleteFiles()
+   {
+      for (final File file : cacheDir.listFiles())
+      {
+         file.delete();
+      }
+      cacheDir.delete();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures that verdicts survive into a new cache instance
+    */
+   @Test
+   public void persistsVerdicts()
+   {
+      final ScanResultCache cache = new ScanResultCache(cacheDir, false);
+      Assert.assertNull("Nothing should be cached initially", cache.getVerdict(jar));
+      cache.putVerdict(jar, true);
+      cache.save();
+
+      final ScanResultCache reloaded = new ScanResultCache(cacheDir, false);
+      Assert.assertEquals("Verdict should have been persisted", Boolean.TRUE, reloaded.getVerdict(jar));
+   }
+
+   /**
+    * Ensures that a verdict is not used once the entry has changed
+    */
+   @Test
+   public void invalidatesChangedEntries() throws IOException
+   {
+      final ScanResultCache cache = new ScanResultCache(cacheDir, false);
+      cache.putVerdict(jar, false);
+      cache.save();
+
+      this.write(jar, "changed contents");
+      final ScanResultCache reloaded = new ScanResultCache(cacheDir, false);
+      Assert.assertNull("Verdict for a changed entry should not be used", reloaded.getVerdict(jar));
+   }
+
+   /**
+    * Ensures that when validating by digest, a change in last modified time
+    * alone does not invalidate the verdict
+    */
+   @Test
+   public void digestIgnoresLastModified()
+   {
+      final ScanResultCache cache = new ScanResultCache(cacheDir, true);
+      cache.putVerdict(jar, true);
+      cache.save();
+
+      jar.setLastModified(jar.lastModified() - 60000);
+      final ScanResultCache reloaded = new ScanResultCache(cacheDir, true);
+      Assert.assertEquals("Verdict for an entry with unchanged contents should be used", Boolean.TRUE, reloaded
+            .getVerdict(jar));
+   }
+
+   /**
+    * Ensures that a verdict may be peeked at without comparing digests, 
+    * but not once the entry has visibly changed
+    */
+   @Test
+   public void peeksAtVerdictsWithoutDigest() throws IOException
+   {
+      final ScanResultCache cache = new ScanResultCache(cacheDir, true);
+      cache.putVerdict(jar, false);
+      cache.save();
+
+      this.write(jar, "contents!");
+      final ScanResultCache reloaded = new ScanResultCache(cacheDir, true);
+      Assert.assertNull("Verdict for an entry of another size should not be peeked at", reloaded.peekVerdict(jar));
+      this.write(jar, "Contents");
+      Assert.assertEquals("Verdict should be peeked at without reading the entry", Boolean.FALSE, reloaded
+            .peekVerdict(jar));
+      Assert.assertNull("Verdict for an entry with changed contents should not be used", reloaded.getVerdict(jar));
+   }
+
+   /**
+    * Ensures that verdicts reached within one scope are not used in another
+    */
+   @Test
+   public void discardsVerdictsOfAnotherScope()
+   {
+      final ScanResultCache cache = new ScanResultCache(cacheDir, false, "com.acme");
+      cache.putVerdict(jar, false);
+      cache.save();
+
+      Assert.assertEquals("Verdict should be used within the same scope", Boolean.FALSE, new ScanResultCache(
+            cacheDir, false, "com.acme").getVerdict(jar));
+      Assert.assertNull("Verdict should not be used in another scope", new ScanResultCache(cacheDir, false)
+            .getVerdict(jar));
+   }
+
+   /**
+    * Ensures that manifest "Class-Path" headers survive into a new cache 
+    * instance, but are not used once the entry has changed
+    */
+   @Test
+   public void persistsManifestClassPaths() throws IOException
+   {
+      final ScanResultCache cache = new ScanResultCache(cacheDir, true);
+      Assert.assertNull("Nothing should be cached initially", cache.getClassPath(jar));
+      cache.putClassPath(jar, "lib/a.jar lib/b,c.jar");
+      cache.save();
+
+      final ScanResultCache reloaded = new ScanResultCache(cacheDir, true);
+      Assert.assertEquals("Header should have been persisted", "lib/a.jar lib/b,c.jar", reloaded.getClassPath(jar));
+      Assert.assertNull("No verdict should have been cached", reloaded.getVerdict(jar));
+      reloaded.putClassPath(jar, null);
+      Assert.assertEquals("Absence of the header should be cached", "", reloaded.getClassPath(jar));
+      this.write(jar, "changed contents");
+      Assert.assertNull("Header of a changed entry should not be used", reloaded.getClassPath(jar));
+   }
+
+   /**
+    * Ensures that directories are never cached
+    */
+   @Test
+   public void ignoresDirectories()
+   {
+      final ScanResultCache cache = new ScanResultCache(cacheDir, false);
+      cache.putVerdict(cacheDir, true);
+      Assert.assertNull("Directories should not be cached", cache.getVerdict(cacheDir));
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Writes the specified contents to the file
+    */
+   private void write(final File file, final String contents) throws IOException
+   {
+      final OutputStream out = new FileOutputStream(file);
+      try
+      {
+         out.write(contents.getBytes("UTF-8"));
+      }
+      finally
+      {
+         out.close();
+      }
+   }
+
+}
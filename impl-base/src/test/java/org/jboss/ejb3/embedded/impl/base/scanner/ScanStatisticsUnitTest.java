@@ -0,0 +1,125 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.scanner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.ejb3.embedded.impl.base.scanner.EntryScanStatistics.Verdict;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Ensures that {@link ScanStatistics} aggregates the statistics
+ * of each entry and exports them as JSON
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class ScanStatisticsUnitTest
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures that totals are summed over all entries
+    */
+   @Test
+   public void aggregatesEntries()
+   {
+      final ScanStatistics statistics = this.createStatistics();
+      Assert.assertEquals("Bytes read not summed", 3072, statistics.getBytesRead());
+      Assert.assertEquals("Classes inspected not summed", 30, statistics.getClassesInspected());
+      Assert.assertEquals(1, statistics.getCount(Verdict.EJB_JAR));
+      Assert.assertEquals(1, statistics.getCount(Verdict.EXCLUDED));
+      Assert.assertEquals(0, statistics.getCount(Verdict.MISSING));
+      Assert.assertEquals("Bytes read ahead not summed", 4096, statistics.getPrefetchedBytes());
+      Assert.assertEquals("Time reading ahead not summed", 700, statistics.getPrefetchNanos());
+   }
+
+   /**
+    * Ensures that entries left unfinished by the budget are listed slowest first,
+    * those not started last
+    */
+   @Test
+   public void ordersUnfinishedEntriesSlowestFirst()
+   {
+      final List<EntryScanStatistics> entries = new ArrayList<EntryScanStatistics>();
+      entries.add(new EntryScanStatistics("/a.jar", Verdict.UNFINISHED, false, 0, 0, 0, 0, null));
+      entries.add(new EntryScanStatistics("/b.jar", Verdict.UNFINISHED, false, 100, 0, 0, 0, null));
+      entries.add(new EntryScanStatistics("/c.jar", Verdict.NOT_EJB_JAR, false, 900, 0, 0, 0, null));
+      entries.add(new EntryScanStatistics("/d.jar", Verdict.UNFINISHED, false, 300, 0, 0, 0, null));
+      final List<EntryScanStatistics> unfinished = new ScanStatistics(entries, 1, 1000).getUnfinishedEntries();
+      Assert.assertEquals(3, unfinished.size());
+      Assert.assertEquals("/d.jar", unfinished.get(0).getPath());
+      Assert.assertEquals("/b.jar", unfinished.get(1).getPath());
+      Assert.assertEquals("/a.jar", unfinished.get(2).getPath());
+      Assert.assertTrue(this.createStatistics().getUnfinishedEntries().isEmpty());
+   }
+
+   /**
+    * Ensures that the JSON report holds each entry in order, with strings escaped
+    */
+   @Test
+   public void writesJsonReport()
+   {
+      final String json = this.createStatistics().toJson();
+      final int first = json.indexOf("\"path\": \"/lib/ejb.jar\"");
+      final int second = json.indexOf("\"path\": \"C:\\\\lib\\\\\\\"quoted\\\".jar\"");
+      Assert.assertTrue("First entry not reported: " + json, first > 0);
+      Assert.assertTrue("Second entry not reported in order with escaping: " + json, second > first);
+      Assert.assertTrue("Excluding filter not reported: " + json, json.contains("\"excludedBy\": \"filter\""));
+      Assert.assertTrue("Absent filter not reported as null: " + json, json.contains("\"excludedBy\": null"));
+      Assert.assertTrue("Verdict totals not reported: " + json, json.contains("\"EJB_JAR\": 1"));
+   }
+
+   /**
+    * Ensures that a scan of no entries is still reported as valid JSON
+    */
+   @Test
+   public void writesEmptyJsonReport()
+   {
+      final String json = new ScanStatistics(new ArrayList<EntryScanStatistics>(), 1, 0).toJson();
+      Assert.assertTrue("Empty entries not reported: " + json, json.contains("\"entries\": []"));
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates statistics of an EJB JAR and an excluded JAR
+    */
+   private ScanStatistics createStatistics()
+   {
+      final List<EntryScanStatistics> entries = new ArrayList<EntryScanStatistics>();
+      entries.add(new EntryScanStatistics("/lib/ejb.jar", Verdict.EJB_JAR, false, 2000, 0, 1024, 10, null, 4096,
+            700));
+      entries.add(new EntryScanStatistics("C:\\lib\\\"quoted\".jar", Verdict.EXCLUDED, false, 5000, 1000, 2048,
+            20, "filter"));
+      return new ScanStatistics(entries, 2, 6000);
+   }
+
+}
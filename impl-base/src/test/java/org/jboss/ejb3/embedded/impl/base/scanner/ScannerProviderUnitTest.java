@@ -0,0 +1,291 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.ejb3.embedded.impl.base.scanner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.ejb.embeddable.EJBContainer;
+
+import org.jboss.ejb3.embedded.impl.base.JBossEJBContainerBase;
+import org.jboss.ejb3.embedded.impl.base.JBossEJBContainerProviderBase;
+import org.jboss.ejb3.embedded.impl.base.JBossEmbeddedContainerStartupParams;
+import org.jboss.ejb3.embedded.spi.scanner.EjbJarScanner;
+import org.jboss.ejb3.embedded.spi.scanner.EjbModuleListener;
+import org.jboss.ejb3.embedded.spi.scanner.ScannerProvider;
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbModuleIndex;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Ensures that the {@link ScannerProvider} is resolved from configuration,
+ * then the {@link java.util.ServiceLoader}, then defaults to the 
+ * {@link ClassPathEjbJarScannerProvider}, and that the container's startup
+ * parameters scan using the scanner it creates
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class ScannerProviderUnitTest
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures that the ClassPath scanner is provided if none is configured or registered
+    */
+   @Test
+   public void defaultsToClassPathScanner()
+   {
+      final EjbJarScanner scanner = new ScannerConfiguration().getScannerProvider().createScanner(
+            Collections.emptyMap());
+      try
+      {
+         Assert.assertTrue(scanner instanceof ClassPathEjbJarScanner);
+      }
+      finally
+      {
+         scanner.close();
+      }
+   }
+
+   /**
+    * Ensures that a provider may be configured as an instance or by class name
+    */
+   @Test
+   public void usesConfiguredProvider()
+   {
+      final ScannerProvider provider = new FixedScannerProvider();
+      Assert.assertSame(provider, new ScannerConfiguration(Collections.singletonMap(
+            ScannerConfiguration.PROPERTY_PROVIDER, provider)).getScannerProvider());
+      Assert.assertTrue(new ScannerConfiguration(Collections.singletonMap(ScannerConfiguration.PROPERTY_PROVIDER,
+            FixedScannerProvider.class.getName())).getScannerProvider() instanceof FixedScannerProvider);
+   }
+
+   /**
+    * Ensures that a configured class which isn't a provider is rejected
+    */
+   @Test(expected = IllegalArgumentException.class)
+   public void rejectsConfiguredNonProvider()
+   {
+      new ScannerConfiguration(Collections.singletonMap(ScannerConfiguration.PROPERTY_PROVIDER, Object.class
+            .getName()));
+   }
+
+   /**
+    * Ensures that a provider registered with the ServiceLoader, as seen by the
+    * Thread Context ClassLoader, is used if none is configured
+    */
+   @Test
+   public void usesRegisteredProvider() throws IOException
+   {
+      // Register the provider in a directory seen only by a new TCCL
+      final File root = File.createTempFile("providers", "");
+      root.delete();
+      final File services = new File(root, "META-INF/services");
+      services.mkdirs();
+      final File registration = new File(services, ScannerProvider.class.getName());
+      final OutputStream out = new FileOutputStream(registration);
+      try
+      {
+         out.write((FixedScannerProvider.class.getName() + "\n").getBytes("UTF-8"));
+      }
+      finally
+      {
+         out.close();
+      }
+
+      final Thread thread = Thread.currentThread();
+      final ClassLoader oldTccl = thread.getContextClassLoader();
+      thread.setContextClassLoader(new URLClassLoader(new URL[]
+      {root.toURI().toURL()}, ScannerProviderUnitTest.class.getClassLoader()));
+      try
+      {
+         Assert.assertTrue(new ScannerConfiguration().getScannerProvider() instanceof FixedScannerProvider);
+      }
+      finally
+      {
+         thread.setContextClassLoader(oldTccl);
+         registration.delete();
+         services.delete();
+         services.getParentFile().delete();
+         root.delete();
+      }
+   }
+
+   /**
+    * Ensures that the startup parameters take their modules and indexes from the
+    * scanner of the configured provider
+    */
+   @Test
+   public void startupParamsScanWithProvidedScanner()
+   {
+      final Map<String, Object> properties = new HashMap<String, Object>();
+      properties.put(ScannerConfiguration.PROPERTY_PROVIDER, new FixedScannerProvider());
+      properties.put(ScannerConfiguration.PROPERTY_ANNOTATION_INDEX, "true");
+      final JBossEmbeddedContainerStartupParams params = new JBossEmbeddedContainerStartupParams(properties, null);
+      params.getScanner().close();
+
+      Assert.assertTrue(params.getScanner() instanceof FixedScanner);
+      Assert.assertTrue("Scan should have been made in full", ((FixedScanner) params.getScanner()).full);
+      Assert.assertEquals(Collections.singletonList(FixedScanner.PATH), Arrays.asList(params.getModules()));
+      Assert.assertEquals(FixedScanner.PATH, params.getModuleIndexes().get(0).getPath());
+   }
+
+   /**
+    * Ensures that no scanner is created when modules are explicitly specified
+    */
+   @Test
+   public void startupParamsCreateNoScannerForExplicitModules()
+   {
+      final FixedScannerProvider provider = new FixedScannerProvider();
+      final JBossEmbeddedContainerStartupParams params = new JBossEmbeddedContainerStartupParams(Collections
+            .singletonMap(ScannerConfiguration.PROPERTY_PROVIDER, provider), new String[]
+      {FixedScanner.PATH});
+
+      Assert.assertNull("No scanner should have been provided", provider.scanner);
+      Assert.assertNull(params.getScanner());
+      Assert.assertEquals(Collections.singletonList(FixedScanner.PATH), Arrays.asList(params.getModules()));
+   }
+
+   /**
+    * Ensures that pipelined startup parameters leave the scan to the container, 
+    * still offering non-null modules which a container unable to scan refuses
+    */
+   @Test
+   public void startupParamsLeaveScanPendingToContainer()
+   {
+      final Map<String, Object> properties = new HashMap<String, Object>();
+      properties.put(ScannerConfiguration.PROPERTY_PROVIDER, new FixedScannerProvider());
+      properties.put(ScannerConfiguration.PROPERTY_PIPELINED, "true");
+      final JBossEmbeddedContainerStartupParams params = new JBossEmbeddedContainerStartupParams(properties, null);
+      params.getScanner().close();
+
+      Assert.assertTrue("Scan should be pending", params.isScanPending());
+      Assert.assertNotNull("Modules should be specified while the scan is pending", params.getModules());
+      Assert.assertEquals(0, params.getModules().length);
+      Assert.assertTrue("No modules should be indexed yet", params.getModuleIndexes().isEmpty());
+      try
+      {
+         new JBossEJBContainerBase(params.getProperties(), null, params.getModules())
+         {
+         };
+         Assert.fail("Modules whose scan is pending should be refused");
+      }
+      catch (final IllegalArgumentException expected)
+      {
+         Assert.assertTrue(expected.getMessage(), expected.getMessage().contains("pending"));
+      }
+   }
+
+   /**
+    * Ensures that the scanner created for a container is closed if the
+    * container can't be created, as no container will own it
+    */
+   @Test
+   public void closesScannerOfContainerNotCreated()
+   {
+      final FixedScannerProvider provider = new FixedScannerProvider();
+      final JBossEJBContainerProviderBase containerProvider = new JBossEJBContainerProviderBase()
+      {
+         @Override
+         public EJBContainer createEJBContainer(final JBossEmbeddedContainerStartupParams params)
+         {
+            throw new IllegalStateException("Could not start");
+         }
+      };
+      try
+      {
+         containerProvider.createEJBContainer(Collections.singletonMap(ScannerConfiguration.PROPERTY_PROVIDER,
+               provider));
+         Assert.fail("Failure to create the container should have been reported");
+      }
+      catch (final IllegalStateException expected)
+      {
+         // Expected
+      }
+      Assert.assertTrue("Scanner should have been closed", provider.scanner.closed);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Provider of {@link FixedScanner}s
+    */
+   public static class FixedScannerProvider implements ScannerProvider
+   {
+      private FixedScanner scanner;
+
+      @Override
+      public EjbJarScanner createScanner(final Map<?, ?> properties)
+      {
+         scanner = new FixedScanner();
+         return scanner;
+      }
+   }
+
+   /**
+    * Scanner finding a single module without reading anything
+    */
+   private static class FixedScanner implements EjbJarScanner
+   {
+      private static final String PATH = "/fixed.jar";
+
+      private boolean full;
+
+      private boolean closed;
+
+      @Override
+      public List<EjbModuleIndex> scan(final boolean full, final EjbModuleListener listener)
+      {
+         this.full = full;
+         final EjbModuleIndex module = new EjbModuleIndex(PATH, true, null);
+         if (listener != null)
+         {
+            listener.moduleDiscovered(module);
+         }
+         return Collections.singletonList(module);
+      }
+
+      @Override
+      public void close()
+      {
+         closed = true;
+      }
+   }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.scanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbComponentMetadata;
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbComponentType;
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbModuleIndex;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Ensures that the {@link SharedScanResult} is reused only for the same
+ * key and within its time
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class SharedScanResultUnitTest
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Cache directory
+    */
+   private File directory;
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates an empty cache directory
+    */
+   @Before
+   public void createDirectory() throws IOException
+   {
+      directory = File.createTempFile("shared", "");
+      directory.delete();
+   }
+
+   /**
+    * Removes the cache directory
+    */
+   @After
+   public void deleteDirectory()
+   {
+      final File[] files = directory.listFiles();
+      if (files != null)
+      {
+         for (final File file : files)
+         {
+            file.delete();
+         }
+      }
+      directory.delete();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures that modules written under a key are read under the same key
+    */
+   @Test
+   public void reusesResultOfSameKey()
+   {
+      final SharedScanResult writer = new SharedScanResult(directory, "/a.jar:/b.jar", 60000);
+      writer.lock();
+      try
+      {
+         Assert.assertNull("Nothing should have been shared yet", writer.read());
+         writer.write(Arrays.asList(new EjbModuleIndex("/a.jar", false, Collections.singletonList(
+               new EjbComponentMetadata("com.acme.Bean", EjbComponentType.STATELESS, null, null, true)))));
+      }
+      finally
+      {
+         writer.unlock();
+      }
+
+      final SharedScanResult reader = new SharedScanResult(directory, "/a.jar:/b.jar", 60000);
+      reader.lock();
+      try
+      {
+         final List<EjbModuleIndex> modules = reader.read();
+         Assert.assertNotNull("Result should have been shared", modules);
+         Assert.assertEquals(1, modules.size());
+         Assert.assertEquals("/a.jar", modules.get(0).getPath());
+         Assert.assertEquals("com.acme.Bean", modules.get(0).getComponents().get(0).getClassName());
+      }
+      finally
+      {
+         reader.unlock();
+      }
+   }
+
+   /**
+    * Ensures that results are not reused for another key, nor once expired
+    */
+   @Test
+   public void ignoresResultOfOtherKeyOrExpired()
+   {
+      new SharedScanResult(directory, "/a.jar", 60000).write(Collections.<EjbModuleIndex> emptyList());
+      Assert.assertNotNull(new SharedScanResult(directory, "/a.jar", 60000).read());
+      Assert.assertNull("Result of another key reused", new SharedScanResult(directory, "/b.jar", 60000).read());
+      Assert.assertNull("Expired result reused", new SharedScanResult(directory, "/a.jar", -1).read());
+   }
+
+}
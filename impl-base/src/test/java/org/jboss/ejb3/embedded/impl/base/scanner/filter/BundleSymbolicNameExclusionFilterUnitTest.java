@@ -24,14 +24,18 @@ package org.jboss.ejb3.embedded.impl.base.scanner.filter;
 
 import java.io.ByteArrayInputStream;
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.jar.Manifest;
 
+import org.jboss.ejb3.embedded.spi.scanner.filter.ClassPathEntry;
 import org.jboss.ejb3.embedded.spi.scanner.filter.ExclusionFilter;
+import org.jboss.ejb3.embedded.spi.scanner.filter.PreMountExclusionFilter;
 import org.jboss.logging.Logger;
 import org.jboss.shrinkwrap.api.ShrinkWrap;
 import org.jboss.shrinkwrap.api.asset.Asset;
@@ -153,10 +157,69 @@ public class BundleSymbolicNameExclusionFilterUnitTest
       Assert.assertTrue("Filter should not have blocked unconfigured bundle symbolic name header value", !excluded);
    }
 
+   /**
+    * Ensures that an unmounted entry with a manifest header of 
+    * "Bundle-SymbolicName" matching a given pattern is excluded
+    * before mounting, and others are not
+    */
+   @Test
+   public void honorsExclusionBeforeMount() throws IOException
+   {
+      final PreMountExclusionFilter filter = new BundleSymbolicNameExclusionFilter("org.jboss.test");
+      Assert.assertTrue("Filter should have blocked configured bundle symbolic name header value", filter
+            .exclude(this.createEntry("org.jboss.test")));
+      Assert.assertFalse("Filter should not have blocked unconfigured bundle symbolic name header value", filter
+            .exclude(this.createEntry("org.jboss.other")));
+      Assert.assertFalse("Filter should not have blocked entry without a manifest", filter.exclude(this
+            .createEntry(null)));
+   }
+
    //-------------------------------------------------------------------------------------||
    // Internal Helper Methods ------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
 
+   /**
+    * Creates an unmounted entry whose manifest has header "Bundle-SymbolicName"
+    * with the specified value, or which has no manifest if the value is null
+    */
+   private ClassPathEntry createEntry(final String bundleSymbolicName) throws IOException
+   {
+      final Manifest manifest = bundleSymbolicName == null ? null : new Manifest(new ByteArrayInputStream(
+            ("Manifest-Version: 1.0\nBundle-SymbolicName: " + bundleSymbolicName + "\n").getBytes()));
+      return new ClassPathEntry()
+      {
+         public String getPath()
+         {
+            return "manifest.jar";
+         }
+
+         public File getFile()
+         {
+            return new File(this.getPath());
+         }
+
+         public String getName()
+         {
+            return this.getPath();
+         }
+
+         public long getSize()
+         {
+            return 0;
+         }
+
+         public boolean isDirectory()
+         {
+            return false;
+         }
+
+         public Manifest getManifest()
+         {
+            return manifest;
+         }
+      };
+   }
+
    /**
     * Runs a manifest JAR with header "Bundle-SymbolicName"
     * with the specified value through a {@link BundleSymbolicNameExclusionFilter}
@@ -0,0 +1,356 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.scanner.filter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+import org.jboss.ejb3.embedded.spi.scanner.filter.ClassPathEntry;
+import org.jboss.ejb3.embedded.spi.scanner.filter.ExclusionFilter;
+import org.jboss.ejb3.embedded.spi.scanner.filter.PreMountExclusionFilter;
+import org.jboss.vfs.VFS;
+import org.jboss.vfs.VirtualFile;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Ensures that the {@link ExclusionFilterChain} applies
+ * each of its kinds of rules
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class ExclusionFilterChainUnitTest
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * No rules
+    */
+   private static final List<String> NONE = Collections.emptyList();
+
+   /**
+    * No further filters
+    */
+   private static final List<ExclusionFilter> NO_FILTERS = Collections.emptyList();
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Exploded module used to test rules requiring contents
+    */
+   private File module;
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates an exploded module carrying Maven metadata and a bundle manifest
+    */
+   @Before
+   public void createModule() throws IOException
+   {
+      module = File.createTempFile("exclusionchain", "");
+      module.delete();
+      final File groupDir = new File(module, "META-INF/maven/org.hibernate/hibernate-core");
+      groupDir.mkdirs();
+      this.write(new File(groupDir, "pom.properties"), "groupId=org.hibernate\n");
+      this.write(new File(module, "META-INF/MANIFEST.MF"),
+            "Manifest-Version: 1.0\nBundle-SymbolicName: org.acme.bundle\n");
+   }
+
+   /**
+    * Removes the module
+    */
+   @After
+   public void deleteModule()
+   {
+      this.delete(module);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures that globs are matched against the full path if containing '/', 
+    * otherwise against the file name
+    */
+   @Test
+   public void matchesGlobs()
+   {
+      final ExclusionFilterChain chain = new ExclusionFilterChain(Arrays.asList("hibernate-*.jar",
+            "**/target/lib/**", "netty-?.jar"), NONE, NONE, NO_FILTERS);
+      Assert.assertEquals("glob:hibernate-*.jar", chain.getPathExclusion(new File("/lib/hibernate-core-3.5.jar")));
+      Assert.assertEquals("glob:**/target/lib/**", chain.getPathExclusion(new File("/work/target/lib/any.jar")));
+      Assert.assertEquals("glob:netty-?.jar", chain.getPathExclusion(new File("/lib/netty-3.jar")));
+      Assert.assertNull("Name glob should not match across directories", chain.getPathExclusion(new File(
+            "/hibernate-x/ejb.jar")));
+      Assert.assertNull("'?' should match a single character", chain.getPathExclusion(new File("/lib/netty-31.jar")));
+      Assert.assertNull(chain.getPathExclusion(new File("/lib/ejb.jar")));
+      Assert.assertFalse("No rules should require mounting", chain.isPostMountRequired());
+   }
+
+   /**
+    * Ensures that the groupId of an entry in a Maven repository is matched by prefix
+    */
+   @Test
+   public void matchesGroupIdOfRepositoryLayout()
+   {
+      final ExclusionFilterChain chain = new ExclusionFilterChain(NONE, Arrays.asList("org.hibernate", "io.netty"),
+            NONE, NO_FILTERS);
+      Assert.assertEquals("groupId:org.hibernate", chain.getPathExclusion(new File(
+            "/home/me/.m2/repository/org/hibernate/hibernate-core/3.5.0/hibernate-core-3.5.0.jar")));
+      Assert.assertEquals("groupId:org.hibernate", chain.getPathExclusion(new File(
+            "/home/me/.m2/repository/org/hibernate/validator/hibernate-validator/4.0/hibernate-validator-4.0.jar")));
+      Assert.assertNull("artifactId should not be taken as part of the groupId", chain.getPathExclusion(new File(
+            "/home/me/.m2/repository/org/hibernatex/hibernate/1.0/hibernate-1.0.jar")));
+      Assert.assertNull("Entries outside a repository have no evident groupId", chain.getPathExclusion(new File(
+            "/home/me/org/hibernate/hibernate-core/3.5.0/hibernate-core-3.5.0.jar")));
+      Assert.assertFalse("groupId rules should not require mounting", chain.isPostMountRequired());
+   }
+
+   /**
+    * Ensures that the groupId named by the Maven metadata within an entry 
+    * is matched by prefix before mounting
+    */
+   @Test
+   public void matchesGroupIdOfMavenMetadataBeforeMounting()
+   {
+      final ClassPathEntry entry = createEntry(module);
+      Assert.assertEquals("groupId:org.hibernate", new ExclusionFilterChain(NONE, Arrays.asList("org.hibernate"),
+            NONE, NO_FILTERS).getPreMountExclusion(entry));
+      Assert.assertEquals("groupId:org", new ExclusionFilterChain(NONE, Arrays.asList("org"), NONE, NO_FILTERS)
+            .getPreMountExclusion(entry));
+      Assert.assertNull("groupId should be matched at segment boundaries", new ExclusionFilterChain(NONE, Arrays
+            .asList("org.hiber"), NONE, NO_FILTERS).getPreMountExclusion(entry));
+      Assert.assertNull(new ExclusionFilterChain(NONE, Arrays.asList("org.jboss"), NONE, NO_FILTERS)
+            .getPreMountExclusion(entry));
+      Assert.assertNull("groupIds should not be matched after mounting", new ExclusionFilterChain(NONE, Arrays
+            .asList("org.hibernate"), NONE, NO_FILTERS).getPostMountExclusion(VFS.getChild(module
+            .getAbsolutePath())));
+   }
+
+   /**
+    * Ensures that bundles and further pre-mount filters are applied
+    * to the unmounted entry, and other filters are not
+    */
+   @Test
+   public void matchesBeforeMounting()
+   {
+      final ClassPathEntry entry = createEntry("org.acme.bundle");
+      Assert.assertNotNull("Bundle should be excluded before mounting", new ExclusionFilterChain(NONE, NONE, Arrays
+            .asList("org.acme"), NO_FILTERS).getPreMountExclusion(entry));
+      Assert.assertNull(new ExclusionFilterChain(NONE, NONE, Arrays.asList("org.jboss"), NO_FILTERS)
+            .getPreMountExclusion(entry));
+
+      final ExclusionFilterChain chain = new ExclusionFilterChain(NONE, NONE, NONE, Arrays.asList(
+            new PhaseFilter(false), new PhaseFilter(true)));
+      Assert.assertEquals("Only the pre-mount filter should apply before mounting", "pre-mount", chain
+            .getPreMountExclusion(entry));
+      Assert.assertTrue("Further filters should require mounting", chain.isPostMountRequired());
+   }
+
+   /**
+    * Ensures that rules requiring contents are applied to the mounted entry
+    */
+   @Test
+   public void matchesAfterMounting()
+   {
+      final VirtualFile file = VFS.getChild(module.getAbsolutePath());
+      Assert.assertNull(new ExclusionFilterChain(NONE, Arrays.asList("org.jboss"), Arrays.asList("org.jboss"),
+            NO_FILTERS).getPostMountExclusion(file));
+      Assert.assertEquals("post-mount", new ExclusionFilterChain(NONE, NONE, NONE, Arrays
+            .asList(new PhaseFilter(false))).getPostMountExclusion(file));
+      Assert.assertTrue("All rules should be applied on exclude", new ExclusionFilterChain(NONE, NONE, Arrays
+            .asList("org.acme"), NO_FILTERS).exclude(file));
+      Assert.assertTrue("All rules should be applied on exclude", new ExclusionFilterChain(NONE, Arrays
+            .asList("org.hibernate"), NONE, NO_FILTERS).exclude(file));
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates an unmounted entry whose manifest declares the specified bundle symbolic name
+    */
+   private static ClassPathEntry createEntry(final String bundleSymbolicName)
+   {
+      final Manifest manifest = new Manifest();
+      manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+      manifest.getMainAttributes().putValue("Bundle-SymbolicName", bundleSymbolicName);
+      return new ClassPathEntry()
+      {
+         public String getPath()
+         {
+            return "/lib/bundle.jar";
+         }
+
+         public File getFile()
+         {
+            return new File(this.getPath());
+         }
+
+         public String getName()
+         {
+            return "bundle.jar";
+         }
+
+         public long getSize()
+         {
+            return 1024;
+         }
+
+         public boolean isDirectory()
+         {
+            return false;
+         }
+
+         public Manifest getManifest()
+         {
+            return manifest;
+         }
+      };
+   }
+
+   /**
+    * Creates an unmounted entry of the specified file
+    */
+   private static ClassPathEntry createEntry(final File file)
+   {
+      return new ClassPathEntry()
+      {
+         public String getPath()
+         {
+            return file.getPath();
+         }
+
+         public File getFile()
+         {
+            return file;
+         }
+
+         public String getName()
+         {
+            return file.getName();
+         }
+
+         public long getSize()
+         {
+            return file.length();
+         }
+
+         public boolean isDirectory()
+         {
+            return file.isDirectory();
+         }
+
+         public Manifest getManifest()
+         {
+            return null;
+         }
+      };
+   }
+
+   /**
+    * Writes the specified contents to the file
+    */
+   private void write(final File file, final String contents) throws IOException
+   {
+      final OutputStream out = new FileOutputStream(file);
+      try
+      {
+         out.write(contents.getBytes("UTF-8"));
+      }
+      finally
+      {
+         out.close();
+      }
+   }
+
+   /**
+    * Recursively deletes the specified file
+    */
+   private void delete(final File file)
+   {
+      final File[] children = file.listFiles();
+      if (children != null)
+      {
+         for (final File child : children)
+         {
+            this.delete(child);
+         }
+      }
+      file.delete();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Filter excluding everything in the phase it's configured for
+    */
+   private static final class PhaseFilter implements PreMountExclusionFilter
+   {
+      private final boolean preMount;
+
+      PhaseFilter(final boolean preMount)
+      {
+         this.preMount = preMount;
+      }
+
+      public boolean exclude(final ClassPathEntry entry)
+      {
+         return preMount;
+      }
+
+      public boolean exclude(final VirtualFile file)
+      {
+         return !preMount;
+      }
+
+      @Override
+      public String toString()
+      {
+         return preMount ? "pre-mount" : "post-mount";
+      }
+   }
+
+}
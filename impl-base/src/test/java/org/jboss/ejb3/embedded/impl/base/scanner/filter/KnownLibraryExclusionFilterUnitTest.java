@@ -0,0 +1,240 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.scanner.filter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.Manifest;
+
+import org.jboss.ejb3.embedded.impl.base.scanner.JarWriter;
+import org.jboss.ejb3.embedded.spi.scanner.filter.ClassPathEntry;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Ensures that the {@link KnownLibraryExclusionFilter} recognizes
+ * libraries by their Maven coordinates and fingerprints
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class KnownLibraryExclusionFilterUnitTest
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Archive under test
+    */
+   private File jar;
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates the archive location
+    */
+   @Before
+   public void createJar() throws IOException
+   {
+      jar = File.createTempFile("library", ".jar");
+   }
+
+   /**
+    * Removes the archive
+    */
+   @After
+   public void deleteJar()
+   {
+      jar.delete();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures that libraries are matched by coordinates, including by group, but
+    * not if they also carry the metadata of an artifact not denied
+    */
+   @Test
+   public void matchesCoordinates() throws IOException
+   {
+      final KnownLibraryExclusionFilter filter = new KnownLibraryExclusionFilter(Arrays.asList("junit:junit",
+            "org.slf4j:*"));
+
+      this.writeLibrary("junit", "junit");
+      Assert.assertEquals("junit:junit", filter.getMatch(this.createEntry(jar)));
+
+      this.writeLibrary("org.slf4j", "slf4j-api", "org.slf4j", "jul-to-slf4j");
+      Assert.assertEquals("org.slf4j:*", filter.getMatch(this.createEntry(jar)));
+
+      this.writeLibrary("org.acme", "ejb-module", "junit", "junit");
+      Assert.assertNull("Module shading a known library should not be matched", filter.getMatch(this
+            .createEntry(jar)));
+   }
+
+   /**
+    * Ensures that libraries without Maven metadata are matched by fingerprint
+    */
+   @Test
+   public void matchesFingerprint() throws IOException
+   {
+      this.writeLibrary();
+      final String fingerprint = this.fingerprint(jar);
+      Assert.assertEquals("sha1:" + fingerprint, new KnownLibraryExclusionFilter(Arrays.asList("junit:junit",
+            "SHA1:" + fingerprint.toUpperCase())).getMatch(this.createEntry(jar)));
+      Assert.assertNull(new KnownLibraryExclusionFilter(Arrays.asList("sha1:"
+            + fingerprint.replace(fingerprint.charAt(0), fingerprint.charAt(0) == 'a' ? 'b' : 'a')))
+            .getMatch(this.createEntry(jar)));
+   }
+
+   /**
+    * Ensures that malformed entries are rejected and that the shipped denylist is well-formed
+    */
+   @Test
+   public void validatesEntries()
+   {
+      for (final String malformed : new String[]
+      {"junit", "junit:", ":junit", "a:b:c", "sha1:1234"})
+      {
+         try
+         {
+            new KnownLibraryExclusionFilter(Arrays.asList(malformed));
+            Assert.fail("Should have rejected " + malformed);
+         }
+         catch (final IllegalArgumentException expected)
+         {
+            // Expected
+         }
+      }
+      Assert.assertFalse("Shipped denylist should not be empty", new KnownLibraryExclusionFilter(
+            KnownLibraryExclusionFilter.getShippedEntries()).isEmpty());
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Writes the archive with pom.properties for each of the specified groupId and artifactId pairs
+    */
+   private void writeLibrary(final String... coordinates) throws IOException
+   {
+      final Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+      entries.put("org/acme/Library.class", new byte[]
+      {(byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE});
+      for (int i = 0; i < coordinates.length; i += 2)
+      {
+         entries.put("META-INF/maven/" + coordinates[i] + "/" + coordinates[i + 1] + "/pom.properties",
+               ("groupId=" + coordinates[i] + "\nartifactId=" + coordinates[i + 1] + "\n").getBytes("UTF-8"));
+      }
+      JarWriter.writeJar(jar, null, entries);
+      // Ensure the rewrite is seen as a change even within the timestamp granularity
+      jar.setLastModified(jar.lastModified() + coordinates.length * 1000L);
+   }
+
+   /**
+    * Computes the hex-encoded SHA-1 fingerprint of the specified file
+    */
+   private String fingerprint(final File file) throws IOException
+   {
+      final MessageDigest md;
+      try
+      {
+         md = MessageDigest.getInstance("SHA-1");
+      }
+      catch (final NoSuchAlgorithmException nsae)
+      {
+         throw new IllegalStateException(nsae);
+      }
+      final InputStream in = new FileInputStream(file);
+      try
+      {
+         final byte[] buffer = new byte[8192];
+         int read = 0;
+         while ((read = in.read(buffer)) != -1)
+         {
+            md.update(buffer, 0, read);
+         }
+      }
+      finally
+      {
+         in.close();
+      }
+      return String.format("%040x", new BigInteger(1, md.digest()));
+   }
+
+   /**
+    * Creates an unmounted entry of the specified file
+    */
+   private ClassPathEntry createEntry(final File file)
+   {
+      return new ClassPathEntry()
+      {
+         public String getPath()
+         {
+            return file.getPath();
+         }
+
+         public File getFile()
+         {
+            return file;
+         }
+
+         public String getName()
+         {
+            return file.getName();
+         }
+
+         public long getSize()
+         {
+            return file.length();
+         }
+
+         public boolean isDirectory()
+         {
+            return file.isDirectory();
+         }
+
+         public Manifest getManifest()
+         {
+            return null;
+         }
+      };
+   }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.scanner.filter;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.jar.JarFile;
+
+import org.jboss.ejb3.embedded.impl.base.scanner.JarWriter;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Ensures that {@link ManifestHeaders} parses main attributes
+ * leniently and invalidates cached headers of changed entries
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class ManifestHeadersUnitTest
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures that continuation lines are joined, '=' is accepted as a delimiter,
+    * names are case-insensitive and only the main section is read
+    */
+   @Test
+   public void parsesMainAttributes() throws IOException
+   {
+      final String manifest = "Manifest-Version: 1.0\r\nBundle-SymbolicName: org.ecl\r\n ipse.core;singleton:=tr\r\n"
+            + " ue\r\nLegacy-Header=value\r\n\r\nName: com/acme/\r\nSealed: true\r\n";
+      final Map<String, String> headers = ManifestHeaders.parse(new ByteArrayInputStream(manifest.getBytes("UTF-8")));
+      Assert.assertEquals("org.eclipse.core;singleton:=true", headers.get("bundle-symbolicname"));
+      Assert.assertEquals("value", headers.get("Legacy-Header"));
+      Assert.assertNull("Should not have read beyond the main section", headers.get("Sealed"));
+      Assert.assertEquals(3, headers.size());
+   }
+
+   /**
+    * Ensures that headers of an archive are read again once it has changed
+    */
+   @Test
+   public void invalidatesChangedArchives() throws IOException
+   {
+      final File jar = File.createTempFile("manifest", ".jar");
+      try
+      {
+         JarWriter.writeJar(jar, JarFile.MANIFEST_NAME, "Bundle-SymbolicName: first\n".getBytes("UTF-8"));
+         Assert.assertEquals("first", ManifestHeaders.getMainAttributes(jar).get("Bundle-SymbolicName"));
+         JarWriter.writeJar(jar, JarFile.MANIFEST_NAME, "Bundle-SymbolicName: second.and.longer\n"
+               .getBytes("UTF-8"));
+         Assert.assertEquals("second.and.longer", ManifestHeaders.getMainAttributes(jar).get("Bundle-SymbolicName"));
+      }
+      finally
+      {
+         jar.delete();
+      }
+   }
+
+}
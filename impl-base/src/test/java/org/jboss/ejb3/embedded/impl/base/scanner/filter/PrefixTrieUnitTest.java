@@ -0,0 +1,81 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.scanner.filter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Ensures that the {@link PrefixTrie} matches names
+ * at segment boundaries only
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class PrefixTrieUnitTest
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures that a name added is a prefix of itself and of names below it only
+    */
+   @Test
+   public void matchesAtSegmentBoundaries()
+   {
+      final PrefixTrie trie = new PrefixTrie();
+      Assert.assertTrue("New trie should be empty", trie.isEmpty());
+      trie.add("org.hibernate");
+      trie.add("io.netty");
+      Assert.assertFalse(trie.isEmpty());
+
+      Assert.assertEquals("org.hibernate", trie.getPrefix("org.hibernate"));
+      Assert.assertEquals("org.hibernate", trie.getPrefix("org.hibernate.validator"));
+      Assert.assertEquals("io.netty", trie.getPrefix("io.netty"));
+      Assert.assertNull("Should not match within a segment", trie.getPrefix("org.hibernatex"));
+      Assert.assertNull("Should not match a parent", trie.getPrefix("org"));
+      Assert.assertNull(trie.getPrefix("com.acme"));
+   }
+
+   /**
+    * Ensures that the shortest prefix is returned, and that only 
+    * the requested range of segments is considered
+    */
+   @Test
+   public void matchesShortestPrefixInRange()
+   {
+      final PrefixTrie trie = new PrefixTrie();
+      trie.add("org.springframework.boot");
+      trie.add("org.springframework");
+      Assert.assertEquals("org.springframework", trie.getPrefix("org.springframework.boot"));
+
+      final String[] segments =
+      {"home", "org", "springframework", "boot"};
+      Assert.assertEquals("org.springframework", trie.getPrefix(segments, 1, 4));
+      Assert.assertNull("Should not consider segments before the range", trie.getPrefix(segments, 0, 4));
+      Assert.assertNull("Should not consider segments after the range", trie.getPrefix(segments, 1, 2));
+   }
+
+}
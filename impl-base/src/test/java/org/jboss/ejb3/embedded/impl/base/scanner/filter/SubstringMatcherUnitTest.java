@@ -0,0 +1,70 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.impl.base.scanner.filter;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Ensures that the {@link SubstringMatcher} finds any of its
+ * substrings within text, including those which overlap
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class SubstringMatcherUnitTest
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures that substrings are found wherever they occur, including
+    * where one is reached only through the suffix of a partial match of another
+    */
+   @Test
+   public void findsOverlappingSubstrings()
+   {
+      final SubstringMatcher matcher = new SubstringMatcher(Arrays.asList("he", "she", "hers", "org.eclipse"));
+      Assert.assertEquals("she", matcher.find("ushers"));
+      Assert.assertEquals("he", matcher.find("ahem"));
+      Assert.assertEquals("org.eclipse", matcher.find("org.eorg.eclipse.core"));
+      Assert.assertNull("Should not have matched", matcher.find("org.jboss.ejb3"));
+      Assert.assertNull("Should not have matched empty text", matcher.find(""));
+   }
+
+   /**
+    * Ensures that an empty substring matches all text, and no substrings match none
+    */
+   @Test
+   public void handlesDegenerateSubstrings()
+   {
+      Assert.assertEquals("", new SubstringMatcher(Arrays.asList("x", "")).find("abc"));
+      Assert.assertNull(new SubstringMatcher(Collections.<String> emptyList()).find("abc"));
+   }
+
+}
@@ -0,0 +1,259 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.ejb3.embedded.index.processor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbModuleIndexFile;
+
+/**
+ * Annotation Processor which writes the EJB module index 
+ * ({@link EjbModuleIndexFile#PATH}) listing all classes in the 
+ * compilation bearing an EJB component-defining annotation
+ * (Stateless, Stateful, Singleton, MessageDriven).  A module
+ * without any such classes receives an empty index, marking it
+ * as containing no EJBs, such that the ClassPath scanner may 
+ * reject it without inspecting its classes.
+ * 
+ * Any index already present in the class output (ie. from a previous
+ * incremental compilation) is merged into the new one, so classes not
+ * recompiled are never dropped from the index.  Entries of the previous
+ * index for types compiled anew, or nested within them, are replaced by
+ * what's found in this compilation, and those whose class file is gone
+ * are dropped, such that the index never lists a class which is no longer
+ * a component.  The processor claims
+ * no annotations, and so does not interfere with other processors.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+@SupportedAnnotationTypes("*")
+public class EjbModuleIndexProcessor extends AbstractProcessor
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Names of the EJB component-defining annotations
+    */
+   private static final String[] COMPONENT_ANNOTATIONS =
+   {"javax.ejb.Stateless", "javax.ejb.Stateful", "javax.ejb.Singleton", "javax.ejb.MessageDriven"};
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Binary names of the component classes found in all rounds thus far
+    */
+   private final SortedSet<String> componentClasses = new TreeSet<String>();
+
+   /**
+    * Binary names of the top-level types compiled in all rounds thus far
+    */
+   private final Set<String> compiledTypes = new HashSet<String>();
+
+   //-------------------------------------------------------------------------------------||
+   // Required Implementations -----------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * {@inheritDoc}
+    * @see javax.annotation.processing.AbstractProcessor#getSupportedSourceVersion()
+    */
+   @Override
+   public SourceVersion getSupportedSourceVersion()
+   {
+      // We only inspect annotations on types, so are not bound to any language version
+      return SourceVersion.latestSupported();
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see javax.annotation.processing.AbstractProcessor#process(java.util.Set, javax.annotation.processing.RoundEnvironment)
+    */
+   @Override
+   public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv)
+   {
+      if (roundEnv.processingOver())
+      {
+         // Don't write an index which may be incomplete
+         if (!roundEnv.errorRaised())
+         {
+            this.writeIndex();
+         }
+         return false;
+      }
+
+      // Note what's compiled anew, as its entries in any previous index are to be replaced
+      final Elements elements = processingEnv.getElementUtils();
+      for (final TypeElement type : ElementFilter.typesIn(roundEnv.getRootElements()))
+      {
+         TypeElement topLevel = type;
+         while (topLevel.getEnclosingElement() instanceof TypeElement)
+         {
+            topLevel = (TypeElement) topLevel.getEnclosingElement();
+         }
+         compiledTypes.add(elements.getBinaryName(topLevel).toString());
+      }
+
+      for (final String annotationName : COMPONENT_ANNOTATIONS)
+      {
+         // If the EJB API isn't visible to this compilation, nothing may bear the annotation
+         final TypeElement annotation = elements.getTypeElement(annotationName);
+         if (annotation == null)
+         {
+            continue;
+         }
+
+         for (final Element element : roundEnv.getElementsAnnotatedWith(annotation))
+         {
+            if (element.getKind() == ElementKind.CLASS)
+            {
+               componentClasses.add(elements.getBinaryName((TypeElement) element).toString());
+            }
+         }
+      }
+
+      // Never claim, others may be interested
+      return false;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Writes the index of all component classes found, merged with 
+    * any index from a previous compilation
+    */
+   private void writeIndex()
+   {
+      final Filer filer = processingEnv.getFiler();
+      this.readPreviousIndex(filer);
+      try
+      {
+         final FileObject index = filer.createResource(StandardLocation.CLASS_OUTPUT, "", EjbModuleIndexFile.PATH);
+         final Writer writer = index.openWriter();
+         try
+         {
+            EjbModuleIndexFile.write(componentClasses, writer);
+         }
+         finally
+         {
+            writer.close();
+         }
+      }
+      catch (final IOException ioe)
+      {
+         processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+               "Could not write EJB module index " + EjbModuleIndexFile.PATH + ": " + ioe.getMessage());
+      }
+   }
+
+   /**
+    * Adds the component classes listed by any index left in the class 
+    * output by a previous compilation, but for those compiled anew or
+    * whose class file no longer exists
+    */
+   private void readPreviousIndex(final Filer filer)
+   {
+      try
+      {
+         final FileObject previous = filer.getResource(StandardLocation.CLASS_OUTPUT, "", EjbModuleIndexFile.PATH);
+         final Reader reader = previous.openReader(true);
+         try
+         {
+            for (final String className : EjbModuleIndexFile.read(reader))
+            {
+               if (!this.isCompiled(className) && isClassOutput(filer, className))
+               {
+                  componentClasses.add(className);
+               }
+            }
+         }
+         finally
+         {
+            reader.close();
+         }
+      }
+      catch (final IOException ioe)
+      {
+         // No previous index; this is a clean compilation
+      }
+   }
+
+   /**
+    * Returns whether the class of the specified binary name is, or is nested
+    * within, a type compiled anew
+    */
+   private boolean isCompiled(final String className)
+   {
+      final int nested = className.indexOf('$');
+      return compiledTypes.contains(className)
+            || (nested > 0 && compiledTypes.contains(className.substring(0, nested)));
+   }
+
+   /**
+    * Returns whether the class file of the specified binary name is in the class output
+    */
+   private static boolean isClassOutput(final Filer filer, final String className)
+   {
+      try
+      {
+         final InputStream in = filer.getResource(StandardLocation.CLASS_OUTPUT, "",
+               className.replace('.', '/') + ".class").openInputStream();
+         in.close();
+         return true;
+      }
+      catch (final IOException ioe)
+      {
+         return false;
+      }
+   }
+
+}
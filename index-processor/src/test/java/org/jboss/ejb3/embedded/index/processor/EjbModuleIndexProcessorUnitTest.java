@@ -0,0 +1,238 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.ejb3.embedded.index.processor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbModuleIndexFile;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Ensures that the {@link EjbModuleIndexProcessor} writes an index
+ * listing the EJB component classes of a compilation
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class EjbModuleIndexProcessorUnitTest
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Class output of the compilations under test
+    */
+   private File outputDir;
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates the class output directory
+    */
+   @Before
+   public void createOutputDir() throws IOException
+   {
+      outputDir = File.createTempFile("indexprocessor", "");
+      outputDir.delete();
+      outputDir.mkdirs();
+   }
+
+   /**
+    * Removes the class output directory
+    */
+   @After
+   public void deleteOutputDir()
+   {
+      this.delete(outputDir);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures that only component classes are indexed, by binary name
+    */
+   @Test
+   public void indexesComponentClasses() throws IOException
+   {
+      this.compile(source("org.acme.Greeter", "@javax.ejb.Stateless public class Greeter {"
+            + " @javax.ejb.Singleton public static class Nested {} }"), source("org.acme.Plain",
+            "public class Plain {}"));
+
+      Assert.assertEquals("Component classes not indexed as expected", Arrays.asList("org.acme.Greeter",
+            "org.acme.Greeter$Nested"), this.readIndex());
+   }
+
+   /**
+    * Ensures that a module without components is marked as such
+    */
+   @Test
+   public void marksModuleWithoutComponents() throws IOException
+   {
+      this.compile(source("org.acme.Plain", "public class Plain {}"));
+
+      Assert.assertEquals("Module without EJBs should receive an empty index", Collections.emptyList(), this
+            .readIndex());
+   }
+
+   /**
+    * Ensures that an incremental compilation does not drop classes 
+    * indexed by a previous compilation
+    */
+   @Test
+   public void mergesPreviousIndex() throws IOException
+   {
+      this.compile(source("org.acme.Greeter", "@javax.ejb.Stateful public class Greeter {}"));
+      this.compile(source("org.acme.Plain", "public class Plain {}"));
+
+      Assert.assertEquals("Previously indexed classes should be retained", Arrays.asList("org.acme.Greeter"), this
+            .readIndex());
+   }
+
+   /**
+    * Ensures that a class recompiled without its annotations, and those
+    * nested within it, are dropped from a previous index
+    */
+   @Test
+   public void prunesRecompiledClasses() throws IOException
+   {
+      this.compile(source("org.acme.Greeter", "@javax.ejb.Stateless public class Greeter {"
+            + " @javax.ejb.Singleton public static class Inner {} }"), source("org.acme.Counter",
+            "@javax.ejb.Singleton public class Counter {}"));
+      this.compile(source("org.acme.Greeter", "public class Greeter { public static class Inner {} }"));
+
+      Assert.assertEquals("Classes no longer components should be dropped", Arrays.asList("org.acme.Counter"), this
+            .readIndex());
+   }
+
+   /**
+    * Ensures that a class whose class file was deleted is dropped from a previous index
+    */
+   @Test
+   public void prunesDeletedClasses() throws IOException
+   {
+      this.compile(source("org.acme.Greeter", "@javax.ejb.Stateless public class Greeter {}"));
+      Assert.assertTrue(new File(outputDir, "org/acme/Greeter.class").delete());
+      this.compile(source("org.acme.Plain", "public class Plain {}"));
+
+      Assert.assertEquals("Deleted classes should be dropped", Collections.emptyList(), this.readIndex());
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Compiles the specified sources into the output directory with 
+    * the processor under test
+    */
+   private void compile(final JavaFileObject... sources)
+   {
+      final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+      final List<String> options = new ArrayList<String>();
+      options.add("-d");
+      options.add(outputDir.getAbsolutePath());
+      options.add("-classpath");
+      options.add(System.getProperty("java.class.path"));
+      final JavaCompiler.CompilationTask task = compiler.getTask(null, null, null, options, null, Arrays
+            .asList(sources));
+      task.setProcessors(Collections.singletonList(new EjbModuleIndexProcessor()));
+      Assert.assertTrue("Compilation failed", task.call());
+   }
+
+   /**
+    * Reads the index written to the output directory
+    */
+   private List<String> readIndex() throws IOException
+   {
+      final File index = new File(outputDir, EjbModuleIndexFile.PATH);
+      Assert.assertTrue("Index should have been written", index.isFile());
+      final Reader reader = new InputStreamReader(new FileInputStream(index), EjbModuleIndexFile.CHARSET);
+      try
+      {
+         return EjbModuleIndexFile.read(reader);
+      }
+      finally
+      {
+         reader.close();
+      }
+   }
+
+   /**
+    * Recursively deletes the specified file
+    */
+   private void delete(final File file)
+   {
+      final File[] children = file.listFiles();
+      if (children != null)
+      {
+         for (final File child : children)
+         {
+            this.delete(child);
+         }
+      }
+      file.delete();
+   }
+
+   /**
+    * Creates an in-memory source of the specified class, declared in its package
+    */
+   private static JavaFileObject source(final String className, final String body)
+   {
+      final int lastDot = className.lastIndexOf('.');
+      final String contents = "package " + className.substring(0, lastDot) + "; " + body;
+      return new SimpleJavaFileObject(URI.create("string:///" + className.replace('.', '/')
+            + JavaFileObject.Kind.SOURCE.extension), JavaFileObject.Kind.SOURCE)
+      {
+         @Override
+         public CharSequence getCharContent(final boolean ignoreEncodingErrors)
+         {
+            return contents;
+         }
+      };
+   }
+
+}
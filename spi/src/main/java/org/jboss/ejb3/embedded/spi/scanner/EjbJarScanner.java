@@ -0,0 +1,66 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.ejb3.embedded.spi.scanner;
+
+import java.io.Closeable;
+import java.util.List;
+
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbModuleIndex;
+
+/**
+ * Strategy by which the EJB JAR modules to be deployed are found when 
+ * none are explicitly specified, as defined by EJB 3.1 Final Draft 22.2.1.
+ * Instances are created by a {@link ScannerProvider} for each container, 
+ * are owned by it, and are {@link EjbJarScanner#close()}d along with it.
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public interface EjbJarScanner extends Closeable
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Contracts --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Scans for EJB JAR modules, notifying the specified listener, if any, of 
+    * each as soon as it's discovered, in the calling Thread.  Any exception thrown 
+    * by the listener stops the scan and is propagated.
+    * 
+    * @param full Whether the index of each module is to list all of its components;
+    *   if not, the scanner may stop reading a module once it qualifies
+    * @param listener Listener of modules as they're discovered; may be null
+    * @return The EJB JAR modules found, in ClassPath order
+    * @throws IllegalStateException If this scanner has been closed
+    */
+   List<EjbModuleIndex> scan(boolean full, EjbModuleListener listener) throws IllegalStateException;
+
+   /**
+    * Releases any resources held by this scanner.  Subsequent scans are 
+    * not permitted.  Repeated calls have no effect.
+    */
+   void close();
+
+}
@@ -0,0 +1,52 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.ejb3.embedded.spi.scanner;
+
+import org.jboss.ejb3.embedded.spi.scanner.index.EjbModuleIndex;
+
+/**
+ * Callback notified by an {@link EjbJarScanner} of each
+ * EJB JAR module as soon as it has been discovered, such that 
+ * modules may be acted upon (ie. deployed) while the remainder
+ * of the ClassPath is still being scanned.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ * @see EjbJarScanner#scan(boolean, EjbModuleListener)
+ */
+public interface EjbModuleListener
+{
+   //-------------------------------------------------------------------------------------||
+   // Contracts --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Invoked upon discovery of an EJB JAR module.  Any exception thrown 
+    * will stop the scan and be propagated to its caller.
+    * 
+    * @param module Index of the module; lists all of its components only if
+    * the scan is to index in full
+    */
+   void moduleDiscovered(EjbModuleIndex module);
+}
@@ -0,0 +1,59 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.ejb3.embedded.spi.scanner;
+
+import java.util.Map;
+
+/**
+ * Creates the {@link EjbJarScanner} used by each container in finding 
+ * its modules, such that alternate scanning strategies (ie. relying on
+ * build-time indexes, cached or parallel) may be plugged in.  A provider is 
+ * obtained from the container property (or system property) 
+ * "org.jboss.ejb3.embedded.scan.provider", given as an instance or
+ * the name of a class with a no-arg constructor; else from the first
+ * registered in "META-INF/services/org.jboss.ejb3.embedded.spi.scanner.ScannerProvider"
+ * as seen by the Thread Context ClassLoader; else the ClassPath scanner
+ * of the implementation is used.  Implementations must be thread-safe.
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ * @see java.util.ServiceLoader
+ */
+public interface ScannerProvider
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Contracts --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new scanner configured by the specified properties
+    * @param properties Properties used in creating the container, from which 
+    *   the scanner may take its configuration
+    * @throws IllegalArgumentException If the properties are not specified, 
+    *   or are not a valid configuration
+    */
+   EjbJarScanner createScanner(Map<?, ?> properties) throws IllegalArgumentException;
+
+}
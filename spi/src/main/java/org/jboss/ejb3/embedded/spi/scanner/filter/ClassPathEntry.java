@@ -0,0 +1,75 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.spi.scanner.filter;
+
+import java.io.File;
+import java.util.jar.Manifest;
+
+/**
+ * View of a ClassPath entry (an exploded directory or a JAR) offering
+ * metadata which is cheap to obtain before the entry is mounted or its
+ * classes are read, as given to a {@link PreMountExclusionFilter}.
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public interface ClassPathEntry
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Contracts --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Returns the path of the entry, as it appeared on the ClassPath
+    */
+   String getPath();
+
+   /**
+    * Returns the entry as a {@link File}
+    */
+   File getFile();
+
+   /**
+    * Returns the file name of the entry, ie. "hibernate-core-3.5.0.jar"
+    */
+   String getName();
+
+   /**
+    * Returns the size of the entry in bytes, or 0 if the entry is a directory
+    */
+   long getSize();
+
+   /**
+    * Returns whether the entry is an exploded directory rather than an archive
+    */
+   boolean isDirectory();
+
+   /**
+    * Returns the manifest (META-INF/MANIFEST.MF) of the entry, or null if the entry has
+    * none or it could not be read.  For archives the manifest is read directly from the
+    * ZIP, without mounting.  It's read upon the first call only.
+    */
+   Manifest getManifest();
+
+}
@@ -0,0 +1,54 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.spi.scanner.filter;
+
+/**
+ * {@link ExclusionFilter} which may also exclude ClassPath entries
+ * before they are mounted, based upon cheap metadata (path, name, size and
+ * manifest) of the entry.  Scanning is in two phases: each entry is first
+ * given to {@link PreMountExclusionFilter#exclude(ClassPathEntry)}, sparing
+ * the cost of mounting and reading any entry excluded; {@link ExclusionFilter#exclude(org.jboss.vfs.VirtualFile)}
+ * is then applied as before to the mounted entry, if it otherwise qualifies
+ * as an EJB JAR.  Implementations should exclude in the first phase whatever
+ * they can.
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public interface PreMountExclusionFilter extends ExclusionFilter
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Contracts --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Returns whether this ClassPath entry, which has not been mounted,
+    * should be excluded from scanning for EJB resources.  The criteria whereby
+    * an entry is excluded is up to the implementation.
+    * @param entry The entry to inspect for exclusion properties
+    * @throws IllegalArgumentException If the entry is not specified
+    */
+   boolean exclude(ClassPathEntry entry) throws IllegalArgumentException;
+
+}
@@ -0,0 +1,199 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.ejb3.embedded.spi.scanner.index;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable description of an EJB component class as read from its 
+ * bytecode by the ClassPath scanner: the bean class, its type, and the
+ * business interfaces declared by or defaulted from the bean class 
+ * (EJB 3.1 4.9.7).  Views declared only upon the interfaces themselves
+ * (ie. an interface annotated @Remote) are not reflected here, as the
+ * interfaces are not read.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public final class EjbComponentMetadata implements Serializable
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * serialVersionUID
+    */
+   private static final long serialVersionUID = 1L;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Fully-qualified name of the bean class
+    */
+   private final String className;
+
+   /**
+    * Type of the component
+    */
+   private final EjbComponentType type;
+
+   /**
+    * Fully-qualified names of the local business interfaces
+    */
+   private final List<String> localBusinessInterfaces;
+
+   /**
+    * Fully-qualified names of the remote business interfaces
+    */
+   private final List<String> remoteBusinessInterfaces;
+
+   /**
+    * Whether the bean exposes a no-interface view
+    */
+   private final boolean noInterfaceView;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new instance
+    * 
+    * @param className Fully-qualified name of the bean class
+    * @param type Type of the component
+    * @param localBusinessInterfaces Fully-qualified names of the local business interfaces; may be null
+    * @param remoteBusinessInterfaces Fully-qualified names of the remote business interfaces; may be null
+    * @param noInterfaceView Whether the bean exposes a no-interface view
+    * @throws IllegalArgumentException If the class name or type is not specified
+    */
+   public EjbComponentMetadata(final String className, final EjbComponentType type,
+         final List<String> localBusinessInterfaces, final List<String> remoteBusinessInterfaces,
+         final boolean noInterfaceView) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (className == null || className.length() == 0)
+      {
+         throw new IllegalArgumentException("class name must be specified");
+      }
+      if (type == null)
+      {
+         throw new IllegalArgumentException("type must be specified");
+      }
+
+      // Set
+      this.className = className;
+      this.type = type;
+      this.localBusinessInterfaces = copy(localBusinessInterfaces);
+      this.remoteBusinessInterfaces = copy(remoteBusinessInterfaces);
+      this.noInterfaceView = noInterfaceView;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Accessors --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Returns the fully-qualified name of the bean class
+    * @return the className
+    */
+   public String getClassName()
+   {
+      return className;
+   }
+
+   /**
+    * Returns the type of the component
+    * @return the type
+    */
+   public EjbComponentType getType()
+   {
+      return type;
+   }
+
+   /**
+    * Returns an immutable view of the fully-qualified names of the 
+    * local business interfaces
+    * @return the localBusinessInterfaces
+    */
+   public List<String> getLocalBusinessInterfaces()
+   {
+      return localBusinessInterfaces;
+   }
+
+   /**
+    * Returns an immutable view of the fully-qualified names of the
+    * remote business interfaces
+    * @return the remoteBusinessInterfaces
+    */
+   public List<String> getRemoteBusinessInterfaces()
+   {
+      return remoteBusinessInterfaces;
+   }
+
+   /**
+    * Returns whether the bean exposes a no-interface view, either 
+    * declared via @LocalBean or by default
+    * @return the noInterfaceView
+    */
+   public boolean isNoInterfaceView()
+   {
+      return noInterfaceView;
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return this.getClass().getSimpleName() + " [className=" + className + ", type=" + type
+            + ", localBusinessInterfaces=" + localBusinessInterfaces + ", remoteBusinessInterfaces="
+            + remoteBusinessInterfaces + ", noInterfaceView=" + noInterfaceView + "]";
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Returns an immutable copy of the specified list, or an empty list if null
+    */
+   private static List<String> copy(final List<String> original)
+   {
+      if (original == null || original.isEmpty())
+      {
+         return Collections.emptyList();
+      }
+      return Collections.unmodifiableList(new ArrayList<String>(original));
+   }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.spi.scanner.index;
+
+import java.lang.annotation.Annotation;
+
+import javax.ejb.MessageDriven;
+import javax.ejb.Singleton;
+import javax.ejb.Stateful;
+import javax.ejb.Stateless;
+
+/**
+ * The EJB component types which may be identified by
+ * a component-defining annotation (EJB 3.1 22.2.1)
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public enum EjbComponentType {
+
+   STATELESS(Stateless.class), STATEFUL(Stateful.class), SINGLETON(Singleton.class), MESSAGE_DRIVEN(
+         MessageDriven.class);
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * The component-defining annotation
+    */
+   private final Class<? extends Annotation> annotation;
+
+   /**
+    * The JVM type descriptor of the annotation (ie. "Ljavax/ejb/Stateless;")
+    * as it appears in the constant pool of an annotated class
+    */
+   private final String descriptor;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private EjbComponentType(final Class<? extends Annotation> annotation)
+   {
+      this.annotation = annotation;
+      this.descriptor = 'L' + annotation.getName().replace('.', '/') + ';';
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Accessors --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Returns the component-defining annotation
+    * @return the annotation
+    */
+   public Class<? extends Annotation> getAnnotation()
+   {
+      return annotation;
+   }
+
+   /**
+    * Returns the JVM type descriptor of the component-defining annotation
+    * @return the descriptor
+    */
+   public String getDescriptor()
+   {
+      return descriptor;
+   }
+
+}
@@ -0,0 +1,211 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.ejb3.embedded.spi.scanner.index;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable index of the EJB components within a single module, 
+ * produced by the ClassPath scanner in its one pass over the module's
+ * bytes.  The index is attached to the module's deployment under
+ * the type {@link EjbModuleIndex} such that deployers may consume it
+ * rather than reading the classes again:
+ * 
+ * <pre>
+ * EjbModuleIndex index = unit.getAttachment(EjbModuleIndex.class);
+ * </pre>
+ * 
+ * A module may qualify as an EJB module by its descriptor alone, in
+ * which case the index may contain no components.  If the descriptor
+ * is metadata-complete, the index lists the components it declares and
+ * the module's classes were not read for annotations.
+ * <p>
+ * A module nested within an archive on the ClassPath is given by the path
+ * of the archive and that of the module within it, joined by
+ * {@link #SEPARATOR_NESTED}, eg. "app.jar!/lib/ejbs.jar".  Such a module
+ * may only be deployed once the archive has been mounted.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public final class EjbModuleIndex implements Serializable
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * serialVersionUID
+    */
+   private static final long serialVersionUID = 1L;
+
+   /**
+    * Separator of the path of an archive and that of a module nested within it
+    */
+   public static final String SEPARATOR_NESTED = "!/";
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Path of the module, as it appeared on the ClassPath, or that of the 
+    * enclosing archive and of the module within it if nested
+    */
+   private final String path;
+
+   /**
+    * Whether the module contains an EJB descriptor
+    */
+   private final boolean descriptorPresent;
+
+   /**
+    * Whether the EJB descriptor is metadata-complete, such that annotations are to be ignored
+    */
+   private final boolean metadataComplete;
+
+   /**
+    * The components of the module
+    */
+   private final List<EjbComponentMetadata> components;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new instance
+    * 
+    * @param path Path of the module, as it appeared on the ClassPath
+    * @param descriptorPresent Whether the module contains META-INF/ejb-jar.xml
+    * @param components The components of the module; may be null
+    * @throws IllegalArgumentException If the path is not specified
+    */
+   public EjbModuleIndex(final String path, final boolean descriptorPresent,
+         final List<EjbComponentMetadata> components) throws IllegalArgumentException
+   {
+      this(path, descriptorPresent, false, components);
+   }
+
+   /**
+    * Creates a new instance
+    * 
+    * @param path Path of the module, as it appeared on the ClassPath
+    * @param descriptorPresent Whether the module contains META-INF/ejb-jar.xml
+    * @param metadataComplete Whether the descriptor is metadata-complete
+    * @param components The components of the module; may be null
+    * @throws IllegalArgumentException If the path is not specified, or the descriptor
+    *   is metadata-complete but not present
+    */
+   public EjbModuleIndex(final String path, final boolean descriptorPresent, final boolean metadataComplete,
+         final List<EjbComponentMetadata> components) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (path == null || path.length() == 0)
+      {
+         throw new IllegalArgumentException("path must be specified");
+      }
+      if (metadataComplete && !descriptorPresent)
+      {
+         throw new IllegalArgumentException("descriptor must be present if metadata-complete");
+      }
+
+      // Set
+      this.path = path;
+      this.descriptorPresent = descriptorPresent;
+      this.metadataComplete = metadataComplete;
+      this.components = components == null || components.isEmpty() ? Collections
+            .<EjbComponentMetadata> emptyList() : Collections.unmodifiableList(new ArrayList<EjbComponentMetadata>(
+            components));
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Accessors --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Returns the path of the module, as it appeared on the ClassPath, or 
+    * that of the enclosing archive and of the module within it if nested
+    * @return the path
+    * @see #SEPARATOR_NESTED
+    */
+   public String getPath()
+   {
+      return path;
+   }
+
+   /**
+    * Returns whether the module is nested within an archive on the ClassPath
+    * @return whether the path denotes a module within an archive
+    * @see #SEPARATOR_NESTED
+    */
+   public boolean isNested()
+   {
+      return path.indexOf(SEPARATOR_NESTED) >= 0;
+   }
+
+   /**
+    * Returns whether the module contains META-INF/ejb-jar.xml
+    * @return the descriptorPresent
+    */
+   public boolean isDescriptorPresent()
+   {
+      return descriptorPresent;
+   }
+
+   /**
+    * Returns whether the EJB descriptor is metadata-complete, in which case
+    * the components are those it declares and annotations are to be ignored
+    * @return the metadataComplete
+    */
+   public boolean isMetadataComplete()
+   {
+      return metadataComplete;
+   }
+
+   /**
+    * Returns an immutable view of the components of the module
+    * @return the components
+    */
+   public List<EjbComponentMetadata> getComponents()
+   {
+      return components;
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return this.getClass().getSimpleName() + " [path=" + path + ", descriptorPresent=" + descriptorPresent
+            + ", metadataComplete=" + metadataComplete + ", components=" + components + "]";
+   }
+
+}
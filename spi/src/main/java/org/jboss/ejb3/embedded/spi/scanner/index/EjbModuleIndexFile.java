@@ -0,0 +1,161 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.ejb3.embedded.spi.scanner.index;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Defines the format of the EJB module index written at build time
+ * to {@link EjbModuleIndexFile#PATH} within a module.  The index lists 
+ * the fully-qualified names of all EJB component classes in the module,
+ * one per line, such that ClassPath scanners may trust the index rather
+ * than inspecting the classes of the module.  An index listing no classes
+ * marks a module as containing no EJB components.
+ * 
+ * Lines beginning with {@link EjbModuleIndexFile#COMMENT} are ignored.
+ * This is a static utility class which is not to be instantiated.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public final class EjbModuleIndexFile
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Path of the index, relative to the root of a module
+    */
+   public static final String PATH = "META-INF/jboss-ejb-embedded.idx";
+
+   /**
+    * Charset in which the index is encoded
+    */
+   public static final Charset CHARSET = Charset.forName("UTF-8");
+
+   /**
+    * Prefix of lines to be ignored
+    */
+   public static final char COMMENT = '#';
+
+   /**
+    * Header written as the first line of the index
+    */
+   private static final String HEADER = COMMENT + " JBoss Embedded EJB module index; one component class per line";
+
+   /**
+    * Line separator used in writing
+    */
+   private static final char NEWLINE = '\n';
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Internal Constructor, no instances permitted
+    */
+   private EjbModuleIndexFile()
+   {
+      throw new UnsupportedOperationException("No instances permitted");
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Reads the names of the EJB component classes listed in the index.
+    * The reader is not closed.
+    * 
+    * @param reader
+    * @return An immutable view of the component class names; empty if the module contains no EJBs
+    * @throws IOException If an error occurred in reading
+    * @throws IllegalArgumentException If the reader is not specified
+    */
+   public static List<String> read(final Reader reader) throws IOException, IllegalArgumentException
+   {
+      // Precondition checks
+      if (reader == null)
+      {
+         throw new IllegalArgumentException("reader must be specified");
+      }
+
+      final List<String> classNames = new ArrayList<String>();
+      final BufferedReader buffered = new BufferedReader(reader);
+      String line = null;
+      while ((line = buffered.readLine()) != null)
+      {
+         line = line.trim();
+         if (line.length() > 0 && line.charAt(0) != COMMENT)
+         {
+            classNames.add(line);
+         }
+      }
+      return Collections.unmodifiableList(classNames);
+   }
+
+   /**
+    * Writes an index listing the specified EJB component classes.  The
+    * writer is flushed but not closed.
+    * 
+    * @param classNames The component class names; if empty, the index will 
+    * mark the module as containing no EJBs
+    * @param writer
+    * @throws IOException If an error occurred in writing
+    * @throws IllegalArgumentException If either argument is not specified
+    */
+   public static void write(final Collection<String> classNames, final Writer writer) throws IOException,
+         IllegalArgumentException
+   {
+      // Precondition checks
+      if (classNames == null)
+      {
+         throw new IllegalArgumentException("class names must be specified");
+      }
+      if (writer == null)
+      {
+         throw new IllegalArgumentException("writer must be specified");
+      }
+
+      writer.write(HEADER);
+      writer.write(NEWLINE);
+      for (final String className : classNames)
+      {
+         writer.write(className);
+         writer.write(NEWLINE);
+      }
+      writer.flush();
+   }
+
+}